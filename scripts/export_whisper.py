@@ -0,0 +1,230 @@
+"""
+Export the Whisper model files used by whisper-java from a huggingface checkpoint.
+
+Produces the three traced TorchScript modules with the I/O signature expected by ``Whisper3``:
+
+* ``whisper_v3_encoder.pt``: mel features (1, n_mels, 3000) -> encoder output
+* ``whisper_v3_decoder_cross_attention_initializer.pt``: encoder output -> flat list of
+  cross-attention keys and values, two per decoder layer
+* ``whisper_v3_decoder.pt``: (token ids, encoder output, flat key value cache) -> (logits, flat key value cache)
+
+Usage::
+
+    python export_whisper.py --output ./model --quantize int8
+
+With ``--quantize int8``, the linear layers of the encoder and decoder are dynamically quantized to int8 and the
+modules are traced in FP32 on CPU. The artifacts get the ``_int8`` suffix, e.g. ``whisper_v3_encoder_int8.pt``,
+and are loaded by ``Whisper3Quantization.INT8_DYNAMIC``. With ``--quantize fp32``, the modules are traced unquantized
+in FP32 on CPU with the ``_fp32`` suffix, loaded by ``Whisper3Quantization.FP32``, e.g. to check the parity of the
+TorchScript and the ONNX models without the differences of their int8 quantization.
+
+Next to the modules, ``whisper_config.json`` describes the checkpoint (decoder layers, attention heads, mel bins,
+suppressed tokens), so smaller checkpoints with the large-v3 vocabulary, e.g. ``openai/whisper-large-v3-turbo`` or
+``distil-whisper/distil-large-v3``, load through the same API::
+
+    python export_whisper.py --model openai/whisper-large-v3-turbo --output ./turbo
+
+With ``--format onnx``, the modules are exported as ONNX models (``whisper_v3_encoder_int8.onnx`` etc.) with dynamic
+token and cache lengths, to be run by ``Whisper3Engine.ONNX_RUNTIME``. With ``--quantize int8``, the FP32 ONNX models
+are dynamically quantized by ONNX Runtime instead of PyTorch::
+
+    python export_whisper.py --output ./model --format onnx --quantize int8
+
+With ``--multi-token``, the decoder is traced with several input tokens and the eager attention implementation, so
+the causal mask is part of the traced graph. Such a decoder accepts any number of tokens per pass; the descriptor
+declares it with ``"multiTokenDecoder": true``, so prompts are fed in a single pass.
+
+With ``--batch-decoder``, the traced decoder is checked on a batch of distinct sequences against each sequence on its
+own, and the descriptor declares ``"batchDecoder": true`` if it passes, so variants of the same audio are decoded as
+one batch. Without it, or for ONNX models, which are exported for a batch of one, variants are decoded one after
+another.
+"""
+import argparse
+import json
+import os
+
+import torch
+from transformers import WhisperForConditionalGeneration
+
+
+class Encoder(torch.nn.Module):
+    def __init__(self, model):
+        super().__init__()
+        self.encoder = model.model.encoder
+
+    def forward(self, input_features):
+        return self.encoder(input_features).last_hidden_state
+
+
+class CrossAttentionInitializer(torch.nn.Module):
+    def __init__(self, model):
+        super().__init__()
+        self.layers = model.model.decoder.layers
+
+    def forward(self, encoder_output):
+        batch, length, _ = encoder_output.shape
+        cache = []
+        for layer in self.layers:
+            attention = layer.encoder_attn
+            key = attention.k_proj(encoder_output)
+            value = attention.v_proj(encoder_output)
+            cache.append(key.view(batch, length, attention.num_heads, attention.head_dim).transpose(1, 2))
+            cache.append(value.view(batch, length, attention.num_heads, attention.head_dim).transpose(1, 2))
+        return tuple(cache)
+
+
+class Decoder(torch.nn.Module):
+    def __init__(self, model):
+        super().__init__()
+        self.decoder = model.model.decoder
+        self.proj_out = model.proj_out
+
+    def forward(self, input_ids, encoder_output, *flat_cache):
+        past = tuple(tuple(flat_cache[i:i + 4]) for i in range(0, len(flat_cache), 4))
+        output = self.decoder(input_ids=input_ids, encoder_hidden_states=encoder_output,
+                              past_key_values=past, use_cache=True)
+        logits = self.proj_out(output.last_hidden_state)
+        return (logits,) + tuple(tensor for layer in output.past_key_values for tensor in layer)
+
+
+def main():
+    parser = argparse.ArgumentParser()
+    parser.add_argument("--model", default="openai/whisper-large-v3")
+    parser.add_argument("--output", required=True)
+    parser.add_argument("--quantize", choices=["none", "int8", "fp32"], default="none")
+    parser.add_argument("--multi-token", action="store_true")
+    parser.add_argument("--batch-decoder", action="store_true")
+    parser.add_argument("--format", choices=["torchscript", "onnx"], default="torchscript")
+    args = parser.parse_args()
+    onnx = args.format == "onnx"
+    if onnx and args.batch_decoder:
+        parser.error("--batch-decoder is only supported for TorchScript, ONNX models are exported for a batch of one")
+
+    quantized = args.quantize == "int8"
+    cpu = args.quantize != "none"
+    device = "cpu" if cpu else "cuda"
+    dtype = torch.float32 if cpu else torch.float16
+    suffix = {"none": "", "int8": "_int8", "fp32": "_fp32"}[args.quantize]
+
+    attention = {"attn_implementation": "eager"} if args.multi_token else {}
+    model = WhisperForConditionalGeneration.from_pretrained(args.model, torch_dtype=torch.float32, **attention).eval()
+    if quantized and not onnx:
+        model = torch.ao.quantization.quantize_dynamic(model, {torch.nn.Linear}, dtype=torch.qint8)
+    else:
+        # ONNX models are quantized by ONNX Runtime after the export
+        model = model.to(device, dtype)
+
+    config = model.config
+    head_dim = config.d_model // config.decoder_attention_heads
+    features = torch.zeros(1, config.num_mel_bins, 3000, dtype=dtype, device=device)
+    if args.multi_token:
+        # <|startofprev|> and some text tokens, traced with the causal mask of more than one token
+        tokens = torch.tensor([[50362, 440, 1723, 50258]], device=device)
+    else:
+        tokens = torch.tensor([[50258]], device=device)
+
+    os.makedirs(args.output, exist_ok=True)
+    if onnx:
+        export_onnx(model, config, features, tokens, head_dim, args.output, suffix, quantized)
+        write_descriptor(args, model, config, head_dim)
+        return
+
+    with torch.no_grad():
+        encoder = torch.jit.trace(Encoder(model), features)
+        encoder_output = encoder(features)
+
+        initializer = torch.jit.trace(CrossAttentionInitializer(model), encoder_output)
+        cross_cache = initializer(encoder_output)
+
+        self_cache = torch.zeros(1, config.decoder_attention_heads, 0, head_dim, dtype=dtype, device=device)
+        flat_cache = []
+        for layer in range(config.decoder_layers):
+            flat_cache += [self_cache, self_cache, cross_cache[layer * 2], cross_cache[layer * 2 + 1]]
+        decoder = torch.jit.trace(Decoder(model), (tokens, encoder_output, *flat_cache))
+        if args.batch_decoder:
+            verify_batch(decoder, tokens, encoder_output, flat_cache)
+
+    torch.jit.save(encoder, os.path.join(args.output, f"whisper_v3_encoder{suffix}.pt"))
+    torch.jit.save(initializer, os.path.join(args.output, f"whisper_v3_decoder_cross_attention_initializer{suffix}.pt"))
+    torch.jit.save(decoder, os.path.join(args.output, f"whisper_v3_decoder{suffix}.pt"))
+    write_descriptor(args, model, config, head_dim)
+
+
+def verify_batch(decoder, tokens, encoder_output, flat_cache, batch_size=3):
+    """Check that the traced decoder decodes a batch of distinct sequences like each sequence on its own."""
+    rows = [tokens + row for row in range(batch_size)]
+    # the encoder output and the caches are broadcast views at runtime, see Whisper3Model.broadcast
+    batch_cache = [tensor.expand(batch_size, -1, -1, -1) for tensor in flat_cache]
+    batch = decoder(torch.cat(rows), encoder_output.expand(batch_size, -1, -1), *batch_cache)
+    for row, row_tokens in enumerate(rows):
+        single = decoder(row_tokens, encoder_output, *flat_cache)
+        if not torch.allclose(batch[0][row].float(), single[0][0].float(), rtol=1e-2, atol=1e-2):
+            raise SystemExit("The traced decoder does not decode batches like single sequences, "
+                             "export without --batch-decoder.")
+
+
+def export_onnx(model, config, features, tokens, head_dim, output, suffix, quantized):
+    """Export the three modules as ONNX models with dynamic token and cache lengths."""
+    device, dtype = features.device, features.dtype
+    layers = config.decoder_layers
+    names = {
+        "encoder": os.path.join(output, f"whisper_v3_encoder{suffix}.onnx"),
+        "initializer": os.path.join(output, f"whisper_v3_decoder_cross_attention_initializer{suffix}.onnx"),
+        "decoder": os.path.join(output, f"whisper_v3_decoder{suffix}.onnx"),
+    }
+    with torch.no_grad():
+        encoder = Encoder(model)
+        encoder_output = encoder(features)
+        torch.onnx.export(encoder, (features,), names["encoder"], input_names=["input_features"],
+                          output_names=["encoder_output"], opset_version=17)
+
+        initializer = CrossAttentionInitializer(model)
+        cross_cache = initializer(encoder_output)
+        cross_names = [f"cross_{i}" for i in range(len(cross_cache))]
+        torch.onnx.export(initializer, (encoder_output,), names["initializer"], input_names=["encoder_output"],
+                          output_names=cross_names, opset_version=17)
+
+        # traced with a self-attention cache of one token, its length is a dynamic axis
+        self_cache = torch.zeros(1, config.decoder_attention_heads, 1, head_dim, dtype=dtype, device=device)
+        flat_cache, cache_names, present_names, dynamic_axes = [], [], [], {"input_ids": {1: "tokens"}}
+        for layer in range(layers):
+            flat_cache += [self_cache, self_cache, cross_cache[layer * 2], cross_cache[layer * 2 + 1]]
+            for kind in ["self_key", "self_value", "cross_key", "cross_value"]:
+                cache_names.append(f"past_{kind}_{layer}")
+                present_names.append(f"present_{kind}_{layer}")
+            for kind in ["self_key", "self_value"]:
+                dynamic_axes[f"past_{kind}_{layer}"] = {2: "past"}
+                dynamic_axes[f"present_{kind}_{layer}"] = {2: "present"}
+        torch.onnx.export(Decoder(model), (tokens, encoder_output, *flat_cache), names["decoder"],
+                          input_names=["input_ids", "encoder_output"] + cache_names,
+                          output_names=["logits"] + present_names,
+                          dynamic_axes=dynamic_axes | {"logits": {1: "tokens"}}, opset_version=17)
+
+    if quantized:
+        from onnxruntime.quantization import QuantType, quantize_dynamic
+        for name in names.values():
+            quantize_dynamic(name, name, weight_type=QuantType.QInt8)
+
+
+def write_descriptor(args, model, config, head_dim):
+    """Write the whisper_config.json descriptor of the checkpoint."""
+    descriptor = {
+        "name": args.model.split("/")[-1],
+        "filePrefix": "whisper_v3_",
+        "decoderLayers": config.decoder_layers,
+        "attentionHeads": config.decoder_attention_heads,
+        "headDim": head_dim,
+        "melBins": config.num_mel_bins,
+        "textContext": config.max_target_positions,
+        "multiTokenDecoder": args.multi_token,
+        "batchDecoder": args.batch_decoder,
+    }
+    suppress_tokens = getattr(model.generation_config, "suppress_tokens", None)
+    if suppress_tokens:
+        descriptor["suppressTokens"] = sorted(suppress_tokens)
+    with open(os.path.join(args.output, "whisper_config.json"), "w") as file:
+        json.dump(descriptor, file, indent=2)
+
+
+if __name__ == "__main__":
+    main()
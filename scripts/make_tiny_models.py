@@ -0,0 +1,334 @@
+"""
+Create tiny, randomly initialized stand-in models for load tests of whisper-java on a plain CPU box.
+
+Writes the three traced TorchScript modules with the same I/O signature as the ``whisper_v3_*.pt`` files of
+``export_whisper.py``, a synthetic vocabulary, synthetic mel filters and a ``whisper_config.json`` descriptor:
+
+* ``whisper_v3_encoder_int8.pt``: mel features (1, 80, 3000) -> encoder output (1, 1500, d)
+* ``whisper_v3_decoder_cross_attention_initializer_int8.pt``: encoder output -> flat list of
+  cross-attention keys and values, two per decoder layer
+* ``whisper_v3_decoder_int8.pt``: (token ids, encoder output, flat key value cache) -> (logits, flat key value cache)
+
+The models have a few hundred thousand parameters apart from the embedding, so a request takes milliseconds instead
+of seconds, while the decoding loop, the key value cache, the scheduling and the memory accounting of ``Whisper3``
+run exactly as with the real model. The transcripts are random tokens.
+
+The vocabulary keeps the size and the special token ids of Whisper v3, which the special tokens of the library
+refer to; its text tokens are synthetic. The artifacts are loaded by ``Whisper3Quantization.INT8_DYNAMIC`` on CPU.
+The same weights are also written unquantized with the ``_fp32`` suffix for ``Whisper3Quantization.FP32``, and with
+``--onnx`` as ONNX models as well, which ``Whisper3EngineParityTest`` compares against the TorchScript modules::
+
+    python make_tiny_models.py --output ./tiny --onnx
+    mvn test -Dwhisper.parity.models=./tiny
+
+The decoder accepts any number of tokens per pass, as declared by ``"multiTokenDecoder": true`` in the descriptor.
+
+Usage::
+
+    python make_tiny_models.py --output ./tiny
+"""
+import argparse
+import itertools
+import json
+import math
+import os
+
+import numpy as np
+import torch
+
+VOCABULARY_SIZE = 51866
+TEXT_TOKENS = 50257
+MEL_FRAMES = 3000
+ENCODER_FRAMES = 1500
+MAX_TOKENS = 448
+
+LANGUAGES = ("en zh de es ru ko fr ja pt tr pl ca nl ar sv it id hi fi vi he uk el ms cs ro da hu ta no th ur hr bg "
+             "lt la mi ml cy sk te fa lv bn sr az sl kn et mk br eu is hy ne mn bs kk sq sw gl mr pa si km sn yo so "
+             "af oc ka be tg sd gu am yi lo uz fo ht ps tk nn mt sa lb my bo tl mg as tt haw ln ha ba jw su yue").split()
+
+
+def attend(query, key, value, mask=None):
+    scores = query @ key.transpose(-1, -2) / math.sqrt(query.shape[-1])
+    if mask is not None:
+        scores = scores + mask
+    return scores.softmax(-1) @ value
+
+
+class Attention(torch.nn.Module):
+    def __init__(self, dim, heads):
+        super().__init__()
+        self.heads = heads
+        self.query = torch.nn.Linear(dim, dim)
+        self.key = torch.nn.Linear(dim, dim, bias=False)
+        self.value = torch.nn.Linear(dim, dim)
+        self.out = torch.nn.Linear(dim, dim)
+
+    def split(self, x):
+        batch, length, dim = x.shape
+        return x.view(batch, length, self.heads, dim // self.heads).transpose(1, 2)
+
+    def merge(self, x):
+        batch, heads, length, head_dim = x.shape
+        return x.transpose(1, 2).reshape(batch, length, heads * head_dim)
+
+
+class EncoderLayer(torch.nn.Module):
+    def __init__(self, dim, heads):
+        super().__init__()
+        self.attention_norm = torch.nn.LayerNorm(dim)
+        self.attention = Attention(dim, heads)
+        self.mlp_norm = torch.nn.LayerNorm(dim)
+        self.mlp = torch.nn.Sequential(torch.nn.Linear(dim, 4 * dim), torch.nn.GELU(), torch.nn.Linear(4 * dim, dim))
+
+    def forward(self, x):
+        h = self.attention_norm(x)
+        a = self.attention
+        x = x + a.out(a.merge(attend(a.split(a.query(h)), a.split(a.key(h)), a.split(a.value(h)))))
+        return x + self.mlp(self.mlp_norm(x))
+
+
+class DecoderLayer(torch.nn.Module):
+    def __init__(self, dim, heads):
+        super().__init__()
+        self.attention_norm = torch.nn.LayerNorm(dim)
+        self.attention = Attention(dim, heads)
+        self.cross_attention_norm = torch.nn.LayerNorm(dim)
+        self.cross_attention = Attention(dim, heads)
+        self.mlp_norm = torch.nn.LayerNorm(dim)
+        self.mlp = torch.nn.Sequential(torch.nn.Linear(dim, 4 * dim), torch.nn.GELU(), torch.nn.Linear(4 * dim, dim))
+
+    def forward(self, x, mask, self_key, self_value, cross_key, cross_value):
+        h = self.attention_norm(x)
+        a = self.attention
+        key = torch.cat([self_key, a.split(a.key(h))], dim=2)
+        value = torch.cat([self_value, a.split(a.value(h))], dim=2)
+        x = x + a.out(a.merge(attend(a.split(a.query(h)), key, value, mask)))
+
+        h = self.cross_attention_norm(x)
+        c = self.cross_attention
+        x = x + c.out(c.merge(attend(c.split(c.query(h)), cross_key, cross_value)))
+        return x + self.mlp(self.mlp_norm(x)), key, value
+
+
+class Encoder(torch.nn.Module):
+    def __init__(self, mels, dim, heads, layers):
+        super().__init__()
+        self.conv1 = torch.nn.Conv1d(mels, dim, kernel_size=3, padding=1)
+        self.conv2 = torch.nn.Conv1d(dim, dim, kernel_size=3, stride=2, padding=1)
+        self.positions = torch.nn.Parameter(torch.randn(ENCODER_FRAMES, dim) * 0.02)
+        self.layers = torch.nn.ModuleList(EncoderLayer(dim, heads) for _ in range(layers))
+        self.norm = torch.nn.LayerNorm(dim)
+
+    def forward(self, input_features):
+        x = torch.nn.functional.gelu(self.conv1(input_features))
+        x = torch.nn.functional.gelu(self.conv2(x))
+        x = x.transpose(1, 2) + self.positions
+        for layer in self.layers:
+            x = layer(x)
+        return self.norm(x)
+
+
+class CrossAttentionInitializer(torch.nn.Module):
+    def __init__(self, decoder):
+        super().__init__()
+        self.layers = decoder.layers
+
+    def forward(self, encoder_output):
+        cache = []
+        for layer in self.layers:
+            attention = layer.cross_attention
+            cache.append(attention.split(attention.key(encoder_output)))
+            cache.append(attention.split(attention.value(encoder_output)))
+        return tuple(cache)
+
+
+class Decoder(torch.nn.Module):
+    def __init__(self, dim, heads, layers):
+        super().__init__()
+        self.embedding = torch.nn.Embedding(VOCABULARY_SIZE, dim)
+        self.positions = torch.nn.Parameter(torch.randn(MAX_TOKENS, dim) * 0.02)
+        self.layers = torch.nn.ModuleList(DecoderLayer(dim, heads) for _ in range(layers))
+        self.norm = torch.nn.LayerNorm(dim)
+
+    def forward(self, input_ids, encoder_output, *flat_cache):
+        past = flat_cache[0].shape[2]
+        positions = torch.arange(input_ids.shape[1]) + past
+        x = self.embedding(input_ids) + self.positions[positions]
+
+        # causal mask over the cached and the new tokens, part of the graph so any number of tokens can be fed
+        keys = torch.arange(past + input_ids.shape[1])
+        mask = (keys.unsqueeze(0) > positions.unsqueeze(1)).to(x.dtype) * -1e9
+
+        cache = []
+        for i, layer in enumerate(self.layers):
+            self_key, self_value, cross_key, cross_value = flat_cache[i * 4:i * 4 + 4]
+            x, key, value = layer(x, mask, self_key, self_value, cross_key, cross_value)
+            cache += [key, value, cross_key, cross_value]
+        logits = self.norm(x) @ self.embedding.weight.transpose(0, 1)
+        return (logits,) + tuple(cache)
+
+
+def byte_tokens():
+    """The printable characters standing for the 256 bytes in the byte-level BPE vocabulary of GPT-2."""
+    printable = list(range(ord("!"), ord("~") + 1)) + list(range(ord("¡"), ord("¬") + 1)) \
+        + list(range(ord("®"), ord("ÿ") + 1))
+    characters = printable[:]
+    n = 0
+    for b in range(256):
+        if b not in printable:
+            printable.append(b)
+            characters.append(256 + n)
+            n += 1
+    return [chr(c) for c in characters]
+
+
+def write_vocabulary(output):
+    """Synthetic text tokens with the special tokens and timestamps of Whisper v3 at their original ids."""
+    tokens = byte_tokens()
+    seen = set(tokens)
+    letters = "abcdefghijklmnopqrstuvwxyz"
+    for length in itertools.count(2):
+        for word in map("".join, itertools.product(letters, repeat=length)):
+            for token in ("Ġ" + word, word):
+                if len(tokens) < TEXT_TOKENS and token not in seen:
+                    tokens.append(token)
+                    seen.add(token)
+        if len(tokens) >= TEXT_TOKENS:
+            break
+    vocab = {token: i for i, token in enumerate(tokens)}
+
+    special = ["<|endoftext|>", "<|startoftranscript|>"] + [f"<|{code}|>" for code in LANGUAGES] \
+        + ["<|translate|>", "<|transcribe|>", "<|startoflm|>", "<|startofprev|>", "<|nocaptions|>",
+           "<|notimestamps|>"] + [f"<|{i * 0.02:.2f}|>" for i in range(1501)]
+    added = {token: TEXT_TOKENS + i for i, token in enumerate(special)}
+    assert TEXT_TOKENS + len(special) == VOCABULARY_SIZE
+
+    with open(os.path.join(output, "whisper_v3_vocab.json"), "w", encoding="utf-8") as file:
+        json.dump(vocab, file, ensure_ascii=False)
+    with open(os.path.join(output, "whisper_v3_added_tokens.json"), "w", encoding="utf-8") as file:
+        json.dump(added, file, ensure_ascii=False)
+
+
+def write_mel_filters(output, mels):
+    """Triangular filters spaced evenly on the mel scale over the 201 frequency bins of a 400 sample FFT."""
+    bins = 201
+    mel = lambda hz: 2595 * np.log10(1 + hz / 700)
+    hz = lambda m: 700 * (10 ** (m / 2595) - 1)
+    edges = hz(np.linspace(mel(0), mel(8000), mels + 2)) / 8000 * (bins - 1)
+    frequencies = np.arange(bins)
+    filters = np.zeros((mels, bins), dtype=np.float32)
+    for i in range(mels):
+        left, center, right = edges[i], edges[i + 1], edges[i + 2]
+        rising = (frequencies - left) / max(center - left, 1e-6)
+        falling = (right - frequencies) / max(right - center, 1e-6)
+        filters[i] = np.maximum(0, np.minimum(rising, falling))
+    np.savez(os.path.join(output, "whisper_v3_mel_filter.npz"), **{f"mel_{mels}": filters})
+
+
+def trace(encoder, decoder, mels, heads, head_dim, decoder_layers):
+    """Trace the encoder, the cross-attention initializer and the decoder."""
+    with torch.no_grad():
+        features = torch.zeros(1, mels, MEL_FRAMES)
+        traced_encoder = torch.jit.trace(encoder, features)
+        encoder_output = traced_encoder(features)
+
+        initializer = torch.jit.trace(CrossAttentionInitializer(decoder), encoder_output)
+        cross_cache = initializer(encoder_output)
+
+        # traced with several tokens and an empty cache, the shapes are dynamic in the graph
+        tokens = torch.tensor([[50362, 440, 1723, 50258]])
+        self_cache = torch.zeros(1, heads, 0, head_dim)
+        flat_cache = []
+        for layer in range(decoder_layers):
+            flat_cache += [self_cache, self_cache, cross_cache[layer * 2], cross_cache[layer * 2 + 1]]
+        traced_decoder = torch.jit.trace(decoder, (tokens, encoder_output, *flat_cache))
+    return traced_encoder, initializer, traced_decoder
+
+
+def save(modules, output, suffix):
+    """Save the traced modules with the artifact suffix of their weight format."""
+    encoder, initializer, decoder = modules
+    torch.jit.save(encoder, os.path.join(output, f"whisper_v3_encoder{suffix}.pt"))
+    torch.jit.save(initializer, os.path.join(output, f"whisper_v3_decoder_cross_attention_initializer{suffix}.pt"))
+    torch.jit.save(decoder, os.path.join(output, f"whisper_v3_decoder{suffix}.pt"))
+
+
+def export_onnx(encoder, decoder, mels, heads, head_dim, decoder_layers, output, suffix):
+    """Export the modules as ONNX models with dynamic token and cache lengths, like export_whisper.py."""
+    with torch.no_grad():
+        features = torch.zeros(1, mels, MEL_FRAMES)
+        encoder_output = encoder(features)
+        torch.onnx.export(encoder, (features,), os.path.join(output, f"whisper_v3_encoder{suffix}.onnx"),
+                          input_names=["input_features"], output_names=["encoder_output"], opset_version=17)
+
+        initializer = CrossAttentionInitializer(decoder)
+        cross_cache = initializer(encoder_output)
+        torch.onnx.export(initializer, (encoder_output,),
+                          os.path.join(output, f"whisper_v3_decoder_cross_attention_initializer{suffix}.onnx"),
+                          input_names=["encoder_output"], output_names=[f"cross_{i}" for i in range(len(cross_cache))],
+                          opset_version=17)
+
+        # exported with a self-attention cache of one token, its length is a dynamic axis
+        tokens = torch.tensor([[440, 1723]])
+        self_cache = torch.zeros(1, heads, 1, head_dim)
+        flat_cache, cache_names, present_names, dynamic_axes = [], [], [], {"input_ids": {1: "tokens"}}
+        for layer in range(decoder_layers):
+            flat_cache += [self_cache, self_cache, cross_cache[layer * 2], cross_cache[layer * 2 + 1]]
+            for kind in ["self_key", "self_value", "cross_key", "cross_value"]:
+                cache_names.append(f"past_{kind}_{layer}")
+                present_names.append(f"present_{kind}_{layer}")
+            for kind in ["self_key", "self_value"]:
+                dynamic_axes[f"past_{kind}_{layer}"] = {2: "past"}
+                dynamic_axes[f"present_{kind}_{layer}"] = {2: "present"}
+        torch.onnx.export(decoder, (tokens, encoder_output, *flat_cache),
+                          os.path.join(output, f"whisper_v3_decoder{suffix}.onnx"),
+                          input_names=["input_ids", "encoder_output"] + cache_names,
+                          output_names=["logits"] + present_names,
+                          dynamic_axes=dynamic_axes | {"logits": {1: "tokens"}}, opset_version=17)
+
+
+def main():
+    parser = argparse.ArgumentParser()
+    parser.add_argument("--output", required=True)
+    parser.add_argument("--dim", type=int, default=64)
+    parser.add_argument("--heads", type=int, default=2)
+    parser.add_argument("--encoder-layers", type=int, default=1)
+    parser.add_argument("--decoder-layers", type=int, default=2)
+    parser.add_argument("--seed", type=int, default=0)
+    parser.add_argument("--onnx", action="store_true")
+    args = parser.parse_args()
+
+    torch.manual_seed(args.seed)
+    mels = 80
+    encoder = Encoder(mels, args.dim, args.heads, args.encoder_layers).eval()
+    decoder = Decoder(args.dim, args.heads, args.decoder_layers).eval()
+    head_dim = args.dim // args.heads
+
+    os.makedirs(args.output, exist_ok=True)
+    # the same weights unquantized, for Whisper3Quantization.FP32 and the parity test of the engines
+    save(trace(encoder, decoder, mels, args.heads, head_dim, args.decoder_layers), args.output, "_fp32")
+    if args.onnx:
+        export_onnx(encoder, decoder, mels, args.heads, head_dim, args.decoder_layers, args.output, "_fp32")
+    # same weight format as the int8 artifacts of export_whisper.py
+    encoder = torch.ao.quantization.quantize_dynamic(encoder, {torch.nn.Linear}, dtype=torch.qint8)
+    decoder = torch.ao.quantization.quantize_dynamic(decoder, {torch.nn.Linear}, dtype=torch.qint8)
+    save(trace(encoder, decoder, mels, args.heads, head_dim, args.decoder_layers), args.output, "_int8")
+    write_vocabulary(args.output)
+    write_mel_filters(args.output, mels)
+
+    descriptor = {
+        "name": "whisper-tiny-random",
+        "filePrefix": "whisper_v3_",
+        "decoderLayers": args.decoder_layers,
+        "attentionHeads": args.heads,
+        "headDim": head_dim,
+        "melBins": mels,
+        "textContext": MAX_TOKENS,
+        "multiTokenDecoder": True,
+    }
+    with open(os.path.join(args.output, "whisper_config.json"), "w") as file:
+        json.dump(descriptor, file, indent=2)
+
+
+if __name__ == "__main__":
+    main()
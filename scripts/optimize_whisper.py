@@ -0,0 +1,66 @@
+"""
+Freeze and optimize the traced Whisper model files for inference, once per model directory and device type.
+
+For each of the three modules of a quantization mode, e.g. ``whisper_v3_encoder_int8.pt``, writes the optimized module
+next to it with the ``_opt`` suffix, e.g. ``whisper_v3_encoder_int8_opt.pt``, which ``Whisper3`` loads with
+``Whisper3Options.optimizedGraphs(true)``:
+
+* ``torch.jit.freeze`` inlines the weights and attributes as constants, so they take part in constant propagation
+  and the graphs need no attribute lookups at runtime.
+* ``torch.jit.optimize_for_inference`` runs the inference passes on the frozen graphs: constant folding, removal of
+  dropout, folding of convolutions with their batch norms and additions, fusion of linear layers with their
+  activations, and on CPU the conversion of convolutions and matrix multiplications to oneDNN.
+
+Frozen modules hold their weights as constants on the device they were optimized for; optimize the FP16 modules on
+a GPU and the int8 modules on CPU::
+
+    python optimize_whisper.py --model-dir ./model --quantize none --device cuda
+    python optimize_whisper.py --model-dir ./model --quantize int8 --device cpu
+
+Existing optimized modules are only replaced with ``--force``.
+"""
+import argparse
+import json
+import os
+import time
+
+import torch
+
+MODULES = ["encoder", "decoder_cross_attention_initializer", "decoder"]
+
+
+def main():
+    parser = argparse.ArgumentParser()
+    parser.add_argument("--model-dir", required=True)
+    parser.add_argument("--quantize", choices=["none", "int8"], default="none")
+    parser.add_argument("--device", default=None)
+    parser.add_argument("--force", action="store_true")
+    args = parser.parse_args()
+
+    suffix = "_int8" if args.quantize == "int8" else ""
+    device = args.device or ("cpu" if args.quantize == "int8" else "cuda")
+    prefix = "whisper_v3_"
+    descriptor = os.path.join(args.model_dir, "whisper_config.json")
+    if os.path.exists(descriptor):
+        with open(descriptor) as file:
+            prefix = json.load(file).get("filePrefix", prefix)
+
+    for module in MODULES:
+        source = os.path.join(args.model_dir, f"{prefix}{module}{suffix}.pt")
+        target = os.path.join(args.model_dir, f"{prefix}{module}{suffix}_opt.pt")
+        if os.path.exists(target) and not args.force:
+            print(f"{target} exists, skipped")
+            continue
+
+        start = time.time()
+        traced = torch.jit.load(source, map_location=device).eval()
+        frozen = torch.jit.freeze(traced)
+        optimized = torch.jit.optimize_for_inference(frozen)
+        # write next to the target first, a partially written module must never be picked up
+        torch.jit.save(optimized, target + ".tmp")
+        os.replace(target + ".tmp", target)
+        print(f"{target} written in {time.time() - start:.1f} s")
+
+
+if __name__ == "__main__":
+    main()
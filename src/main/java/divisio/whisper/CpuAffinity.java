@@ -0,0 +1,128 @@
+package divisio.whisper;
+
+import com.sun.jna.LastErrorException;
+import com.sun.jna.Library;
+import com.sun.jna.Native;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Helper to read the CPU topology of the host and to pin threads to cores.
+ *
+ * <p>Pinning is only supported on Linux, everywhere else it is a no-op.
+ */
+final class CpuAffinity {
+
+    private static final Logger log = LoggerFactory.getLogger(CpuAffinity.class);
+
+    private static final Path NODE_DIRECTORY = Path.of("/sys/devices/system/node");
+
+    /**
+     * Minimal binding of the libc affinity call.
+     */
+    private interface CLibrary extends Library {
+        int sched_setaffinity(int pid, int cpuSetSize, long[] mask) throws LastErrorException;
+    }
+
+    private static CLibrary libc;
+
+    private CpuAffinity() {
+    }
+
+    /**
+     * Get the CPUs of each NUMA node of this host.
+     *
+     * <p>Falls back to a single node containing all available processors if the topology cannot be read.
+     *
+     * @return the CPU ids per NUMA node, ordered by node id.
+     */
+    static List<int[]> numaNodes() {
+        if (Files.isDirectory(NODE_DIRECTORY)) {
+            try (Stream<Path> nodes = Files.list(NODE_DIRECTORY)) {
+                List<int[]> result = nodes
+                        .filter(node -> node.getFileName().toString().matches("node[0-9]+"))
+                        .sorted(Comparator.comparingInt(node -> Integer.parseInt(node.getFileName().toString().substring(4))))
+                        .map(node -> readCpuList(node.resolve("cpulist")))
+                        .filter(cpus -> cpus.length > 0)
+                        .toList();
+                if (!result.isEmpty()) {
+                    return result;
+                }
+            } catch (IOException | RuntimeException e) {
+                log.warn("Could not read NUMA topology, assuming a single node.", e);
+            }
+        }
+        return List.of(IntStream.range(0, Runtime.getRuntime().availableProcessors()).toArray());
+    }
+
+    private static int[] readCpuList(Path file) {
+        try {
+            return parseCpuList(Files.readString(file).trim());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Parse a Linux CPU list like {@code 0-3,8-11}.
+     * @param list the CPU list.
+     * @return the CPU ids.
+     */
+    static int[] parseCpuList(String list) {
+        List<Integer> cpus = new ArrayList<>();
+        for (String range : list.split(",")) {
+            if (range.isBlank()) {
+                continue;
+            }
+            String[] bounds = range.trim().split("-");
+            int first = Integer.parseInt(bounds[0]);
+            int last = bounds.length > 1 ? Integer.parseInt(bounds[1]) : first;
+            for (int cpu = first; cpu <= last; cpu++) {
+                cpus.add(cpu);
+            }
+        }
+        return cpus.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Pin the calling thread to the given CPUs.
+     * @param cpus the CPU ids.
+     * @return true if the thread was pinned.
+     */
+    static boolean pinCurrentThread(int[] cpus) {
+        if (!System.getProperty("os.name", "").toLowerCase().contains("linux")) {
+            return false;
+        }
+
+        int maxCpu = IntStream.of(cpus).max().orElse(0);
+        long[] mask = new long[maxCpu / Long.SIZE + 1];
+        for (int cpu : cpus) {
+            mask[cpu / Long.SIZE] |= 1L << (cpu % Long.SIZE);
+        }
+
+        try {
+            // pid 0 = the calling thread
+            libc().sched_setaffinity(0, mask.length * Long.BYTES, mask);
+            return true;
+        } catch (LastErrorException | UnsatisfiedLinkError e) {
+            log.warn("Could not pin thread '{}' to CPUs.", Thread.currentThread().getName(), e);
+            return false;
+        }
+    }
+
+    private static synchronized CLibrary libc() {
+        if (libc == null) {
+            libc = Native.load("c", CLibrary.class);
+        }
+        return libc;
+    }
+}
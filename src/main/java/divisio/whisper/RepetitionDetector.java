@@ -0,0 +1,118 @@
+package divisio.whisper;
+
+/**
+ * Online detector for token sequences that repeat back to back, e.g. {@code A B C A B C A B C A B C}.
+ *
+ * <p>After each token it checks whether the most recent tokens are periodic with any period up to
+ * {@link #MAX_PERIOD}. Timestamp tokens are skipped, as they keep increasing in an otherwise repeating loop.
+ * The detector works on a preallocated buffer and does not allocate while decoding.
+ */
+final class RepetitionDetector {
+
+    /**
+     * Longest repeated sequence to detect, in tokens.
+     */
+    static final int MAX_PERIOD = 16;
+
+    /**
+     * Minimum number of back to back copies of a sequence.
+     */
+    static final int MIN_REPEATS = 4;
+
+    /**
+     * Minimum number of tokens covered by all copies, so that short sequences need more copies, e.g. a single token
+     * must repeat 32 times. Well above spoken repetitions like "no no no no" or a read out row of digits.
+     */
+    static final int MIN_SPAN = 32;
+
+    /**
+     * Upper bound of the content tokens a detected repetition removes from the end of the sequence,
+     * see {@link #redundantTokens()}.
+     */
+    static final int MAX_REDUNDANT_TOKENS = MAX_PERIOD * MIN_REPEATS;
+
+    /**
+     * Token ids at or above this id are timestamps.
+     */
+    private final long timestampBegin;
+
+    /**
+     * The content tokens seen so far, without timestamps.
+     */
+    private final long[] tokens;
+    private int size;
+
+    /**
+     * Period of the detected repetition, 0 if none was detected.
+     */
+    private int period;
+
+    /**
+     * Number of tokens covered by all copies of the detected repetition.
+     */
+    private int span;
+
+    /**
+     * Create a detector.
+     * @param timestampBegin the id of the first timestamp token.
+     * @param capacity the maximum number of tokens to accept.
+     */
+    RepetitionDetector(long timestampBegin, int capacity) {
+        this.timestampBegin = timestampBegin;
+        this.tokens = new long[capacity];
+    }
+
+    /**
+     * Accept the next generated token.
+     * @param tokenId the token id.
+     * @return true if the most recent tokens now form a repetition.
+     */
+    boolean accept(long tokenId) {
+        if (tokenId >= timestampBegin || size == tokens.length) {
+            return false;
+        }
+        tokens[size++] = tokenId;
+
+        for (int p = 1; p <= MAX_PERIOD; p++) {
+            int required = Math.max(p * MIN_REPEATS, MIN_SPAN);
+            if (required > size) {
+                break;
+            }
+            if (isPeriodic(p, required)) {
+                period = p;
+                span = required;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check whether the last {@code length} tokens are periodic with the given period.
+     */
+    private boolean isPeriodic(int p, int length) {
+        for (int k = size - length + p; k < size; k++) {
+            if (tokens[k] != tokens[k - p]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the number of content tokens belonging to the copies after the first one of the detected repetition.
+     * @return the number of redundant content tokens, 0 if nothing was detected.
+     */
+    int redundantTokens() {
+        return period == 0 ? 0 : span - period;
+    }
+
+    /**
+     * Check whether the given token is a timestamp, and therefore ignored by this detector.
+     * @param tokenId the token id.
+     * @return true if the token is a timestamp.
+     */
+    boolean isTimestamp(long tokenId) {
+        return tokenId >= timestampBegin;
+    }
+}
@@ -1,23 +1,12 @@
 package divisio.whisper;
 
 import ai.djl.Device;
-import ai.djl.MalformedModelException;
-import ai.djl.Model;
-import ai.djl.audio.processor.AudioProcessor;
-import ai.djl.audio.processor.LogMelSpectrogram;
-import ai.djl.audio.processor.PadOrTrim;
 import ai.djl.engine.Engine;
 import ai.djl.modality.audio.Audio;
-import ai.djl.modality.nlp.DefaultVocabulary;
 import ai.djl.ndarray.NDArray;
-import ai.djl.ndarray.NDList;
 import ai.djl.ndarray.NDManager;
-import ai.djl.ndarray.index.NDIndex;
 import ai.djl.ndarray.types.DataType;
-import ai.djl.ndarray.types.Shape;
-import ai.djl.training.ParameterStore;
-import ai.djl.util.JsonUtils;
-import com.google.gson.reflect.TypeToken;
+import ai.djl.ndarray.index.NDIndex;
 import divisio.whisper.token.WhisperAnyToken;
 import divisio.whisper.token.Whisper3Language;
 import divisio.whisper.token.Whisper3SpecialToken;
@@ -26,71 +15,67 @@ import divisio.whisper.token.WhisperToken;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.Reader;
-import java.lang.reflect.Type;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.function.IntToLongFunction;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Pattern;
 
 /**
  * The {@code Whisper} class is used to transcribe speech to text.
  *
  * <p>It is based on the huggingface implementation of Whisper.
+ *
+ * <p>Thread-safety: {@link #process} may be called concurrently from any number of threads.
+ * Every call runs in its own {@link Whisper3Session} holding the per-request state, while the
+ * weights, vocabulary and mel filters of the {@link Whisper3Model} are shared read-only.
+ * To serve several threads, share one instance (or one {@link Whisper3Model} via
+ * {@link #instance(Whisper3Model)}) instead of loading the model once per thread.
+ * An instance must not be closed while calls to {@link #process} are in flight.
  */
 public class Whisper3 implements AutoCloseable {
 
     private static final Logger log = LoggerFactory.getLogger(Whisper3.class);
 
     /**
-     * Cache location for whisper files.
+     * Duration of an encoder window, assumed for features of unknown duration.
      */
-    private static final Path WHISPER_CACHE = Path.of(System.getProperty("user.home"), ".whisper");
+    private static final double WINDOW_SECONDS = 30;
 
     /**
-     * Base path of where to find all relevant model files.
+     * The model used by this instance.
      */
-    private final Path basePath;
+    private final Whisper3Model model;
 
     /**
-     * Device of this Whisper instance.
+     * Whether this instance loaded the model itself and is therefore responsible for closing it.
      */
-    private final Device device;
+    private final boolean ownsModel;
 
     /**
-     * NDManager of this Whisper instance.
+     * Options of this instance, e.g. to configure the {@link #executor}.
      */
-    private final NDManager whisperManager;
+    private final Whisper3Options options;
 
-    private final List<AudioProcessor> preprocessors;
-    private final DefaultVocabulary vocabulary;
-
-    private final Model encoder;
-    private final Model decoder;
-    private final Model decoderCrossAttention;
+    /**
+     * Executor behind {@link WhisperTask#executeAsync()}, created on first use.
+     */
+    private WhisperExecutor executor;
 
-    private final NDIndex suppressionMask;
-    private final NDArray negativeInfinity;
+    /**
+     * Guards the creation of the {@link #executor}. A lock instead of {@code synchronized},
+     * so virtual threads calling {@link WhisperTask#executeAsync()} never pin their carrier thread.
+     */
+    private final ReentrantLock executorLock = new ReentrantLock();
 
-    private static final String RESOURCE_MEL_FILTER = "whisper_v3_mel_filter.npz";
-    private static final String RESOURCE_ADDED_TOKENS = "whisper_v3_added_tokens.json";
-    private static final String RESOURCE_VOCAB = "whisper_v3_vocab.json";
-    private static final String RESOURCE_DECODER = "whisper_v3_decoder.pt";
-    private static final String RESOURCE_ENCODER = "whisper_v3_encoder.pt";
-    private static final String RESOURCE_DECODER_CROSS_ATTENTION_INIT = "whisper_v3_decoder_cross_attention_initializer.pt";
+    /**
+     * Native memory budget every call to {@link #process} reserves its estimated peak footprint from.
+     */
+    private final WhisperMemoryBudget memoryBudget;
 
-    static {
-        if (!WHISPER_CACHE.toFile().exists()) {
-            WHISPER_CACHE.toFile().mkdir();
-        }
-    }
     /**
      * Special token pattern. Used to remove those tokens from Whisper transcriptions.
      */
@@ -101,13 +86,7 @@ public class Whisper3 implements AutoCloseable {
     }
 
     public static Whisper3 instance(Device device) {
-        extractResourceToCache(RESOURCE_MEL_FILTER);
-        extractResourceToCache(RESOURCE_ADDED_TOKENS);
-        extractResourceToCache(RESOURCE_VOCAB);
-        extractResourceToCache(RESOURCE_DECODER);
-        extractResourceToCache(RESOURCE_ENCODER);
-        extractResourceToCache(RESOURCE_DECODER_CROSS_ATTENTION_INIT);
-        return instance(WHISPER_CACHE, device);
+        return instance(Whisper3Options.options().device(device));
     }
 
     public static Whisper3 instance(Path path) {
@@ -115,41 +94,61 @@ public class Whisper3 implements AutoCloseable {
     }
 
     public static Whisper3 instance(Path path, Device device) {
-        return new Whisper3(path, device);
+        return instance(Whisper3Options.options().modelPath(path).device(device));
     }
 
     /**
-     * Whisper constructor with a base path and device to load the model onto.
-     * @param path base path of the model files
+     * Create a {@code Whisper3} instance with the given options.
+     *
+     * <p>If no model path is set, the bundled model resources matching the selected
+     * {@link Whisper3Quantization} are extracted to the cache first.
+     *
+     * @param options the options to create the instance with.
+     * @return a new {@code Whisper3} instance owning its model.
      */
-    private Whisper3(Path path, Device device) {
-        // early out for non-GPU until we get a CPU version running
-        if (!device.isGpu()) {
-            throw new IllegalStateException("Currently, Whisper for Java only works on GPU.");
-        }
-
-        this.basePath = path;
-        this.device = device;
-        this.whisperManager = NDManager.newBaseManager(this.device);
-
-        whisperManager.setName("whisper");
-        whisperManager.getParentManager().setName("SYSTEM");
-
-        try {
-            this.preprocessors = loadPreprocessors(this.basePath, this.whisperManager);
-            this.vocabulary = loadVocabulary(this.basePath);
+    public static Whisper3 instance(Whisper3Options options) {
+        return new Whisper3(Whisper3Model.load(options), true, options);
+    }
 
-            this.encoder = loadModel(RESOURCE_ENCODER);
-            this.decoder = loadModel(RESOURCE_DECODER);
-            this.decoderCrossAttention = loadModel(RESOURCE_DECODER_CROSS_ATTENTION_INIT);
+    /**
+     * Create a {@code Whisper3} instance using an already loaded model, without copying its weights.
+     *
+     * <p>Closing the instance does not close the shared model, the caller remains responsible for it.
+     *
+     * @param model the shared model.
+     * @return a new {@code Whisper3} instance using the shared model.
+     */
+    public static Whisper3 instance(Whisper3Model model) {
+        return instance(model, Whisper3Options.options());
+    }
 
-            this.suppressionMask = setupSuppressionMask(this.whisperManager, this.vocabulary.size());
-            this.negativeInfinity = whisperManager.create(Float.NEGATIVE_INFINITY)
-                    .toType(DataType.FLOAT16, false);
+    /**
+     * Create a {@code Whisper3} instance using an already loaded model, without copying its weights.
+     *
+     * <p>Options concerning the model itself, like the model path or quantization, are ignored.
+     * Closing the instance does not close the shared model, the caller remains responsible for it.
+     *
+     * @param model the shared model.
+     * @param options the options of this instance.
+     * @return a new {@code Whisper3} instance using the shared model.
+     */
+    public static Whisper3 instance(Whisper3Model model, Whisper3Options options) {
+        return new Whisper3(model, false, options);
+    }
 
-        } catch (IOException | MalformedModelException e) {
-            throw new RuntimeException("Could not create whisper instance");
-        }
+    /**
+     * Whisper constructor with the model to use.
+     * @param model the model
+     * @param ownsModel whether closing this instance closes the model
+     * @param options the options of this instance
+     */
+    private Whisper3(Whisper3Model model, boolean ownsModel, Whisper3Options options) {
+        this.model = model;
+        this.ownsModel = ownsModel;
+        this.options = options;
+        this.memoryBudget = options.getMemoryBudget() != null
+                ? options.getMemoryBudget()
+                : WhisperMemoryBudget.unlimited();
     }
 
     /**
@@ -161,6 +160,74 @@ public class Whisper3 implements AutoCloseable {
         return WhisperTask.task(this);
     }
 
+    /**
+     * Get the model used by this instance, e.g. to share it with further instances.
+     * @return the model.
+     */
+    public Whisper3Model getModel() {
+        return model;
+    }
+
+    /**
+     * Get the executor behind {@link WhisperTask#executeAsync()}, e.g. to monitor its queue.
+     * The executor is created on first use, configured by the {@link Whisper3Options} of this instance.
+     * @return the executor of this instance.
+     */
+    public WhisperExecutor getExecutor() {
+        executorLock.lock();
+        try {
+            if (executor == null) {
+                executor = new WhisperExecutor("whisper-async", options.getAsyncWorkers(),
+                        options.getAsyncQueueCapacity(), options.getRejectionPolicy(),
+                        options.getOrderingPolicy(), options.isShedLoad());
+            }
+            return executor;
+        } finally {
+            executorLock.unlock();
+        }
+    }
+
+    /**
+     * Get the native memory budget of this instance, e.g. to monitor the memory in use and its high-water mark.
+     * @return the memory budget.
+     */
+    public WhisperMemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Get the result cache of this instance, e.g. to monitor its hit rate.
+     * @return the result cache, or {@code null} if results are not cached.
+     */
+    public WhisperResultCache getResultCache() {
+        return options.getResultCache();
+    }
+
+    /**
+     * Get the weight format of the model files loaded by this instance.
+     * @return the quantization mode.
+     */
+    public Whisper3Quantization getQuantization() {
+        return model.getQuantization();
+    }
+
+    /**
+     * Get the device the model of this instance is loaded onto.
+     * @return the device.
+     */
+    public Device getDevice() {
+        return model.getDevice();
+    }
+
+    /**
+     * Convert the given text into tokens of the vocabulary of this instance, e.g. to use it as a prompt.
+     * @param text the text.
+     * @return the tokens representing the text.
+     */
+    public List<WhisperToken> tokenize(String text) {
+        return Whisper3TokenEncoder.textToTokens(text, model.getVocabulary());
+    }
+
     /**
      * Process the given {@link Audio} with a default set of start tokens.
      * Language of the input audio is detected by whisper, it is transcribed.
@@ -206,198 +273,764 @@ public class Whisper3 implements AutoCloseable {
      * @return a {@link WhisperResult} containing the transcribed text.
      */
     public WhisperResult process(final Audio audio, final List<WhisperToken> startTokens) {
-        try (NDManager transcriptionManager = whisperManager.newSubManager()) {
-            transcriptionManager.setName("transcription_manager");
-            // audio -> mel spectrogram
-            NDList processedInput = processInput(transcriptionManager, audio);
+        return process(audio, startTokens, WhisperDecodingOptions.options());
+    }
 
-            // encoder pass
-            NDArray encoderOutput = forward(encoder, processedInput).singletonOrThrow();
+    /**
+     * Process the given {@link Audio} with the desired start tokens and decoding options.
+     *
+     * <p>Deadline and cancellation of the options are checked before the encoder pass and between two decoder passes.
+     * A cancelled run releases its native memory and throws a {@link CancellationException}, a run past its
+     * deadline returns the tokens decoded so far.
+     *
+     * <p>The start tokens may begin with a prompt: {@link Whisper3SpecialToken#START_OF_PREVIOUS}, followed by the tokens
+     * of the previous text, followed by {@link Whisper3SpecialToken#START_OF_TRANSCRIPT} and the regular start tokens.
+     * The prompt only conditions the decoding, it is not part of the result.
+     *
+     * <p>Before the encoder pass, the estimated peak memory of the run is reserved from the {@link WhisperMemoryBudget}
+     * of this instance. If the budget is exhausted, the call waits or is rejected with a
+     * {@link java.util.concurrent.RejectedExecutionException}, depending on the {@link WhisperAdmissionPolicy}.
+     *
+     * <p>To facilitate configuration, it is recommended to use {@link WhisperTask} instead of
+     * calling this method directly. Create a {@link WhisperTask} using {@link Whisper3#task()}.
+     *
+     * @param audio the input {@link Audio} to process.
+     * @param startTokens list of start tokens to guide the Whisper model.
+     * @param options the options of this decoding run.
+     * @return a {@link WhisperResult} containing the transcribed text.
+     */
+    public WhisperResult process(final Audio audio, final List<WhisperToken> startTokens, final WhisperDecodingOptions options) {
+        checkCancelled(options);
+        if (options.isDeadlineExceeded()) {
+            return new WhisperResult("", "", List.of(), WhisperStopReason.DEADLINE_EXCEEDED);
+        }
 
-            // setup initial token
-            long initToken;
-            if (startTokens.size() == 0) {
-                initToken = Whisper3SpecialToken.START_OF_TRANSCRIPT.getTokenId();
-            } else {
-                initToken = startTokens.get(0).getTokenId();
-            }
+        try (Whisper3Session session = openSession(audio, startTokens, options)) {
+            return decode(session, startTokens, options);
+        }
+    }
+
+    /**
+     * Process precomputed mel features with the desired start tokens and decoding options, e.g. features computed on
+     * another host by a {@link WhisperFeatureExtractor}. Skips the feature extraction, otherwise the same as
+     * {@link #process(Audio, List, WhisperDecodingOptions)}.
+     *
+     * <p>To facilitate configuration, it is recommended to use {@link WhisperTask#transcribe(WhisperFeatures)} instead
+     * of calling this method directly.
+     *
+     * @param features the mel features of the audio to process.
+     * @param startTokens list of start tokens to guide the Whisper model.
+     * @param options the options of this decoding run.
+     * @return a {@link WhisperResult} containing the transcribed text.
+     * @throws IllegalArgumentException if the features do not match the mel bins of the model.
+     */
+    public WhisperResult process(final WhisperFeatures features, final List<WhisperToken> startTokens,
+                                 final WhisperDecodingOptions options) {
+        checkCancelled(options);
+        if (options.isDeadlineExceeded()) {
+            return new WhisperResult("", "", List.of(), WhisperStopReason.DEADLINE_EXCEEDED);
+        }
 
-            // initialize NDArray that will hold all tokens during the decoder process
-            NDArray previousTokenIds = transcriptionManager
-                    .create(new long[] { initToken })
-                    .expandDims(0) // must be 2D
-                    .toDevice(device, false);
+        try (Whisper3Session session = openSession(features, startTokens, options)) {
+            return decode(session, startTokens, options);
+        }
+    }
 
-            // init kv cache
-            NDList keyValueCache = initKeyValueCache(transcriptionManager, encoderOutput);
+    /**
+     * Open the session of a decoding run and compute the mel features of its audio, the CPU bound part of a run.
+     *
+     * <p>Reserves the estimated peak memory of the run from the {@link WhisperMemoryBudget} of this instance,
+     * released when the session is closed.
+     *
+     * @param audio the input {@link Audio} to process.
+     * @param startTokens list of start tokens to guide the Whisper model.
+     * @param options the options of this decoding run.
+     * @return the session with the mel features of the audio, to pass to {@link #decode(Whisper3Session, List, WhisperDecodingOptions)}.
+     */
+    Whisper3Session openSession(final Audio audio, final List<WhisperToken> startTokens, final WhisperDecodingOptions options) {
+        Whisper3Session session = openSession(audioSeconds(audio), startTokens, options);
+        try {
+            session.preprocess(audio);
+            return session;
+        } catch (RuntimeException e) {
+            session.close();
+            throw e;
+        }
+    }
 
-            // special conditioning for timestamps; necessary to force-negate some logits later in the decoder
-            boolean withTimestamps = true;
-            if (startTokens.contains(Whisper3SpecialToken.NO_TIMESTAMPS)) {
-                withTimestamps = false;
-            }
+    /**
+     * Open the session of a decoding run over precomputed mel features, see
+     * {@link #openSession(Audio, List, WhisperDecodingOptions)}.
+     *
+     * @param features the mel features of the audio to process.
+     * @param startTokens list of start tokens to guide the Whisper model.
+     * @param options the options of this decoding run.
+     * @return the session with the mel features, to pass to {@link #decode(Whisper3Session, List, WhisperDecodingOptions)}.
+     */
+    Whisper3Session openSession(final WhisperFeatures features, final List<WhisperToken> startTokens,
+                                final WhisperDecodingOptions options) {
+        Whisper3Session session = openSession(features.getAudioSeconds(), startTokens, options);
+        try {
+            session.preprocess(features);
+            return session;
+        } catch (RuntimeException e) {
+            session.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reserve the estimated peak memory of a decoding run and open its session, without mel features.
+     * @param audioSeconds the duration of the audio, {@link Double#NaN} if unknown.
+     * @param startTokens list of start tokens to guide the Whisper model.
+     * @param options the options of this decoding run.
+     * @return the empty session.
+     */
+    private Whisper3Session openSession(final double audioSeconds, final List<WhisperToken> startTokens,
+                                        final WhisperDecodingOptions options) {
+        int maxLoop = maxLoop(audioSeconds, startTokens, options);
+
+        // admission control, reserve the estimated peak memory before allocating anything
+        long reservedBytes = model.estimateRequestBytes(maxLoop + 1);
+        memoryBudget.acquire(reservedBytes, options);
+
+        return new Whisper3Session(model, memoryBudget, reservedBytes, maxLoop);
+    }
+
+    /**
+     * Run the encoder and the decoder loop of a session opened by {@link #openSession(Audio, List, WhisperDecodingOptions)}.
+     * The session is not closed.
+     *
+     * @param session the session with the mel features of the audio.
+     * @param startTokens list of start tokens to guide the Whisper model.
+     * @param options the options of this decoding run.
+     * @return a {@link WhisperResult} containing the transcribed text.
+     */
+    WhisperResult decode(final Whisper3Session session, final List<WhisperToken> startTokens, final WhisperDecodingOptions options) {
+        try {
+            checkCancelled(options);
+            session.encode();
+        } catch (CancellationException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        return decodeSequence(session, startTokens, options);
+    }
+
+    /**
+     * Run the decoder loop of a single sequence on the encoder output of a session.
+     *
+     * @param session the session after its encoder pass, without token ids.
+     * @param startTokens list of start tokens to guide the Whisper model.
+     * @param options the options of this decoding run.
+     * @return a {@link WhisperResult} containing the transcribed text.
+     */
+    private WhisperResult decodeSequence(final Whisper3Session session, final List<WhisperToken> startTokens,
+                                         final WhisperDecodingOptions options) {
+        // special conditioning for timestamps; necessary to force-negate some logits later in the decoder
+        boolean withTimestamps = withTimestamps(startTokens);
+        int maxLoop = session.maxLoop();
+        int promptSize = promptSize(startTokens);
+
+        try {
+            // setup initial token
+            session.append(initToken(startTokens));
 
-            // simple max loop limit to avoid endless loops (if whisper fails to generate EOT token)
-            int maxLoop = 100;
             int i = 0;
 
+            // feed the prompt and all forced start tokens in a single decoder pass, if the decoder supports it;
+            // otherwise they are fed one pass each, but their logits are not processed
+            int forcedTokens = forcedTokens(startTokens);
+            boolean prefill = forcedTokens > 1 && model.getConfig().isMultiTokenDecoder();
+            if (prefill) {
+                for (int p = 1; p < forcedTokens; p++) {
+                    session.append(startTokens.get(p).getTokenId());
+                }
+                i = forcedTokens - 1;
+            }
+            WhisperStopReason stopReason = WhisperStopReason.END_OF_TEXT;
+
+            // probability of no speech after the start-of-transcript token, and log-probabilities of the text tokens
+            double noSpeechProbability = Double.NaN;
+            double sumLogProbability = 0;
+            int generatedTokens = 0;
+
+            // online detection of hallucination loops over the freely generated tokens
+            WhisperRepetitionPolicy repetitionPolicy = options.getRepetitionPolicy();
+            RepetitionDetector repetitionDetector = new RepetitionDetector(
+                    Whisper3Timestamp.MIN_TIMESTAMP_TOKEN.getTokenId(), maxLoop);
+
+            // streaming of the generated tokens; tokens a detected repetition may still remove from the result
+            // are held back, so that the streamed tokens are always part of the result
+            WhisperTokenListener tokenListener = options.getTokenListener();
+            Whisper3TokenDecoder.Incremental textDecoder = new Whisper3TokenDecoder.Incremental();
+            int streamedTokens = 0;
+            int streamedSize = startTokens.size();
+            int heldBackTokens = 0;
+            int holdBack = switch (repetitionPolicy) {
+                case TRUNCATE -> RepetitionDetector.MAX_REDUNDANT_TOKENS;
+                case DISCARD -> Integer.MAX_VALUE;
+                default -> 0;
+            };
+
             while (true) {
                 // early exit condition to avoid endless loops
                 if (i >= maxLoop) {
+                    stopReason = WhisperStopReason.MAX_TOKENS;
                     break;
                 }
 
-                try (NDManager decoderPassManager = whisperManager.newSubManager()) {
-                    decoderPassManager.setName("decoder_pass_manager");
+                // cooperative cancellation and deadline, checked between two decoder passes
+                checkCancelled(options);
+                if (options.isDeadlineExceeded()) {
+                    stopReason = WhisperStopReason.DEADLINE_EXCEEDED;
+                    break;
+                }
+
+                boolean noSpeech = false;
+                try (NDManager decoderPassManager = model.newSubManager("decoder_pass_manager")) {
+                    NDArray logits;
+                    if (prefill) {
+                        NDArray prefillLogits = session.prefill(decoderPassManager);
+                        noSpeechProbability = noSpeechProbability(
+                                prefillLogits.get("0,{}:{},:", promptSize, promptSize + 1));
+                        logits = prefillLogits.get("0,-1:,:");
+                        prefill = false;
+                    } else {
+                        logits = session.forward(decoderPassManager);
+                        if (i == promptSize) {
+                            noSpeechProbability = noSpeechProbability(logits);
+                        }
+                    }
 
-                    NDArray lastToken = previousTokenIds.get(0, i).reshape(1, 1);
+                    long token = selectToken(logits, startTokens, i, session.size(), promptSize, withTimestamps);
+                    session.append(token);
 
-                    // input consists of a flat list containing the last token, the encoder output,
-                    // and the entire key_value_cache flattened
-                    NDList decoderInputs = new NDList(lastToken, encoderOutput).addAll(keyValueCache);
-                    NDList output = forward(decoder, decoderInputs);
+                    if (i + 1 >= startTokens.size()) {
+                        double logProbability = logProbability(logits, token);
+                        sumLogProbability += logProbability;
+                        generatedTokens++;
+                        // no speech and an unlikely first token: most likely a hallucination, do not decode it
+                        noSpeech = generatedTokens == 1 && options.isNoSpeech(noSpeechProbability, logProbability);
+                    }
+                } finally {
+                    i++;
+                }
 
-                    // first index contains the next predicted token
-                    NDArray decoderOutput = output.get(0);
-                    decoderOutput.attach(decoderPassManager);
-                    // all other indices are the new key_value_cache
-                    NDList pastKeyValueCache = output.subNDList(1);
+                if (noSpeech) {
+                    stopReason = WhisperStopReason.NO_SPEECH;
+                    session.truncate(startTokens.size());
+                    break;
+                }
 
-                    NDArray logits = decoderOutput.get("0,-1:,:").duplicate();
+                // if EOT, break out
+                if (Whisper3SpecialToken.END_OF_TEXT.getTokenId() == session.lastToken()) {
+                    break;
+                }
 
-                    // SuppressTokensLogitsProcessor
-                    // suppresses a specific set of tokens, always, for some probably good reason
-                    logits.set(suppressionMask, negativeInfinity);
+                // if whisper repeats itself, stop and apply the fallback
+                if (repetitionPolicy != WhisperRepetitionPolicy.IGNORE
+                        && i >= startTokens.size()
+                        && repetitionDetector.accept(session.lastToken())) {
+                    stopReason = WhisperStopReason.REPETITION;
+                    session.truncate(repetitionCut(repetitionDetector, repetitionPolicy, startTokens.size(),
+                            session.size(), session::tokenId));
+                    break;
+                }
 
-                    // force the start tokens (adapted from ForceTokensLogitsProcessor)
-                    if (i + 1 < startTokens.size()) {
-                        WhisperToken startToken = startTokens.get(i + 1);
-                        // null tokens and indices < 0 are skipped
-                        if (startToken != null && startToken.getTokenId() >= 0) {
-                            logits.set(new NDIndex(":,:"), negativeInfinity);
-                            logits.set(new NDIndex(":,{}", startToken.getTokenId()), 0);
+                if (tokenListener != null && i >= startTokens.size()) {
+                    if (!repetitionDetector.isTimestamp(session.lastToken())) {
+                        heldBackTokens++;
+                    }
+                    // stream up to the last token no repetition can remove anymore
+                    while (streamedSize < session.size() && (holdBack == 0 || heldBackTokens > holdBack)) {
+                        long token = session.tokenId(streamedSize++);
+                        if (!repetitionDetector.isTimestamp(token)) {
+                            heldBackTokens--;
                         }
+                        tokenListener.onToken(tokenEvent(streamedTokens++, token, textDecoder));
                     }
+                }
+            }
+
+            // the held back tokens, as far as they are part of the result
+            if (tokenListener != null) {
+                for (; streamedSize < session.size(); streamedSize++) {
+                    long token = session.tokenId(streamedSize);
+                    if (token != Whisper3SpecialToken.END_OF_TEXT.getTokenId()) {
+                        tokenListener.onToken(tokenEvent(streamedTokens++, token, textDecoder));
+                    }
+                }
+            }
+
+            return toResult(session.tokenIds(promptSize), stopReason, session.peakBytes(), noSpeechProbability,
+                    generatedTokens == 0 ? Double.NaN : sumLogProbability / generatedTokens);
+        } catch (CancellationException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Process the given {@link Audio} once with several sets of start tokens, e.g. to get both the transcription
+     * and the English translation of the same audio.
+     *
+     * <p>The mel features and the encoder pass are computed once and shared. If the decoder accepts batches, see
+     * {@link Whisper3ModelConfig#isBatchDecoder()}, all variants are decoded together as one batch, one decoder pass
+     * per step for all of them, with a shared cross-attention key value cache; prompts are then fed token by token,
+     * and variants that finished early are carried along until the last one finished. Otherwise, e.g. with the
+     * bundled decoder, which is traced for a batch of one, the variants are decoded one after another.
+     *
+     * @param audio the input {@link Audio} to process.
+     * @param variants the start tokens of each variant, see {@link #process(Audio, List, WhisperDecodingOptions)}.
+     * @param options the options of this decoding run, shared by all variants.
+     * @return a {@link WhisperResult} per variant, in the order of the variants; empty without variants.
+     */
+    public List<WhisperResult> processVariants(final Audio audio, final List<List<WhisperToken>> variants,
+                                               final WhisperDecodingOptions options) {
+        int batchSize = variants.size();
+        if (batchSize == 0) {
+            return List.of();
+        }
+        if (batchSize == 1) {
+            return List.of(process(audio, variants.get(0), options));
+        }
+        checkCancelled(options);
+        if (options.isDeadlineExceeded()) {
+            return variants.stream()
+                    .map(variant -> new WhisperResult("", "", List.of(), WhisperStopReason.DEADLINE_EXCEEDED))
+                    .toList();
+        }
+        if (!model.getConfig().isBatchDecoder()) {
+            return processVariantsSequentially(audio, variants, options);
+        }
+
+        boolean[] withTimestamps = new boolean[batchSize];
+        int[] maxLoop = new int[batchSize];
+        int[] promptSize = new int[batchSize];
+        long[] initTokens = new long[batchSize];
+        RepetitionDetector[] repetitionDetectors = new RepetitionDetector[batchSize];
+        int maxSteps = 0;
+        for (int r = 0; r < batchSize; r++) {
+            List<WhisperToken> startTokens = variants.get(r);
+            withTimestamps[r] = withTimestamps(startTokens);
+            maxLoop[r] = maxLoop(audioSeconds(audio), startTokens, options);
+            promptSize[r] = promptSize(startTokens);
+            initTokens[r] = initToken(startTokens);
+            repetitionDetectors[r] = new RepetitionDetector(Whisper3Timestamp.MIN_TIMESTAMP_TOKEN.getTokenId(), maxLoop[r]);
+            maxSteps = Math.max(maxSteps, maxLoop[r]);
+        }
+
+        // admission control, reserve the estimated peak memory of the whole batch
+        long reservedBytes = model.estimateRequestBytes(maxSteps + 1, batchSize);
+        memoryBudget.acquire(reservedBytes, options);
+
+        try (Whisper3BatchSession session = new Whisper3BatchSession(model, memoryBudget, batchSize)) {
+            session.encode(audio);
+            session.append(initTokens);
+
+            // number of valid tokens of each variant once it finished, -1 while it is still decoding
+            int[] endSize = new int[batchSize];
+            Arrays.fill(endSize, -1);
+            WhisperStopReason[] stopReasons = new WhisperStopReason[batchSize];
+            double[] noSpeechProbabilities = new double[batchSize];
+            Arrays.fill(noSpeechProbabilities, Double.NaN);
+            double[] sumLogProbabilities = new double[batchSize];
+            int[] generatedTokens = new int[batchSize];
+            WhisperRepetitionPolicy repetitionPolicy = options.getRepetitionPolicy();
+            long endOfText = Whisper3SpecialToken.END_OF_TEXT.getTokenId();
 
-                    // suppress specific tokens that probably are commonly spit out by whisper immediately
-                    // after starting and would break it somehow
-                    // (adapted from: SuppressTokensAtBeginLogitsProcessor)
-                    if (previousTokenIds.size(1) == 3) {
-                        // 220 = some random token? taken from huggingface whisper code
-                        logits.set(new NDIndex(":,220"), negativeInfinity);
-                        logits.set(new NDIndex(":,{}", Whisper3SpecialToken.END_OF_TEXT.getTokenId()), negativeInfinity);
-
-                        // if timestamps are desired, suppress these 2 tokens that prevent proper timestamp generation
-                        if (withTimestamps) {
-                            logits.set(new NDIndex(":,{}", Whisper3SpecialToken.NO_TIMESTAMPS.getTokenId()), negativeInfinity);
-                            logits.set(new NDIndex(":,{}", Whisper3Timestamp.MIN_TIMESTAMP_TOKEN.getTokenId()), negativeInfinity);
+            int i = 0;
+            int active = batchSize;
+            while (true) {
+                // early exit condition per variant to avoid endless loops
+                for (int r = 0; r < batchSize; r++) {
+                    if (endSize[r] < 0 && i >= maxLoop[r]) {
+                        endSize[r] = session.size();
+                        stopReasons[r] = WhisperStopReason.MAX_TOKENS;
+                        active--;
+                    }
+                }
+                if (active == 0) {
+                    break;
+                }
+
+                // cooperative cancellation and deadline, checked between two decoder passes
+                checkCancelled(options);
+                if (options.isDeadlineExceeded()) {
+                    for (int r = 0; r < batchSize; r++) {
+                        if (endSize[r] < 0) {
+                            endSize[r] = session.size();
+                            stopReasons[r] = WhisperStopReason.DEADLINE_EXCEEDED;
                         }
                     }
+                    break;
+                }
 
-                    // greedy decoding, attach to previous tokens
-                    NDArray currentToken = logits.argMax();
-                    previousTokenIds = previousTokenIds.concat(currentToken.reshape(1, 1), 1);
-                    previousTokenIds.attach(transcriptionManager);
-
-                    // close previous cache to store a new one
-                    keyValueCache.close();
-                    // TODO: in python, the self-attention-cache only grows to the size of 16,
-                    //  while this cache can theoretically grow endlessly... check if it matters
-                    keyValueCache = pastKeyValueCache;
-                    keyValueCache.attach(transcriptionManager);
+                long[] nextTokens = new long[batchSize];
+                try (NDManager decoderPassManager = model.newSubManager("decoder_pass_manager")) {
+                    NDArray[] logits = session.forward(decoderPassManager);
+                    for (int r = 0; r < batchSize; r++) {
+                        // finished variants are fed end-of-text until the whole batch is done
+                        if (endSize[r] >= 0) {
+                            nextTokens[r] = endOfText;
+                            continue;
+                        }
+                        if (i == promptSize[r]) {
+                            noSpeechProbabilities[r] = noSpeechProbability(logits[r]);
+                        }
+                        nextTokens[r] = selectToken(logits[r], variants.get(r), i, session.size(), promptSize[r], withTimestamps[r]);
+                        if (i + 1 >= variants.get(r).size()) {
+                            double logProbability = logProbability(logits[r], nextTokens[r]);
+                            sumLogProbabilities[r] += logProbability;
+                            generatedTokens[r]++;
+                            if (generatedTokens[r] == 1 && options.isNoSpeech(noSpeechProbabilities[r], logProbability)) {
+                                // keep only the start tokens, the variant is fed end-of-text from now on
+                                endSize[r] = session.size();
+                                stopReasons[r] = WhisperStopReason.NO_SPEECH;
+                                active--;
+                            }
+                        }
+                    }
+                    session.append(nextTokens);
                 } finally {
                     i++;
                 }
 
-                // if EOT, break out
-                if (Whisper3SpecialToken.END_OF_TEXT.getTokenId() == previousTokenIds.get("0,-1").getLong()) {
-                    break;
+                for (int r = 0; r < batchSize; r++) {
+                    if (endSize[r] >= 0) {
+                        continue;
+                    }
+                    if (nextTokens[r] == endOfText) {
+                        endSize[r] = session.size();
+                        stopReasons[r] = WhisperStopReason.END_OF_TEXT;
+                        active--;
+                    } else if (repetitionPolicy != WhisperRepetitionPolicy.IGNORE
+                            && i >= variants.get(r).size()
+                            && repetitionDetectors[r].accept(nextTokens[r])) {
+                        int row = r;
+                        endSize[r] = repetitionCut(repetitionDetectors[r], repetitionPolicy, variants.get(r).size(),
+                                session.size(), index -> session.tokenId(row, index));
+                        stopReasons[r] = WhisperStopReason.REPETITION;
+                        active--;
+                    }
                 }
             }
 
-            // token ids -> raw tokens
-            List<WhisperToken> parsedTokens = parseTokens(previousTokenIds);
-            // transform tokens to UTF-8
-            String rawResult = Whisper3TokenDecoder.rawTokensToText(
-                    parsedTokens.stream().map(WhisperToken::getToken).toList()
-            );
-            // strip special tokens
-            String cleanedResult = removeSpecialTokens(rawResult);
-
-            return new WhisperResult(rawResult, cleanedResult, parsedTokens);
+            List<WhisperResult> results = new ArrayList<>(batchSize);
+            for (int r = 0; r < batchSize; r++) {
+                results.add(toResult(session.tokenIds(r, promptSize[r], endSize[r]), stopReasons[r], session.peakBytes(),
+                        noSpeechProbabilities[r],
+                        generatedTokens[r] == 0 ? Double.NaN : sumLogProbabilities[r] / generatedTokens[r]));
+            }
+            return results;
+        } catch (CancellationException e) {
+            throw e;
         } catch (Exception e) {
             throw new RuntimeException(e);
+        } finally {
+            memoryBudget.release(reservedBytes);
         }
     }
 
-    private Model loadModel(String name) throws MalformedModelException, IOException {
-        final Model model = Model.newInstance(name, device);
-        model.load(this.basePath, null, Collections.singletonMap("mapLocation", "true"));
-        this.whisperManager.attachInternal(name, model.getNDManager());
-        return model;
+    /**
+     * Decode several variants of the same audio one after another on a single encoder pass,
+     * for decoders that only accept a batch of one.
+     *
+     * @param audio the input {@link Audio} to process.
+     * @param variants the start tokens of each variant, at least one.
+     * @param options the options of this decoding run, shared by all variants; their token listener is not called.
+     * @return a {@link WhisperResult} per variant, in the order of the variants.
+     */
+    private List<WhisperResult> processVariantsSequentially(final Audio audio, final List<List<WhisperToken>> variants,
+                                                            final WhisperDecodingOptions options) {
+        double audioSeconds = audioSeconds(audio);
+        WhisperDecodingOptions variantOptions = options.withoutTokenListener();
+        int[] maxLoop = new int[variants.size()];
+        int longest = 0;
+        for (int r = 0; r < variants.size(); r++) {
+            maxLoop[r] = maxLoop(audioSeconds, variants.get(r), options);
+            if (maxLoop[r] > maxLoop[longest]) {
+                longest = r;
+            }
+        }
+
+        // the session reserves the memory of the longest variant, the variants reuse it one after another
+        try (Whisper3Session session = openSession(audio, variants.get(longest), options)) {
+            List<WhisperResult> results = new ArrayList<>(variants.size());
+            session.restart(maxLoop[0]);
+            results.add(decode(session, variants.get(0), variantOptions));
+            for (int r = 1; r < variants.size(); r++) {
+                session.restart(maxLoop[r]);
+                results.add(decodeSequence(session, variants.get(r), variantOptions));
+            }
+            return results;
+        }
     }
 
-    private NDList forward(final Model model, final NDList inputs) {
-        ParameterStore parameterStore = new ParameterStore(inputs.getManager(), false);
-        NDList result = model.getBlock()
-                .forward(parameterStore, inputs, false);
-        result.attach(inputs.getManager());
-        return result;
+    /**
+     * Process several short clips by packing them into as few 30 second encoder windows as possible, e.g. voice
+     * commands or short voicemails, which would otherwise each pay for a full encoder pass over mostly padding.
+     *
+     * <p>The clips are concatenated in their order with a short silence in between and decoded with timestamps,
+     * which are removed from the start tokens if necessary. The segments of each window are then assigned to the
+     * clip containing their midpoint. A segment spanning two clips, e.g. if Whisper ignored the silence between
+     * them, is assigned to one of them only; clips which are sensitive to that are better processed on their own.
+     *
+     * @param clips the input clips, all with the same sample rate.
+     * @param startTokens list of start tokens to guide the Whisper model, shared by all clips.
+     * @param options the options of the decoding runs, shared by all windows; their token listener is not called.
+     * @return a {@link WhisperResult} per clip, in the order of the clips, with timestamps relative to the clip.
+     */
+    public List<WhisperResult> processPacked(final List<Audio> clips, final List<WhisperToken> startTokens,
+                                             final WhisperDecodingOptions options) {
+        List<WhisperToken> windowTokens = startTokens.stream()
+                .filter(token -> token != Whisper3SpecialToken.NO_TIMESTAMPS)
+                .toList();
+
+        WhisperResult[] results = new WhisperResult[clips.size()];
+        for (WhisperClipPacker.Window window : WhisperClipPacker.pack(clips)) {
+            // the tokens of a window belong to several clips, they are not streamed
+            WhisperResult windowResult = process(window.audio(), windowTokens, options.withoutTokenListener());
+            List<List<WhisperSegment>> segments = WhisperClipPacker.split(window, windowResult);
+            for (int c = 0; c < segments.size(); c++) {
+                List<WhisperToken> tokens = WhisperClipPacker.tokens(segments.get(c));
+                String rawResult = Whisper3TokenDecoder.rawTokensToText(
+                        tokens.stream().map(WhisperToken::getToken).toList()
+                );
+                String text = String.join(" ", segments.get(c).stream().map(WhisperSegment::text).toList());
+                results[window.clips()[c]] = new WhisperResult(rawResult, text, tokens,
+                        windowResult.stopReason(), windowResult.peakMemoryBytes());
+            }
+        }
+        return List.of(results);
     }
 
-    private NDList initKeyValueCache(NDManager manager, NDArray encoderOutput) {
-        NDList kvCrossAttentions = forward(decoderCrossAttention, new NDList(encoderOutput));
-        NDArray kvSelfAttention = manager.zeros(new Shape(1, 20, 0, 64), DataType.FLOAT16);
+    /**
+     * Pick the next token from the logits of a decoder pass: takes forced start tokens as they are,
+     * otherwise applies the suppression logits processors and decodes greedily.
+     * @param logits the logits of a single sequence, with shape (1, vocabulary size); modified in place.
+     * @param startTokens the start tokens of the sequence.
+     * @param step the number of decoder passes before this one.
+     * @param size the number of tokens of the sequence so far.
+     * @param promptSize the number of prompt tokens in front of the start-of-transcript token.
+     * @param withTimestamps whether timestamp tokens are generated.
+     * @return the next token id.
+     */
+    private long selectToken(NDArray logits, List<WhisperToken> startTokens, int step, int size, int promptSize,
+                             boolean withTimestamps) {
+        // forced start tokens are taken as they are, without looking at the logits
+        // (adapted from ForceTokensLogitsProcessor)
+        if (step + 1 < startTokens.size()) {
+            WhisperToken startToken = startTokens.get(step + 1);
+            // null tokens and indices < 0 are skipped
+            if (startToken != null && startToken.getTokenId() >= 0) {
+                return startToken.getTokenId();
+            }
+        }
+
+        NDArray negativeInfinity = model.getNegativeInfinity();
+
+        // SuppressTokensLogitsProcessor
+        // suppresses a specific set of tokens, always, for some probably good reason
+        logits.set(model.getSuppressionMask(), negativeInfinity);
 
-        NDList pastKeyValues = new NDList();
-        for (int i = 0; i < 32; ++i) {
-            pastKeyValues.add(kvSelfAttention);
-            pastKeyValues.add(kvSelfAttention);
-            pastKeyValues.add(kvCrossAttentions.get(i * 2));
-            pastKeyValues.add(kvCrossAttentions.get(i * 2 + 1));
+        // suppress specific tokens that probably are commonly spit out by whisper immediately
+        // after starting and would break it somehow
+        // (adapted from: SuppressTokensAtBeginLogitsProcessor)
+        if (size == promptSize + 3) {
+            // 220 = some random token? taken from huggingface whisper code
+            logits.set(new NDIndex(":,220"), negativeInfinity);
+            logits.set(new NDIndex(":,{}", Whisper3SpecialToken.END_OF_TEXT.getTokenId()), negativeInfinity);
+
+            // if timestamps are desired, suppress these 2 tokens that prevent proper timestamp generation
+            if (withTimestamps) {
+                logits.set(new NDIndex(":,{}", Whisper3SpecialToken.NO_TIMESTAMPS.getTokenId()), negativeInfinity);
+                logits.set(new NDIndex(":,{}", Whisper3Timestamp.MIN_TIMESTAMP_TOKEN.getTokenId()), negativeInfinity);
+            }
         }
 
-        return pastKeyValues;
+        // greedy decoding
+        return logits.argMax().getLong();
+    }
+
+    /**
+     * Probability of the no-speech token, predicted by Whisper right after the start-of-transcript token.
+     * Taken from the unprocessed logits, before any suppression.
+     * @param logits the logits following the start-of-transcript token, with shape (1, vocabulary size).
+     * @return the no-speech probability.
+     */
+    private static double noSpeechProbability(NDArray logits) {
+        return logits.toType(DataType.FLOAT32, false).softmax(-1)
+                .getFloat(0, Whisper3SpecialToken.NO_SPEECH.getTokenId());
+    }
+
+    /**
+     * Log-probability of the selected token under the processed logits.
+     * @param logits the logits of the pass, after suppression, with shape (1, vocabulary size).
+     * @param tokenId the selected token id.
+     * @return the log-probability of the token.
+     */
+    private static double logProbability(NDArray logits, long tokenId) {
+        return logits.toType(DataType.FLOAT32, false).logSoftmax(-1).getFloat(0, tokenId);
+    }
+
+    /**
+     * Create the streaming event of a generated token.
+     * @param index the index of the token among the generated tokens.
+     * @param tokenId the token id.
+     * @param textDecoder the incremental decoder of the streamed text so far.
+     * @return the event.
+     */
+    private WhisperTokenEvent tokenEvent(int index, long tokenId, Whisper3TokenDecoder.Incremental textDecoder) {
+        String token = model.getVocabulary().getToken(tokenId);
+        // special and timestamp tokens have no text
+        String text = tokenId < Whisper3SpecialToken.END_OF_TEXT.getTokenId() ? textDecoder.accept(token) : "";
+        return new WhisperTokenEvent(index, new WhisperAnyToken(tokenId, token), text);
+    }
+
+    /**
+     * Whether the given start tokens request timestamp tokens.
+     * @param startTokens the start tokens.
+     * @return false if the no-timestamps token is among the start tokens.
+     */
+    private static boolean withTimestamps(List<WhisperToken> startTokens) {
+        return !startTokens.contains(Whisper3SpecialToken.NO_TIMESTAMPS);
+    }
+
+    /**
+     * Token budget derived from the audio duration and task, to avoid endless loops
+     * (if whisper fails to generate EOT token); forced start tokens do not count. The whole sequence is limited to
+     * the text context of the decoder, as in the original implementation, so a long prompt shortens the budget.
+     * @param audioSeconds the duration of the audio; {@link Double#NaN} if unknown, which assumes a full window.
+     * @param startTokens the start tokens.
+     * @param options the options of the decoding run.
+     * @return the maximum number of decoder passes.
+     */
+    private int maxLoop(double audioSeconds, List<WhisperToken> startTokens, WhisperDecodingOptions options) {
+        if (Double.isNaN(audioSeconds)) {
+            audioSeconds = WINDOW_SECONDS;
+        }
+        boolean translate = startTokens.contains(Whisper3SpecialToken.TRANSLATE);
+        int maxLoop = Math.max(startTokens.size() - 1, 0)
+                + options.resolveMaxTokens(audioSeconds, translate, withTimestamps(startTokens));
+        // the token of the last pass is appended, but never fed to the decoder
+        return Math.min(maxLoop, model.getConfig().getTextContext() - 1);
     }
 
-    private static List<AudioProcessor> loadPreprocessors(final Path basePath, final NDManager manager) throws IOException {
-        Path melFile = basePath.resolve(RESOURCE_MEL_FILTER);
-        List<AudioProcessor> preprocessors = new ArrayList<>();
-        preprocessors.add(new PadOrTrim(480000));
-        preprocessors.add(LogMelSpectrogram.newInstance(melFile, 128, manager));
-        return preprocessors;
+    /**
+     * Duration of the given audio.
+     * @param audio the audio.
+     * @return the duration in seconds.
+     */
+    private static double audioSeconds(Audio audio) {
+        return (double) audio.getData().length / audio.getSampleRate();
     }
 
-    private static DefaultVocabulary loadVocabulary(final Path basePath) {
-        Map<String, Integer> vocab;
-        Map<String, Integer> added;
-        Type type = new TypeToken<Map<String, Integer>>() {}.getType();
+    /**
+     * Number of prompt tokens in front of the start-of-transcript token.
+     * @param startTokens the start tokens.
+     * @return the prompt size, 0 if there is no prompt.
+     */
+    private static int promptSize(List<WhisperToken> startTokens) {
+        if (!startTokens.isEmpty() && startTokens.get(0) == Whisper3SpecialToken.START_OF_PREVIOUS) {
+            return Math.max(startTokens.indexOf(Whisper3SpecialToken.START_OF_TRANSCRIPT), 0);
+        }
+        return 0;
+    }
 
-        Path vocabPath = basePath.resolve(RESOURCE_VOCAB);
-        Path addedTokensPath = basePath.resolve(RESOURCE_ADDED_TOKENS);
-        try (Reader reader = Files.newBufferedReader(vocabPath)) {
-            vocab = JsonUtils.GSON.fromJson(reader, type);
-        } catch (IOException e) {
-            throw new RuntimeException("Could not read vocabulary file");
+    /**
+     * Number of start tokens known in advance, i.e. before the first start token left to the model,
+     * such as {@link Whisper3Language#AUTO}.
+     * @param startTokens the start tokens.
+     * @return the number of leading start tokens which are forced.
+     */
+    private static int forcedTokens(List<WhisperToken> startTokens) {
+        int forced = 0;
+        while (forced < startTokens.size()
+                && startTokens.get(forced) != null
+                && startTokens.get(forced).getTokenId() >= 0) {
+            forced++;
         }
-        try (Reader reader = Files.newBufferedReader(addedTokensPath)) {
-            added = JsonUtils.GSON.fromJson(reader, type);
-        } catch (IOException e) {
-            throw new RuntimeException("Could not read added_tokens file");
+        return forced;
+    }
+
+    /**
+     * The first token of a sequence.
+     * @param startTokens the start tokens.
+     * @return the first start token, start-of-transcript if there are none.
+     */
+    private static long initToken(List<WhisperToken> startTokens) {
+        if (startTokens.isEmpty()) {
+            return Whisper3SpecialToken.START_OF_TRANSCRIPT.getTokenId();
         }
-        String[] result = new String[vocab.size() + added.size()];
-        vocab.forEach((key, value) -> result[value] = key);
-        added.forEach((key, value) -> result[value] = key);
-        return new DefaultVocabulary(Arrays.asList(result));
+        return startTokens.get(0).getTokenId();
+    }
+
+    /**
+     * Turn the token ids of a finished sequence into a result.
+     * @param tokenIds the token ids, starting with the start-of-transcript token.
+     * @param stopReason why decoding stopped.
+     * @param peakBytes the peak native bytes of the decoding run.
+     * @param noSpeechProbability the probability of the no-speech token, NaN if unknown.
+     * @param averageLogProbability the average log-probability of the generated tokens, NaN if unknown.
+     * @return the result.
+     */
+    private WhisperResult toResult(long[] tokenIds, WhisperStopReason stopReason, long peakBytes,
+                                   double noSpeechProbability, double averageLogProbability) {
+        // token ids -> raw tokens
+        List<WhisperToken> parsedTokens = parseTokens(tokenIds);
+        // transform tokens to UTF-8
+        String rawResult = Whisper3TokenDecoder.rawTokensToText(
+                parsedTokens.stream().map(WhisperToken::getToken).toList()
+        );
+        // strip special tokens
+        String cleanedResult = removeSpecialTokens(rawResult);
+
+        return new WhisperResult(rawResult, cleanedResult, parsedTokens, stopReason, peakBytes,
+                noSpeechProbability, averageLogProbability);
+    }
+
+    /**
+     * Compute the number of tokens to keep after a detected repetition, depending on the policy.
+     * @param detector the detector that detected the repetition.
+     * @param policy the repetition policy.
+     * @param forcedTokens number of start tokens at the beginning of the sequence, which are always kept.
+     * @param size the number of tokens of the sequence.
+     * @param tokenAt access to the token ids of the sequence.
+     * @return the number of tokens to keep.
+     */
+    private static int repetitionCut(RepetitionDetector detector, WhisperRepetitionPolicy policy, int forcedTokens,
+                                     int size, IntToLongFunction tokenAt) {
+        return switch (policy) {
+            case TRUNCATE -> {
+                // walk back over the redundant copies, timestamps in between are dropped as well
+                int redundant = detector.redundantTokens();
+                int newSize = size;
+                while (redundant > 0 && newSize > forcedTokens) {
+                    newSize--;
+                    if (!detector.isTimestamp(tokenAt.applyAsLong(newSize))) {
+                        redundant--;
+                    }
+                }
+                yield newSize;
+            }
+            case DISCARD -> Math.min(forcedTokens, size);
+            // STOP keeps all tokens
+            default -> size;
+        };
     }
 
-    private NDList processInput(NDManager manager, Audio input) {
-        NDArray samples = manager.create(input.getData());
-        for (AudioProcessor processor : preprocessors) {
-            samples = processor.extractFeatures(samples.getManager(), samples);
+    /**
+     * Throw if the decoding run was cancelled.
+     * @param options the options of the decoding run.
+     */
+    private static void checkCancelled(final WhisperDecodingOptions options) {
+        if (options.isCancelled()) {
+            throw new CancellationException("Whisper task was cancelled.");
         }
-        samples = samples.expandDims(0).toType(DataType.FLOAT16, true);
-        return new NDList(samples);
     }
 
     /**
@@ -406,10 +1039,10 @@ public class Whisper3 implements AutoCloseable {
      * @param result the predicted token ids.
      * @return a list of strings representing the tokens.
      */
-    private List<WhisperToken> parseTokens(NDArray result) {
+    private List<WhisperToken> parseTokens(long[] result) {
         List<WhisperToken> sentence = new ArrayList<>();
-        for (long tokenId : result.toLongArray()) {
-            String token = vocabulary.getToken(tokenId);
+        for (long tokenId : result) {
+            String token = model.getVocabulary().getToken(tokenId);
             sentence.add(new WhisperAnyToken(tokenId, token));
 
             if (Whisper3SpecialToken.END_OF_TEXT.getToken().equals(token)) {
@@ -420,23 +1053,6 @@ public class Whisper3 implements AutoCloseable {
         return sentence;
     }
 
-    private static NDIndex setupSuppressionMask(final NDManager manager, long vocabSize) {
-        // from Whisper v3 config, therefore currently only works for Whisper v3
-        // https://huggingface.co/openai/whisper-large-v3/blob/main/generation_config.json # suppress_tokens
-        int[] indices = new int[]{
-                1, 2, 7, 8, 9, 10, 14, 25, 26, 27, 28, 29, 31, 58, 59, 60, 61, 62, 63, 90, 91, 92, 93, 359, 503, 522, 542, 873, 893, 902, 918, 922, 931, 1350, 1853, 1982, 2460, 2627, 3246, 3253, 3268, 3536, 3846, 3961, 4183, 4667, 6585, 6647, 7273, 9061, 9383, 10428, 10929, 11938, 12033, 12331, 12562, 13793, 14157, 14635, 15265, 15618, 16553, 16604, 18362, 18956, 20075, 21675, 22520, 26130, 26161, 26435, 28279, 29464, 31650, 32302, 32470, 36865, 42863, 47425, 49870, 50254, 50258, 50359, 50360, 50361, 50362, 50363
-        };
-
-        NDArray mask = manager.zeros(new Shape(vocabSize), DataType.BOOLEAN);
-
-        // set the mask to true at the specified indices
-        for (int index : indices) {
-            mask.set(new NDIndex(index), 1);
-        }
-
-        return new NDIndex().addBooleanIndex(mask.expandDims(0));
-    }
-
     /**
      * Removes special tokens from the input string.
      * A token is defined as a sequence starting with "<|", ending with "|>",
@@ -451,32 +1067,28 @@ public class Whisper3 implements AutoCloseable {
     }
 
     /**
-     * Extract the given resource to the cache location.
-     * @param resource the resource name.
+     * Close the executor of this instance, see {@link WhisperExecutor#close()}, and the model if this instance loaded it.
+     * If asynchronous tasks do not stop, the model is not closed, since freeing its native memory under a running
+     * session would crash the process.
      */
-    private static void extractResourceToCache(String resource) {
-
-        try (InputStream in = Whisper3.class.getResourceAsStream("/" + resource)) {
-            if (in == null) {
-                throw new RuntimeException("Could not find whisper resource. Are you sure you added the whisper dependency?");
+    @Override
+    public void close() {
+        boolean stopped = true;
+        executorLock.lock();
+        try {
+            if (executor != null) {
+                executor.close();
+                stopped = executor.isTerminated();
             }
-
-            Path target = WHISPER_CACHE.resolve(resource);
-
-            // do not override if it already exists
-            if (!Files.exists(target)) {
-                FileOutputStream out = new FileOutputStream(target.toFile());
-                in.transferTo(out);
-                out.close();
-                log.info("Whisper resource '{}' cached.", resource);
+        } finally {
+            executorLock.unlock();
+        }
+        if (ownsModel) {
+            if (stopped) {
+                this.model.close();
+            } else {
+                log.warn("{} Whisper tasks did not stop, the model is not closed.", executor.getActiveCount());
             }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
         }
     }
-
-    @Override
-    public void close() throws Exception {
-        this.whisperManager.close();
-    }
 }
@@ -0,0 +1,261 @@
+package divisio.whisper;
+
+import ai.djl.modality.audio.Audio;
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDList;
+import ai.djl.ndarray.NDManager;
+
+import java.util.Arrays;
+
+/**
+ * The per-request state of several sequences decoded as one batch against a shared {@link Whisper3Model}.
+ *
+ * <p>All sequences decode the same audio: the encoder output and the cross-attention key value cache exist once
+ * and are broadcast to the batch. Every decoder pass feeds one token per sequence, so all sequences always have
+ * the same length and need no padding or attention mask.
+ *
+ * <p>Like the {@link Whisper3Session}, a batch session is confined to the thread that created it and releases
+ * its native memory on {@link #close()}.
+ */
+class Whisper3BatchSession implements AutoCloseable {
+
+    /**
+     * The shared, immutable model.
+     */
+    private final Whisper3Model model;
+
+    /**
+     * Manager holding all arrays of this session.
+     */
+    private final NDManager transcriptionManager;
+
+    /**
+     * Budget the held bytes of this session are reported to.
+     */
+    private final WhisperMemoryBudget memoryBudget;
+
+    /**
+     * Number of sequences of this session.
+     */
+    private final int batchSize;
+
+    /**
+     * Output of the encoder pass of the single audio, broadcast to the batch.
+     */
+    private NDArray encoderOutput;
+
+    /**
+     * The flattened key value cache of the whole batch, replaced after every decoder pass.
+     */
+    private NDList keyValueCache;
+
+    /**
+     * Token ids of each sequence, starting with the initial token.
+     */
+    private long[][] tokenIds;
+
+    /**
+     * Number of valid entries in each row of {@link #tokenIds}.
+     */
+    private int size;
+
+    /**
+     * Bytes of the arrays currently held by this session, as last reported to the {@link #memoryBudget}.
+     */
+    private long heldBytes;
+
+    /**
+     * Highest number of bytes held by this session at the same time.
+     */
+    private long peakBytes;
+
+    /**
+     * Create a new batch session against the given model.
+     * @param model the shared model.
+     * @param memoryBudget the budget to report the held bytes to.
+     * @param batchSize the number of sequences.
+     */
+    Whisper3BatchSession(Whisper3Model model, WhisperMemoryBudget memoryBudget, int batchSize) {
+        this.model = model;
+        this.memoryBudget = memoryBudget;
+        this.batchSize = batchSize;
+        this.tokenIds = new long[batchSize][128];
+        this.transcriptionManager = model.newSubManager("transcription_manager");
+    }
+
+    /**
+     * Run the encoder over the given audio once and initialize the key value cache of the batch.
+     * @param audio the input audio.
+     */
+    void encode(Audio audio) {
+        // audio -> mel spectrogram
+        NDList processedInput = model.processInput(transcriptionManager, audio);
+
+        // encoder pass
+        NDArray singleOutput = model.encode(processedInput);
+        updateHeldBytes(bytesOf(processedInput) + bytesOf(singleOutput));
+
+        // the mel features are not needed anymore once encoded
+        processedInput.close();
+
+        // init kv cache, shared cross-attention for the whole batch
+        keyValueCache = model.initKeyValueCache(transcriptionManager, singleOutput, batchSize);
+        encoderOutput = Whisper3Model.broadcast(singleOutput, batchSize);
+        updateHeldBytes(cacheBytes());
+    }
+
+    /**
+     * Run a single decoder pass for the last token of every sequence and advance the key value cache.
+     * @param decoderPassManager manager to hold the temporary arrays of this pass.
+     * @return the logits for the next token of each sequence, each with shape (1, vocabulary size),
+     *         attached to the pass manager.
+     */
+    NDArray[] forward(NDManager decoderPassManager) {
+        long[][] lastTokens = new long[batchSize][];
+        for (int r = 0; r < batchSize; r++) {
+            lastTokens[r] = new long[] { lastToken(r) };
+        }
+        NDArray tokens = decoderPassManager.create(lastTokens);
+
+        NDList decoderInputs = new NDList(tokens, encoderOutput).addAll(keyValueCache);
+        NDList output = model.decode(decoderInputs);
+
+        // first index contains the next predicted tokens
+        NDArray decoderOutput = output.get(0);
+        // all other indices are the new key_value_cache
+        NDList pastKeyValueCache = output.subNDList(1);
+
+        // previous and new self-attention cache are held at the same time until the previous one is closed,
+        // the cross-attention entries are passed through unchanged
+        updateHeldBytes(heldBytes + bytesOf(decoderOutput) + selfAttentionBytes(pastKeyValueCache));
+
+        // close previous cache to store a new one
+        keyValueCache.close();
+        keyValueCache = pastKeyValueCache;
+        keyValueCache.attach(transcriptionManager);
+        updateHeldBytes(cacheBytes());
+
+        NDArray[] logits = new NDArray[batchSize];
+        for (int r = 0; r < batchSize; r++) {
+            logits[r] = decoderOutput.get("{},-1:,:", r).duplicate();
+        }
+        return logits;
+    }
+
+    /**
+     * Append one token id to every sequence.
+     * @param nextTokens the token id of each sequence.
+     */
+    void append(long[] nextTokens) {
+        if (size == tokenIds[0].length) {
+            for (int r = 0; r < batchSize; r++) {
+                tokenIds[r] = Arrays.copyOf(tokenIds[r], size * 2);
+            }
+        }
+        for (int r = 0; r < batchSize; r++) {
+            tokenIds[r][size] = nextTokens[r];
+        }
+        size++;
+    }
+
+    /**
+     * Get the last token id of a sequence.
+     * @param row the index of the sequence.
+     * @return the last token id.
+     */
+    long lastToken(int row) {
+        return tokenIds[row][size - 1];
+    }
+
+    /**
+     * Get the token id of a sequence at the given position.
+     * @param row the index of the sequence.
+     * @param index the position, starting with the initial token.
+     * @return the token id.
+     */
+    long tokenId(int row, int index) {
+        return tokenIds[row][index];
+    }
+
+    /**
+     * Get the number of token ids of each sequence.
+     * @return the number of token ids.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Get a copy of a range of token ids of a sequence.
+     * @param row the index of the sequence.
+     * @param from the position of the first token id.
+     * @param to the position after the last token id.
+     * @return the token ids.
+     */
+    long[] tokenIds(int row, int from, int to) {
+        return Arrays.copyOfRange(tokenIds[row], Math.min(from, to), to);
+    }
+
+    /**
+     * Get the highest number of bytes held by this session at the same time.
+     * @return the peak bytes.
+     */
+    long peakBytes() {
+        return peakBytes;
+    }
+
+    /**
+     * Bytes of the encoder output and the key value cache; broadcast arrays are only counted once.
+     * @return the held bytes.
+     */
+    private long cacheBytes() {
+        long bytes = bytesOf(encoderOutput) / batchSize;
+        for (int i = 0; i < keyValueCache.size(); i++) {
+            long entry = bytesOf(keyValueCache.get(i));
+            // entries 2 and 3 of each layer are the broadcast cross-attention caches
+            bytes += i % 4 >= 2 ? entry / batchSize : entry;
+        }
+        return bytes;
+    }
+
+    /**
+     * Report the bytes currently held by this session to the budget.
+     * @param bytes the held bytes.
+     */
+    private void updateHeldBytes(long bytes) {
+        memoryBudget.recordUsage(bytes - heldBytes);
+        heldBytes = bytes;
+        peakBytes = Math.max(peakBytes, bytes);
+    }
+
+    private static long bytesOf(NDArray array) {
+        return array.size() * array.getDataType().getNumOfBytes();
+    }
+
+    /**
+     * Bytes of the self-attention entries of a flattened key value cache, the first two entries of each layer.
+     * @param cache the flattened key value cache.
+     * @return the self-attention bytes.
+     */
+    private static long selfAttentionBytes(NDList cache) {
+        long bytes = 0;
+        for (int i = 0; i < cache.size(); i += 4) {
+            bytes += bytesOf(cache.get(i)) + bytesOf(cache.get(i + 1));
+        }
+        return bytes;
+    }
+
+    private static long bytesOf(NDList list) {
+        long bytes = 0;
+        for (NDArray array : list) {
+            bytes += bytesOf(array);
+        }
+        return bytes;
+    }
+
+    @Override
+    public void close() {
+        transcriptionManager.close();
+        updateHeldBytes(0);
+    }
+}
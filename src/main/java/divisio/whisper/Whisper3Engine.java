@@ -0,0 +1,54 @@
+package divisio.whisper;
+
+/**
+ * The DJL engine running the encoder, the cross-attention initializer and the decoder of Whisper.
+ *
+ * <p>Each engine loads its own artifact format, expected next to each other in the model path,
+ * e.g. {@code whisper_v3_encoder_int8.pt} and {@code whisper_v3_encoder_int8.onnx}.
+ * Select an engine via {@link Whisper3Options#engine(Whisper3Engine)}; the calling code stays the same.
+ */
+public enum Whisper3Engine {
+    /**
+     * TorchScript modules on the PyTorch engine, the bundled model.
+     */
+    PYTORCH("PyTorch", ".pt"),
+
+    /**
+     * ONNX models on the ONNX Runtime engine, created with {@code scripts/export_whisper.py --format onnx}.
+     * Requires the {@code ai.djl.onnxruntime:onnxruntime-engine} dependency. Array operations on the outputs,
+     * like the logits processing, are delegated to the PyTorch engine.
+     */
+    ONNX_RUNTIME("OnnxRuntime", ".onnx");
+
+    private final String engineName;
+    private final String artifactExtension;
+
+    /**
+     * Engine consisting of the DJL engine name and the file extension of its artifacts.
+     * @param engineName the DJL engine name.
+     * @param artifactExtension the file extension of the model artifacts.
+     */
+    Whisper3Engine(String engineName, String artifactExtension) {
+        this.engineName = engineName;
+        this.artifactExtension = artifactExtension;
+    }
+
+    /**
+     * Get the name of the engine in DJL.
+     * @return the DJL engine name.
+     */
+    public String getEngineName() {
+        return engineName;
+    }
+
+    /**
+     * Derive the artifact name of the given model resource for this engine,
+     * e.g. {@code whisper_v3_encoder.pt} becomes {@code whisper_v3_encoder.onnx}.
+     * @param resource the resource name of the TorchScript model file.
+     * @return the resource name for this engine.
+     */
+    public String artifact(String resource) {
+        int extension = resource.lastIndexOf('.');
+        return resource.substring(0, extension) + artifactExtension;
+    }
+}
@@ -0,0 +1,583 @@
+package divisio.whisper;
+
+import ai.djl.Device;
+import ai.djl.MalformedModelException;
+import ai.djl.Model;
+import ai.djl.audio.processor.AudioProcessor;
+import ai.djl.audio.processor.LogMelSpectrogram;
+import ai.djl.audio.processor.PadOrTrim;
+import ai.djl.engine.Engine;
+import ai.djl.modality.audio.Audio;
+import ai.djl.modality.nlp.DefaultVocabulary;
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDList;
+import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.index.NDIndex;
+import ai.djl.ndarray.types.DataType;
+import ai.djl.ndarray.types.Shape;
+import ai.djl.pytorch.jni.JniUtils;
+import ai.djl.training.ParameterStore;
+import ai.djl.util.JsonUtils;
+import com.google.gson.reflect.TypeToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The immutable part of Whisper: the model weights, the vocabulary and the mel filters.
+ *
+ * <p>A {@code Whisper3Model} holds no per-request state. It can therefore be shared by many
+ * {@link Whisper3} instances and threads at the same time, see {@link Whisper3#instance(Whisper3Model)}.
+ * All per-request state, like the key value cache and the generated tokens, lives in a {@link Whisper3Session}.
+ *
+ * <p>The model must only be closed after all instances using it stopped processing.
+ */
+public class Whisper3Model implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(Whisper3Model.class);
+
+    /**
+     * Cache location for whisper files.
+     */
+    static final Path WHISPER_CACHE = Path.of(System.getProperty("user.home"), ".whisper");
+
+    /**
+     * Model files without the prefix of the checkpoint, see {@link Whisper3ModelConfig#getFilePrefix()}.
+     */
+    static final String RESOURCE_MEL_FILTER = "mel_filter.npz";
+    private static final String RESOURCE_ADDED_TOKENS = "added_tokens.json";
+    private static final String RESOURCE_VOCAB = "vocab.json";
+    private static final String RESOURCE_DECODER = "decoder.pt";
+    static final String RESOURCE_ENCODER = "encoder.pt";
+    private static final String RESOURCE_DECODER_CROSS_ATTENTION_INIT = "decoder_cross_attention_initializer.pt";
+
+    /**
+     * Suffix of the frozen and inference-optimized model files, see {@link Whisper3Options#optimizedGraphs(boolean)}.
+     */
+    private static final String OPTIMIZED_SUFFIX = "_opt";
+
+    /**
+     * Whisper v3 vocabulary size, the special tokens of this library follow this vocabulary.
+     */
+    private static final int WHISPER_V3_VOCABULARY_SIZE = 51866;
+
+    /**
+     * Input geometry shared by all Whisper checkpoints: 30 seconds of 16 kHz audio, 3000 mel frames, 1500 encoder frames.
+     * The checkpoint specific geometry is described by the {@link Whisper3ModelConfig}.
+     */
+    static final int MEL_FRAMES = 3000;
+    private static final int ENCODER_FRAMES = 1500;
+    private static final int SAMPLES = 480000;
+
+    /**
+     * Base path of where to find all relevant model files.
+     */
+    private final Path basePath;
+
+    /**
+     * Device the model is loaded onto.
+     */
+    private final Device device;
+
+    /**
+     * Weight format of the loaded model files.
+     */
+    private final Whisper3Quantization quantization;
+
+    /**
+     * Engine running the model files.
+     */
+    private final Whisper3Engine engine;
+
+    /**
+     * Descriptor of the loaded checkpoint.
+     */
+    private final Whisper3ModelConfig config;
+
+    /**
+     * Whether the frozen and inference-optimized model files are loaded.
+     */
+    private final boolean optimizedGraphs;
+
+    /**
+     * Whether the PyTorch graph executor optimizes the graphs at runtime, applied to every thread running the model.
+     */
+    private final boolean graphExecutorOptimize;
+
+    /**
+     * Floating point type of the model inputs and key value caches, depends on the {@link #quantization}.
+     */
+    private final DataType dataType;
+
+    /**
+     * NDManager holding the weights and all other arrays shared by the sessions.
+     */
+    private final NDManager whisperManager;
+
+    private final List<AudioProcessor> preprocessors;
+    private final DefaultVocabulary vocabulary;
+
+    private final Model encoder;
+    private final Model decoder;
+    private final Model decoderCrossAttention;
+
+    private final NDIndex suppressionMask;
+    private final NDArray negativeInfinity;
+
+    /**
+     * Identity of the loaded model files, see {@link #identity()}.
+     */
+    private final String identity;
+
+    /**
+     * Load the model with the given options.
+     *
+     * <p>If no model path is set, the bundled model resources matching the selected
+     * {@link Whisper3Quantization} are extracted to the cache first.
+     *
+     * @param options the options to load the model with.
+     * @return the loaded model.
+     */
+    public static Whisper3Model load(Whisper3Options options) {
+        Whisper3Quantization quantization = options.getQuantization();
+
+        Device device = options.getDevice();
+        if (device == null) {
+            device = Engine.getInstance().defaultDevice();
+            if (!quantization.supports(device)) {
+                device = Device.cpu();
+            }
+        }
+
+        Path path = options.getModelPath();
+        Whisper3ModelConfig config = options.getModelConfig();
+        Whisper3Engine engine = options.getEngine();
+        if (path == null && engine != Whisper3Engine.PYTORCH) {
+            throw new IllegalArgumentException("Only the PyTorch model files are bundled, engine " + engine + " needs a model path.");
+        }
+        if (options.isOptimizedGraphs() && (path == null || engine != Whisper3Engine.PYTORCH)) {
+            throw new IllegalArgumentException("Optimized model files need a model path and the PyTorch engine.");
+        }
+        if (path == null) {
+            // the bundled resources are large-v3
+            config = Whisper3ModelConfig.largeV3();
+            WhisperResourceCache.extract(WHISPER_CACHE, List.of(
+                    config.file(RESOURCE_MEL_FILTER),
+                    config.file(RESOURCE_ADDED_TOKENS),
+                    config.file(RESOURCE_VOCAB),
+                    quantization.artifact(config.file(RESOURCE_DECODER)),
+                    quantization.artifact(config.file(RESOURCE_ENCODER)),
+                    quantization.artifact(config.file(RESOURCE_DECODER_CROSS_ATTENTION_INIT))));
+            path = WHISPER_CACHE;
+        } else if (config == null) {
+            config = Whisper3ModelConfig.resolve(path);
+        }
+
+        return new Whisper3Model(path, device, quantization, engine, config, options.isOptimizedGraphs(),
+                options.isGraphExecutorOptimize());
+    }
+
+    /**
+     * Model constructor with a base path and device to load the model onto.
+     * @param path base path of the model files
+     * @param device device to load the model onto
+     * @param quantization weight format of the model files
+     * @param engine engine running the model files
+     * @param config descriptor of the checkpoint
+     * @param optimizedGraphs whether to load the frozen and inference-optimized model files
+     * @param graphExecutorOptimize whether the PyTorch graph executor optimizes the graphs at runtime
+     */
+    private Whisper3Model(Path path, Device device, Whisper3Quantization quantization, Whisper3Engine engine,
+                          Whisper3ModelConfig config, boolean optimizedGraphs, boolean graphExecutorOptimize) {
+        // the FP16 model only runs on GPU, the int8 model only on CPU
+        if (!quantization.supports(device)) {
+            throw new IllegalStateException(quantization == Whisper3Quantization.NONE
+                    ? "Currently, Whisper for Java only works on GPU."
+                    : "Quantization mode " + quantization + " is not supported on device " + device + ".");
+        }
+
+        this.basePath = path;
+        this.device = device;
+        this.quantization = quantization;
+        this.engine = engine;
+        this.config = config;
+        this.optimizedGraphs = optimizedGraphs;
+        this.graphExecutorOptimize = graphExecutorOptimize;
+        this.dataType = quantization.getDataType();
+        // the arrays of the sessions always live on PyTorch, also when the model files run on another engine,
+        // which does not necessarily support the array operations of the decoding loop
+        this.whisperManager = NDManager.newBaseManager(this.device, Whisper3Engine.PYTORCH.getEngineName());
+
+        whisperManager.setName("whisper");
+        whisperManager.getParentManager().setName("SYSTEM");
+
+        try {
+            this.preprocessors = loadPreprocessors(this.basePath, this.config, this.whisperManager);
+            this.vocabulary = loadVocabulary(this.basePath, this.config);
+            if (this.vocabulary.size() != WHISPER_V3_VOCABULARY_SIZE) {
+                log.warn("Vocabulary of {} has {} tokens instead of {}, special tokens assume the Whisper v3 vocabulary.",
+                        config.getName(), this.vocabulary.size(), WHISPER_V3_VOCABULARY_SIZE);
+            }
+
+            this.encoder = loadModel(artifact(RESOURCE_ENCODER));
+            this.decoder = loadModel(artifact(RESOURCE_DECODER));
+            this.decoderCrossAttention = loadModel(artifact(RESOURCE_DECODER_CROSS_ATTENTION_INIT));
+
+            this.suppressionMask = setupSuppressionMask(this.whisperManager, this.vocabulary.size(), config.getSuppressTokens());
+            this.negativeInfinity = whisperManager.create(Float.NEGATIVE_INFINITY)
+                    .toType(this.dataType, false);
+            this.identity = loadIdentity();
+
+        } catch (IOException | MalformedModelException e) {
+            throw new RuntimeException("Could not create whisper instance");
+        }
+    }
+
+    /**
+     * Get the weight format of the loaded model files.
+     * @return the quantization mode.
+     */
+    public Whisper3Quantization getQuantization() {
+        return quantization;
+    }
+
+    /**
+     * Get the engine running the model files.
+     * @return the engine.
+     */
+    public Whisper3Engine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Get the identity of the loaded model files, e.g. to key results computed by them: the checkpoint, the engine,
+     * the weight format, the location and the size and modification time of the model files.
+     * @return the identity.
+     */
+    String identity() {
+        return identity;
+    }
+
+    /**
+     * Get the descriptor of the loaded checkpoint.
+     * @return the model descriptor.
+     */
+    public Whisper3ModelConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Get the device the model is loaded onto.
+     * @return the device.
+     */
+    public Device getDevice() {
+        return device;
+    }
+
+    /**
+     * Get the floating point type of the model inputs and key value caches.
+     * @return the floating point type.
+     */
+    DataType getDataType() {
+        return dataType;
+    }
+
+    /**
+     * Get the vocabulary of the model.
+     * @return the vocabulary.
+     */
+    DefaultVocabulary getVocabulary() {
+        return vocabulary;
+    }
+
+    /**
+     * Get the index of all tokens that are always suppressed during decoding.
+     * @return the suppression mask.
+     */
+    NDIndex getSuppressionMask() {
+        return suppressionMask;
+    }
+
+    /**
+     * Get a scalar negative infinity in the floating point type of the model, used to mask logits.
+     * @return the scalar negative infinity.
+     */
+    NDArray getNegativeInfinity() {
+        return negativeInfinity;
+    }
+
+    /**
+     * Create a new sub-manager of the model manager, e.g. to hold the state of a single request.
+     * @param name the name of the sub-manager.
+     * @return a new sub-manager on the device of the model.
+     */
+    NDManager newSubManager(String name) {
+        NDManager manager = whisperManager.newSubManager();
+        manager.setName(name);
+        return manager;
+    }
+
+    /**
+     * Encoder pass over the given mel features.
+     * @param processedInput the mel features, see {@link #processInput(NDManager, Audio)} and
+     *                       {@link #processFeatures(NDManager, WhisperFeatures)}.
+     * @return the encoder output, attached to the manager of the input.
+     */
+    NDArray encode(NDList processedInput) {
+        return forward(encoder, processedInput).singletonOrThrow();
+    }
+
+    /**
+     * Single decoder pass.
+     * @param decoderInputs the last token, the encoder output and the flattened key value cache.
+     * @return the logits, followed by the new flattened key value cache, attached to the manager of the input.
+     */
+    NDList decode(NDList decoderInputs) {
+        return forward(decoder, decoderInputs);
+    }
+
+    /**
+     * Estimate the peak native memory a single request needs on the device of this model.
+     *
+     * <p>Covers the mel features, the encoder output, the attention scores of an encoder layer, the
+     * cross-attention and the full self-attention key value caches, and the logits of a decoder pass.
+     * Activations inside the TorchScript modules besides the attention scores are not covered.
+     *
+     * @param maxTokens the maximum number of tokens the request decodes.
+     * @return the estimated peak bytes.
+     */
+    public long estimateRequestBytes(int maxTokens) {
+        return estimateRequestBytes(maxTokens, 1);
+    }
+
+    /**
+     * Estimate the peak native memory of a request decoding several sequences of the same audio as one batch,
+     * see {@link Whisper3#processVariants(Audio, List, WhisperDecodingOptions)}. The encoder output and the
+     * cross-attention key value cache are shared by all sequences.
+     *
+     * @param maxTokens the maximum number of tokens each sequence decodes.
+     * @param batchSize the number of sequences.
+     * @return the estimated peak bytes.
+     */
+    public long estimateRequestBytes(int maxTokens, int batchSize) {
+        long bytes = dataType.getNumOfBytes();
+        int layers = config.getDecoderLayers();
+        int heads = config.getAttentionHeads();
+        int headDim = config.getHeadDim();
+        long features = (long) config.getMelBins() * MEL_FRAMES * bytes;
+        long encoderOutput = (long) ENCODER_FRAMES * heads * headDim * bytes;
+        long encoderAttention = (long) heads * ENCODER_FRAMES * ENCODER_FRAMES * bytes;
+        long crossAttentionCache = 2L * layers * heads * ENCODER_FRAMES * headDim * bytes;
+        // every pass holds the previous and the new self-attention cache
+        long selfAttentionCache = 2L * 2L * layers * heads * maxTokens * headDim * bytes * batchSize;
+        long logits = 2L * vocabulary.size() * bytes * batchSize;
+        return features + encoderOutput + encoderAttention + crossAttentionCache + selfAttentionCache + logits;
+    }
+
+    /**
+     * Name of the model file of the given resource for the checkpoint, quantization, engine and graph format.
+     * @param resource the model file without prefix, e.g. {@code encoder.pt}.
+     * @return the name of the model file in the base path.
+     */
+    private String artifact(String resource) {
+        String artifact = engine.artifact(quantization.artifact(config.file(resource)));
+        if (!optimizedGraphs) {
+            return artifact;
+        }
+        int extension = artifact.lastIndexOf('.');
+        String optimized = artifact.substring(0, extension) + OPTIMIZED_SUFFIX + artifact.substring(extension);
+        if (!Files.exists(basePath.resolve(optimized))) {
+            throw new IllegalStateException("Optimized model file " + optimized + " not found in " + basePath
+                    + ", create it with scripts/optimize_whisper.py.");
+        }
+        return optimized;
+    }
+
+    /**
+     * Describe the loaded model files: the checkpoint, the engine, the weight format, the location and the size and
+     * modification time of each model file, so that a fine-tuned checkpoint with the same geometry, or the same
+     * weights run by another engine, are told apart.
+     * @return the description.
+     * @throws IOException if a model file cannot be read.
+     */
+    private String loadIdentity() throws IOException {
+        StringBuilder identity = new StringBuilder()
+                .append(config).append('|')
+                .append(engine).append('|')
+                .append(quantization).append('|')
+                .append(basePath.toAbsolutePath().normalize());
+        for (String resource : List.of(RESOURCE_ENCODER, RESOURCE_DECODER, RESOURCE_DECODER_CROSS_ATTENTION_INIT)) {
+            Path file = basePath.resolve(artifact(resource));
+            identity.append('|').append(file.getFileName())
+                    .append(':').append(Files.size(file))
+                    .append(':').append(Files.getLastModifiedTime(file).toMillis());
+        }
+        return identity.toString();
+    }
+
+    private Model loadModel(String name) throws MalformedModelException, IOException {
+        final Model model = Model.newInstance(name, device, engine.getEngineName());
+        model.load(this.basePath, null, Collections.singletonMap("mapLocation", "true"));
+        this.whisperManager.attachInternal(name, model.getNDManager());
+        return model;
+    }
+
+    private NDList forward(final Model model, final NDList inputs) {
+        if (engine == Whisper3Engine.PYTORCH) {
+            // thread local setting of PyTorch, the model may run on any thread
+            JniUtils.setGraphExecutorOptimize(graphExecutorOptimize);
+        }
+        ParameterStore parameterStore = new ParameterStore(inputs.getManager(), false);
+        NDList result = model.getBlock()
+                .forward(parameterStore, inputs, false);
+        result.attach(inputs.getManager());
+        return result;
+    }
+
+    /**
+     * Create the initial key value cache: empty self-attention caches and the cross-attention caches of the encoder output.
+     * @param manager the manager to hold the cache.
+     * @param encoderOutput the encoder output.
+     * @return the flattened key value cache, four entries per decoder layer.
+     */
+    NDList initKeyValueCache(NDManager manager, NDArray encoderOutput) {
+        return initKeyValueCache(manager, encoderOutput, 1);
+    }
+
+    /**
+     * Create the initial key value cache of a batch of sequences decoding the same audio.
+     * The cross-attention caches are computed once and broadcast to the batch without copying them.
+     * @param manager the manager to hold the cache.
+     * @param encoderOutput the encoder output of a single audio.
+     * @param batchSize the number of sequences.
+     * @return the flattened key value cache, four entries per decoder layer.
+     */
+    NDList initKeyValueCache(NDManager manager, NDArray encoderOutput, int batchSize) {
+        NDList kvCrossAttentions = forward(decoderCrossAttention, new NDList(encoderOutput));
+        NDArray kvSelfAttention = manager.zeros(
+                new Shape(batchSize, config.getAttentionHeads(), 0, config.getHeadDim()), dataType);
+
+        NDList pastKeyValues = new NDList();
+        for (int i = 0; i < config.getDecoderLayers(); ++i) {
+            pastKeyValues.add(kvSelfAttention);
+            pastKeyValues.add(kvSelfAttention);
+            pastKeyValues.add(broadcast(kvCrossAttentions.get(i * 2), batchSize));
+            pastKeyValues.add(broadcast(kvCrossAttentions.get(i * 2 + 1), batchSize));
+        }
+
+        return pastKeyValues;
+    }
+
+    /**
+     * Broadcast an array with a batch dimension of 1 to the given batch size.
+     * @param array the array.
+     * @param batchSize the batch size.
+     * @return the array itself for a batch size of 1, a broadcast view otherwise.
+     */
+    static NDArray broadcast(NDArray array, int batchSize) {
+        if (batchSize == 1) {
+            return array;
+        }
+        long[] shape = array.getShape().getShape();
+        shape[0] = batchSize;
+        return array.broadcast(new Shape(shape));
+    }
+
+    /**
+     * Load the feature extraction of the checkpoint: padding or trimming to 30 seconds and the log-mel spectrogram.
+     * @param basePath base path of the model files, containing the mel filter.
+     * @param config descriptor of the checkpoint.
+     * @param manager the manager to hold the mel filter.
+     * @return the preprocessors in order.
+     * @throws IOException if the mel filter cannot be read.
+     */
+    static List<AudioProcessor> loadPreprocessors(final Path basePath, final Whisper3ModelConfig config,
+                                                  final NDManager manager) throws IOException {
+        Path melFile = basePath.resolve(config.file(RESOURCE_MEL_FILTER));
+        List<AudioProcessor> preprocessors = new ArrayList<>();
+        preprocessors.add(new PadOrTrim(SAMPLES));
+        preprocessors.add(LogMelSpectrogram.newInstance(melFile, config.getMelBins(), manager));
+        return preprocessors;
+    }
+
+    private static DefaultVocabulary loadVocabulary(final Path basePath, final Whisper3ModelConfig config) {
+        Map<String, Integer> vocab;
+        Map<String, Integer> added;
+        Type type = new TypeToken<Map<String, Integer>>() {}.getType();
+
+        Path vocabPath = basePath.resolve(config.file(RESOURCE_VOCAB));
+        Path addedTokensPath = basePath.resolve(config.file(RESOURCE_ADDED_TOKENS));
+        try (Reader reader = Files.newBufferedReader(vocabPath)) {
+            vocab = JsonUtils.GSON.fromJson(reader, type);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read vocabulary file");
+        }
+        try (Reader reader = Files.newBufferedReader(addedTokensPath)) {
+            added = JsonUtils.GSON.fromJson(reader, type);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read added_tokens file");
+        }
+        String[] result = new String[vocab.size() + added.size()];
+        vocab.forEach((key, value) -> result[value] = key);
+        added.forEach((key, value) -> result[value] = key);
+        return new DefaultVocabulary(Arrays.asList(result));
+    }
+
+    /**
+     * Turn the audio into the mel spectrogram expected by the encoder.
+     * @param manager the manager to hold the features.
+     * @param input the input audio.
+     * @return the mel features with a batch dimension.
+     */
+    NDList processInput(NDManager manager, Audio input) {
+        NDArray samples = manager.create(input.getData());
+        for (AudioProcessor processor : preprocessors) {
+            samples = processor.extractFeatures(samples.getManager(), samples);
+        }
+        samples = samples.expandDims(0).toType(dataType, true);
+        return new NDList(samples);
+    }
+
+    /**
+     * Turn precomputed mel features into the input of the encoder, skipping the preprocessors.
+     * @param manager the manager to hold the features.
+     * @param features the mel features.
+     * @return the mel features with a batch dimension.
+     * @throws IllegalArgumentException if the features do not match the mel bins of the checkpoint.
+     */
+    NDList processFeatures(NDManager manager, WhisperFeatures features) {
+        if (features.getMelBins() != config.getMelBins()) {
+            throw new IllegalArgumentException("Features have " + features.getMelBins() + " mel bins, "
+                    + config.getName() + " expects " + config.getMelBins() + ".");
+        }
+        NDArray samples = manager.create(features.bytes(), new Shape(1, features.getMelBins(), MEL_FRAMES),
+                DataType.FLOAT32);
+        return new NDList(samples.toType(dataType, false));
+    }
+
+    private static NDIndex setupSuppressionMask(final NDManager manager, long vocabSize, int[] indices) {
+        NDArray mask = manager.zeros(new Shape(vocabSize), DataType.BOOLEAN);
+
+        // set the mask to true at the specified indices
+        for (int index : indices) {
+            mask.set(new NDIndex(index), 1);
+        }
+
+        return new NDIndex().addBooleanIndex(mask.expandDims(0));
+    }
+
+    @Override
+    public void close() {
+        this.whisperManager.close();
+    }
+}
@@ -0,0 +1,330 @@
+package divisio.whisper;
+
+import ai.djl.util.JsonUtils;
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Descriptor of a Whisper checkpoint: the decoder geometry, the number of mel bins, the always suppressed tokens,
+ * the names of the model files and the inputs the exported decoder accepts.
+ *
+ * <p>The defaults describe Whisper large-v3. For other checkpoints, e.g. large-v3-turbo or distil-large-v3 with
+ * fewer decoder layers, a {@value #CONFIG_FILE} file next to the model files overrides any of these values;
+ * {@code scripts/export_whisper.py} writes it on export. Missing values keep their large-v3 default.
+ *
+ * <p>The special tokens, language tokens and timestamps of this library follow the Whisper v3 vocabulary,
+ * so the checkpoint must use the same vocabulary as large-v3.
+ */
+public class Whisper3ModelConfig {
+
+    /**
+     * Name of the descriptor file next to the model files.
+     */
+    public static final String CONFIG_FILE = "whisper_config.json";
+
+    /**
+     * Suppressed tokens of Whisper v3.
+     * https://huggingface.co/openai/whisper-large-v3/blob/main/generation_config.json # suppress_tokens
+     */
+    private static final int[] LARGE_V3_SUPPRESS_TOKENS = {
+            1, 2, 7, 8, 9, 10, 14, 25, 26, 27, 28, 29, 31, 58, 59, 60, 61, 62, 63, 90, 91, 92, 93, 359, 503, 522, 542, 873, 893, 902, 918, 922, 931, 1350, 1853, 1982, 2460, 2627, 3246, 3253, 3268, 3536, 3846, 3961, 4183, 4667, 6585, 6647, 7273, 9061, 9383, 10428, 10929, 11938, 12033, 12331, 12562, 13793, 14157, 14635, 15265, 15618, 16553, 16604, 18362, 18956, 20075, 21675, 22520, 26130, 26161, 26435, 28279, 29464, 31650, 32302, 32470, 36865, 42863, 47425, 49870, 50254, 50258, 50359, 50360, 50361, 50362, 50363
+    };
+
+    /**
+     * Name of the checkpoint, for logging.
+     */
+    private String name = "whisper-large-v3";
+
+    /**
+     * Prefix of all model files, e.g. {@code whisper_v3_encoder.pt}.
+     */
+    private String filePrefix = "whisper_v3_";
+
+    /**
+     * Number of decoder layers, each with a self-attention and a cross-attention key value cache.
+     */
+    private int decoderLayers = 32;
+
+    /**
+     * Number of attention heads of the decoder.
+     */
+    private int attentionHeads = 20;
+
+    /**
+     * Dimension of a single attention head.
+     */
+    private int headDim = 64;
+
+    /**
+     * Number of mel bins of the encoder input.
+     */
+    private int melBins = 128;
+
+    /**
+     * Number of token positions of the decoder, the length of its positional embedding.
+     */
+    private int textContext = 448;
+
+    /**
+     * Token ids that are always suppressed during decoding.
+     */
+    private int[] suppressTokens = LARGE_V3_SUPPRESS_TOKENS;
+
+    /**
+     * Whether the exported decoder accepts several tokens in a single pass. The bundled decoder does not.
+     */
+    private boolean multiTokenDecoder;
+
+    /**
+     * Whether the exported decoder accepts a batch of several sequences. The bundled decoder is traced for one.
+     */
+    private boolean batchDecoder;
+
+    /**
+     * Private constructor. Use {@link #largeV3()} or {@link #load(Path)} to create an instance.
+     */
+    private Whisper3ModelConfig() {
+    }
+
+    /**
+     * Create the descriptor of Whisper large-v3, the bundled model.
+     * @return a {@code Whisper3ModelConfig} instance to configure.
+     */
+    public static Whisper3ModelConfig largeV3() {
+        return new Whisper3ModelConfig();
+    }
+
+    /**
+     * Load a descriptor file. Values missing in the file keep their large-v3 default.
+     * @param file the descriptor file.
+     * @return the loaded descriptor.
+     */
+    public static Whisper3ModelConfig load(Path file) {
+        try (Reader reader = Files.newBufferedReader(file)) {
+            Whisper3ModelConfig config = JsonUtils.GSON.fromJson(reader, Whisper3ModelConfig.class);
+            if (config == null) {
+                throw new IllegalArgumentException("Empty model descriptor " + file + ".");
+            }
+            return config;
+        } catch (IOException | JsonParseException e) {
+            throw new RuntimeException("Could not read model descriptor " + file + ".", e);
+        }
+    }
+
+    /**
+     * Resolve the descriptor of the model files in the given directory.
+     * @param basePath base path of the model files.
+     * @return the descriptor of the {@value #CONFIG_FILE} file, or large-v3 if there is none.
+     */
+    static Whisper3ModelConfig resolve(Path basePath) {
+        Path file = basePath.resolve(CONFIG_FILE);
+        return Files.exists(file) ? load(file) : largeV3();
+    }
+
+    /**
+     * Set the name of the checkpoint.
+     * @param name the name, for logging.
+     * @return this descriptor.
+     */
+    public Whisper3ModelConfig name(String name) {
+        this.name = name;
+        return this;
+    }
+
+    /**
+     * Set the prefix of all model files.
+     * @param filePrefix the prefix, e.g. {@code whisper_v3_} for {@code whisper_v3_encoder.pt}.
+     * @return this descriptor.
+     */
+    public Whisper3ModelConfig filePrefix(String filePrefix) {
+        this.filePrefix = filePrefix;
+        return this;
+    }
+
+    /**
+     * Set the number of decoder layers.
+     * @param decoderLayers the number of decoder layers.
+     * @return this descriptor.
+     */
+    public Whisper3ModelConfig decoderLayers(int decoderLayers) {
+        this.decoderLayers = decoderLayers;
+        return this;
+    }
+
+    /**
+     * Set the number of attention heads of the decoder.
+     * @param attentionHeads the number of attention heads.
+     * @return this descriptor.
+     */
+    public Whisper3ModelConfig attentionHeads(int attentionHeads) {
+        this.attentionHeads = attentionHeads;
+        return this;
+    }
+
+    /**
+     * Set the dimension of a single attention head.
+     * @param headDim the head dimension, the model dimension divided by the number of heads.
+     * @return this descriptor.
+     */
+    public Whisper3ModelConfig headDim(int headDim) {
+        this.headDim = headDim;
+        return this;
+    }
+
+    /**
+     * Set the number of mel bins of the encoder input.
+     * @param melBins the number of mel bins, 80 or 128.
+     * @return this descriptor.
+     */
+    public Whisper3ModelConfig melBins(int melBins) {
+        this.melBins = melBins;
+        return this;
+    }
+
+    /**
+     * Set the number of token positions of the decoder. A sequence, i.e. the prompt, the start tokens and the
+     * generated tokens, never grows beyond it.
+     * @param textContext the number of token positions, 448 for all Whisper checkpoints.
+     * @return this descriptor.
+     */
+    public Whisper3ModelConfig textContext(int textContext) {
+        this.textContext = textContext;
+        return this;
+    }
+
+    /**
+     * Set the token ids that are always suppressed during decoding.
+     * @param suppressTokens the token ids.
+     * @return this descriptor.
+     */
+    public Whisper3ModelConfig suppressTokens(int... suppressTokens) {
+        this.suppressTokens = Arrays.copyOf(suppressTokens, suppressTokens.length);
+        return this;
+    }
+
+    /**
+     * Declare that the exported decoder accepts several tokens in a single pass, as written by
+     * {@code scripts/export_whisper.py --multi-token}. Known token sequences, i.e. the prompt and the forced start
+     * tokens (start-of-transcript, language, task, no-timestamps), are then fed in one decoder pass instead of one pass
+     * per token. Setting it for a decoder traced with a single token breaks decoding.
+     * @param multiTokenDecoder whether the decoder accepts several tokens per pass.
+     * @return this descriptor.
+     */
+    public Whisper3ModelConfig multiTokenDecoder(boolean multiTokenDecoder) {
+        this.multiTokenDecoder = multiTokenDecoder;
+        return this;
+    }
+
+    /**
+     * Declare that the exported decoder accepts a batch of several sequences, as written by
+     * {@code scripts/export_whisper.py --batch-decoder}, which verifies it on export. Variants of the same audio, see
+     * {@link Whisper3#processVariants(ai.djl.modality.audio.Audio, java.util.List, WhisperDecodingOptions)}, are then
+     * decoded as one batch instead of one after another.
+     * @param batchDecoder whether the decoder accepts several sequences per pass.
+     * @return this descriptor.
+     */
+    public Whisper3ModelConfig batchDecoder(boolean batchDecoder) {
+        this.batchDecoder = batchDecoder;
+        return this;
+    }
+
+    /**
+     * Get the name of the checkpoint.
+     * @return the name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the prefix of all model files.
+     * @return the file prefix.
+     */
+    public String getFilePrefix() {
+        return filePrefix;
+    }
+
+    /**
+     * Get the number of decoder layers.
+     * @return the number of decoder layers.
+     */
+    public int getDecoderLayers() {
+        return decoderLayers;
+    }
+
+    /**
+     * Get the number of attention heads of the decoder.
+     * @return the number of attention heads.
+     */
+    public int getAttentionHeads() {
+        return attentionHeads;
+    }
+
+    /**
+     * Get the dimension of a single attention head.
+     * @return the head dimension.
+     */
+    public int getHeadDim() {
+        return headDim;
+    }
+
+    /**
+     * Get the number of mel bins of the encoder input.
+     * @return the number of mel bins.
+     */
+    public int getMelBins() {
+        return melBins;
+    }
+
+    /**
+     * Get the number of token positions of the decoder.
+     * @return the number of token positions.
+     */
+    public int getTextContext() {
+        return textContext;
+    }
+
+    /**
+     * Get the token ids that are always suppressed during decoding.
+     * @return a copy of the token ids.
+     */
+    public int[] getSuppressTokens() {
+        return Arrays.copyOf(suppressTokens, suppressTokens.length);
+    }
+
+    /**
+     * Get whether the exported decoder accepts several tokens in a single pass.
+     * @return true if known token sequences are fed in one decoder pass.
+     */
+    public boolean isMultiTokenDecoder() {
+        return multiTokenDecoder;
+    }
+
+    /**
+     * Get whether the exported decoder accepts a batch of several sequences.
+     * @return true if variants of the same audio are decoded as one batch.
+     */
+    public boolean isBatchDecoder() {
+        return batchDecoder;
+    }
+
+    /**
+     * Get the name of the given model file of this checkpoint.
+     * @param file the file name without prefix, e.g. {@code encoder.pt}.
+     * @return the file name with prefix.
+     */
+    String file(String file) {
+        return filePrefix + file;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (%d decoder layers, %d heads of %d, %d mel bins)",
+                name, decoderLayers, attentionHeads, headDim, melBins);
+    }
+}
@@ -0,0 +1,367 @@
+package divisio.whisper;
+
+import ai.djl.Device;
+
+import java.nio.file.Path;
+
+/**
+ * Options to configure the creation of a {@link Whisper3} instance.
+ *
+ * <p>Pass an instance to {@link Whisper3#instance(Whisper3Options)}. All options are optional,
+ * the defaults load the bundled FP16 model onto the default device of the engine.
+ */
+public class Whisper3Options {
+
+    /**
+     * Base path of the model files. If {@code null}, the bundled model resources are extracted to the cache and used.
+     */
+    private Path modelPath;
+
+    /**
+     * Device to load the model onto. If {@code null}, the engine default device is used,
+     * or the CPU if the selected quantization mode cannot run on the default device.
+     */
+    private Device device;
+
+    /**
+     * The weight format of the model files. Default is {@link Whisper3Quantization#NONE}.
+     */
+    private Whisper3Quantization quantization = Whisper3Quantization.NONE;
+
+    /**
+     * Descriptor of the checkpoint in the {@link #modelPath}. If {@code null}, it is read from the
+     * {@value Whisper3ModelConfig#CONFIG_FILE} file next to the model files, or large-v3 if there is none.
+     */
+    private Whisper3ModelConfig modelConfig;
+
+    /**
+     * The engine running the model files. Default is {@link Whisper3Engine#PYTORCH}.
+     */
+    private Whisper3Engine engine = Whisper3Engine.PYTORCH;
+
+    /**
+     * Number of tasks {@link WhisperTask#executeAsync()} processes at the same time.
+     */
+    private int asyncWorkers = 1;
+
+    /**
+     * Number of tasks that may wait for an async worker before the {@link #rejectionPolicy} applies.
+     */
+    private int asyncQueueCapacity = 64;
+
+    /**
+     * What {@link WhisperTask#executeAsync()} does when the submission queue is full.
+     */
+    private WhisperRejectionPolicy rejectionPolicy = WhisperRejectionPolicy.ABORT;
+
+    /**
+     * Order in which {@link WhisperTask#executeAsync()} starts queued tasks of the same priority.
+     */
+    private WhisperOrderingPolicy orderingPolicy = WhisperOrderingPolicy.FIFO;
+
+    /**
+     * Whether {@link WhisperTask#executeAsync()} rejects tasks that cannot start before their deadline.
+     */
+    private boolean shedLoad = true;
+
+    /**
+     * Native memory budget requests have to reserve their estimated peak footprint from.
+     * If {@code null}, every instance only accounts its own memory usage, without a limit.
+     */
+    private WhisperMemoryBudget memoryBudget;
+
+    /**
+     * Cache of results tasks are looked up in before decoding. {@code null} for no cache.
+     */
+    private WhisperResultCache resultCache;
+
+    /**
+     * Whether to load the frozen and inference-optimized model files instead of the traced ones.
+     */
+    private boolean optimizedGraphs;
+
+    /**
+     * Whether the PyTorch graph executor profiles and optimizes the graphs at runtime, e.g. fuses operators.
+     */
+    private boolean graphExecutorOptimize = true;
+
+    /**
+     * Private constructor. Use {@link #options()} to create an instance.
+     */
+    private Whisper3Options() {
+    }
+
+    /**
+     * Create a set of default options.
+     * @return a {@code Whisper3Options} instance to configure.
+     */
+    public static Whisper3Options options() {
+        return new Whisper3Options();
+    }
+
+    /**
+     * Set the base path of the model files.
+     * @param modelPath the directory containing the model files; {@code null} to use the bundled resources.
+     * @return these options.
+     */
+    public Whisper3Options modelPath(Path modelPath) {
+        this.modelPath = modelPath;
+        return this;
+    }
+
+    /**
+     * Set the device to load the model onto.
+     * @param device the device; {@code null} to pick one automatically.
+     * @return these options.
+     */
+    public Whisper3Options device(Device device) {
+        this.device = device;
+        return this;
+    }
+
+    /**
+     * Set the weight format of the model files to load.
+     * @param quantization the quantization mode.
+     * @return these options.
+     */
+    public Whisper3Options quantization(Whisper3Quantization quantization) {
+        this.quantization = quantization;
+        return this;
+    }
+
+    /**
+     * Set the engine running the model files, e.g. ONNX Runtime on CPU. Only the PyTorch model files are bundled,
+     * other engines need a model path.
+     * @param engine the engine.
+     * @return these options.
+     */
+    public Whisper3Options engine(Whisper3Engine engine) {
+        this.engine = engine;
+        return this;
+    }
+
+    /**
+     * Set the descriptor of the checkpoint in the model path, e.g. for a smaller variant like large-v3-turbo.
+     * Ignored for the bundled model, which is always large-v3.
+     * @param modelConfig the model descriptor; {@code null} to read the {@value Whisper3ModelConfig#CONFIG_FILE}
+     *                    file next to the model files, or to assume large-v3 if there is none.
+     * @return these options.
+     */
+    public Whisper3Options modelConfig(Whisper3ModelConfig modelConfig) {
+        this.modelConfig = modelConfig;
+        return this;
+    }
+
+    /**
+     * Set the number of tasks {@link WhisperTask#executeAsync()} processes at the same time.
+     * @param asyncWorkers the number of worker threads.
+     * @return these options.
+     */
+    public Whisper3Options asyncWorkers(int asyncWorkers) {
+        this.asyncWorkers = asyncWorkers;
+        return this;
+    }
+
+    /**
+     * Set the number of tasks that may wait for an async worker.
+     * @param asyncQueueCapacity the capacity of the submission queue.
+     * @return these options.
+     */
+    public Whisper3Options asyncQueueCapacity(int asyncQueueCapacity) {
+        this.asyncQueueCapacity = asyncQueueCapacity;
+        return this;
+    }
+
+    /**
+     * Set what {@link WhisperTask#executeAsync()} does when the submission queue is full.
+     * @param rejectionPolicy the rejection policy.
+     * @return these options.
+     */
+    public Whisper3Options rejectionPolicy(WhisperRejectionPolicy rejectionPolicy) {
+        this.rejectionPolicy = rejectionPolicy;
+        return this;
+    }
+
+    /**
+     * Set the order in which {@link WhisperTask#executeAsync()} starts queued tasks of the same {@link WhisperPriority}.
+     * @param orderingPolicy the ordering policy.
+     * @return these options.
+     */
+    public Whisper3Options orderingPolicy(WhisperOrderingPolicy orderingPolicy) {
+        this.orderingPolicy = orderingPolicy;
+        return this;
+    }
+
+    /**
+     * Set whether {@link WhisperTask#executeAsync()} rejects tasks with a deadline early, if the estimated wait for
+     * a worker exceeds the deadline, instead of accepting work that would miss it anyway. Enabled by default.
+     * @param shedLoad whether to shed load.
+     * @return these options.
+     */
+    public Whisper3Options shedLoad(boolean shedLoad) {
+        this.shedLoad = shedLoad;
+        return this;
+    }
+
+    /**
+     * Set the native memory budget requests have to reserve their estimated peak footprint from.
+     * Share one budget between all instances using the same device.
+     * @param memoryBudget the memory budget; {@code null} for an unlimited budget per instance.
+     * @return these options.
+     */
+    public Whisper3Options memoryBudget(WhisperMemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        return this;
+    }
+
+    /**
+     * Set the cache of results that tasks are looked up in before they are decoded, and stored in afterward.
+     * Share one cache between all instances using the same model.
+     * @param resultCache the result cache; {@code null} for no cache.
+     * @return these options.
+     */
+    public Whisper3Options resultCache(WhisperResultCache resultCache) {
+        this.resultCache = resultCache;
+        return this;
+    }
+
+    /**
+     * Load the frozen and inference-optimized model files, e.g. {@code whisper_v3_encoder_int8_opt.pt}, instead of
+     * the traced ones. They are created once per model directory and device type by {@code scripts/optimize_whisper.py},
+     * which freezes the weights into the graphs and runs the inference optimization passes of PyTorch (constant
+     * folding, operator fusion, conversion to oneDNN layouts on CPU). Only for the PyTorch engine and a model path;
+     * ONNX Runtime applies its graph optimizations when loading a model anyway.
+     * @param optimizedGraphs whether to load the optimized model files.
+     * @return these options.
+     */
+    public Whisper3Options optimizedGraphs(boolean optimizedGraphs) {
+        this.optimizedGraphs = optimizedGraphs;
+        return this;
+    }
+
+    /**
+     * Set whether the PyTorch graph executor profiles and optimizes the graphs at runtime. Enabled by default, like
+     * in PyTorch. The profiling runs make the first passes considerably slower, and the decoder is profiled again
+     * for new key value cache lengths; disabling it trades the runtime fusion for a steady latency from the first
+     * request on, which usually pays off together with {@link #optimizedGraphs(boolean)}. The setting is applied to
+     * every thread running the model.
+     * @param graphExecutorOptimize whether to optimize at runtime.
+     * @return these options.
+     */
+    public Whisper3Options graphExecutorOptimize(boolean graphExecutorOptimize) {
+        this.graphExecutorOptimize = graphExecutorOptimize;
+        return this;
+    }
+
+    /**
+     * Get the base path of the model files.
+     * @return the base path, or {@code null} if the bundled resources are used.
+     */
+    public Path getModelPath() {
+        return modelPath;
+    }
+
+    /**
+     * Get the device to load the model onto.
+     * @return the device, or {@code null} if it is picked automatically.
+     */
+    public Device getDevice() {
+        return device;
+    }
+
+    /**
+     * Get the weight format of the model files.
+     * @return the quantization mode.
+     */
+    public Whisper3Quantization getQuantization() {
+        return quantization;
+    }
+
+    /**
+     * Get the engine running the model files.
+     * @return the engine.
+     */
+    public Whisper3Engine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Get the descriptor of the checkpoint in the model path.
+     * @return the model descriptor, or {@code null} if it is read from the model path.
+     */
+    public Whisper3ModelConfig getModelConfig() {
+        return modelConfig;
+    }
+
+    /**
+     * Get the number of tasks {@link WhisperTask#executeAsync()} processes at the same time.
+     * @return the number of worker threads.
+     */
+    public int getAsyncWorkers() {
+        return asyncWorkers;
+    }
+
+    /**
+     * Get the number of tasks that may wait for an async worker.
+     * @return the capacity of the submission queue.
+     */
+    public int getAsyncQueueCapacity() {
+        return asyncQueueCapacity;
+    }
+
+    /**
+     * Get what {@link WhisperTask#executeAsync()} does when the submission queue is full.
+     * @return the rejection policy.
+     */
+    public WhisperRejectionPolicy getRejectionPolicy() {
+        return rejectionPolicy;
+    }
+
+    /**
+     * Get the order in which {@link WhisperTask#executeAsync()} starts queued tasks of the same priority.
+     * @return the ordering policy.
+     */
+    public WhisperOrderingPolicy getOrderingPolicy() {
+        return orderingPolicy;
+    }
+
+    /**
+     * Get whether {@link WhisperTask#executeAsync()} rejects tasks that cannot start before their deadline.
+     * @return true if load is shed.
+     */
+    public boolean isShedLoad() {
+        return shedLoad;
+    }
+
+    /**
+     * Get the native memory budget requests have to reserve their estimated peak footprint from.
+     * @return the memory budget, or {@code null} for an unlimited budget per instance.
+     */
+    public WhisperMemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Get the cache of results that tasks are looked up in before they are decoded.
+     * @return the result cache, or {@code null} for no cache.
+     */
+    public WhisperResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Get whether the frozen and inference-optimized model files are loaded.
+     * @return true if the optimized model files are loaded.
+     */
+    public boolean isOptimizedGraphs() {
+        return optimizedGraphs;
+    }
+
+    /**
+     * Get whether the PyTorch graph executor optimizes the graphs at runtime.
+     * @return true if the graphs are optimized at runtime.
+     */
+    public boolean isGraphExecutorOptimize() {
+        return graphExecutorOptimize;
+    }
+}
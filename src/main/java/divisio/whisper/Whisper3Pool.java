@@ -0,0 +1,337 @@
+package divisio.whisper;
+
+import ai.djl.engine.Engine;
+import ai.djl.pytorch.jni.JniUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of {@link Whisper3} instances, each with a fixed budget of cores and intra-op threads.
+ *
+ * <p>On large CPU hosts a single instance using all cores scales poorly, while several unmanaged instances
+ * oversubscribe the cores. The pool partitions the cores into instances, optionally pins each instance to
+ * cores of a single NUMA node, and routes every request to the least loaded instance.
+ * All instances share one {@link Whisper3Model}, or one per NUMA node if configured.
+ *
+ * <p>Use {@link #stats()} to tune the number of instances and threads per instance for the best aggregate throughput.
+ */
+public class Whisper3Pool implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(Whisper3Pool.class);
+
+    /**
+     * Time to wait on {@link #close()} for the queued and running tasks to finish, before they are cancelled.
+     */
+    private static final long CLOSE_TIMEOUT_SECONDS = 60;
+
+    /**
+     * Time to wait for cancelled tasks to stop, they stop after their current decoder pass.
+     */
+    private static final long CANCEL_TIMEOUT_SECONDS = 30;
+
+    /**
+     * A single instance of the pool with its worker threads and counters.
+     */
+    private static final class PooledInstance {
+        private final int index;
+        private final int numaNode;
+        private final int[] cpus;
+        private final int threads;
+        private final int concurrency;
+        private final ThreadPoolExecutor executor;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final LongAdder completed = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder busyNanos = new LongAdder();
+        private final Set<CompletableFuture<WhisperResult>> pending = ConcurrentHashMap.newKeySet();
+        private Whisper3 whisper;
+
+        private PooledInstance(int index, int numaNode, int[] cpus, int threads, int concurrency) {
+            this.index = index;
+            this.numaNode = numaNode;
+            this.cpus = cpus;
+            this.threads = threads;
+            this.concurrency = concurrency;
+            this.executor = new ThreadPoolExecutor(concurrency, concurrency, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(), threadFactory());
+        }
+
+        /**
+         * Worker threads pin themselves to the cores of this instance and limit their intra-op threads.
+         * @return the thread factory of this instance.
+         */
+        private ThreadFactory threadFactory() {
+            AtomicInteger count = new AtomicInteger();
+            return runnable -> {
+                Thread thread = new Thread(() -> {
+                    if (cpus.length > 0) {
+                        CpuAffinity.pinCurrentThread(cpus);
+                    }
+                    setIntraOpThreads(threads);
+                    runnable.run();
+                }, "whisper-pool-" + index + "-" + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+    }
+
+    private final List<PooledInstance> instances;
+    private final List<Whisper3Model> models;
+    private final AtomicInteger nextInstance = new AtomicInteger();
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * Create a pool with the given options. Loads the model(s) and starts the worker threads.
+     * @param options the options of the pool.
+     * @return a new pool.
+     */
+    public static Whisper3Pool create(Whisper3PoolOptions options) {
+        return new Whisper3Pool(options);
+    }
+
+    /**
+     * Private constructor. Use {@link #create(Whisper3PoolOptions)} to create a pool.
+     * @param options the options of the pool.
+     */
+    private Whisper3Pool(Whisper3PoolOptions options) {
+        List<int[]> nodes = CpuAffinity.numaNodes();
+        int processors = Runtime.getRuntime().availableProcessors();
+
+        int instanceCount = options.getInstances() > 0 ? options.getInstances() : nodes.size();
+        int threads = options.getThreadsPerInstance() > 0
+                ? options.getThreadsPerInstance()
+                : Math.max(1, processors / instanceCount);
+        if (instanceCount * threads > processors) {
+            log.warn("{} instances with {} threads each oversubscribe the {} available processors.",
+                    instanceCount, threads, processors);
+        }
+
+        // partition the cores, instances are distributed round-robin over the NUMA nodes
+        this.instances = new ArrayList<>();
+        int[] usedPerNode = new int[nodes.size()];
+        for (int i = 0; i < instanceCount; i++) {
+            int node = -1;
+            int[] cpus = new int[0];
+            if (options.isPinToNumaNodes()) {
+                node = i % nodes.size();
+                int[] nodeCpus = nodes.get(node);
+                cpus = new int[Math.min(threads, nodeCpus.length)];
+                for (int c = 0; c < cpus.length; c++) {
+                    cpus[c] = nodeCpus[(usedPerNode[node] + c) % nodeCpus.length];
+                }
+                usedPerNode[node] += cpus.length;
+            }
+            instances.add(new PooledInstance(i, node, cpus, threads, options.getConcurrencyPerInstance()));
+        }
+
+        // load the models on a worker thread of their node, so their memory is allocated node-local
+        this.models = new ArrayList<>();
+        boolean perNode = options.isPinToNumaNodes() && options.isModelPerNumaNode();
+        Whisper3Model[] nodeModels = new Whisper3Model[nodes.size()];
+        try {
+            for (PooledInstance instance : instances) {
+                int slot = perNode ? instance.numaNode : 0;
+                if (nodeModels[slot] == null) {
+                    nodeModels[slot] = instance.executor
+                            .submit(() -> Whisper3Model.load(options.getModelOptions()))
+                            .get();
+                    models.add(nodeModels[slot]);
+                }
+                instance.whisper = Whisper3.instance(nodeModels[slot], options.getModelOptions());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new IllegalStateException("Interrupted while loading the pool models.", e);
+        } catch (ExecutionException e) {
+            close();
+            throw new RuntimeException("Could not load the pool models.", e.getCause());
+        }
+
+        log.info("Whisper pool started with {} instances, {} threads each, {} model(s).",
+                instanceCount, threads, models.size());
+    }
+
+    /**
+     * Create a {@link WhisperTask} to configure and pass to {@link #submit(WhisperTask)}.
+     * @return a {@link WhisperTask}.
+     */
+    public WhisperTask task() {
+        return instances.get(0).whisper.task();
+    }
+
+    /**
+     * Submit the given task to the least loaded instance of the pool.
+     *
+     * <p>The task is executed with its own configuration, regardless of the {@link Whisper3} instance it was created for.
+     * Cancelling the returned future cancels the task, also while it is already decoding.
+     *
+     * @param task the configured task.
+     * @return a future completed with the result of the task.
+     */
+    public CompletableFuture<WhisperResult> submit(WhisperTask task) {
+        WhisperCancellation execution = task.newExecution();
+        WhisperDecodingOptions options = task.decodingOptions(execution);
+        PooledInstance instance = leastLoaded();
+        instance.inFlight.incrementAndGet();
+        try {
+            CompletableFuture<WhisperResult> future = WhisperTask.cancelOnCancel(CompletableFuture.supplyAsync(() -> {
+                long start = System.nanoTime();
+                try {
+                    WhisperResult result = task.executeWith(instance.whisper, options);
+                    instance.completed.increment();
+                    return result;
+                } catch (RuntimeException e) {
+                    instance.failed.increment();
+                    throw e;
+                } finally {
+                    instance.busyNanos.add(System.nanoTime() - start);
+                    instance.inFlight.decrementAndGet();
+                }
+            }, instance.executor), execution);
+            instance.pending.add(future);
+            future.whenComplete((result, error) -> instance.pending.remove(future));
+            return future;
+        } catch (RuntimeException e) {
+            instance.inFlight.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Execute the given task on the least loaded instance of the pool and wait for its result.
+     * @param task the configured task.
+     * @return the result of the task.
+     */
+    public WhisperResult execute(WhisperTask task) {
+        return submit(task).join();
+    }
+
+    /**
+     * Pick the instance with the fewest requests in flight. Ties are broken round-robin.
+     * @return the least loaded instance.
+     */
+    private PooledInstance leastLoaded() {
+        int offset = Math.floorMod(nextInstance.getAndIncrement(), instances.size());
+        PooledInstance best = null;
+        for (int i = 0; i < instances.size(); i++) {
+            PooledInstance candidate = instances.get((offset + i) % instances.size());
+            if (best == null || candidate.inFlight.get() < best.inFlight.get()) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Get a snapshot of the utilization of all instances.
+     * @return the pool statistics.
+     */
+    public Whisper3PoolStats stats() {
+        long uptime = Math.max(1, System.nanoTime() - startNanos);
+        List<Whisper3PoolStats.Instance> stats = new ArrayList<>();
+        for (PooledInstance instance : instances) {
+            long completed = instance.completed.sum();
+            long failed = instance.failed.sum();
+            long busy = instance.busyNanos.sum();
+            long finished = completed + failed;
+            stats.add(new Whisper3PoolStats.Instance(
+                    instance.index,
+                    instance.numaNode,
+                    Arrays.copyOf(instance.cpus, instance.cpus.length),
+                    instance.threads,
+                    instance.inFlight.get(),
+                    completed,
+                    failed,
+                    finished == 0 ? 0 : busy / 1e6 / finished,
+                    Math.min(1.0, (double) busy / ((double) uptime * instance.concurrency))
+            ));
+        }
+        return new Whisper3PoolStats(stats);
+    }
+
+    /**
+     * Limit the intra-op threads of the calling thread. PyTorch keeps this setting per worker thread.
+     * @param threads the number of intra-op threads.
+     */
+    private static void setIntraOpThreads(int threads) {
+        if (!"PyTorch".equals(Engine.getInstance().getEngineName())) {
+            return;
+        }
+        try {
+            JniUtils.setNumThreads(threads);
+        } catch (RuntimeException | UnsatisfiedLinkError e) {
+            log.warn("Could not set the intra-op threads of '{}'.", Thread.currentThread().getName(), e);
+        }
+    }
+
+    /**
+     * Stop the instances and close the models. Tasks still queued or running after {@value #CLOSE_TIMEOUT_SECONDS}
+     * seconds are cancelled. If a task does not stop after its cancellation, the models are not closed, since freeing
+     * their native memory under a running session would crash the process.
+     */
+    @Override
+    public void close() {
+        for (PooledInstance instance : instances) {
+            instance.executor.shutdown();
+        }
+        boolean interrupted = false;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(CLOSE_TIMEOUT_SECONDS);
+        for (PooledInstance instance : instances) {
+            try {
+                instance.executor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+                break;
+            }
+        }
+
+        // cancelling the future cancels the execution of the task and skips it if it is still queued
+        for (PooledInstance instance : instances) {
+            if (!instance.executor.isTerminated()) {
+                for (CompletableFuture<WhisperResult> future : instance.pending) {
+                    future.cancel(true);
+                }
+                instance.executor.shutdownNow();
+            }
+        }
+        deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(CANCEL_TIMEOUT_SECONDS);
+        boolean stopped = true;
+        for (PooledInstance instance : instances) {
+            try {
+                if (!interrupted) {
+                    instance.executor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+            stopped &= instance.executor.isTerminated();
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (!stopped) {
+            log.warn("Whisper pool tasks did not stop after their cancellation, the models are not closed.");
+            return;
+        }
+        for (Whisper3Model model : models) {
+            model.close();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package divisio.whisper;
+
+/**
+ * Options to configure a {@link Whisper3Pool}.
+ *
+ * <p>The pool partitions the cores of the host into {@link #instances(int)} instances, each running its
+ * requests with a fixed number of intra-op threads. The product of both should not exceed the number
+ * of physical cores, otherwise the instances oversubscribe the CPU.
+ */
+public class Whisper3PoolOptions {
+
+    /**
+     * Options used to load the model(s) of the pool.
+     */
+    private Whisper3Options modelOptions = Whisper3Options.options();
+
+    /**
+     * Number of instances. If 0, one instance per NUMA node is created.
+     */
+    private int instances;
+
+    /**
+     * Intra-op threads per instance. If 0, the available processors are split evenly between the instances.
+     */
+    private int threadsPerInstance;
+
+    /**
+     * Number of requests each instance processes at the same time.
+     */
+    private int concurrencyPerInstance = 1;
+
+    /**
+     * Whether to pin the threads of each instance to a fixed set of cores of a single NUMA node.
+     */
+    private boolean pinToNumaNodes;
+
+    /**
+     * Whether to load one copy of the model per NUMA node, so that instances read their weights from local memory.
+     */
+    private boolean modelPerNumaNode;
+
+    /**
+     * Private constructor. Use {@link #options()} to create an instance.
+     */
+    private Whisper3PoolOptions() {
+    }
+
+    /**
+     * Create a set of default options.
+     * @return a {@code Whisper3PoolOptions} instance to configure.
+     */
+    public static Whisper3PoolOptions options() {
+        return new Whisper3PoolOptions();
+    }
+
+    /**
+     * Set the options used to load the model(s) of the pool.
+     * @param modelOptions the model options.
+     * @return these options.
+     */
+    public Whisper3PoolOptions modelOptions(Whisper3Options modelOptions) {
+        this.modelOptions = modelOptions;
+        return this;
+    }
+
+    /**
+     * Set the number of instances.
+     * @param instances the number of instances; 0 for one instance per NUMA node.
+     * @return these options.
+     */
+    public Whisper3PoolOptions instances(int instances) {
+        this.instances = instances;
+        return this;
+    }
+
+    /**
+     * Set the number of intra-op threads per instance.
+     * @param threadsPerInstance the number of threads; 0 to split the available processors evenly.
+     * @return these options.
+     */
+    public Whisper3PoolOptions threadsPerInstance(int threadsPerInstance) {
+        this.threadsPerInstance = threadsPerInstance;
+        return this;
+    }
+
+    /**
+     * Set the number of requests each instance processes at the same time.
+     * @param concurrencyPerInstance the number of concurrent requests per instance.
+     * @return these options.
+     */
+    public Whisper3PoolOptions concurrencyPerInstance(int concurrencyPerInstance) {
+        this.concurrencyPerInstance = concurrencyPerInstance;
+        return this;
+    }
+
+    /**
+     * Pin the threads of each instance to a fixed set of cores of a single NUMA node. Only supported on Linux.
+     * @param pinToNumaNodes whether to pin the instances.
+     * @return these options.
+     */
+    public Whisper3PoolOptions pinToNumaNodes(boolean pinToNumaNodes) {
+        this.pinToNumaNodes = pinToNumaNodes;
+        return this;
+    }
+
+    /**
+     * Load one copy of the model per NUMA node instead of a single shared copy. Only effective with
+     * {@link #pinToNumaNodes(boolean)}, trades memory for local memory bandwidth.
+     * @param modelPerNumaNode whether to load one model per NUMA node.
+     * @return these options.
+     */
+    public Whisper3PoolOptions modelPerNumaNode(boolean modelPerNumaNode) {
+        this.modelPerNumaNode = modelPerNumaNode;
+        return this;
+    }
+
+    /**
+     * Get the options used to load the model(s) of the pool.
+     * @return the model options.
+     */
+    public Whisper3Options getModelOptions() {
+        return modelOptions;
+    }
+
+    /**
+     * Get the number of instances.
+     * @return the number of instances, 0 for one instance per NUMA node.
+     */
+    public int getInstances() {
+        return instances;
+    }
+
+    /**
+     * Get the number of intra-op threads per instance.
+     * @return the number of threads, 0 to split the available processors evenly.
+     */
+    public int getThreadsPerInstance() {
+        return threadsPerInstance;
+    }
+
+    /**
+     * Get the number of requests each instance processes at the same time.
+     * @return the number of concurrent requests per instance.
+     */
+    public int getConcurrencyPerInstance() {
+        return concurrencyPerInstance;
+    }
+
+    /**
+     * Get whether the instances are pinned to cores of a single NUMA node.
+     * @return true if the instances are pinned.
+     */
+    public boolean isPinToNumaNodes() {
+        return pinToNumaNodes;
+    }
+
+    /**
+     * Get whether one copy of the model is loaded per NUMA node.
+     * @return true if one model per NUMA node is loaded.
+     */
+    public boolean isModelPerNumaNode() {
+        return modelPerNumaNode;
+    }
+}
@@ -0,0 +1,49 @@
+package divisio.whisper;
+
+import java.util.List;
+
+/**
+ * Snapshot of the utilization of a {@link Whisper3Pool}, to tune the number of instances and threads per instance.
+ * @param instances The statistics of each instance of the pool.
+ */
+public record Whisper3PoolStats(List<Instance> instances) {
+
+    /**
+     * Statistics of a single pool instance.
+     * @param index         Index of the instance in the pool.
+     * @param numaNode      NUMA node the instance is pinned to, or -1 if it is not pinned.
+     * @param cpus          The CPUs the instance is pinned to, empty if it is not pinned.
+     * @param threads       Number of intra-op threads of the instance.
+     * @param inFlight      Number of queued and running requests.
+     * @param completed     Number of successfully completed requests.
+     * @param failed        Number of failed requests.
+     * @param meanServiceMs Mean processing time of a request in milliseconds.
+     * @param utilization   Fraction of the uptime the instance spent processing, between 0 and 1.
+     */
+    public record Instance(int index, int numaNode, int[] cpus, int threads, int inFlight,
+                           long completed, long failed, double meanServiceMs, double utilization) {}
+
+    /**
+     * Get the number of queued and running requests of the whole pool.
+     * @return the number of requests in flight.
+     */
+    public int inFlight() {
+        return instances.stream().mapToInt(Instance::inFlight).sum();
+    }
+
+    /**
+     * Get the number of successfully completed requests of the whole pool.
+     * @return the number of completed requests.
+     */
+    public long completed() {
+        return instances.stream().mapToLong(Instance::completed).sum();
+    }
+
+    /**
+     * Get the mean utilization of all instances.
+     * @return the utilization, between 0 and 1.
+     */
+    public double utilization() {
+        return instances.stream().mapToDouble(Instance::utilization).average().orElse(0);
+    }
+}
@@ -0,0 +1,80 @@
+package divisio.whisper;
+
+import ai.djl.Device;
+import ai.djl.ndarray.types.DataType;
+
+/**
+ * The weight format of the Whisper model files to load.
+ *
+ * <p>Each mode loads its own set of TorchScript artifacts, which are expected next to the
+ * regular {@code whisper_v3_*.pt} files, e.g. {@code whisper_v3_encoder_int8.pt}.
+ * Select a mode via {@link Whisper3Options#quantization(Whisper3Quantization)}.
+ */
+public enum Whisper3Quantization {
+    /**
+     * The regular FP16 weights. Requires a GPU.
+     */
+    NONE("", DataType.FLOAT16),
+
+    /**
+     * Int8 dynamic quantization of all linear layers in the encoder and decoder.
+     *
+     * <p>Weights are stored as int8, activations are quantized on the fly and everything
+     * else runs in FP32. Dynamically quantized linear layers are only implemented by
+     * the CPU backends of PyTorch, therefore this mode requires a CPU device.
+     */
+    INT8_DYNAMIC("_int8", DataType.FLOAT32),
+
+    /**
+     * Unquantized FP32 weights, on any device.
+     *
+     * <p>Slower than {@link #INT8_DYNAMIC} on CPU, but computed the same way by every engine, so it is the mode to
+     * check the parity of two engines with, without the differences of their int8 quantization schemes.
+     */
+    FP32("_fp32", DataType.FLOAT32);
+
+    private final String artifactSuffix;
+    private final DataType dataType;
+
+    /**
+     * Quantization mode consisting of the artifact suffix and the floating point type of the model inputs.
+     * @param artifactSuffix suffix inserted in front of the file extension of each model artifact.
+     * @param dataType the floating point type the model expects for its inputs and caches.
+     */
+    Whisper3Quantization(String artifactSuffix, DataType dataType) {
+        this.artifactSuffix = artifactSuffix;
+        this.dataType = dataType;
+    }
+
+    /**
+     * Get the floating point type the model expects for the mel features and the key value caches.
+     * @return the floating point type of the model inputs.
+     */
+    public DataType getDataType() {
+        return dataType;
+    }
+
+    /**
+     * Derive the artifact name of the given model resource for this mode,
+     * e.g. {@code whisper_v3_encoder.pt} becomes {@code whisper_v3_encoder_int8.pt}.
+     * @param resource the resource name of the regular FP16 model file.
+     * @return the resource name for this mode.
+     */
+    public String artifact(String resource) {
+        int extension = resource.lastIndexOf('.');
+        return resource.substring(0, extension) + artifactSuffix + resource.substring(extension);
+    }
+
+    /**
+     * Check whether this mode can run on the given device.
+     * @param device the device to check.
+     * @return true if the model files of this mode can be executed on the device.
+     */
+    public boolean supports(Device device) {
+        return switch (this) {
+            case NONE -> device.isGpu();
+            case INT8_DYNAMIC -> !device.isGpu();
+            case FP32 -> true;
+        };
+    }
+}
@@ -0,0 +1,329 @@
+package divisio.whisper;
+
+import ai.djl.modality.audio.Audio;
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDList;
+import ai.djl.ndarray.NDManager;
+
+import java.util.Arrays;
+
+/**
+ * The per-request state of a single decoding run against a shared {@link Whisper3Model}:
+ * the encoder output, the key value cache and the generated token ids.
+ *
+ * <p>A session is used by one thread at a time; it may be handed over to another thread between
+ * {@link #preprocess(Audio)} and {@link #encode()}, e.g. by a {@link WhisperPipeline}. All its native memory is
+ * held by its own sub-manager of the model manager and released on {@link #close()}, together with the memory
+ * reserved from the {@link WhisperMemoryBudget}. The bytes it holds are reported to the budget after every pass.
+ */
+class Whisper3Session implements AutoCloseable {
+
+    /**
+     * The shared, immutable model.
+     */
+    private final Whisper3Model model;
+
+    /**
+     * Manager holding all arrays of this session.
+     */
+    private final NDManager transcriptionManager;
+
+    /**
+     * Budget the held bytes of this session are reported to.
+     */
+    private final WhisperMemoryBudget memoryBudget;
+
+    /**
+     * Bytes reserved from the {@link #memoryBudget} for this session, released on {@link #close()}.
+     */
+    private final long reservedBytes;
+
+    /**
+     * Maximum number of decoder passes of the current sequence of this session.
+     */
+    private int maxLoop;
+
+    /**
+     * The mel features, between {@link #preprocess(Audio)} and {@link #encode()}.
+     */
+    private NDList processedInput;
+
+    /**
+     * Bytes of the arrays currently held by this session, as last reported to the {@link #memoryBudget}.
+     */
+    private long heldBytes;
+
+    /**
+     * Highest number of bytes held by this session at the same time.
+     */
+    private long peakBytes;
+
+    /**
+     * Output of the encoder pass, input to every decoder pass.
+     */
+    private NDArray encoderOutput;
+
+    /**
+     * The flattened key value cache, replaced after every decoder pass.
+     */
+    private NDList keyValueCache;
+
+    /**
+     * All token ids of this session, starting with the initial token.
+     */
+    private long[] tokenIds = new long[128];
+
+    /**
+     * Number of valid entries in {@link #tokenIds}.
+     */
+    private int size;
+
+    /**
+     * Number of token ids already fed to the decoder, i.e. covered by the self-attention cache.
+     */
+    private int decodedSize;
+
+    /**
+     * Create a new session against the given model.
+     * @param model the shared model.
+     * @param memoryBudget the budget to report the held bytes to.
+     * @param reservedBytes the bytes reserved from the budget for this session, released on {@link #close()}.
+     * @param maxLoop the maximum number of decoder passes.
+     */
+    Whisper3Session(Whisper3Model model, WhisperMemoryBudget memoryBudget, long reservedBytes, int maxLoop) {
+        this.model = model;
+        this.memoryBudget = memoryBudget;
+        this.reservedBytes = reservedBytes;
+        this.maxLoop = maxLoop;
+        this.transcriptionManager = model.newSubManager("transcription_manager");
+    }
+
+    /**
+     * Compute the mel features of the given audio, the CPU bound part before the {@link #encode()}.
+     * @param audio the input audio.
+     */
+    void preprocess(Audio audio) {
+        // audio -> mel spectrogram
+        processedInput = model.processInput(transcriptionManager, audio);
+        updateHeldBytes(bytesOf(processedInput));
+    }
+
+    /**
+     * Take precomputed mel features instead of computing them, see {@link #preprocess(Audio)}.
+     * @param features the mel features.
+     */
+    void preprocess(WhisperFeatures features) {
+        processedInput = model.processFeatures(transcriptionManager, features);
+        updateHeldBytes(bytesOf(processedInput));
+    }
+
+    /**
+     * Run the encoder over the mel features of {@link #preprocess(Audio)} and initialize the key value cache.
+     */
+    void encode() {
+        // encoder pass
+        encoderOutput = model.encode(processedInput);
+        updateHeldBytes(bytesOf(processedInput) + bytesOf(encoderOutput));
+
+        // the mel features are not needed anymore once encoded
+        processedInput.close();
+        processedInput = null;
+
+        // init kv cache
+        keyValueCache = model.initKeyValueCache(transcriptionManager, encoderOutput);
+        updateHeldBytes(bytesOf(encoderOutput) + bytesOf(keyValueCache));
+    }
+
+    /**
+     * Start a new sequence on the encoder output of this session, e.g. the next variant of the same audio: drop all
+     * token ids and reset the key value cache to the cross-attention caches of the encoder output.
+     * @param maxLoop the maximum number of decoder passes of the new sequence, at most the one of this session.
+     */
+    void restart(int maxLoop) {
+        this.maxLoop = maxLoop;
+        if (size == 0) {
+            // nothing decoded yet, the key value cache is still the initial one
+            return;
+        }
+        keyValueCache.close();
+        keyValueCache = model.initKeyValueCache(transcriptionManager, encoderOutput);
+        size = 0;
+        decodedSize = 0;
+        updateHeldBytes(bytesOf(encoderOutput) + bytesOf(keyValueCache));
+    }
+
+    /**
+     * Run a single decoder pass for the last token and advance the key value cache.
+     * @param decoderPassManager manager to hold the temporary arrays of this pass.
+     * @return the logits for the next token, with shape (1, vocabulary size), attached to the pass manager.
+     */
+    NDArray forward(NDManager decoderPassManager) {
+        return forward(decoderPassManager, size - 1).get("0,-1:,:").duplicate();
+    }
+
+    /**
+     * Run a single decoder pass over all token ids not yet fed to the decoder, e.g. a prompt.
+     * Needs a decoder accepting several tokens per pass, see {@link Whisper3ModelConfig#isMultiTokenDecoder()}.
+     * @param decoderPassManager manager to hold the temporary arrays of this pass.
+     * @return the logits following each fed token, with shape (1, fed tokens, vocabulary size),
+     *         attached to the pass manager.
+     */
+    NDArray prefill(NDManager decoderPassManager) {
+        return forward(decoderPassManager, decodedSize);
+    }
+
+    /**
+     * Run a single decoder pass over the token ids starting at the given position and advance the key value cache.
+     * @param decoderPassManager manager to hold the temporary arrays of this pass.
+     * @param from position of the first token id to feed, all previous ones must be in the key value cache.
+     * @return the logits following each fed token, with shape (1, fed tokens, vocabulary size),
+     *         attached to the pass manager.
+     */
+    private NDArray forward(NDManager decoderPassManager, int from) {
+        NDArray tokens = decoderPassManager.create(new long[][] { Arrays.copyOfRange(tokenIds, from, size) });
+
+        // input consists of a flat list containing the new tokens, the encoder output,
+        // and the entire key_value_cache flattened
+        NDList decoderInputs = new NDList(tokens, encoderOutput).addAll(keyValueCache);
+        NDList output = model.decode(decoderInputs);
+
+        // first index contains the next predicted token
+        NDArray decoderOutput = output.get(0);
+        // all other indices are the new key_value_cache
+        NDList pastKeyValueCache = output.subNDList(1);
+
+        // previous and new self-attention cache are held at the same time until the previous one is closed,
+        // the cross-attention entries are passed through unchanged
+        updateHeldBytes(heldBytes + bytesOf(decoderOutput) + selfAttentionBytes(pastKeyValueCache));
+
+        // close previous cache to store a new one
+        keyValueCache.close();
+        // TODO: in python, the self-attention-cache only grows to the size of 16,
+        //  while this cache can theoretically grow endlessly... check if it matters
+        keyValueCache = pastKeyValueCache;
+        keyValueCache.attach(transcriptionManager);
+        decodedSize = size;
+        updateHeldBytes(bytesOf(encoderOutput) + bytesOf(keyValueCache));
+
+        return decoderOutput;
+    }
+
+    /**
+     * Append a token id to this session.
+     * @param tokenId the token id.
+     */
+    void append(long tokenId) {
+        if (size == tokenIds.length) {
+            tokenIds = Arrays.copyOf(tokenIds, size * 2);
+        }
+        tokenIds[size++] = tokenId;
+    }
+
+    /**
+     * Get the last token id of this session.
+     * @return the last token id.
+     */
+    long lastToken() {
+        return tokenIds[size - 1];
+    }
+
+    /**
+     * Get the token id at the given position.
+     * @param index the position, starting with the initial token.
+     * @return the token id.
+     */
+    long tokenId(int index) {
+        return tokenIds[index];
+    }
+
+    /**
+     * Drop all token ids after the given size. Only meant to post-process the tokens, the key value cache is not adjusted.
+     * @param newSize the number of token ids to keep.
+     */
+    void truncate(int newSize) {
+        size = Math.min(size, newSize);
+    }
+
+    /**
+     * Get the number of token ids in this session.
+     * @return the number of token ids.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Get a copy of all token ids of this session.
+     * @return the token ids.
+     */
+    long[] tokenIds() {
+        return Arrays.copyOf(tokenIds, size);
+    }
+
+    /**
+     * Get a copy of the token ids of this session starting at the given position, e.g. without a prompt.
+     * @param from the position of the first token id.
+     * @return the token ids.
+     */
+    long[] tokenIds(int from) {
+        return Arrays.copyOfRange(tokenIds, Math.min(from, size), size);
+    }
+
+    /**
+     * Get the maximum number of decoder passes of the current sequence of this session.
+     * @return the maximum number of decoder passes.
+     */
+    int maxLoop() {
+        return maxLoop;
+    }
+
+    /**
+     * Get the highest number of bytes held by this session at the same time.
+     * @return the peak bytes.
+     */
+    long peakBytes() {
+        return peakBytes;
+    }
+
+    /**
+     * Report the bytes currently held by this session to the budget.
+     * @param bytes the held bytes.
+     */
+    private void updateHeldBytes(long bytes) {
+        memoryBudget.recordUsage(bytes - heldBytes);
+        heldBytes = bytes;
+        peakBytes = Math.max(peakBytes, bytes);
+    }
+
+    private static long bytesOf(NDArray array) {
+        return array.size() * array.getDataType().getNumOfBytes();
+    }
+
+    /**
+     * Bytes of the self-attention entries of a flattened key value cache, the first two entries of each layer.
+     * @param cache the flattened key value cache.
+     * @return the self-attention bytes.
+     */
+    private static long selfAttentionBytes(NDList cache) {
+        long bytes = 0;
+        for (int i = 0; i < cache.size(); i += 4) {
+            bytes += bytesOf(cache.get(i)) + bytesOf(cache.get(i + 1));
+        }
+        return bytes;
+    }
+
+    private static long bytesOf(NDList list) {
+        long bytes = 0;
+        for (NDArray array : list) {
+            bytes += bytesOf(array);
+        }
+        return bytes;
+    }
+
+    @Override
+    public void close() {
+        transcriptionManager.close();
+        updateHeldBytes(0);
+        memoryBudget.release(reservedBytes);
+    }
+}
@@ -2,6 +2,7 @@ package divisio.whisper;
 
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -23,23 +24,75 @@ public class Whisper3TokenDecoder {
      * @return the concatenated UTF-8 text.
      */
     public static String rawTokensToText(List<String> rawTokens) {
-        String joined = String.join("", rawTokens);
+        return new String(rawTokenBytes(String.join("", rawTokens)), StandardCharsets.UTF_8);
+    }
 
-        byte[] byteText = new byte[joined.length()];
-        for (int i = 0; i < joined.length(); i++) {
-            String c = String.valueOf(joined.charAt(i));
+    /**
+     * Convert the characters of raw tokens into the UTF-8 bytes they stand for.
+     * @param rawToken the raw token characters.
+     * @return the UTF-8 bytes.
+     */
+    private static byte[] rawTokenBytes(String rawToken) {
+        byte[] byteText = new byte[rawToken.length()];
+        for (int i = 0; i < rawToken.length(); i++) {
+            String c = String.valueOf(rawToken.charAt(i));
             if (CHAR_TO_UNICODE_MAP.containsKey(c)) {
                 byteText[i] = CHAR_TO_UNICODE_MAP.get(c).byteValue();
             }
         }
-        return new String(byteText, StandardCharsets.UTF_8);
+        return byteText;
+    }
+
+    /**
+     * Incremental counterpart of {@link #rawTokensToText(List)} for streaming: turns one raw token after the other
+     * into the text it completes. Bytes of a multibyte character split across tokens are held back until the
+     * character is complete.
+     */
+    static final class Incremental {
+
+        private byte[] pending = new byte[0];
+
+        /**
+         * Decode the next raw token.
+         * @param rawToken the raw token.
+         * @return the text completed by the token, may be empty.
+         */
+        String accept(String rawToken) {
+            byte[] tokenBytes = rawTokenBytes(rawToken);
+            byte[] bytes = Arrays.copyOf(pending, pending.length + tokenBytes.length);
+            System.arraycopy(tokenBytes, 0, bytes, pending.length, tokenBytes.length);
+
+            int complete = completeLength(bytes);
+            pending = Arrays.copyOfRange(bytes, complete, bytes.length);
+            return new String(bytes, 0, complete, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Length of the longest prefix of the given bytes which does not end in an incomplete UTF-8 sequence.
+         * @param bytes the UTF-8 bytes.
+         * @return the length of the complete prefix.
+         */
+        private static int completeLength(byte[] bytes) {
+            // walk back over at most three continuation bytes to the lead byte of the last character
+            int lead = bytes.length - 1;
+            while (lead >= 0 && bytes.length - lead <= 3 && (bytes[lead] & 0xC0) == 0x80) {
+                lead--;
+            }
+            if (lead < 0 || (bytes[lead] & 0xC0) == 0x80) {
+                // no lead byte, invalid anyway
+                return bytes.length;
+            }
+            int b = bytes[lead] & 0xFF;
+            int needed = b >= 0xF0 ? 4 : b >= 0xE0 ? 3 : b >= 0xC0 ? 2 : 1;
+            return bytes.length - lead >= needed ? bytes.length : lead;
+        }
     }
 
     /**
      * Create the char-to-unicode-map necessary to convert raw char tokens into UTF-8 text.
      * @return the char-to-unicode-map necessary to convert raw char tokens into UTF-8 text.
      */
-    private static Map<String, Integer> createCharToUnicodeMap() {
+    static Map<String, Integer> createCharToUnicodeMap() {
         Map<String, Integer> charToUnicodeMap = new HashMap<>();
         List<Integer> bytes = createByteList();
         List<Integer> chars = new ArrayList<>(bytes);
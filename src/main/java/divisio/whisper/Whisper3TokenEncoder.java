@@ -0,0 +1,81 @@
+package divisio.whisper;
+
+import ai.djl.modality.nlp.DefaultVocabulary;
+import divisio.whisper.token.WhisperAnyToken;
+import divisio.whisper.token.WhisperToken;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Token encoder to turn text into Whisper tokens, e.g. for prompts.
+ * <p>
+ * The counterpart of {@link Whisper3TokenDecoder}. Instead of applying the BPE merges, every word is split greedily
+ * into the longest tokens of the vocabulary. The result decodes to the same text, but may use other (usually the same)
+ * tokens than the huggingface tokenizer, which is good enough to condition Whisper on previous text.
+ */
+public class Whisper3TokenEncoder {
+
+    /**
+     * Pre-tokenization pattern of the GPT-2 tokenizer Whisper is based on; spaces are attached to the following word.
+     */
+    private static final Pattern WORD_PATTERN =
+            Pattern.compile("'s|'t|'re|'ve|'m|'ll|'d| ?\\p{L}+| ?\\p{N}+| ?[^\\s\\p{L}\\p{N}]+|\\s+(?!\\S)|\\s+");
+
+    private static final String[] BYTE_TO_UNICODE = createByteToUnicode();
+
+    /**
+     * Convert UTF-8 text into Whisper tokens.
+     * @param text the text.
+     * @param vocabulary the vocabulary of the model.
+     * @return the tokens representing the text.
+     */
+    public static List<WhisperToken> textToTokens(String text, DefaultVocabulary vocabulary) {
+        List<WhisperToken> tokens = new ArrayList<>();
+        Matcher matcher = WORD_PATTERN.matcher(text);
+        while (matcher.find()) {
+            String word = toRawToken(matcher.group());
+            int start = 0;
+            while (start < word.length()) {
+                // longest match, a single byte always exists in the vocabulary
+                int end = word.length();
+                while (end > start + 1 && !vocabulary.contains(word.substring(start, end))) {
+                    end--;
+                }
+                String token = word.substring(start, end);
+                tokens.add(new WhisperAnyToken(vocabulary.getIndex(token), token));
+                start = end;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Map the UTF-8 bytes of the given text to the printable characters used by the vocabulary.
+     * @param text the text.
+     * @return the raw token representation of the text.
+     */
+    private static String toRawToken(String text) {
+        StringBuilder raw = new StringBuilder();
+        for (byte b : text.getBytes(StandardCharsets.UTF_8)) {
+            raw.append(BYTE_TO_UNICODE[b & 0xff]);
+        }
+        return raw.toString();
+    }
+
+    /**
+     * Invert the char-to-unicode-map of {@link Whisper3TokenDecoder}.
+     * @return the raw token character for each byte value.
+     */
+    private static String[] createByteToUnicode() {
+        String[] byteToUnicode = new String[256];
+        for (Map.Entry<String, Integer> entry : Whisper3TokenDecoder.createCharToUnicodeMap().entrySet()) {
+            byteToUnicode[entry.getValue()] = entry.getKey();
+        }
+        return byteToUnicode;
+    }
+}
@@ -0,0 +1,16 @@
+package divisio.whisper;
+
+/**
+ * What a {@link WhisperMemoryBudget} does with a request that does not fit into the remaining budget.
+ */
+public enum WhisperAdmissionPolicy {
+    /**
+     * Wait until enough running requests finished, or until the deadline of the request passed.
+     */
+    QUEUE,
+
+    /**
+     * Reject the request right away with a {@link java.util.concurrent.RejectedExecutionException}.
+     */
+    REJECT
+}
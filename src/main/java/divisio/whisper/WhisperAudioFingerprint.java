@@ -0,0 +1,252 @@
+package divisio.whisper;
+
+import java.util.BitSet;
+
+/**
+ * Perceptual fingerprint of audio, robust against re-encoding, resampling and gain changes, used by the
+ * {@link WhisperResultCache} to recognize the same recording in another file.
+ *
+ * <p>The fingerprint follows Haitsma and Kalker: the audio is split into overlapping frames of 128 ms every 16 ms, the
+ * energy of each frame is measured in 33 logarithmically spaced bands between 300 and 2000 Hz, and each frame gets
+ * 32 bits, one per pair of neighboring bands, set if the energy difference of the pair increased since the previous
+ * frame. Lossy codecs change the energies, but rarely the sign of these differences, so two encodings of the same
+ * audio differ in a few percent of the bits, and in up to 15% if they are shifted by half a frame step, while
+ * unrelated audio differs in about half of them.
+ *
+ * <p>Silent frames carry no information: digital silence sets no bits at all, so two different recordings that are
+ * mostly silence would have mostly equal bits. Frames more than 40 dB below the loudest frame are therefore marked
+ * silent and only the other frames are compared.
+ *
+ * @param frames     Bits of each frame after the first.
+ * @param energetic  Frames of {@code frames} that are not silent.
+ * @param durationMs Duration of the audio in milliseconds.
+ */
+record WhisperAudioFingerprint(int[] frames, BitSet energetic, long durationMs) {
+
+    private static final int SAMPLE_RATE = 16000;
+    private static final int FRAME_SIZE = 2048;
+    private static final int HOP_SIZE = 256;
+    private static final int BANDS = 33;
+    private static final double MIN_FREQUENCY = 300;
+    private static final double MAX_FREQUENCY = 2000;
+
+    /**
+     * Energy of a silent frame relative to the loudest frame, -40 dB.
+     */
+    private static final double SILENCE_RATIO = 1e-4;
+
+    /**
+     * Energy below which a frame is silent even in silent audio, about -80 dBFS of noise.
+     */
+    private static final double SILENCE_FLOOR = 1e-3;
+
+    /**
+     * Minimum number of compared frames that are not silent in both fingerprints, about 0.25 seconds.
+     */
+    static final int MIN_ENERGETIC_FRAMES = 16;
+
+    /**
+     * Compute the fingerprint of the given audio.
+     * @param samples the mono samples.
+     * @param sampleRate the sample rate of the samples; the fingerprint is computed at 16 kHz.
+     * @return the fingerprint; without frames if the audio is shorter than two frames.
+     */
+    static WhisperAudioFingerprint of(float[] samples, float sampleRate) {
+        float[] audio = sampleRate == SAMPLE_RATE ? samples : resample(samples, sampleRate);
+        long durationMs = Math.round(samples.length * 1000.0 / sampleRate);
+        int frameCount = audio.length < FRAME_SIZE ? 0 : (audio.length - FRAME_SIZE) / HOP_SIZE + 1;
+        if (frameCount < 2) {
+            return new WhisperAudioFingerprint(new int[0], new BitSet(), durationMs);
+        }
+
+        int[] bandEdges = bandEdges();
+        float[] window = new float[FRAME_SIZE];
+        for (int i = 0; i < FRAME_SIZE; i++) {
+            window[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i / FRAME_SIZE));
+        }
+        double[] real = new double[FRAME_SIZE];
+        double[] imaginary = new double[FRAME_SIZE];
+        double[] previous = new double[BANDS];
+        double[] energies = new double[BANDS];
+        int[] frames = new int[frameCount - 1];
+        double[] frameEnergies = new double[frameCount];
+
+        for (int frame = 0; frame < frameCount; frame++) {
+            int offset = frame * HOP_SIZE;
+            for (int i = 0; i < FRAME_SIZE; i++) {
+                real[i] = audio[offset + i] * window[i];
+                imaginary[i] = 0;
+            }
+            fft(real, imaginary);
+            for (int band = 0; band < BANDS; band++) {
+                double energy = 0;
+                for (int bin = bandEdges[band]; bin < bandEdges[band + 1]; bin++) {
+                    energy += real[bin] * real[bin] + imaginary[bin] * imaginary[bin];
+                }
+                energies[band] = energy;
+                frameEnergies[frame] += energy;
+            }
+            if (frame > 0) {
+                int bits = 0;
+                for (int band = 0; band < BANDS - 1; band++) {
+                    double difference = (energies[band] - energies[band + 1]) - (previous[band] - previous[band + 1]);
+                    if (difference > 0) {
+                        bits |= 1 << band;
+                    }
+                }
+                frames[frame - 1] = bits;
+            }
+            double[] swap = previous;
+            previous = energies;
+            energies = swap;
+        }
+
+        double maxEnergy = 0;
+        for (double energy : frameEnergies) {
+            maxEnergy = Math.max(maxEnergy, energy);
+        }
+        double threshold = Math.max(maxEnergy * SILENCE_RATIO, SILENCE_FLOOR);
+        BitSet energetic = new BitSet(frames.length);
+        for (int frame = 1; frame < frameCount; frame++) {
+            if (frameEnergies[frame] > threshold) {
+                energetic.set(frame - 1);
+            }
+        }
+        return new WhisperAudioFingerprint(frames, energetic, durationMs);
+    }
+
+    /**
+     * Check whether this fingerprint has enough frames that are not silent to be matched at all.
+     * @return true if at least {@link #MIN_ENERGETIC_FRAMES} frames are not silent.
+     */
+    boolean isMatchable() {
+        return energetic.cardinality() >= MIN_ENERGETIC_FRAMES;
+    }
+
+    /**
+     * Fraction of differing bits between this fingerprint and another one, at the best alignment within the given
+     * number of frames, to compensate for the delay a codec adds at the start. Frames silent in both fingerprints are
+     * skipped, a frame silent in only one of them counts as half of its bits differing, like unrelated audio.
+     * @param other the other fingerprint.
+     * @param maxShift the maximum shift in frames.
+     * @return the bit error rate between 0 and 1; 1 if the fingerprints overlap in less than 90% of their frames or
+     *         less than {@link #MIN_ENERGETIC_FRAMES} of the overlapping frames are not silent.
+     */
+    double bitErrorRate(WhisperAudioFingerprint other, int maxShift) {
+        int minFrames = Math.min(frames.length, other.frames.length);
+        if (minFrames == 0) {
+            return 1;
+        }
+        double best = 1;
+        for (int shift = -maxShift; shift <= maxShift; shift++) {
+            int start = Math.max(0, -shift);
+            int end = Math.min(frames.length, other.frames.length - shift);
+            int overlap = end - start;
+            if (overlap < minFrames * 0.9) {
+                continue;
+            }
+            long errors = 0;
+            int compared = 0;
+            for (int i = start; i < end; i++) {
+                boolean energy = energetic.get(i);
+                boolean otherEnergy = other.energetic.get(i + shift);
+                if (energy && otherEnergy) {
+                    errors += Integer.bitCount(frames[i] ^ other.frames[i + shift]);
+                    compared++;
+                } else if (energy || otherEnergy) {
+                    errors += 16;
+                    compared++;
+                }
+            }
+            if (compared < MIN_ENERGETIC_FRAMES) {
+                continue;
+            }
+            best = Math.min(best, errors / (32.0 * compared));
+        }
+        return best;
+    }
+
+    /**
+     * FFT bins bounding the bands, logarithmically spaced between the minimum and maximum frequency.
+     * @return the first bin of each band followed by the end of the last band.
+     */
+    private static int[] bandEdges() {
+        int[] edges = new int[BANDS + 1];
+        double binWidth = (double) SAMPLE_RATE / FRAME_SIZE;
+        for (int i = 0; i <= BANDS; i++) {
+            double frequency = MIN_FREQUENCY * Math.pow(MAX_FREQUENCY / MIN_FREQUENCY, (double) i / BANDS);
+            edges[i] = (int) Math.round(frequency / binWidth);
+        }
+        for (int i = 1; i <= BANDS; i++) {
+            // at least one bin per band
+            edges[i] = Math.max(edges[i], edges[i - 1] + 1);
+        }
+        return edges;
+    }
+
+    /**
+     * Linear resampling to 16 kHz, sufficient for the bands below 2 kHz.
+     * @param samples the samples.
+     * @param sampleRate the sample rate of the samples.
+     * @return the samples at 16 kHz.
+     */
+    private static float[] resample(float[] samples, float sampleRate) {
+        int length = (int) (samples.length * (double) SAMPLE_RATE / sampleRate);
+        float[] resampled = new float[length];
+        double step = (double) sampleRate / SAMPLE_RATE;
+        for (int i = 0; i < length; i++) {
+            double position = i * step;
+            int index = (int) position;
+            double fraction = position - index;
+            float next = index + 1 < samples.length ? samples[index + 1] : samples[index];
+            resampled[i] = (float) (samples[index] * (1 - fraction) + next * fraction);
+        }
+        return resampled;
+    }
+
+    /**
+     * In-place iterative radix-2 FFT.
+     * @param real the real parts, a power of two in length.
+     * @param imaginary the imaginary parts.
+     */
+    private static void fft(double[] real, double[] imaginary) {
+        int n = real.length;
+        for (int i = 1, j = 0; i < n; i++) {
+            int bit = n >> 1;
+            for (; (j & bit) != 0; bit >>= 1) {
+                j ^= bit;
+            }
+            j ^= bit;
+            if (i < j) {
+                double swap = real[i];
+                real[i] = real[j];
+                real[j] = swap;
+                swap = imaginary[i];
+                imaginary[i] = imaginary[j];
+                imaginary[j] = swap;
+            }
+        }
+        for (int length = 2; length <= n; length <<= 1) {
+            double angle = -2 * Math.PI / length;
+            double stepReal = Math.cos(angle);
+            double stepImaginary = Math.sin(angle);
+            for (int i = 0; i < n; i += length) {
+                double wReal = 1;
+                double wImaginary = 0;
+                for (int k = 0; k < length / 2; k++) {
+                    int a = i + k;
+                    int b = a + length / 2;
+                    double tReal = real[b] * wReal - imaginary[b] * wImaginary;
+                    double tImaginary = real[b] * wImaginary + imaginary[b] * wReal;
+                    real[b] = real[a] - tReal;
+                    imaginary[b] = imaginary[a] - tImaginary;
+                    real[a] += tReal;
+                    imaginary[a] += tImaginary;
+                    double nextReal = wReal * stepReal - wImaginary * stepImaginary;
+                    wImaginary = wReal * stepImaginary + wImaginary * stepReal;
+                    wReal = nextReal;
+                }
+            }
+        }
+    }
+}
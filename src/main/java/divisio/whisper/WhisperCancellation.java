@@ -0,0 +1,48 @@
+package divisio.whisper;
+
+/**
+ * Handle to cooperatively cancel a running {@link WhisperTask}.
+ *
+ * <p>The decoder loop checks the handle between two decoder passes. Once cancelled, the task stops,
+ * releases its native memory and fails with a {@link java.util.concurrent.CancellationException}.
+ * Futures returned by {@link WhisperTask#executeAsync()} cancel their task when they are cancelled.
+ */
+public class WhisperCancellation {
+
+    private volatile boolean cancelled;
+
+    /**
+     * Handle this one is derived from. Cancelling the parent cancels this handle too, but not vice versa.
+     */
+    private final WhisperCancellation parent;
+
+    /**
+     * Create a new cancellation handle.
+     */
+    public WhisperCancellation() {
+        this(null);
+    }
+
+    /**
+     * Create a cancellation handle that is also cancelled by the given parent.
+     * @param parent the parent handle; may be {@code null}.
+     */
+    WhisperCancellation(WhisperCancellation parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * Request the cancellation of the task(s) using this handle.
+     */
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    /**
+     * Check whether the cancellation was requested.
+     * @return true if cancelled.
+     */
+    public boolean isCancelled() {
+        return cancelled || (parent != null && parent.isCancelled());
+    }
+}
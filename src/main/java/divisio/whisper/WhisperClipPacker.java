@@ -0,0 +1,160 @@
+package divisio.whisper;
+
+import ai.djl.modality.audio.Audio;
+import divisio.whisper.token.Whisper3Timestamp;
+import divisio.whisper.token.WhisperToken;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packs several short clips into 30 second encoder windows and splits the transcription of a window back into
+ * the results of its clips, see {@link Whisper3#processPacked(List, List, WhisperDecodingOptions)}.
+ *
+ * <p>Clips are concatenated in their given order, separated by a short silence so Whisper starts a new segment
+ * at every clip boundary. Each segment of the window is assigned to the clip containing its midpoint.
+ */
+final class WhisperClipPacker {
+
+    /**
+     * Length of the encoder window in seconds.
+     */
+    static final double WINDOW_SECONDS = 30;
+
+    /**
+     * Silence between two clips in seconds.
+     */
+    static final double GAP_SECONDS = 0.5;
+
+    /**
+     * Resolution of the timestamp tokens in milliseconds, clip boundaries are rounded down to it.
+     */
+    private static final long TIMESTAMP_MS_STEP = 20;
+
+    /**
+     * A packed encoder window.
+     * @param audio    the concatenated audio of the clips.
+     * @param clips    indices of the packed clips in the input list.
+     * @param startMs  start of each packed clip in the window in milliseconds.
+     * @param endMs    end of each packed clip in the window in milliseconds.
+     */
+    record Window(Audio audio, int[] clips, long[] startMs, long[] endMs) {
+    }
+
+    private WhisperClipPacker() {
+    }
+
+    /**
+     * Pack the given clips greedily, in their order, into as few windows as possible. Clips longer than a window
+     * get a window of their own, of which only the first 30 seconds are transcribed.
+     * @param clips the clips, all with the same sample rate.
+     * @return the windows.
+     */
+    static List<Window> pack(List<Audio> clips) {
+        if (clips.isEmpty()) {
+            return List.of();
+        }
+        float sampleRate = clips.get(0).getSampleRate();
+        int windowSamples = (int) (WINDOW_SECONDS * sampleRate);
+        int gapSamples = (int) (GAP_SECONDS * sampleRate);
+
+        List<Window> windows = new ArrayList<>();
+        int first = 0;
+        int samples = 0;
+        for (int i = 0; i < clips.size(); i++) {
+            Audio clip = clips.get(i);
+            if (clip.getSampleRate() != sampleRate) {
+                throw new IllegalArgumentException(String.format(
+                        "All clips need the same sample rate, clip %d has %.0f Hz instead of %.0f Hz.",
+                        i, clip.getSampleRate(), sampleRate));
+            }
+            int length = clip.getData().length;
+            if (i > first && samples + gapSamples + length > windowSamples) {
+                windows.add(window(clips, first, i, gapSamples, sampleRate));
+                first = i;
+                samples = 0;
+            }
+            samples += (i > first ? gapSamples : 0) + length;
+        }
+        windows.add(window(clips, first, clips.size(), gapSamples, sampleRate));
+        return windows;
+    }
+
+    private static Window window(List<Audio> clips, int from, int to, int gapSamples, float sampleRate) {
+        int count = to - from;
+        int samples = gapSamples * (count - 1);
+        for (int i = from; i < to; i++) {
+            samples += clips.get(i).getData().length;
+        }
+
+        float[] data = new float[samples];
+        int[] indices = new int[count];
+        long[] startMs = new long[count];
+        long[] endMs = new long[count];
+        int position = 0;
+        for (int c = 0; c < count; c++) {
+            float[] clip = clips.get(from + c).getData();
+            System.arraycopy(clip, 0, data, position, clip.length);
+            indices[c] = from + c;
+            startMs[c] = toTimestampMs(position, sampleRate);
+            endMs[c] = toTimestampMs(position + clip.length, sampleRate);
+            position += clip.length + gapSamples;
+        }
+        return new Window(new Audio(data, sampleRate, 1), indices, startMs, endMs);
+    }
+
+    private static long toTimestampMs(int samples, float sampleRate) {
+        long ms = (long) (samples * 1000.0 / sampleRate);
+        return ms - ms % TIMESTAMP_MS_STEP;
+    }
+
+    /**
+     * Split the segments of a window transcription by the clip boundaries of the window.
+     * @param window the window.
+     * @param result the transcription of the window, with timestamps.
+     * @return the segments of each clip of the window, with timestamps relative to the start of the clip.
+     */
+    static List<List<WhisperSegment>> split(Window window, WhisperResult result) {
+        int count = window.clips().length;
+        List<List<WhisperSegment>> segments = new ArrayList<>(count);
+        for (int c = 0; c < count; c++) {
+            segments.add(new ArrayList<>());
+        }
+
+        for (WhisperSegment segment : result.segments()) {
+            long midpoint = (segment.startMs() + segment.endMs()) / 2;
+            int clip = 0;
+            // the nearest clip, segments in a gap go to the clip before it
+            while (clip + 1 < count && midpoint >= window.startMs()[clip + 1]) {
+                clip++;
+            }
+            long offset = window.startMs()[clip];
+            long length = window.endMs()[clip] - offset;
+            segments.get(clip).add(new WhisperSegment(
+                    Math.clamp(segment.startMs() - offset, 0, length),
+                    Math.clamp(segment.endMs() - offset, 0, length),
+                    segment.text(),
+                    segment.tokens()));
+        }
+        return segments;
+    }
+
+    /**
+     * Rebuild the tokens of a clip from its segments, each framed by timestamp tokens relative to the start of the clip.
+     * @param segments the segments of the clip.
+     * @return the tokens.
+     */
+    static List<WhisperToken> tokens(List<WhisperSegment> segments) {
+        List<WhisperToken> tokens = new ArrayList<>();
+        for (WhisperSegment segment : segments) {
+            tokens.add(timestamp(segment.startMs()));
+            tokens.addAll(segment.tokens());
+            tokens.add(timestamp(segment.endMs()));
+        }
+        return tokens;
+    }
+
+    private static Whisper3Timestamp timestamp(long ms) {
+        return Whisper3Timestamp.fromTimestampMs(Math.clamp(ms, 0, (long) (WINDOW_SECONDS * 1000)));
+    }
+}
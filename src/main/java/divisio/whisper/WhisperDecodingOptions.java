@@ -0,0 +1,299 @@
+package divisio.whisper;
+
+import java.time.Instant;
+
+/**
+ * Options to control a single decoding run of {@link Whisper3#process(ai.djl.modality.audio.Audio, java.util.List, WhisperDecodingOptions)}.
+ *
+ * <p>Usually created by {@link WhisperTask}. All options are optional.
+ */
+public class WhisperDecodingOptions {
+
+    /**
+     * Hard upper limit of generated tokens, half of the text context of Whisper (as in the original implementation).
+     */
+    static final int MAX_TOKEN_LIMIT = 224;
+
+    /**
+     * Lower limit of the derived token budget, so very short clips can still finish a sentence.
+     */
+    private static final int MIN_TOKEN_BUDGET = 16;
+
+    /**
+     * Generous upper bound of tokens per second of transcribed speech; fast speech in
+     * token-dense languages produces around 6 tokens per second.
+     */
+    private static final double TRANSCRIBE_TOKENS_PER_SECOND = 8;
+
+    /**
+     * Upper bound of tokens per second of English translation, which needs fewer tokens than most source languages.
+     */
+    private static final double TRANSLATE_TOKENS_PER_SECOND = 6;
+
+    /**
+     * Additional tokens per second for the timestamp tokens framing each segment.
+     */
+    private static final double TIMESTAMP_TOKENS_PER_SECOND = 1;
+
+    /**
+     * Point in time after which decoding stops. {@code null} for no deadline.
+     */
+    private Instant deadline;
+
+    /**
+     * Handle to cancel the decoding. {@code null} if it cannot be cancelled.
+     */
+    private WhisperCancellation cancellation;
+
+    /**
+     * Maximum number of tokens to generate after the start tokens. 0 to derive it from the audio duration.
+     */
+    private int maxTokens;
+
+    /**
+     * What to do when Whisper repeats itself. Default is {@link WhisperRepetitionPolicy#IGNORE}, as spoken
+     * repetitions, e.g. a counted or spelled out sequence, are not always hallucinations.
+     */
+    private WhisperRepetitionPolicy repetitionPolicy = WhisperRepetitionPolicy.IGNORE;
+
+    /**
+     * No-speech probability above which decoding stops, if the first text token is unlikely as well.
+     * {@link Double#NaN} to never stop for silence.
+     */
+    private double noSpeechThreshold = Double.NaN;
+
+    /**
+     * Log-probability of the first text token below which a likely silent audio is not decoded any further.
+     */
+    private double logProbThreshold = -1.0;
+
+    /**
+     * Listener for the generated tokens, or {@code null}.
+     */
+    private WhisperTokenListener tokenListener;
+
+    /**
+     * Private constructor. Use {@link #options()} to create an instance.
+     */
+    private WhisperDecodingOptions() {
+    }
+
+    /**
+     * Create a set of default options.
+     * @return a {@code WhisperDecodingOptions} instance to configure.
+     */
+    public static WhisperDecodingOptions options() {
+        return new WhisperDecodingOptions();
+    }
+
+    /**
+     * Set the point in time after which decoding stops. Checked between two decoder passes;
+     * the result then contains the tokens decoded so far, see {@link WhisperStopReason#DEADLINE_EXCEEDED}.
+     * @param deadline the deadline; {@code null} for no deadline.
+     * @return these options.
+     */
+    public WhisperDecodingOptions deadline(Instant deadline) {
+        this.deadline = deadline;
+        return this;
+    }
+
+    /**
+     * Set the handle to cancel the decoding with.
+     * @param cancellation the cancellation handle; {@code null} if it cannot be cancelled.
+     * @return these options.
+     */
+    public WhisperDecodingOptions cancellation(WhisperCancellation cancellation) {
+        this.cancellation = cancellation;
+        return this;
+    }
+
+    /**
+     * Set the maximum number of tokens to generate after the start tokens.
+     * @param maxTokens the token budget; 0 to derive it from the audio duration and task,
+     *                  see {@link #tokenBudget(double, boolean, boolean)}.
+     * @return these options.
+     */
+    public WhisperDecodingOptions maxTokens(int maxTokens) {
+        this.maxTokens = maxTokens;
+        return this;
+    }
+
+    /**
+     * Set what to do when Whisper repeats the same token sequence over and over.
+     * @param repetitionPolicy the repetition policy.
+     * @return these options.
+     */
+    public WhisperDecodingOptions repetitionPolicy(WhisperRepetitionPolicy repetitionPolicy) {
+        this.repetitionPolicy = repetitionPolicy;
+        return this;
+    }
+
+    /**
+     * Set the no-speech gate: decoding stops with an empty result, see {@link WhisperStopReason#NO_SPEECH}, if the
+     * probability of the no-speech token exceeds the threshold and the first generated text token has a
+     * log-probability below {@link #logProbThreshold(double)}.
+     * @param noSpeechThreshold the no-speech probability threshold, e.g. 0.6 as in the original implementation;
+     *                          {@link Double#NaN} to disable the gate.
+     * @return these options.
+     */
+    public WhisperDecodingOptions noSpeechThreshold(double noSpeechThreshold) {
+        this.noSpeechThreshold = noSpeechThreshold;
+        return this;
+    }
+
+    /**
+     * Set the log-probability of the first text token below which the no-speech gate applies.
+     * @param logProbThreshold the log-probability threshold, default -1.0.
+     * @return these options.
+     */
+    public WhisperDecodingOptions logProbThreshold(double logProbThreshold) {
+        this.logProbThreshold = logProbThreshold;
+        return this;
+    }
+
+    /**
+     * Set the listener for the generated tokens, called as soon as a token is picked,
+     * see {@link WhisperTokenListener}. Only single sequences are streamed, batches of variants are not.
+     * @param tokenListener the listener; {@code null} for none.
+     * @return these options.
+     */
+    public WhisperDecodingOptions tokenListener(WhisperTokenListener tokenListener) {
+        this.tokenListener = tokenListener;
+        return this;
+    }
+
+    /**
+     * Get the point in time after which decoding stops.
+     * @return the deadline, or {@code null} for no deadline.
+     */
+    public Instant getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Get the handle to cancel the decoding with.
+     * @return the cancellation handle, or {@code null}.
+     */
+    public WhisperCancellation getCancellation() {
+        return cancellation;
+    }
+
+    /**
+     * Get the maximum number of tokens to generate after the start tokens.
+     * @return the token budget, or 0 if it is derived from the audio duration.
+     */
+    public int getMaxTokens() {
+        return maxTokens;
+    }
+
+    /**
+     * Get what to do when Whisper repeats the same token sequence over and over.
+     * @return the repetition policy.
+     */
+    public WhisperRepetitionPolicy getRepetitionPolicy() {
+        return repetitionPolicy;
+    }
+
+    /**
+     * Get the no-speech probability above which decoding stops.
+     * @return the no-speech threshold, {@link Double#NaN} if disabled.
+     */
+    public double getNoSpeechThreshold() {
+        return noSpeechThreshold;
+    }
+
+    /**
+     * Get the log-probability of the first text token below which the no-speech gate applies.
+     * @return the log-probability threshold.
+     */
+    public double getLogProbThreshold() {
+        return logProbThreshold;
+    }
+
+    /**
+     * Get the listener for the generated tokens.
+     * @return the listener, or {@code null} if there is none.
+     */
+    public WhisperTokenListener getTokenListener() {
+        return tokenListener;
+    }
+
+    /**
+     * Check whether the no-speech gate stops a decoding run.
+     * @param noSpeechProbability the probability of the no-speech token.
+     * @param logProbability the log-probability of the first text token.
+     * @return true if the audio is considered silent.
+     */
+    boolean isNoSpeech(double noSpeechProbability, double logProbability) {
+        return !Double.isNaN(noSpeechThreshold)
+                && noSpeechProbability > noSpeechThreshold
+                && logProbability < logProbThreshold;
+    }
+
+    /**
+     * Check whether the decoding was cancelled, either via the cancellation handle or by interrupting the thread.
+     * @return true if cancelled.
+     */
+    boolean isCancelled() {
+        return (cancellation != null && cancellation.isCancelled()) || Thread.currentThread().isInterrupted();
+    }
+
+    /**
+     * Check whether the deadline passed.
+     * @return true if the deadline passed.
+     */
+    boolean isDeadlineExceeded() {
+        return deadline != null && Instant.now().isAfter(deadline);
+    }
+
+    /**
+     * Derive the number of tokens worth generating for audio of the given duration.
+     *
+     * <p>The budget is an upper bound of what real speech produces, so that regular decodes always end with
+     * end-of-text, while runaway decodes (e.g. hallucinations on short or silent clips) are cut off early.
+     *
+     * @param audioSeconds duration of the audio in seconds, at most 30 seconds are decoded.
+     * @param translate whether the task is a translation.
+     * @param withTimestamps whether timestamp tokens are generated.
+     * @return the token budget.
+     */
+    public static int tokenBudget(double audioSeconds, boolean translate, boolean withTimestamps) {
+        double seconds = Math.min(Math.max(audioSeconds, 0), 30);
+        double tokensPerSecond = translate ? TRANSLATE_TOKENS_PER_SECOND : TRANSCRIBE_TOKENS_PER_SECOND;
+        if (withTimestamps) {
+            tokensPerSecond += TIMESTAMP_TOKENS_PER_SECOND;
+        }
+        int budget = MIN_TOKEN_BUDGET + (int) Math.ceil(seconds * tokensPerSecond);
+        return Math.min(budget, MAX_TOKEN_LIMIT);
+    }
+
+    /**
+     * Resolve the token budget of a decoding run.
+     * @param audioSeconds duration of the audio in seconds.
+     * @param translate whether the task is a translation.
+     * @param withTimestamps whether timestamp tokens are generated.
+     * @return the explicit token budget if set, the derived one otherwise.
+     */
+    int resolveMaxTokens(double audioSeconds, boolean translate, boolean withTimestamps) {
+        if (maxTokens > 0) {
+            return Math.min(maxTokens, MAX_TOKEN_LIMIT);
+        }
+        return tokenBudget(audioSeconds, translate, withTimestamps);
+    }
+
+    /**
+     * Copy these options without the token listener, for decoding runs whose tokens must not be streamed,
+     * e.g. the windows of packed clips.
+     * @return a copy of these options without token listener.
+     */
+    WhisperDecodingOptions withoutTokenListener() {
+        WhisperDecodingOptions copy = new WhisperDecodingOptions();
+        copy.deadline = deadline;
+        copy.cancellation = cancellation;
+        copy.maxTokens = maxTokens;
+        copy.repetitionPolicy = repetitionPolicy;
+        copy.noSpeechThreshold = noSpeechThreshold;
+        copy.logProbThreshold = logProbThreshold;
+        return copy;
+    }
+}
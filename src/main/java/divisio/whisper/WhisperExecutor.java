@@ -0,0 +1,417 @@
+package divisio.whisper;
+
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Bounded executor behind {@link WhisperTask#executeAsync()}.
+ *
+ * <p>Inference runs on a fixed number of dedicated platform threads, fed by a bounded submission queue.
+ * Submitting never runs inference on the calling thread, so callers on virtual threads only ever wait
+ * on a {@link CompletableFuture} (or on a full queue with {@link WhisperRejectionPolicy#BLOCK}),
+ * both of which park without pinning the carrier thread.
+ *
+ * <p>Queued tasks are started by {@link WhisperPriority} first, then in the order of the {@link WhisperOrderingPolicy}.
+ * With load shedding, a task with a deadline is rejected right away if the estimated wait for a worker already
+ * exceeds its deadline, and a queued task whose deadline passed before it was started is dropped; both complete
+ * exceptionally with a {@link RejectedExecutionException}. Wait estimates are based on the observed service times.
+ */
+public class WhisperExecutor implements AutoCloseable {
+
+    /**
+     * Job size assumed for tasks of unknown audio duration, the length of a Whisper window.
+     */
+    private static final double UNKNOWN_JOB_SECONDS = 30;
+
+    /**
+     * Weight of the latest observation in the moving average of the service time.
+     */
+    private static final double SERVICE_TIME_SMOOTHING = 0.2;
+
+    /**
+     * Time to wait on {@link #close()} for the queued and running jobs to finish, before they are cancelled.
+     */
+    private static final long CLOSE_TIMEOUT_SECONDS = 60;
+
+    /**
+     * Time to wait for cancelled jobs to stop, they stop after their current decoder pass.
+     */
+    private static final long CANCEL_TIMEOUT_SECONDS = 30;
+
+    /**
+     * A queued job, knowing the future to complete.
+     * @param <T> the result type of the job.
+     */
+    private final class Job<T> implements Runnable {
+        private final Supplier<T> supplier;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private final WhisperPriority priority;
+        private final double jobSeconds;
+        private final Instant deadline;
+        private final long sequence = sequences.getAndIncrement();
+        private final long enqueuedNanos = System.nanoTime();
+
+        private Job(Supplier<T> supplier, WhisperPriority priority, double audioSeconds, Instant deadline) {
+            this.supplier = supplier;
+            this.priority = priority;
+            this.jobSeconds = Double.isNaN(audioSeconds) ? UNKNOWN_JOB_SECONDS : Math.min(audioSeconds, UNKNOWN_JOB_SECONDS);
+            this.deadline = deadline;
+        }
+
+        @Override
+        public void run() {
+            // skip jobs that were cancelled while queued
+            if (future.isDone()) {
+                return;
+            }
+            long start = System.nanoTime();
+            queueWaitNanos[priority.ordinal()].add(start - enqueuedNanos);
+            started[priority.ordinal()].increment();
+            if (shedLoad && deadline != null && Instant.now().isAfter(deadline)) {
+                shed[priority.ordinal()].increment();
+                reject("Whisper task missed its deadline while queued.");
+                return;
+            }
+            running.add(this);
+            try {
+                T result = supplier.get();
+                recordServiceTime(System.nanoTime() - start, jobSeconds);
+                future.complete(result);
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            } finally {
+                running.remove(this);
+            }
+        }
+
+        private void reject(String message) {
+            future.completeExceptionally(new RejectedExecutionException(message));
+        }
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final WhisperJobQueue<Runnable> queue;
+    private final WhisperRejectionPolicy rejectionPolicy;
+    private final boolean shedLoad;
+    private final int workers;
+    private final AtomicLong sequences = new AtomicLong();
+    private final Set<Job<?>> running = ConcurrentHashMap.newKeySet();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder[] completedPerClass = adders();
+    private final LongAdder[] shed = adders();
+    private final LongAdder[] started = adders();
+    private final LongAdder[] queueWaitNanos = adders();
+
+    /**
+     * Moving average of the service time per second of audio, in nanoseconds. Negative until the first observation.
+     */
+    private final AtomicLong serviceNanosPerSecond = new AtomicLong(Double.doubleToLongBits(-1));
+
+    /**
+     * Create a first-in, first-out executor without load shedding.
+     * @param name prefix of the worker thread names.
+     * @param workers number of worker threads, i.e. the number of tasks processed at the same time.
+     * @param queueCapacity number of tasks that may wait for a worker.
+     * @param rejectionPolicy what to do when the queue is full.
+     */
+    public WhisperExecutor(String name, int workers, int queueCapacity, WhisperRejectionPolicy rejectionPolicy) {
+        this(name, workers, queueCapacity, rejectionPolicy, WhisperOrderingPolicy.FIFO, false);
+    }
+
+    /**
+     * Create an executor.
+     * @param name prefix of the worker thread names.
+     * @param workers number of worker threads, i.e. the number of tasks processed at the same time.
+     * @param queueCapacity number of tasks that may wait for a worker.
+     * @param rejectionPolicy what to do when the queue is full.
+     * @param orderingPolicy order of the queued tasks within a priority class.
+     * @param shedLoad whether to reject tasks that cannot start before their deadline.
+     */
+    public WhisperExecutor(String name, int workers, int queueCapacity, WhisperRejectionPolicy rejectionPolicy,
+                           WhisperOrderingPolicy orderingPolicy, boolean shedLoad) {
+        this.queue = new WhisperJobQueue<>(queueCapacity, order(orderingPolicy));
+        this.rejectionPolicy = rejectionPolicy;
+        this.shedLoad = shedLoad;
+        this.workers = workers;
+
+        AtomicInteger count = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS, queue, runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }, (runnable, pool) -> {
+            throw new RejectedExecutionException();
+        });
+        // all workers must exist up front, so every job goes through the queue and its order
+        this.executor.prestartAllCoreThreads();
+    }
+
+    /**
+     * Submit a job of normal priority and unknown size without a deadline.
+     * @param supplier the job to run on a worker thread.
+     * @param <T> the result type of the job.
+     * @return a future completed with the result of the job. Cancelling the future before the job started skips it.
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> supplier) {
+        return submit(supplier, WhisperPriority.NORMAL, Double.NaN, null);
+    }
+
+    /**
+     * Submit a job to the queue.
+     * @param supplier the job to run on a worker thread.
+     * @param priority the priority class of the job.
+     * @param audioSeconds the duration of the audio of the job as size estimate, {@link Double#NaN} if unknown.
+     * @param deadline the deadline of the job for load shedding, {@code null} for none.
+     * @param <T> the result type of the job.
+     * @return a future completed with the result of the job. Cancelling the future before the job started skips it.
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> supplier, WhisperPriority priority, double audioSeconds,
+                                           Instant deadline) {
+        Job<T> job = new Job<>(supplier, priority, audioSeconds, deadline);
+        job.future.whenComplete((result, error) -> {
+            if (error == null) {
+                completed.increment();
+                completedPerClass[priority.ordinal()].increment();
+            }
+        });
+
+        if (shedLoad && deadline != null && Instant.now().plusNanos(estimateQueueWaitNanos(job)).isAfter(deadline)) {
+            shed[priority.ordinal()].increment();
+            job.reject("Whisper task would miss its deadline waiting in the queue.");
+            return job.future;
+        }
+
+        while (true) {
+            try {
+                executor.execute(job);
+                return job.future;
+            } catch (RejectedExecutionException e) {
+                if (executor.isShutdown()) {
+                    rejected.increment();
+                    job.reject("Whisper executor is shut down.");
+                    return job.future;
+                }
+                switch (rejectionPolicy) {
+                    case ABORT -> {
+                        rejected.increment();
+                        job.reject("Whisper submission queue is full.");
+                        return job.future;
+                    }
+                    case BLOCK -> {
+                        try {
+                            queue.put(job);
+                            // the executor might have been shut down while waiting
+                            if (executor.isShutdown() && queue.remove(job)) {
+                                rejected.increment();
+                                job.reject("Whisper executor is shut down.");
+                            }
+                            return job.future;
+                        } catch (InterruptedException interrupted) {
+                            Thread.currentThread().interrupt();
+                            rejected.increment();
+                            job.reject("Interrupted while waiting for space in the Whisper submission queue.");
+                            return job.future;
+                        }
+                    }
+                    case DISCARD_OLDEST -> {
+                        Runnable oldest = queue.removeFirst(Comparator.comparingLong(queued -> ((Job<?>) queued).sequence));
+                        if (oldest instanceof Job<?> discarded) {
+                            rejected.increment();
+                            discarded.reject("Discarded from the full Whisper submission queue.");
+                        }
+                        // retry with the freed slot
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the number of tasks waiting for a worker.
+     * @return the number of queued tasks.
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * Get the number of tasks currently processed.
+     * @return the number of running tasks.
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Get the number of successfully completed tasks.
+     * @return the number of completed tasks.
+     */
+    public long getCompletedCount() {
+        return completed.sum();
+    }
+
+    /**
+     * Get the number of rejected tasks.
+     * @return the number of rejected tasks.
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * Get the number of tasks of a priority class waiting for a worker.
+     * @param priority the priority class.
+     * @return the number of queued tasks of the class.
+     */
+    public int getQueueSize(WhisperPriority priority) {
+        int size = 0;
+        for (Runnable queued : queue) {
+            if (((Job<?>) queued).priority == priority) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Get the number of successfully completed tasks of a priority class.
+     * @param priority the priority class.
+     * @return the number of completed tasks of the class.
+     */
+    public long getCompletedCount(WhisperPriority priority) {
+        return completedPerClass[priority.ordinal()].sum();
+    }
+
+    /**
+     * Get the number of tasks of a priority class rejected because they could not start before their deadline.
+     * @param priority the priority class.
+     * @return the number of shed tasks of the class.
+     */
+    public long getShedCount(WhisperPriority priority) {
+        return shed[priority.ordinal()].sum();
+    }
+
+    /**
+     * Get the mean time tasks of a priority class waited in the queue before a worker picked them up.
+     * @param priority the priority class.
+     * @return the mean queue wait in milliseconds, 0 if no task of the class was started yet.
+     */
+    public double getMeanQueueWaitMillis(WhisperPriority priority) {
+        long count = started[priority.ordinal()].sum();
+        return count == 0 ? 0 : queueWaitNanos[priority.ordinal()].sum() / 1e6 / count;
+    }
+
+    /**
+     * Estimate how long a job waits for a worker: the estimated service time of all queued jobs starting before it,
+     * spread over the workers. Running jobs are not taken into account.
+     * @param job the job to submit.
+     * @return the estimated wait in nanoseconds, 0 as long as no service time was observed.
+     */
+    private long estimateQueueWaitNanos(Job<?> job) {
+        double nanosPerSecond = Double.longBitsToDouble(serviceNanosPerSecond.get());
+        if (nanosPerSecond < 0) {
+            return 0;
+        }
+        Comparator<? super Runnable> order = queue.comparator();
+        double aheadSeconds = 0;
+        for (Runnable queued : queue) {
+            if (order.compare(queued, job) < 0) {
+                aheadSeconds += ((Job<?>) queued).jobSeconds;
+            }
+        }
+        return (long) (aheadSeconds * nanosPerSecond / workers);
+    }
+
+    /**
+     * Update the moving average of the service time per second of audio.
+     * @param serviceNanos the service time of a job.
+     * @param jobSeconds the size of the job.
+     */
+    private void recordServiceTime(long serviceNanos, double jobSeconds) {
+        double observed = serviceNanos / Math.max(jobSeconds, 1);
+        serviceNanosPerSecond.updateAndGet(bits -> {
+            double average = Double.longBitsToDouble(bits);
+            return Double.doubleToLongBits(average < 0
+                    ? observed
+                    : average + SERVICE_TIME_SMOOTHING * (observed - average));
+        });
+    }
+
+    /**
+     * Start order of the queued jobs: priority class, then size if shortest job first, then submission order.
+     * @param orderingPolicy the order within a priority class.
+     * @return the comparator of the queued jobs.
+     */
+    private static Comparator<Runnable> order(WhisperOrderingPolicy orderingPolicy) {
+        Comparator<Job<?>> order = Comparator.comparingInt(job -> job.priority.ordinal());
+        if (orderingPolicy == WhisperOrderingPolicy.SHORTEST_JOB_FIRST) {
+            order = order.thenComparingDouble(job -> job.jobSeconds);
+        }
+        Comparator<Job<?>> complete = order.thenComparingLong(job -> job.sequence);
+        return (a, b) -> complete.compare((Job<?>) a, (Job<?>) b);
+    }
+
+    private static LongAdder[] adders() {
+        LongAdder[] adders = new LongAdder[WhisperPriority.values().length];
+        for (int i = 0; i < adders.length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    /**
+     * Check whether all workers stopped after {@link #close()}, i.e. no task uses the model anymore.
+     * @return true if the executor is closed and no task is running.
+     */
+    public boolean isTerminated() {
+        return executor.isTerminated();
+    }
+
+    /**
+     * Stop accepting tasks and wait for the queued and running ones to finish. Tasks still queued after
+     * {@value #CLOSE_TIMEOUT_SECONDS} seconds are rejected and running ones are cancelled, see {@link #isTerminated()}
+     * for whether they stopped.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        boolean interrupted = false;
+        try {
+            if (executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            interrupted = true;
+        }
+
+        for (Runnable queued : executor.shutdownNow()) {
+            rejected.increment();
+            ((Job<?>) queued).reject("Whisper executor is shut down.");
+        }
+        // cancelling the future cancels the execution of the task, see WhisperTask#executeAsync()
+        for (Job<?> job : running) {
+            job.future.cancel(true);
+        }
+        if (!interrupted) {
+            try {
+                executor.awaitTermination(CANCEL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package divisio.whisper;
+
+import ai.djl.Device;
+import ai.djl.audio.processor.AudioProcessor;
+import ai.djl.modality.audio.Audio;
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.types.DataType;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Computes the mel features of audio without loading the model, e.g. on cheap CPU hosts in front of the GPU hosts
+ * running the inference, which take the features with {@link WhisperTask#transcribe(WhisperFeatures)}.
+ *
+ * <p>Only the mel filter of the checkpoint is needed: the bundled one of large-v3 if no model path is configured,
+ * otherwise the one in the model path. The features are computed on the CPU unless a device is configured, always
+ * in float32, and are the same as the ones the model computes itself. An extractor is thread safe.
+ */
+public class WhisperFeatureExtractor implements AutoCloseable {
+
+    /**
+     * Descriptor of the checkpoint the features are computed for.
+     */
+    private final Whisper3ModelConfig config;
+
+    /**
+     * Manager holding the mel filter, parent of the managers of the single extractions.
+     */
+    private final NDManager manager;
+
+    /**
+     * Padding or trimming to 30 seconds and the log-mel spectrogram.
+     */
+    private final List<AudioProcessor> preprocessors;
+
+    /**
+     * Private constructor. Use {@link #create()} or {@link #create(Whisper3Options)} to create an extractor.
+     * @param basePath base path of the model files, containing the mel filter.
+     * @param config descriptor of the checkpoint.
+     * @param device device to compute the features on.
+     */
+    private WhisperFeatureExtractor(Path basePath, Whisper3ModelConfig config, Device device) {
+        this.config = config;
+        this.manager = NDManager.newBaseManager(device, Whisper3Engine.PYTORCH.getEngineName());
+        this.manager.setName("whisper_features");
+        try {
+            this.preprocessors = Whisper3Model.loadPreprocessors(basePath, config, this.manager);
+        } catch (IOException e) {
+            this.manager.close();
+            throw new RuntimeException("Could not load mel filter of " + config.getName(), e);
+        }
+    }
+
+    /**
+     * Create an extractor for the bundled large-v3 model on the CPU.
+     * @return the extractor.
+     */
+    public static WhisperFeatureExtractor create() {
+        return create(Whisper3Options.options());
+    }
+
+    /**
+     * Create an extractor for the model configured by the given options. Only the model path, the model config and
+     * the device are used.
+     * @param options the options of the model the features are computed for.
+     * @return the extractor.
+     */
+    public static WhisperFeatureExtractor create(Whisper3Options options) {
+        Path path = options.getModelPath();
+        Whisper3ModelConfig config = options.getModelConfig();
+        if (path == null) {
+            // the bundled resources are large-v3
+            config = Whisper3ModelConfig.largeV3();
+            WhisperResourceCache.extract(Whisper3Model.WHISPER_CACHE,
+                    List.of(config.file(Whisper3Model.RESOURCE_MEL_FILTER)));
+            path = Whisper3Model.WHISPER_CACHE;
+        } else if (config == null) {
+            config = Whisper3ModelConfig.resolve(path);
+        }
+        Device device = options.getDevice() != null ? options.getDevice() : Device.cpu();
+        return new WhisperFeatureExtractor(path, config, device);
+    }
+
+    /**
+     * Compute the mel features of the given audio, the first 30 seconds of it.
+     * @param audio the 16 kHz mono audio.
+     * @return the mel features with the duration of the audio.
+     */
+    public WhisperFeatures extract(Audio audio) {
+        double audioSeconds = (double) audio.getData().length / audio.getSampleRate();
+        try (NDManager extraction = manager.newSubManager()) {
+            NDArray samples = extraction.create(audio.getData());
+            for (AudioProcessor processor : preprocessors) {
+                samples = processor.extractFeatures(samples.getManager(), samples);
+            }
+            float[] features = samples.toType(DataType.FLOAT32, false).toFloatArray();
+            return WhisperFeatures.of(features, config.getMelBins(), audioSeconds);
+        }
+    }
+
+    /**
+     * Load the given audio file and compute its mel features, see {@link #extract(Audio)}.
+     * @param path the path to the audio file.
+     * @return the mel features with the duration of the audio.
+     */
+    public WhisperFeatures extract(Path path) {
+        return extract(WhisperTask.loadAudio(path));
+    }
+
+    /**
+     * Get the descriptor of the checkpoint the features are computed for.
+     * @return the model config.
+     */
+    public Whisper3ModelConfig getModelConfig() {
+        return config;
+    }
+
+    /**
+     * Release the mel filter.
+     */
+    @Override
+    public void close() {
+        manager.close();
+    }
+
+    /**
+     * Write the mel features of audio files as {@code .npy} files into a directory, one per audio file, named after
+     * it, and print each written file with the duration of its audio, to pass to
+     * {@link WhisperFeatures#load(Path, double)}.
+     * @param args the output directory, the audio files, and optionally {@code --model} with the model path.
+     * @throws IOException if a feature file cannot be written.
+     */
+    public static void main(String[] args) throws IOException {
+        Whisper3Options options = Whisper3Options.options();
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--model")) {
+                if (++i >= args.length) {
+                    usage("Missing value of option --model");
+                    return;
+                }
+                options.modelPath(Path.of(args[i]));
+            } else if (args[i].startsWith("--")) {
+                usage("Unknown option " + args[i]);
+                return;
+            } else {
+                files.add(Path.of(args[i]));
+            }
+        }
+        if (files.size() < 2) {
+            usage(files.isEmpty() ? "Missing output directory." : "Missing audio files.");
+            return;
+        }
+
+        Path output = Files.createDirectories(files.get(0));
+        try (WhisperFeatureExtractor extractor = create(options)) {
+            for (Path file : files.subList(1, files.size())) {
+                String name = file.getFileName().toString();
+                int extension = name.lastIndexOf('.');
+                Path target = output.resolve((extension > 0 ? name.substring(0, extension) : name) + ".npy");
+                WhisperFeatures features = extractor.extract(file);
+                features.save(target);
+                System.out.printf(Locale.ROOT, "%s\t%.3f%n", target, features.getAudioSeconds());
+            }
+        }
+    }
+
+    private static void usage(String message) {
+        System.err.println(message);
+        System.err.println("Usage: WhisperFeatureExtractor <output directory> <audio files...> [--model directory]");
+        System.exit(1);
+    }
+}
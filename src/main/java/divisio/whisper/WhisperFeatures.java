@@ -0,0 +1,237 @@
+package divisio.whisper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Precomputed log-mel features of a 30 second window, the input of the encoder, e.g. computed on another host with a
+ * {@link WhisperFeatureExtractor}. Transcribe them with {@link WhisperTask#transcribe(WhisperFeatures)}, which skips
+ * loading the audio and computing the features.
+ *
+ * <p>The features are {@code melBins x 3000} float32 values in row-major order, one row per mel bin, as computed by
+ * the Whisper feature extractor (log10 mel spectrogram, clamped to 8 below its maximum, scaled to {@code (x + 4) / 4}).
+ * As {@code .npy} files, they are stored as {@code <f4} arrays of shape {@code (melBins, 3000)} and read memory-mapped,
+ * so they are copied once, from the page cache into the native tensor.
+ */
+public final class WhisperFeatures {
+
+    /**
+     * Mel frames of a 30 second window.
+     */
+    public static final int FRAMES = Whisper3Model.MEL_FRAMES;
+
+    private static final byte[] NPY_MAGIC = {(byte) 0x93, 'N', 'U', 'M', 'P', 'Y'};
+    private static final Pattern NPY_DESCR = Pattern.compile("'descr'\\s*:\\s*'([^']*)'");
+    private static final Pattern NPY_FORTRAN_ORDER = Pattern.compile("'fortran_order'\\s*:\\s*(True|False)");
+    private static final Pattern NPY_SHAPE = Pattern.compile("'shape'\\s*:\\s*\\(([^)]*)\\)");
+
+    /**
+     * The features as little-endian float32 values, position 0.
+     */
+    private final ByteBuffer data;
+    private final int melBins;
+    private final double audioSeconds;
+
+    /**
+     * Private constructor. Use {@link #of(float[], int, double)}, {@link #of(FloatBuffer, int, double)} or
+     * {@link #load(Path, double)} to create features.
+     * @param data the features as little-endian float32 values.
+     * @param melBins the number of mel bins.
+     * @param audioSeconds the duration of the audio.
+     */
+    private WhisperFeatures(ByteBuffer data, int melBins, double audioSeconds) {
+        if (melBins <= 0 || data.remaining() != (long) melBins * FRAMES * Float.BYTES) {
+            throw new IllegalArgumentException("Features of " + data.remaining() / Float.BYTES
+                    + " values do not match " + melBins + " mel bins of " + FRAMES + " frames.");
+        }
+        this.data = data;
+        this.melBins = melBins;
+        this.audioSeconds = audioSeconds;
+    }
+
+    /**
+     * Create features from an array.
+     * @param features the features in row-major order, {@code melBins * 3000} values.
+     * @param melBins the number of mel bins, 128 for large-v3.
+     * @param audioSeconds the duration of the audio, up to 30 seconds; {@link Double#NaN} if unknown, which derives
+     *                     the token budget from a full window.
+     * @return the features.
+     * @throws IllegalArgumentException if the number of values does not match the number of mel bins.
+     */
+    public static WhisperFeatures of(float[] features, int melBins, double audioSeconds) {
+        return of(FloatBuffer.wrap(features), melBins, audioSeconds);
+    }
+
+    /**
+     * Create features from a buffer, copying its remaining values.
+     * @param features the features in row-major order, {@code melBins * 3000} values.
+     * @param melBins the number of mel bins, 128 for large-v3.
+     * @param audioSeconds the duration of the audio, up to 30 seconds; {@link Double#NaN} if unknown, which derives
+     *                     the token budget from a full window.
+     * @return the features.
+     * @throws IllegalArgumentException if the number of values does not match the number of mel bins.
+     */
+    public static WhisperFeatures of(FloatBuffer features, int melBins, double audioSeconds) {
+        ByteBuffer data = ByteBuffer.allocateDirect(features.remaining() * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        data.asFloatBuffer().put(features.duplicate());
+        return new WhisperFeatures(data, melBins, audioSeconds);
+    }
+
+    /**
+     * Memory-map features from a {@code .npy} file with a {@code <f4} array of shape {@code (melBins, 3000)} or
+     * {@code (1, melBins, 3000)}, with the token budget derived from a full window.
+     * @param file the {@code .npy} file.
+     * @return the features.
+     * @throws IOException if the file cannot be read.
+     * @throws IllegalArgumentException if the file is no {@code .npy} file of matching type and shape.
+     */
+    public static WhisperFeatures load(Path file) throws IOException {
+        return load(file, Double.NaN);
+    }
+
+    /**
+     * Memory-map features from a {@code .npy} file with a {@code <f4} array of shape {@code (melBins, 3000)} or
+     * {@code (1, melBins, 3000)}.
+     * @param file the {@code .npy} file.
+     * @param audioSeconds the duration of the audio, up to 30 seconds; {@link Double#NaN} if unknown.
+     * @return the features.
+     * @throws IOException if the file cannot be read.
+     * @throws IllegalArgumentException if the file is no {@code .npy} file of matching type and shape.
+     */
+    public static WhisperFeatures load(Path file, double audioSeconds) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer preamble = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(preamble, 0);
+            preamble.flip();
+            if (preamble.remaining() < 10 || !Arrays.equals(preamble.array(), 0, NPY_MAGIC.length,
+                    NPY_MAGIC, 0, NPY_MAGIC.length)) {
+                throw new IllegalArgumentException(file + " is no .npy file.");
+            }
+            int major = preamble.get(6);
+            long headerLength;
+            long headerStart;
+            if (major == 1) {
+                headerLength = Short.toUnsignedInt(preamble.getShort(8));
+                headerStart = 10;
+            } else {
+                headerLength = Integer.toUnsignedLong(preamble.getInt(8));
+                headerStart = 12;
+            }
+            ByteBuffer headerBytes = ByteBuffer.allocate((int) headerLength);
+            channel.read(headerBytes, headerStart);
+            String header = new String(headerBytes.array(), StandardCharsets.ISO_8859_1);
+
+            String descr = group(NPY_DESCR, header, file);
+            if (!descr.equals("<f4")) {
+                throw new IllegalArgumentException(file + " holds " + descr + " values instead of <f4.");
+            }
+            if (group(NPY_FORTRAN_ORDER, header, file).equals("True")) {
+                throw new IllegalArgumentException(file + " is in Fortran order.");
+            }
+            long[] shape = Arrays.stream(group(NPY_SHAPE, header, file).split(","))
+                    .map(String::strip)
+                    .filter(dimension -> !dimension.isEmpty())
+                    .mapToLong(Long::parseLong)
+                    .toArray();
+            if (shape.length == 3 && shape[0] == 1) {
+                shape = new long[] {shape[1], shape[2]};
+            }
+            if (shape.length != 2 || shape[1] != FRAMES) {
+                throw new IllegalArgumentException(file + " has shape " + Arrays.toString(shape)
+                        + " instead of (mel bins, " + FRAMES + ").");
+            }
+
+            long offset = headerStart + headerLength;
+            ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, offset, shape[0] * FRAMES * Float.BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            return new WhisperFeatures(data, (int) shape[0], audioSeconds);
+        }
+    }
+
+    /**
+     * Write the features to a {@code .npy} file with a {@code <f4} array of shape {@code (melBins, 3000)}, readable
+     * with {@code numpy.load}. The file is written to a temporary file first and renamed atomically.
+     * The duration of the audio is not part of the file.
+     * @param file the {@code .npy} file.
+     * @throws IOException if the file cannot be written.
+     */
+    public void save(Path file) throws IOException {
+        String dictionary = String.format(Locale.ROOT, "{'descr': '<f4', 'fortran_order': False, 'shape': (%d, %d), }",
+                melBins, FRAMES);
+        // the header is padded with spaces and a newline to a multiple of 64 bytes
+        int headerLength = dictionary.length() + 1;
+        headerLength += (64 - (10 + headerLength) % 64) % 64;
+        String header = dictionary + " ".repeat(headerLength - dictionary.length() - 1) + "\n";
+
+        ByteBuffer preamble = ByteBuffer.allocate(10).order(ByteOrder.LITTLE_ENDIAN);
+        preamble.put(NPY_MAGIC).put((byte) 1).put((byte) 0).putShort((short) headerLength).flip();
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                channel.write(preamble);
+                channel.write(ByteBuffer.wrap(header.getBytes(StandardCharsets.ISO_8859_1)));
+                ByteBuffer values = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+                while (values.hasRemaining()) {
+                    channel.write(values);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Get the features as a read-only buffer, in row-major order.
+     * @return the features.
+     */
+    public FloatBuffer getData() {
+        return data.duplicate().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().asReadOnlyBuffer();
+    }
+
+    /**
+     * Get the number of mel bins.
+     * @return the number of mel bins.
+     */
+    public int getMelBins() {
+        return melBins;
+    }
+
+    /**
+     * Get the duration of the audio the features were computed from.
+     * @return the duration in seconds, {@link Double#NaN} if unknown.
+     */
+    public double getAudioSeconds() {
+        return audioSeconds;
+    }
+
+    /**
+     * Get the features as little-endian float32 bytes, e.g. to create a native array without a further copy.
+     * @return the features, position 0.
+     */
+    ByteBuffer bytes() {
+        return data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static String group(Pattern pattern, String header, Path file) {
+        Matcher matcher = pattern.matcher(header);
+        if (!matcher.find()) {
+            throw new IllegalArgumentException(file + " has an invalid .npy header: " + header.strip());
+        }
+        return matcher.group(1);
+    }
+}
@@ -0,0 +1,247 @@
+package divisio.whisper;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded blocking priority queue feeding the workers of a {@link WhisperExecutor}.
+ *
+ * <p>{@link java.util.concurrent.PriorityBlockingQueue} is unbounded, so the capacity is enforced here.
+ * The lock is a {@link ReentrantLock}, waiting virtual threads therefore never pin their carrier thread.
+ *
+ * @param <E> the element type.
+ */
+class WhisperJobQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+    private final PriorityQueue<E> queue;
+    private final Comparator<? super E> comparator;
+    private final int capacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    /**
+     * Create a queue.
+     * @param capacity the maximum number of elements.
+     * @param comparator the order of the elements, the smallest first.
+     */
+    WhisperJobQueue(int capacity, Comparator<? super E> comparator) {
+        this.queue = new PriorityQueue<>(comparator);
+        this.comparator = comparator;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Get the order of the elements.
+     * @return the comparator, the smallest element is dequeued first.
+     */
+    Comparator<? super E> comparator() {
+        return comparator;
+    }
+
+    @Override
+    public boolean offer(E element) {
+        lock.lock();
+        try {
+            if (queue.size() >= capacity) {
+                return false;
+            }
+            queue.add(element);
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(E element, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (queue.size() >= capacity) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            queue.add(element);
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(E element) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (queue.size() >= capacity) {
+                notFull.await();
+            }
+            queue.add(element);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public E poll() {
+        lock.lock();
+        try {
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (queue.isEmpty()) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (queue.isEmpty()) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove the element that is the smallest according to the given order, e.g. the oldest instead of the next one.
+     * @param order the order to pick the element by.
+     * @return the removed element, or {@code null} if the queue is empty.
+     */
+    E removeFirst(Comparator<? super E> order) {
+        lock.lock();
+        try {
+            E first = queue.stream().min(order).orElse(null);
+            if (first != null) {
+                queue.remove(first);
+                notFull.signal();
+            }
+            return first;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public E peek() {
+        lock.lock();
+        try {
+            return queue.peek();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object element) {
+        lock.lock();
+        try {
+            boolean removed = queue.remove(element);
+            if (removed) {
+                notFull.signal();
+            }
+            return removed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return capacity - queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> target) {
+        return drainTo(target, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> target, int maxElements) {
+        lock.lock();
+        try {
+            int drained = 0;
+            while (drained < maxElements && !queue.isEmpty()) {
+                target.add(queue.poll());
+                drained++;
+            }
+            if (drained > 0) {
+                notFull.signalAll();
+            }
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Iterate over a snapshot of the queued elements, in no particular order.
+     * @return an iterator over the snapshot.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        lock.lock();
+        try {
+            List<E> snapshot = new ArrayList<>(queue);
+            return snapshot.iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private E dequeue() {
+        E element = queue.poll();
+        if (element != null) {
+            notFull.signal();
+        }
+        return element;
+    }
+}
@@ -0,0 +1,181 @@
+package divisio.whisper;
+
+import java.time.Duration;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Native memory budget and accounting of {@link Whisper3} requests.
+ *
+ * <p>Before a request allocates native memory, it reserves an estimate of its peak footprint
+ * (see {@link Whisper3Model#estimateRequestBytes(int)}). Requests that would exceed the budget are queued or
+ * rejected according to the {@link WhisperAdmissionPolicy}. While running, every request reports the bytes
+ * it actually holds, which gives the in-use bytes and their high-water mark.
+ *
+ * <p>One budget can be shared by several instances using the same device, see {@link Whisper3Options#memoryBudget(WhisperMemoryBudget)}.
+ */
+public class WhisperMemoryBudget {
+
+    /**
+     * Interval to re-check cancellation while waiting for memory.
+     */
+    private static final Duration WAIT_SLICE = Duration.ofMillis(100);
+
+    private final long limitBytes;
+    private final WhisperAdmissionPolicy policy;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private long reservedBytes;
+
+    private final AtomicLong inUseBytes = new AtomicLong();
+    private final AtomicLong highWaterMarkBytes = new AtomicLong();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder queued = new LongAdder();
+
+    /**
+     * Create a budget.
+     * @param limitBytes the maximum number of bytes all admitted requests may reserve together.
+     * @param policy what to do with requests exceeding the budget.
+     */
+    public WhisperMemoryBudget(long limitBytes, WhisperAdmissionPolicy policy) {
+        this.limitBytes = limitBytes;
+        this.policy = policy;
+    }
+
+    /**
+     * Create a budget without a limit, only accounting the memory usage.
+     * @return an unlimited budget.
+     */
+    public static WhisperMemoryBudget unlimited() {
+        return new WhisperMemoryBudget(Long.MAX_VALUE, WhisperAdmissionPolicy.QUEUE);
+    }
+
+    /**
+     * Reserve memory for a request, waiting or rejecting according to the admission policy.
+     * @param bytes the estimated peak bytes of the request.
+     * @param options the decoding options of the request, to respect its deadline and cancellation while waiting.
+     * @throws RejectedExecutionException if the request was not admitted.
+     */
+    void acquire(long bytes, WhisperDecodingOptions options) {
+        if (bytes > limitBytes) {
+            rejected.increment();
+            throw new RejectedExecutionException(String.format(
+                    "Request needs an estimated %d bytes, more than the whole memory budget of %d bytes.", bytes, limitBytes));
+        }
+
+        lock.lock();
+        try {
+            boolean waiting = false;
+            while (reservedBytes + bytes > limitBytes) {
+                if (policy == WhisperAdmissionPolicy.REJECT || options.isDeadlineExceeded() || options.isCancelled()) {
+                    rejected.increment();
+                    throw new RejectedExecutionException("Memory budget of " + limitBytes + " bytes is exhausted.");
+                }
+                if (!waiting) {
+                    waiting = true;
+                    queued.increment();
+                }
+                try {
+                    released.await(WAIT_SLICE.toMillis(), TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    rejected.increment();
+                    throw new RejectedExecutionException("Interrupted while waiting for the memory budget.", e);
+                }
+            }
+            reservedBytes += bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Release the memory reserved by {@link #acquire(long, WhisperDecodingOptions)}.
+     * @param bytes the reserved bytes.
+     */
+    void release(long bytes) {
+        lock.lock();
+        try {
+            reservedBytes -= bytes;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Account a change of the bytes actually held by a running request.
+     * @param deltaBytes the change in bytes, negative if memory was freed.
+     */
+    void recordUsage(long deltaBytes) {
+        long inUse = inUseBytes.addAndGet(deltaBytes);
+        highWaterMarkBytes.accumulateAndGet(inUse, Math::max);
+    }
+
+    /**
+     * Get the maximum number of bytes all admitted requests may reserve together.
+     * @return the limit in bytes, {@link Long#MAX_VALUE} if unlimited.
+     */
+    public long getLimitBytes() {
+        return limitBytes;
+    }
+
+    /**
+     * Get the policy for requests exceeding the budget.
+     * @return the admission policy.
+     */
+    public WhisperAdmissionPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Get the bytes currently reserved by admitted requests.
+     * @return the reserved bytes.
+     */
+    public long getReservedBytes() {
+        lock.lock();
+        try {
+            return reservedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the bytes currently held by running requests.
+     * @return the bytes in use.
+     */
+    public long getInUseBytes() {
+        return inUseBytes.get();
+    }
+
+    /**
+     * Get the highest number of bytes held by running requests at the same time.
+     * @return the high-water mark in bytes.
+     */
+    public long getHighWaterMarkBytes() {
+        return highWaterMarkBytes.get();
+    }
+
+    /**
+     * Get the number of requests that were not admitted.
+     * @return the number of rejected requests.
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * Get the number of requests that had to wait for memory before being admitted or rejected.
+     * @return the number of queued requests.
+     */
+    public long getQueuedCount() {
+        return queued.sum();
+    }
+
+}
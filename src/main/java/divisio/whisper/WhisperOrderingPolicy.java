@@ -0,0 +1,17 @@
+package divisio.whisper;
+
+/**
+ * Order in which the queued tasks of the same {@link WhisperPriority} are started by {@link WhisperExecutor}.
+ */
+public enum WhisperOrderingPolicy {
+    /**
+     * First in, first out.
+     */
+    FIFO,
+
+    /**
+     * Shortest audio first, which minimizes the mean waiting time. The audio duration is used as the job size estimate;
+     * tasks whose audio is only loaded on execution count as 30 seconds. Tasks of equal size keep their order.
+     */
+    SHORTEST_JOB_FIRST
+}
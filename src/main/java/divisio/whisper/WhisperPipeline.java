@@ -0,0 +1,260 @@
+package divisio.whisper;
+
+import divisio.whisper.token.WhisperToken;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Executes {@link WhisperTask}s in two overlapping stages, so the device never idles while the CPU prepares the next input.
+ *
+ * <p>The preprocessing stage loads the audio files and computes the mel features on a pool of CPU threads.
+ * Ready features are handed to the inference stage through a bounded queue; the inference threads run the encoder
+ * and the decoder loop. A preprocessing thread reserves a slot in the queue before it opens the session of a request,
+ * and a full queue blocks it until inference takes a request, so at most {@code queueCapacity} prepared requests hold
+ * native memory while waiting for inference.
+ *
+ * <p>The stall counters show which stage limits the throughput: preprocessing threads waiting for a free slot in the
+ * full queue mean inference is the bottleneck, inference threads waiting for features while requests are being
+ * preprocessed mean preprocessing is.
+ */
+public class WhisperPipeline implements AutoCloseable {
+
+    /**
+     * A request with its mel features, ready for inference.
+     */
+    private record Prepared(Whisper3Session session, List<WhisperToken> startTokens, WhisperDecodingOptions options,
+                            CompletableFuture<WhisperResult> future) {
+    }
+
+    /**
+     * Marks the end of the ready queue for one inference thread.
+     */
+    private static final Prepared END = new Prepared(null, null, null, null);
+
+    private final Whisper3 whisper;
+    private final ThreadPoolExecutor preprocessing;
+    private final BlockingQueue<Prepared> ready;
+
+    /**
+     * Free slots of the ready queue, reserved before a session is opened and released when inference takes it.
+     */
+    private final Semaphore readySlots;
+    private final List<Thread> inferenceThreads = new ArrayList<>();
+
+    private final AtomicInteger preprocessingCount = new AtomicInteger();
+    private final LongAdder preprocessStallNanos = new LongAdder();
+    private final LongAdder inferenceStallNanos = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     * Create a pipeline and start its threads.
+     * @param whisper the instance to execute the tasks with.
+     * @param preprocessThreads number of threads loading audio and computing mel features.
+     * @param inferenceThreads number of threads running the encoder and decoder.
+     * @param queueCapacity number of tasks waiting for preprocessing, and of prepared tasks waiting for inference.
+     * @return a new pipeline.
+     */
+    public static WhisperPipeline create(Whisper3 whisper, int preprocessThreads, int inferenceThreads, int queueCapacity) {
+        return new WhisperPipeline(whisper, preprocessThreads, inferenceThreads, queueCapacity);
+    }
+
+    /**
+     * Private constructor. Use {@link #create(Whisper3, int, int, int)} to create a pipeline.
+     */
+    private WhisperPipeline(Whisper3 whisper, int preprocessThreads, int inferenceThreads, int queueCapacity) {
+        this.whisper = whisper;
+        // room for the end markers next to the reserved slots
+        this.ready = new ArrayBlockingQueue<>(queueCapacity + inferenceThreads);
+        this.readySlots = new Semaphore(queueCapacity);
+
+        AtomicInteger count = new AtomicInteger();
+        this.preprocessing = new ThreadPoolExecutor(preprocessThreads, preprocessThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "whisper-pipeline-preprocess-" + count.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.preprocessing.prestartAllCoreThreads();
+
+        for (int i = 0; i < inferenceThreads; i++) {
+            Thread thread = new Thread(this::infer, "whisper-pipeline-inference-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            this.inferenceThreads.add(thread);
+        }
+    }
+
+    /**
+     * Submit a task to the pipeline.
+     *
+     * <p>The task is executed with its own configuration, regardless of the {@link Whisper3} instance it was created for.
+     * Cancelling the returned future cancels the task in any stage.
+     *
+     * @param task the configured task.
+     * @return a future completed with the result of the task.
+     * @throws RejectedExecutionException if the preprocessing queue is full or the pipeline is closed.
+     */
+    public CompletableFuture<WhisperResult> submit(WhisperTask task) {
+        WhisperCancellation execution = task.newExecution();
+        WhisperDecodingOptions options = task.decodingOptions(execution);
+        CompletableFuture<WhisperResult> future = new CompletableFuture<>();
+        preprocessing.execute(() -> preprocess(task, options, future));
+        return WhisperTask.cancelOnCancel(future, execution);
+    }
+
+    /**
+     * Preprocessing stage: reserve a slot in the ready queue, load the audio, reserve memory, compute the mel features
+     * and hand them to inference.
+     */
+    private void preprocess(WhisperTask task, WhisperDecodingOptions options, CompletableFuture<WhisperResult> future) {
+        // skip tasks that were cancelled while queued
+        if (future.isDone()) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            readySlots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(future, new RejectedExecutionException("Whisper pipeline was closed.", e));
+            return;
+        } finally {
+            preprocessStallNanos.add(System.nanoTime() - start);
+        }
+
+        preprocessingCount.incrementAndGet();
+        try {
+            List<WhisperToken> startTokens = task.startTokens(whisper);
+            Whisper3Session session = task.features() != null
+                    ? whisper.openSession(task.features(), startTokens, options)
+                    : whisper.openSession(task.audio(), startTokens, options);
+            ready.add(new Prepared(session, startTokens, options, future));
+        } catch (Throwable e) {
+            readySlots.release();
+            fail(future, e);
+        } finally {
+            preprocessingCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Inference stage: run the encoder and decoder for prepared requests until the pipeline is closed.
+     */
+    private void infer() {
+        while (true) {
+            Prepared prepared;
+            boolean starved = preprocessingCount.get() > 0 || !preprocessing.getQueue().isEmpty();
+            long start = System.nanoTime();
+            try {
+                prepared = ready.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (starved) {
+                inferenceStallNanos.add(System.nanoTime() - start);
+            }
+            if (prepared == END) {
+                return;
+            }
+            readySlots.release();
+
+            try (Whisper3Session session = prepared.session()) {
+                if (prepared.future().isDone()) {
+                    continue;
+                }
+                WhisperResult result = prepared.options().isDeadlineExceeded()
+                        ? new WhisperResult("", "", List.of(), WhisperStopReason.DEADLINE_EXCEEDED)
+                        : whisper.decode(session, prepared.startTokens(), prepared.options());
+                prepared.future().complete(result);
+                completed.increment();
+            } catch (Throwable e) {
+                fail(prepared.future(), e);
+            }
+        }
+    }
+
+    private void fail(CompletableFuture<WhisperResult> future, Throwable e) {
+        failed.increment();
+        future.completeExceptionally(e);
+    }
+
+    /**
+     * Get the number of tasks waiting for preprocessing.
+     * @return the number of queued tasks.
+     */
+    public int getPendingCount() {
+        return preprocessing.getQueue().size();
+    }
+
+    /**
+     * Get the number of prepared tasks waiting for inference.
+     * @return the depth of the ready queue.
+     */
+    public int getReadyQueueSize() {
+        return ready.size();
+    }
+
+    /**
+     * Get the total time preprocessing threads waited for a free slot in the ready queue, i.e. for inference.
+     * @return the preprocessing stall time in milliseconds.
+     */
+    public long getPreprocessStallMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(preprocessStallNanos.sum());
+    }
+
+    /**
+     * Get the total time inference threads waited for features while tasks were being preprocessed.
+     * @return the inference stall time in milliseconds.
+     */
+    public long getInferenceStallMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(inferenceStallNanos.sum());
+    }
+
+    /**
+     * Get the number of successfully completed tasks.
+     * @return the number of completed tasks.
+     */
+    public long getCompletedCount() {
+        return completed.sum();
+    }
+
+    /**
+     * Get the number of failed tasks.
+     * @return the number of failed tasks.
+     */
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    /**
+     * Stop accepting tasks and wait for the submitted ones to finish.
+     */
+    @Override
+    public void close() {
+        preprocessing.shutdown();
+        try {
+            preprocessing.awaitTermination(1, TimeUnit.MINUTES);
+            for (int i = 0; i < inferenceThreads.size(); i++) {
+                ready.put(END);
+            }
+            for (Thread thread : inferenceThreads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            preprocessing.shutdownNow();
+            inferenceThreads.forEach(Thread::interrupt);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package divisio.whisper;
+
+/**
+ * Priority class of a task submitted with {@link WhisperTask#executeAsync()}.
+ *
+ * <p>Queued tasks of a higher class are always started before those of a lower class,
+ * so bulk work never delays interactive requests by more than the tasks already running.
+ */
+public enum WhisperPriority {
+    /**
+     * Latency sensitive requests, e.g. voice commands or live captions.
+     */
+    INTERACTIVE,
+
+    /**
+     * Regular requests. The default.
+     */
+    NORMAL,
+
+    /**
+     * Throughput oriented work, e.g. backfills of archives. Only started when no other task is waiting.
+     */
+    BULK
+}
@@ -0,0 +1,27 @@
+package divisio.whisper;
+
+/**
+ * What {@link WhisperTask#executeAsync()} does when the submission queue of a {@link Whisper3} instance is full.
+ *
+ * <p>There is deliberately no caller-runs policy: running native inference on the submitting thread
+ * would pin the carrier thread of a virtual thread for the whole decode.
+ */
+public enum WhisperRejectionPolicy {
+    /**
+     * Reject the new task, its future completes exceptionally with a
+     * {@link java.util.concurrent.RejectedExecutionException}.
+     */
+    ABORT,
+
+    /**
+     * Block the submitting thread until the queue has space again.
+     * Blocking only parks the thread, so a virtual thread releases its carrier thread while waiting.
+     */
+    BLOCK,
+
+    /**
+     * Reject the oldest queued task to make space for the new one. The future of the rejected
+     * task completes exceptionally with a {@link java.util.concurrent.RejectedExecutionException}.
+     */
+    DISCARD_OLDEST
+}
@@ -0,0 +1,27 @@
+package divisio.whisper;
+
+/**
+ * What to do when the decoder loop detects that Whisper repeats the same token sequence over and over,
+ * which is typical for hallucinations on noise. See {@link WhisperStopReason#REPETITION}.
+ */
+public enum WhisperRepetitionPolicy {
+    /**
+     * Do not detect repetitions, decode until end-of-text or the token budget is used up.
+     */
+    IGNORE,
+
+    /**
+     * Stop decoding, keep all tokens decoded so far.
+     */
+    STOP,
+
+    /**
+     * Stop decoding and drop the repeated copies, keeping only the first occurrence of the repeated sequence.
+     */
+    TRUNCATE,
+
+    /**
+     * Stop decoding and discard the whole text, treating the window as a hallucination.
+     */
+    DISCARD
+}
@@ -0,0 +1,298 @@
+package divisio.whisper;
+
+import ai.djl.util.JsonUtils;
+import com.google.gson.JsonParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Extraction of the bundled model resources into the local cache directory.
+ *
+ * <p>Every extracted resource gets a manifest {@code <resource>.manifest} with its size, modification time and
+ * SHA-256 checksum. A resource whose cached file matches its manifest and the size of the bundled resource is
+ * up to date; this check only reads file attributes, so a warm start opens no resource. Missing or stale resources
+ * are extracted in parallel, each into a temporary file which is checked against the size of the bundled resource
+ * and then atomically renamed, so a crash never leaves a truncated file under the final name. The manifest is
+ * written last; a cached file without manifest, e.g. from an interrupted or older extraction, is extracted again.
+ * A cached file with the right size but another modification time, e.g. after copying the cache into a container
+ * image, is verified against the checksum of its manifest instead of being extracted again.
+ *
+ * <p>Extraction holds a lock file in the cache directory, so several JVMs on the same host starting at the same
+ * time extract each resource only once.
+ */
+final class WhisperResourceCache {
+
+    private static final Logger log = LoggerFactory.getLogger(WhisperResourceCache.class);
+
+    private static final String LOCK_FILE = ".lock";
+    private static final String MANIFEST_SUFFIX = ".manifest";
+    private static final String TEMP_INFIX = ".tmp-";
+
+    /**
+     * File locks are held per JVM, threads of the same JVM are serialized by this lock.
+     */
+    private static final ReentrantLock EXTRACTION_LOCK = new ReentrantLock();
+
+    /**
+     * Manifest of an extracted resource.
+     * @param size         Size of the file in bytes.
+     * @param lastModified Modification time of the file in milliseconds since the epoch.
+     * @param sha256       Hex encoded SHA-256 checksum of the file.
+     */
+    record Manifest(long size, long lastModified, String sha256) {
+    }
+
+    private WhisperResourceCache() {
+    }
+
+    /**
+     * Make sure all given resources are extracted into the cache directory and up to date.
+     * @param cache the cache directory, created if necessary.
+     * @param resources the names of the bundled resources.
+     */
+    static void extract(Path cache, List<String> resources) {
+        try {
+            if (stale(cache, resources).isEmpty()) {
+                return;
+            }
+
+            Files.createDirectories(cache);
+            EXTRACTION_LOCK.lock();
+            try (FileChannel lockChannel = FileChannel.open(cache.resolve(LOCK_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                FileLock lock = lockChannel.lock();
+                try {
+                    // another JVM may have extracted them while this one waited for the lock
+                    List<String> stale = stale(cache, resources);
+                    stale.removeIf(resource -> revalidate(cache, resource));
+                    deleteTemporaryFiles(cache, stale);
+                    extractParallel(cache, stale);
+                } finally {
+                    lock.release();
+                }
+            } finally {
+                EXTRACTION_LOCK.unlock();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not extract whisper resources to " + cache + ".", e);
+        }
+    }
+
+    /**
+     * Find the resources whose cached file is missing or does not match its manifest.
+     * @param cache the cache directory.
+     * @param resources the names of the bundled resources.
+     * @return the stale resources.
+     */
+    private static List<String> stale(Path cache, List<String> resources) {
+        List<String> stale = new ArrayList<>();
+        for (String resource : resources) {
+            if (!isCurrent(cache, resource)) {
+                stale.add(resource);
+            }
+        }
+        return stale;
+    }
+
+    private static boolean isCurrent(Path cache, String resource) {
+        Path target = cache.resolve(resource);
+        Manifest manifest = readManifest(manifestFile(target));
+        if (manifest == null || !Files.exists(target)) {
+            return false;
+        }
+        try {
+            return Files.size(target) == manifest.size()
+                    && Files.getLastModifiedTime(target).toMillis() == manifest.lastModified()
+                    && manifest.size() == bundledSize(resource);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Accept a cached file whose size matches its manifest but whose modification time changed,
+     * if its checksum still matches the manifest. The manifest is updated with the new modification time.
+     * @param cache the cache directory.
+     * @param resource the name of the bundled resource.
+     * @return true if the cached file is valid.
+     */
+    private static boolean revalidate(Path cache, String resource) {
+        Path target = cache.resolve(resource);
+        Manifest manifest = readManifest(manifestFile(target));
+        try {
+            if (manifest == null || !Files.exists(target) || Files.size(target) != manifest.size()
+                    || manifest.size() != bundledSize(resource)) {
+                return false;
+            }
+            MessageDigest digest = sha256();
+            try (InputStream in = new DigestInputStream(Files.newInputStream(target), digest)) {
+                in.transferTo(OutputStream.nullOutputStream());
+            }
+            if (!HexFormat.of().formatHex(digest.digest()).equals(manifest.sha256())) {
+                return false;
+            }
+            writeManifest(manifestFile(target), new Manifest(manifest.size(),
+                    Files.getLastModifiedTime(target).toMillis(), manifest.sha256()));
+            log.info("Whisper resource '{}' verified.", resource);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void extractParallel(Path cache, List<String> resources) throws IOException {
+        if (resources.isEmpty()) {
+            return;
+        }
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> extractions = new ArrayList<>();
+            for (String resource : resources) {
+                extractions.add(executor.submit(() -> {
+                    extractOne(cache, resource);
+                    return null;
+                }));
+            }
+            for (Future<?> extraction : extractions) {
+                extraction.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while extracting whisper resources.", e);
+        }
+    }
+
+    /**
+     * Extract a single resource into a temporary file, verify its size, and rename it atomically.
+     * @param cache the cache directory.
+     * @param resource the name of the bundled resource.
+     * @throws IOException if the resource cannot be extracted.
+     */
+    private static void extractOne(Path cache, String resource) throws IOException {
+        URL url = resourceUrl(resource);
+        long expectedSize = bundledSize(resource);
+        Path target = cache.resolve(resource);
+        Path temp = target.resolveSibling(target.getFileName() + TEMP_INFIX + ProcessHandle.current().pid());
+
+        try {
+            MessageDigest digest = sha256();
+            long size;
+            try (InputStream in = new DigestInputStream(url.openStream(), digest);
+                 OutputStream out = Files.newOutputStream(temp)) {
+                size = in.transferTo(out);
+            }
+            if (expectedSize >= 0 && size != expectedSize) {
+                throw new IOException("Whisper resource '" + resource + "' extracted with " + size
+                        + " bytes instead of " + expectedSize + ".");
+            }
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+            Manifest manifest = new Manifest(size, Files.getLastModifiedTime(target).toMillis(),
+                    HexFormat.of().formatHex(digest.digest()));
+            writeManifest(manifestFile(target), manifest);
+            log.info("Whisper resource '{}' cached.", resource);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Delete temporary files of the given resources left behind by crashed extractions.
+     * Only called while holding the lock, so no other extraction is running.
+     */
+    private static void deleteTemporaryFiles(Path cache, List<String> resources) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(cache)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                int infix = name.indexOf(TEMP_INFIX);
+                if (infix > 0 && resources.contains(name.substring(0, infix).replace(MANIFEST_SUFFIX, ""))) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private static URL resourceUrl(String resource) {
+        URL url = WhisperResourceCache.class.getResource("/" + resource);
+        if (url == null) {
+            throw new RuntimeException("Could not find whisper resource. Are you sure you added the whisper dependency?");
+        }
+        return url;
+    }
+
+    /**
+     * Size of the bundled resource, read from the jar entry without opening its content.
+     * @param resource the name of the bundled resource.
+     * @return the size in bytes, or -1 if unknown.
+     */
+    private static long bundledSize(String resource) {
+        try {
+            URLConnection connection = resourceUrl(resource).openConnection();
+            return connection.getContentLengthLong();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static Path manifestFile(Path target) {
+        return target.resolveSibling(target.getFileName() + MANIFEST_SUFFIX);
+    }
+
+    private static Manifest readManifest(Path file) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (Reader reader = Files.newBufferedReader(file)) {
+            return JsonUtils.GSON.fromJson(reader, Manifest.class);
+        } catch (IOException | JsonParseException e) {
+            return null;
+        }
+    }
+
+    private static void writeManifest(Path file, Manifest manifest) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + TEMP_INFIX + ProcessHandle.current().pid());
+        Files.writeString(temp, JsonUtils.GSON.toJson(manifest));
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,13 +1,92 @@
 package divisio.whisper;
 
+import divisio.whisper.token.Whisper3SpecialToken;
+import divisio.whisper.token.Whisper3Timestamp;
 import divisio.whisper.token.WhisperToken;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Class to hold the whisper transcription results.
- * @param rawText Raw result text containing special tokens.
- * @param text    Result text of the transcription without the special tokens.
- * @param tokens  Unprocessed result tokens of the prediction.
+ * @param rawText    Raw result text containing special tokens.
+ * @param text       Result text of the transcription without the special tokens.
+ * @param tokens     Unprocessed result tokens of the prediction.
+ * @param stopReason Why decoding stopped.
+ * @param peakMemoryBytes Highest number of native bytes the decoding run held at the same time, 0 if unknown.
+ * @param noSpeechProbability Probability of the no-speech token after the start-of-transcript token,
+ *                            {@link Double#NaN} if unknown.
+ * @param averageLogProbability Average log-probability of the generated text tokens, {@link Double#NaN} if unknown.
  */
-public record WhisperResult(String rawText, String text, List<WhisperToken> tokens) {}
+public record WhisperResult(String rawText, String text, List<WhisperToken> tokens, WhisperStopReason stopReason,
+                            long peakMemoryBytes, double noSpeechProbability, double averageLogProbability) {
+
+    /**
+     * Result of a decoding run without probabilities.
+     * @param rawText    Raw result text containing special tokens.
+     * @param text       Result text of the transcription without the special tokens.
+     * @param tokens     Unprocessed result tokens of the prediction.
+     * @param stopReason Why decoding stopped.
+     * @param peakMemoryBytes Highest number of native bytes the decoding run held at the same time, 0 if unknown.
+     */
+    public WhisperResult(String rawText, String text, List<WhisperToken> tokens, WhisperStopReason stopReason,
+                         long peakMemoryBytes) {
+        this(rawText, text, tokens, stopReason, peakMemoryBytes, Double.NaN, Double.NaN);
+    }
+
+    /**
+     * Result of a decoding run without memory accounting.
+     * @param rawText    Raw result text containing special tokens.
+     * @param text       Result text of the transcription without the special tokens.
+     * @param tokens     Unprocessed result tokens of the prediction.
+     * @param stopReason Why decoding stopped.
+     */
+    public WhisperResult(String rawText, String text, List<WhisperToken> tokens, WhisperStopReason stopReason) {
+        this(rawText, text, tokens, stopReason, 0);
+    }
+
+    /**
+     * Result of a decoding run that stopped at the end-of-text token.
+     * @param rawText Raw result text containing special tokens.
+     * @param text    Result text of the transcription without the special tokens.
+     * @param tokens  Unprocessed result tokens of the prediction.
+     */
+    public WhisperResult(String rawText, String text, List<WhisperToken> tokens) {
+        this(rawText, text, tokens, WhisperStopReason.END_OF_TEXT);
+    }
+
+    /**
+     * Split a transcription with timestamps into its segments. Each segment is framed by two timestamp tokens;
+     * text after the last timestamp ends at the start of that text.
+     * @return the segments, empty if the transcription has no timestamps.
+     */
+    public List<WhisperSegment> segments() {
+        List<WhisperSegment> segments = new ArrayList<>();
+        long startMs = -1;
+        List<WhisperToken> text = new ArrayList<>();
+        for (WhisperToken token : tokens) {
+            long tokenId = token.getTokenId();
+            if (Whisper3Timestamp.isTimestamp(tokenId)) {
+                long ms = Whisper3Timestamp.fromTokenId(tokenId).getMs();
+                if (startMs >= 0 && !text.isEmpty()) {
+                    segments.add(segment(startMs, ms, text));
+                    text = new ArrayList<>();
+                    startMs = -1;
+                } else if (startMs < 0 || text.isEmpty()) {
+                    startMs = ms;
+                }
+            } else if (tokenId >= 0 && tokenId < Whisper3SpecialToken.END_OF_TEXT.getTokenId()) {
+                text.add(token);
+            }
+        }
+        if (startMs >= 0 && !text.isEmpty()) {
+            segments.add(segment(startMs, startMs, text));
+        }
+        return segments;
+    }
+
+    private static WhisperSegment segment(long startMs, long endMs, List<WhisperToken> tokens) {
+        String text = Whisper3TokenDecoder.rawTokensToText(tokens.stream().map(WhisperToken::getToken).toList());
+        return new WhisperSegment(startMs, endMs, text.strip(), List.copyOf(tokens));
+    }
+}
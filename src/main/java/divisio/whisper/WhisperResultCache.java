@@ -0,0 +1,479 @@
+package divisio.whisper;
+
+import ai.djl.modality.audio.Audio;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import divisio.whisper.token.WhisperAnyToken;
+import divisio.whisper.token.WhisperToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Persistent, size-bounded cache of {@link WhisperResult}s, keyed by the task parameters and a perceptual fingerprint
+ * of the audio, so retries, re-encoded copies and recurring recordings are answered without running the model.
+ *
+ * <p>Set it with {@link Whisper3Options#resultCache(WhisperResultCache)}; {@link WhisperTask#execute()} and
+ * {@link WhisperTask#executeAsync()} then look up every task before decoding it and store its result afterward.
+ * A task matches a cached result if its model files (checkpoint, engine, weight format, location, size and
+ * modification time), start tokens (language, task, timestamps and prompt), token budget,
+ * repetition policy and no-speech threshold are equal, its duration differs by at most 1% and its
+ * {@link WhisperAudioFingerprint} differs in at most {@link #maxBitErrorRate(double)} of the bits. Results of
+ * tasks that stopped at their deadline, tasks with a token listener, and audio shorter than 0.16 seconds are not cached.
+ * Cached results report no peak memory.
+ *
+ * <p>Each result is a JSON file in the cache directory, written atomically. When the files exceed the size limit,
+ * the least recently used ones are deleted; a hit updates the modification time of its file, so the order survives
+ * restarts. The directory is owned by a single process; processes must not share it.
+ */
+public class WhisperResultCache {
+
+    private static final Logger log = LoggerFactory.getLogger(WhisperResultCache.class);
+
+    private static final Gson GSON = new GsonBuilder().serializeSpecialFloatingPointValues().create();
+
+    private static final String SUFFIX = ".json";
+
+    /**
+     * Maximum alignment shift between two fingerprints in frames, i.e. 128 ms of codec delay.
+     */
+    private static final int MAX_SHIFT = 8;
+
+    /**
+     * Key of a task in the cache.
+     * @param parameters  Hash of the model and task parameters.
+     * @param fingerprint Fingerprint of the audio.
+     */
+    record Key(String parameters, WhisperAudioFingerprint fingerprint) {
+    }
+
+    /**
+     * A cached result as stored in its file.
+     */
+    private record Entry(String parameters, long durationMs, String fingerprint, String energetic, String rawText,
+                         String text, long[] tokenIds, String[] tokens, String stopReason,
+                         double noSpeechProbability, double averageLogProbability) {
+    }
+
+    /**
+     * A cached result in the in-memory index.
+     */
+    private record Indexed(String id, String parameters, WhisperAudioFingerprint fingerprint, long bytes) {
+    }
+
+    private final Path directory;
+    private final long maxBytes;
+    private volatile double maxBitErrorRate = 0.2;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * All cached results by id, in access order.
+     */
+    private final LinkedHashMap<String, Indexed> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Cached results by the hash of their parameters, the candidates of a lookup.
+     */
+    private final Map<String, List<Indexed>> byParameters = new HashMap<>();
+
+    private long bytes;
+
+    /**
+     * Fingerprints of recently looked up audio by its samples, so a miss does not compute it again on store.
+     */
+    private final Map<float[], WhisperAudioFingerprint> fingerprints = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong nearDuplicateHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stores = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Private constructor. Use {@link #open(Path, long)} to open a cache.
+     * @param directory the cache directory.
+     * @param maxBytes the size limit of the cached results.
+     */
+    private WhisperResultCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Open the cache in the given directory, creating it if necessary, and index the results cached by previous runs.
+     * @param directory the cache directory.
+     * @param maxBytes the size limit of the cached results in bytes.
+     * @return the cache.
+     * @throws IOException if the directory cannot be read.
+     */
+    public static WhisperResultCache open(Path directory, long maxBytes) throws IOException {
+        Files.createDirectories(directory);
+        WhisperResultCache cache = new WhisperResultCache(directory, maxBytes);
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing.collect(Collectors.toCollection(ArrayList::new));
+        }
+        files.removeIf(file -> {
+            if (file.getFileName().toString().endsWith(SUFFIX)) {
+                return false;
+            }
+            if (file.getFileName().toString().endsWith(".tmp")) {
+                // left behind by a crash while storing
+                file.toFile().delete();
+            }
+            return true;
+        });
+        files.sort(Comparator.comparing(WhisperResultCache::lastModified));
+
+        cache.lock.lock();
+        try {
+            for (Path file : files) {
+                Entry entry = read(file);
+                if (entry == null) {
+                    Files.deleteIfExists(file);
+                    continue;
+                }
+                String name = file.getFileName().toString();
+                WhisperAudioFingerprint fingerprint;
+                try {
+                    fingerprint = new WhisperAudioFingerprint(decode(entry.fingerprint()),
+                            BitSet.valueOf(Base64.getDecoder().decode(entry.energetic())), entry.durationMs());
+                } catch (IllegalArgumentException e) {
+                    Files.deleteIfExists(file);
+                    continue;
+                }
+                cache.index(new Indexed(name.substring(0, name.length() - SUFFIX.length()), entry.parameters(),
+                        fingerprint, Files.size(file)));
+            }
+            cache.evict();
+        } finally {
+            cache.lock.unlock();
+        }
+        log.info("Whisper result cache {} opened with {} results.", directory, cache.entries.size());
+        return cache;
+    }
+
+    /**
+     * Set the fraction of differing fingerprint bits up to which two recordings are considered the same.
+     * Re-encodings with lossy codecs usually differ in less than 15% of the bits, unrelated audio in about 50%.
+     * Default is 0.2.
+     * @param maxBitErrorRate the maximum bit error rate between 0 and 0.5; 0 for identical fingerprints only.
+     * @return this cache.
+     */
+    public WhisperResultCache maxBitErrorRate(double maxBitErrorRate) {
+        this.maxBitErrorRate = maxBitErrorRate;
+        return this;
+    }
+
+    /**
+     * Get the fraction of differing fingerprint bits up to which two recordings are considered the same.
+     * @return the maximum bit error rate.
+     */
+    public double getMaxBitErrorRate() {
+        return maxBitErrorRate;
+    }
+
+    /**
+     * Get the size limit of the cached results.
+     * @return the size limit in bytes.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Get the cache directory.
+     * @return the cache directory.
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Get a snapshot of the metrics of this cache, e.g. to export the hit rate.
+     * @return the metrics.
+     */
+    public WhisperResultCacheStats getStats() {
+        lock.lock();
+        try {
+            return new WhisperResultCacheStats(hits.get(), nearDuplicateHits.get(), misses.get(), stores.get(),
+                    evictions.get(), entries.size(), bytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove all cached results.
+     * @throws IOException if a file cannot be deleted.
+     */
+    public void clear() throws IOException {
+        lock.lock();
+        try {
+            for (Indexed entry : entries.values()) {
+                Files.deleteIfExists(file(entry.id()));
+            }
+            entries.clear();
+            byParameters.clear();
+            bytes = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Create the key of a task.
+     * @param whisper the instance executing the task.
+     * @param audio the audio of the task.
+     * @param startTokens the start tokens of the task.
+     * @param options the decoding options of the execution.
+     * @return the key.
+     */
+    Key key(Whisper3 whisper, Audio audio, List<WhisperToken> startTokens, WhisperDecodingOptions options) {
+        StringBuilder parameters = new StringBuilder()
+                .append(whisper.getModel().identity()).append('|');
+        for (WhisperToken token : startTokens) {
+            parameters.append(token.getTokenId()).append(',');
+        }
+        parameters.append('|').append(options.getMaxTokens())
+                .append('|').append(options.getRepetitionPolicy())
+                .append('|').append(options.getNoSpeechThreshold())
+                .append('|').append(options.getLogProbThreshold());
+        WhisperAudioFingerprint fingerprint = fingerprints.computeIfAbsent(audio.getData(),
+                samples -> WhisperAudioFingerprint.of(samples, audio.getSampleRate()));
+        return new Key(sha256(parameters.toString()), fingerprint);
+    }
+
+    /**
+     * Look up the result of a task.
+     * @param key the key of the task.
+     * @return the cached result of the closest matching recording, or empty on a miss.
+     */
+    Optional<WhisperResult> get(Key key) {
+        List<Indexed> candidates;
+        lock.lock();
+        try {
+            candidates = List.copyOf(byParameters.getOrDefault(key.parameters(), List.of()));
+        } finally {
+            lock.unlock();
+        }
+
+        double maxErrors = maxBitErrorRate;
+        long durationMs = key.fingerprint().durationMs();
+        Indexed best = null;
+        double bestErrors = Double.MAX_VALUE;
+        for (Indexed candidate : candidates) {
+            if (Math.abs(candidate.fingerprint().durationMs() - durationMs) > Math.max(200, durationMs / 100)) {
+                continue;
+            }
+            double errors = key.fingerprint().bitErrorRate(candidate.fingerprint(), MAX_SHIFT);
+            if (errors <= maxErrors && errors < bestErrors) {
+                best = candidate;
+                bestErrors = errors;
+            }
+        }
+
+        Entry entry = best == null ? null : read(file(best.id()));
+        if (entry == null) {
+            if (best != null) {
+                remove(best);
+            }
+            misses.incrementAndGet();
+            return Optional.empty();
+        }
+        lock.lock();
+        try {
+            // moves the entry to the most recently used end
+            entries.get(best.id());
+        } finally {
+            lock.unlock();
+        }
+        try {
+            Files.setLastModifiedTime(file(best.id()), FileTime.from(Instant.now()));
+        } catch (IOException e) {
+            // only the order of eviction after a restart is affected
+        }
+        hits.incrementAndGet();
+        if (bestErrors > 0) {
+            nearDuplicateHits.incrementAndGet();
+        }
+        return Optional.of(result(entry));
+    }
+
+    /**
+     * Store the result of a task, evicting the least recently used results beyond the size limit.
+     * @param key the key of the task.
+     * @param result the result of the task.
+     */
+    void put(Key key, WhisperResult result) {
+        if (result.stopReason() == WhisperStopReason.DEADLINE_EXCEEDED || !key.fingerprint().isMatchable()) {
+            return;
+        }
+        List<WhisperToken> tokens = result.tokens();
+        long[] tokenIds = new long[tokens.size()];
+        String[] tokenTexts = new String[tokens.size()];
+        for (int i = 0; i < tokens.size(); i++) {
+            tokenIds[i] = tokens.get(i).getTokenId();
+            tokenTexts[i] = tokens.get(i).getToken();
+        }
+        Entry entry = new Entry(key.parameters(), key.fingerprint().durationMs(), encode(key.fingerprint().frames()),
+                Base64.getEncoder().encodeToString(key.fingerprint().energetic().toByteArray()), result.rawText(),
+                result.text(), tokenIds, tokenTexts, result.stopReason().name(),
+                result.noSpeechProbability(), result.averageLogProbability());
+
+        String id = UUID.randomUUID().toString();
+        Path file = file(id);
+        Path temp = directory.resolve(id + ".tmp");
+        try {
+            byte[] content = GSON.toJson(entry).getBytes(StandardCharsets.UTF_8);
+            Files.write(temp, content);
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+
+            lock.lock();
+            try {
+                index(new Indexed(id, key.parameters(), key.fingerprint(), content.length));
+                stores.incrementAndGet();
+                evict();
+            } finally {
+                lock.unlock();
+            }
+        } catch (IOException e) {
+            // a cache that cannot be written must not fail the task
+            log.warn("Could not store result in the whisper result cache.", e);
+        } finally {
+            temp.toFile().delete();
+        }
+    }
+
+    /**
+     * Add a result to the index. Called while holding the lock.
+     * @param entry the result.
+     */
+    private void index(Indexed entry) {
+        entries.put(entry.id(), entry);
+        byParameters.computeIfAbsent(entry.parameters(), parameters -> new ArrayList<>()).add(entry);
+        bytes += entry.bytes();
+    }
+
+    /**
+     * Delete the least recently used results until the size limit is met. Called while holding the lock.
+     * @throws IOException if a file cannot be deleted.
+     */
+    private void evict() throws IOException {
+        Iterator<Indexed> eldest = entries.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            Indexed entry = eldest.next();
+            eldest.remove();
+            unindex(entry);
+            Files.deleteIfExists(file(entry.id()));
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Remove a result whose file disappeared or cannot be read.
+     * @param entry the result.
+     */
+    private void remove(Indexed entry) {
+        lock.lock();
+        try {
+            if (entries.remove(entry.id()) != null) {
+                unindex(entry);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void unindex(Indexed entry) {
+        bytes -= entry.bytes();
+        List<Indexed> candidates = byParameters.get(entry.parameters());
+        candidates.remove(entry);
+        if (candidates.isEmpty()) {
+            byParameters.remove(entry.parameters());
+        }
+    }
+
+    private Path file(String id) {
+        return directory.resolve(id + SUFFIX);
+    }
+
+    private static WhisperResult result(Entry entry) {
+        List<WhisperToken> tokens = new ArrayList<>(entry.tokenIds().length);
+        for (int i = 0; i < entry.tokenIds().length; i++) {
+            tokens.add(new WhisperAnyToken(entry.tokenIds()[i], entry.tokens()[i]));
+        }
+        return new WhisperResult(entry.rawText(), entry.text(), tokens, WhisperStopReason.valueOf(entry.stopReason()),
+                0, entry.noSpeechProbability(), entry.averageLogProbability());
+    }
+
+    private static Entry read(Path file) {
+        try {
+            Entry entry = GSON.fromJson(Files.readString(file, StandardCharsets.UTF_8), Entry.class);
+            return entry == null || entry.parameters() == null || entry.fingerprint() == null
+                    || entry.energetic() == null ? null : entry;
+        } catch (IOException | JsonParseException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static String encode(int[] frames) {
+        ByteBuffer buffer = ByteBuffer.allocate(frames.length * Integer.BYTES);
+        buffer.asIntBuffer().put(frames);
+        return Base64.getEncoder().encodeToString(buffer.array());
+    }
+
+    private static int[] decode(String frames) {
+        ByteBuffer buffer = ByteBuffer.wrap(Base64.getDecoder().decode(frames));
+        int[] decoded = new int[buffer.remaining() / Integer.BYTES];
+        buffer.asIntBuffer().get(decoded);
+        return decoded;
+    }
+
+    private static String sha256(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
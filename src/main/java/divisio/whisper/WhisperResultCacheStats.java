@@ -0,0 +1,24 @@
+package divisio.whisper;
+
+/**
+ * Snapshot of the metrics of a {@link WhisperResultCache} since it was opened.
+ * @param hits               Lookups answered from the cache.
+ * @param nearDuplicateHits  Hits on a different encoding of the audio, i.e. with a fingerprint that is not identical.
+ * @param misses             Lookups that ran the model.
+ * @param stores             Results added to the cache.
+ * @param evictions          Results removed to stay within the size limit.
+ * @param entries            Results in the cache.
+ * @param bytes              Size of the results in the cache in bytes.
+ */
+public record WhisperResultCacheStats(long hits, long nearDuplicateHits, long misses, long stores, long evictions,
+                                      int entries, long bytes) {
+
+    /**
+     * Get the fraction of lookups answered from the cache.
+     * @return the hit rate between 0 and 1, 0 before the first lookup.
+     */
+    public double hitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+}
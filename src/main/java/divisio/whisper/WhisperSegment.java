@@ -0,0 +1,15 @@
+package divisio.whisper;
+
+import divisio.whisper.token.WhisperToken;
+
+import java.util.List;
+
+/**
+ * A segment of a transcription with timestamps, see {@link WhisperResult#segments()}.
+ * @param startMs Start of the segment in milliseconds, relative to the start of the audio.
+ * @param endMs   End of the segment in milliseconds, relative to the start of the audio.
+ * @param text    Text of the segment without special tokens.
+ * @param tokens  Text tokens of the segment, without the timestamp tokens.
+ */
+public record WhisperSegment(long startMs, long endMs, String text, List<WhisperToken> tokens) {
+}
@@ -0,0 +1,32 @@
+package divisio.whisper;
+
+/**
+ * Why the decoder loop of a {@link WhisperTask} stopped.
+ */
+public enum WhisperStopReason {
+    /**
+     * Whisper generated the end-of-text token.
+     */
+    END_OF_TEXT,
+
+    /**
+     * The token budget of the task was used up, see {@link WhisperDecodingOptions#maxTokens(int)}.
+     */
+    MAX_TOKENS,
+
+    /**
+     * The deadline of the task passed, the result contains the tokens decoded until then.
+     */
+    DEADLINE_EXCEEDED,
+
+    /**
+     * Whisper repeated the same token sequence over and over, see {@link WhisperRepetitionPolicy}.
+     */
+    REPETITION,
+
+    /**
+     * The audio most likely contains no speech, see {@link WhisperTask#noSpeechThreshold(double)}.
+     * The result is empty.
+     */
+    NO_SPEECH
+}
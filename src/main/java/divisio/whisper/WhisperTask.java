@@ -9,8 +9,13 @@ import org.bytedeco.ffmpeg.global.avutil;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
 
 /**
  * A class to easily configure a task and execute it using a {@link Whisper3} instance.
@@ -20,6 +25,17 @@ import java.util.List;
  */
 public class WhisperTask {
 
+    /**
+     * Maximum number of previous tokens in a prompt, half of the text context minus the start-of-previous token.
+     */
+    private static final int MAX_PROMPT_TOKENS = 223;
+
+    /**
+     * Maximum number of previous tokens in a prompt for a decoder without prefill, which spends a decoder pass on
+     * every prompt token, see {@link Whisper3ModelConfig#isMultiTokenDecoder()}.
+     */
+    private static final int MAX_SEQUENTIAL_PROMPT_TOKENS = 32;
+
     /**
      * The {@link Whisper3} instance to execute this task with.
      */
@@ -30,6 +46,16 @@ public class WhisperTask {
      */
     private Audio audio;
 
+    /**
+     * The audio file to load when the task is executed, if no {@link #audio} is set.
+     */
+    private Path audioPath;
+
+    /**
+     * Precomputed mel features to transcribe / translate instead of audio, see {@link #transcribe(WhisperFeatures)}.
+     */
+    private WhisperFeatures features;
+
     /**
      * The language for this task. Default is {@link Whisper3Language#AUTO}, which lets Whisper detect the language.
      */
@@ -46,6 +72,59 @@ public class WhisperTask {
      */
     private Whisper3SpecialToken task = Whisper3SpecialToken.TRANSCRIBE;
 
+    /**
+     * Point in time after which decoding stops. {@code null} for no deadline.
+     */
+    private Instant deadline;
+
+    /**
+     * Maximum duration of an execution, measured from the call to {@link #execute()} or {@link #executeAsync()}.
+     * {@code null} for no timeout.
+     */
+    private Duration timeout;
+
+    /**
+     * Handle to cancel executions of this task. {@code null} if not cancellable from outside.
+     */
+    private WhisperCancellation cancellation;
+
+    /**
+     * Maximum number of tokens to generate. 0 to derive it from the audio duration.
+     */
+    private int maxTokens;
+
+    /**
+     * What to do when Whisper repeats itself. Default is {@link WhisperRepetitionPolicy#IGNORE}, as spoken
+     * repetitions, e.g. a counted or spelled out sequence, are not always hallucinations.
+     */
+    private WhisperRepetitionPolicy repetitionPolicy = WhisperRepetitionPolicy.IGNORE;
+
+    /**
+     * No-speech probability above which decoding stops early. {@link Double#NaN} to decode all audio.
+     */
+    private double noSpeechThreshold = Double.NaN;
+
+    /**
+     * Listener for the generated tokens of each execution. {@code null} for none.
+     */
+    private WhisperTokenListener tokenListener;
+
+    /**
+     * Priority class of asynchronous executions. Default is {@link WhisperPriority#NORMAL}.
+     */
+    private WhisperPriority priority = WhisperPriority.NORMAL;
+
+    /**
+     * Previous text to condition the decoding on. {@code null} for no prompt.
+     */
+    private String promptText;
+
+    /**
+     * Tokens of the previous text to condition the decoding on, take precedence over {@link #promptText}.
+     * {@code null} for no prompt.
+     */
+    private List<WhisperToken> promptTokens;
+
     /**
      * Private constructor. Use {@link #task(Whisper3)} or {@link Whisper3#task()}to create a task instance.
      */
@@ -69,6 +148,32 @@ public class WhisperTask {
      */
     private WhisperTask setAudio(Audio audio) {
         this.audio = audio;
+        this.audioPath = null;
+        this.features = null;
+        return this;
+    }
+
+    /**
+     * Set the audio file for this task, loaded when the task is executed.
+     * @param path the path to the audio file.
+     * @return this task.
+     */
+    private WhisperTask setAudio(Path path) {
+        this.audio = null;
+        this.audioPath = path;
+        this.features = null;
+        return this;
+    }
+
+    /**
+     * Set precomputed mel features as input for this task.
+     * @param features the mel features.
+     * @return this task.
+     */
+    private WhisperTask setFeatures(WhisperFeatures features) {
+        this.audio = null;
+        this.audioPath = null;
+        this.features = features;
         return this;
     }
 
@@ -102,23 +207,145 @@ public class WhisperTask {
     }
 
     /**
-     * Set the task to transcription for the audio file on the given path.
+     * Set an absolute deadline for this task. Decoding stops once it passed,
+     * returning the tokens decoded so far (see {@link WhisperStopReason#DEADLINE_EXCEEDED}).
+     * @param deadline the deadline; {@code null} for no deadline.
+     * @return this task.
+     */
+    public WhisperTask deadline(Instant deadline) {
+        this.deadline = deadline;
+        return this;
+    }
+
+    /**
+     * Set a timeout for this task, measured from the call to {@link #execute()} or {@link #executeAsync()},
+     * so the time waiting in the queue counts as well. Combines with {@link #deadline(Instant)}, the earlier one wins.
+     * @param timeout the timeout; {@code null} for no timeout.
+     * @return this task.
+     */
+    public WhisperTask timeout(Duration timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    /**
+     * Set a handle to cancel executions of this task, see {@link WhisperCancellation}.
+     * @param cancellation the cancellation handle.
+     * @return this task.
+     */
+    public WhisperTask cancellation(WhisperCancellation cancellation) {
+        this.cancellation = cancellation;
+        return this;
+    }
+
+    /**
+     * Set the maximum number of tokens to generate.
+     * @param maxTokens the token budget; 0 (the default) to derive it from the audio duration and task.
+     * @return this task.
+     */
+    public WhisperTask maxTokens(int maxTokens) {
+        this.maxTokens = maxTokens;
+        return this;
+    }
+
+    /**
+     * Set what to do when Whisper repeats the same token sequence over and over, e.g. when hallucinating on noise.
+     * The result of a stopped task is marked with {@link WhisperStopReason#REPETITION}.
+     * @param repetitionPolicy the repetition policy; {@link WhisperRepetitionPolicy#IGNORE} to disable the detection.
+     * @return this task.
+     */
+    public WhisperTask repetitionPolicy(WhisperRepetitionPolicy repetitionPolicy) {
+        this.repetitionPolicy = repetitionPolicy;
+        return this;
+    }
+
+    /**
+     * Skip audio without speech: decoding stops with an empty result marked with {@link WhisperStopReason#NO_SPEECH}
+     * if the no-speech probability exceeds the threshold and the first text token is unlikely as well, instead of
+     * spending the token budget on hallucinations. The no-speech probability is always reported in the result.
+     * @param noSpeechThreshold the no-speech probability threshold, e.g. 0.6; {@link Double#NaN} (the default) to
+     *                          decode all audio.
+     * @return this task.
+     * @see WhisperDecodingOptions#noSpeechThreshold(double)
+     */
+    public WhisperTask noSpeechThreshold(double noSpeechThreshold) {
+        this.noSpeechThreshold = noSpeechThreshold;
+        return this;
+    }
+
+    /**
+     * Stream the generated tokens of each execution to the given listener, as soon as the decoder loop picks them,
+     * e.g. to show captions before the whole audio is decoded. See {@link WhisperTokenListener} for the threading.
+     * Not applied by {@link #executeVariants(WhisperTask...)} and {@link #executePacked(List)}.
+     * @param tokenListener the listener; {@code null} for none.
+     * @return this task.
+     * @see #publish()
+     */
+    public WhisperTask onToken(WhisperTokenListener tokenListener) {
+        this.tokenListener = tokenListener;
+        return this;
+    }
+
+    /**
+     * Set the priority class of this task for {@link #executeAsync()}: queued tasks of a higher class are started first.
+     * @param priority the priority class.
+     * @return this task.
+     */
+    public WhisperTask priority(WhisperPriority priority) {
+        this.priority = priority;
+        return this;
+    }
+
+    /**
+     * Condition the decoding on the given previous text, e.g. the transcription of the previous window of the same
+     * stream, or a list of names and terms to spell correctly. The prompt is not part of the result.
+     *
+     * <p>The most recent 223 tokens of the text are used if the decoder feeds the prompt in a single pass, see
+     * {@link Whisper3ModelConfig#isMultiTokenDecoder()}. Otherwise, e.g. with the bundled decoder, every prompt token
+     * costs a decoder pass, and only the most recent 32 tokens are used.
+     * @param text the previous text; {@code null} for no prompt.
+     * @return this task.
+     */
+    public WhisperTask prompt(String text) {
+        this.promptText = text;
+        this.promptTokens = null;
+        return this;
+    }
+
+    /**
+     * Condition the decoding on the result of the previous window of the same stream.
+     * The text tokens of the previous result are reused as they are, without encoding the text again.
+     * The prompt is limited like the one of {@link #prompt(String)}.
+     * @param previous the result of the previous window; {@code null} for no prompt.
+     * @return this task.
+     */
+    public WhisperTask prompt(WhisperResult previous) {
+        this.promptText = null;
+        this.promptTokens = previous == null ? null : previous.tokens().stream()
+                .filter(token -> token.getTokenId() >= 0
+                        && token.getTokenId() < Whisper3SpecialToken.END_OF_TEXT.getTokenId())
+                .toList();
+        return this;
+    }
+
+    /**
+     * Set the task to transcription for the audio file on the given path. The file is loaded when the task is executed.
      * @param path the string path to the audio file.
      * @return this task.
      */
     public WhisperTask transcribe(String path) {
         this.task = Whisper3SpecialToken.TRANSCRIBE;
-        return this.setAudio(loadAudio(path));
+        return this.setAudio(Path.of(path));
     }
 
     /**
-     * Set the task to transcription for the audio file on the given path.
+     * Set the task to transcription for the audio file on the given path. The file is loaded when the task is executed.
      * @param path the path to the audio file.
      * @return this task.
      */
     public WhisperTask transcribe(Path path) {
         this.task = Whisper3SpecialToken.TRANSCRIBE;
-        return this.setAudio(loadAudio(path));
+        return this.setAudio(path);
     }
 
     /**
@@ -132,23 +359,35 @@ public class WhisperTask {
     }
 
     /**
-     * Set the task to translation for the audio file on the given path.
+     * Set the task to transcription of precomputed mel features, e.g. computed on another host by a
+     * {@link WhisperFeatureExtractor}. The feature extraction is skipped, and so is the {@link WhisperResultCache},
+     * which identifies audio by its samples.
+     * @param features the mel features.
+     * @return this task.
+     */
+    public WhisperTask transcribe(WhisperFeatures features) {
+        this.task = Whisper3SpecialToken.TRANSCRIBE;
+        return setFeatures(features);
+    }
+
+    /**
+     * Set the task to translation for the audio file on the given path. The file is loaded when the task is executed.
      * @param path the string path to the audio file.
      * @return this task.
      */
     public WhisperTask translate(String path) {
         this.task = Whisper3SpecialToken.TRANSLATE;
-        return this.setAudio(loadAudio(path));
+        return this.setAudio(Path.of(path));
     }
 
     /**
-     * Set the task to translation for the audio file on the given path.
+     * Set the task to translation for the audio file on the given path. The file is loaded when the task is executed.
      * @param path the path to the audio file.
      * @return this task.
      */
     public WhisperTask translate(Path path) {
         this.task = Whisper3SpecialToken.TRANSLATE;
-        return this.setAudio(loadAudio(path));
+        return this.setAudio(path);
     }
 
     /**
@@ -162,20 +401,22 @@ public class WhisperTask {
     }
 
     /**
-     * Loads the file on the given path into an {@link Audio} instance.
-     * @param path the string path to the audio file.
-     * @return instance of an {@link Audio}.
+     * Set the task to translation of precomputed mel features, see {@link #transcribe(WhisperFeatures)}.
+     * @param features the mel features.
+     * @return this task.
      */
-    private static Audio loadAudio(String path) {
-        return loadAudio(Path.of(path));
+    public WhisperTask translate(WhisperFeatures features) {
+        this.task = Whisper3SpecialToken.TRANSLATE;
+        return setFeatures(features);
     }
 
     /**
-     * Loads the file on the given path into an {@link Audio} instance.
+     * Loads the file on the given path into an {@link Audio} instance
+     * with the sample rate and channel layout expected by {@link Whisper3}.
      * @param path the path to the audio file.
      * @return instance of an {@link Audio}.
      */
-    private static Audio loadAudio(Path path) {
+    public static Audio loadAudio(Path path) {
         try {
             Audio audio = AudioFactory.newInstance()
                     .setChannels(1) // fixed for Whisper3
@@ -196,15 +437,275 @@ public class WhisperTask {
      * @return a {@link WhisperResult} containing the transcribed text.
      */
     public WhisperResult execute() {
+        return executeWith(this.whisper, decodingOptions(this.cancellation));
+    }
+
+    /**
+     * Execute this configured task asynchronously.
+     *
+     * <p>The task is queued in the bounded submission queue of the {@link Whisper3} instance and processed
+     * by one of its dedicated inference threads, see {@link Whisper3#getExecutor()}. If the queue is full,
+     * the configured {@link WhisperRejectionPolicy} applies. Safe to call from virtual threads:
+     * native inference never runs on the calling thread, so its carrier thread is not pinned.
+     *
+     * <p>Queued tasks are started by their {@link #priority(WhisperPriority)} and the {@link WhisperOrderingPolicy} of the
+     * instance. A task with a deadline or timeout may be rejected early if it cannot start in time, see
+     * {@link Whisper3Options#shedLoad(boolean)}.
+     *
+     * <p>Cancelling the returned future cancels the task, also while it is already decoding.
+     *
+     * @return a future completed with the {@link WhisperResult}.
+     */
+    public CompletableFuture<WhisperResult> executeAsync() {
+        if (this.whisper == null) {
+            throw new IllegalStateException("Cannot execute WhisperTask without an instance of Whisper.");
+        }
+        WhisperCancellation execution = newExecution();
+        WhisperDecodingOptions options = decodingOptions(execution);
+        WhisperResultCache cache = this.whisper.getResultCache();
+        if (cache != null && this.audio != null && options.getTokenListener() == null) {
+            // a cached result does not wait for a worker; on a miss, the worker does not look it up again
+            Audio input = this.audio;
+            List<WhisperToken> startTokens = startTokens(this.whisper);
+            WhisperResultCache.Key key = cache.key(this.whisper, input, startTokens, options);
+            Optional<WhisperResult> cached = cache.get(key);
+            if (cached.isPresent()) {
+                return CompletableFuture.completedFuture(cached.get());
+            }
+            return cancelOnCancel(this.whisper.getExecutor().submit(
+                    () -> processAndStore(this.whisper, input, startTokens, options, key),
+                    this.priority, audioSeconds(), options.getDeadline()), execution);
+        }
+        return submit(options, execution);
+    }
+
+    /**
+     * Execute this configured task asynchronously for each subscriber of the returned publisher, streaming the
+     * generated tokens as {@link WhisperTokenEvent}s as soon as the decoder loop picks them.
+     *
+     * <p>Each subscription starts its own execution like {@link #executeAsync()}, with the priority, deadline and
+     * cancellation handle of this task; a listener set with {@link #onToken(WhisperTokenListener)} is not called.
+     * The decoder loop waits for demand before it continues with the next token, so a subscriber that does not
+     * request further tokens holds back the decoding and its resources. Cancelling the subscription cancels the
+     * execution. The publisher completes when the decoding run finished, or fails with the failure of the execution.
+     * To also get the final {@link WhisperResult}, use {@link #onToken(WhisperTokenListener)} with
+     * {@link #executeAsync()} instead.
+     *
+     * @return a publisher of the generated tokens.
+     */
+    public Flow.Publisher<WhisperTokenEvent> publish() {
+        if (this.whisper == null) {
+            throw new IllegalStateException("Cannot execute WhisperTask without an instance of Whisper.");
+        }
+        return subscriber -> {
+            WhisperCancellation execution = newExecution();
+            WhisperTokenSubscription subscription = new WhisperTokenSubscription(subscriber, execution);
+            subscriber.onSubscribe(subscription);
+            try {
+                submit(decodingOptions(execution).tokenListener(subscription), execution)
+                        .whenComplete(subscription::complete);
+            } catch (RuntimeException e) {
+                subscription.complete(null, e);
+            }
+        };
+    }
+
+    /**
+     * Submit an execution of this task to the executor of the {@link Whisper3} instance.
+     * @param options the decoding options of the execution.
+     * @param execution the cancellation handle of the execution.
+     * @return a future completed with the {@link WhisperResult}.
+     */
+    private CompletableFuture<WhisperResult> submit(WhisperDecodingOptions options, WhisperCancellation execution) {
+        return cancelOnCancel(this.whisper.getExecutor().submit(() -> executeWith(this.whisper, options),
+                this.priority, audioSeconds(), options.getDeadline()), execution);
+    }
+
+    /**
+     * Create the cancellation handle of a single asynchronous execution, cancelled by the future of the
+     * execution or by the cancellation handle of this task.
+     * @return the cancellation handle of the execution.
+     */
+    WhisperCancellation newExecution() {
+        return new WhisperCancellation(this.cancellation);
+    }
+
+    /**
+     * Cancel the given execution once the future is cancelled.
+     * @param future the future of the execution.
+     * @param execution the cancellation handle of the execution.
+     * @return the given future.
+     */
+    static CompletableFuture<WhisperResult> cancelOnCancel(CompletableFuture<WhisperResult> future,
+                                                           WhisperCancellation execution) {
+        future.whenComplete((result, error) -> {
+            if (future.isCancelled()) {
+                execution.cancel();
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Create the decoding options of a single execution of this task.
+     * @param execution the cancellation handle of the execution.
+     * @return the decoding options.
+     */
+    WhisperDecodingOptions decodingOptions(WhisperCancellation execution) {
+        Instant executionDeadline = this.deadline;
+        if (this.timeout != null) {
+            Instant timeoutDeadline = Instant.now().plus(this.timeout);
+            if (executionDeadline == null || timeoutDeadline.isBefore(executionDeadline)) {
+                executionDeadline = timeoutDeadline;
+            }
+        }
+        return WhisperDecodingOptions.options()
+                .deadline(executionDeadline)
+                .cancellation(execution)
+                .maxTokens(this.maxTokens)
+                .repetitionPolicy(this.repetitionPolicy)
+                .noSpeechThreshold(this.noSpeechThreshold)
+                .tokenListener(this.tokenListener);
+    }
+
+    /**
+     * Execute this configured task on the given {@link Whisper3} instance,
+     * e.g. on an instance picked by a {@link Whisper3Pool}. With a {@link WhisperResultCache}, the task is looked up
+     * in the cache first, and its result is stored in it afterward.
+     * @param whisper the instance to execute this task with.
+     * @param options the decoding options of this execution, see {@link #decodingOptions(WhisperCancellation)}.
+     * @return a {@link WhisperResult} containing the transcribed text.
+     */
+    WhisperResult executeWith(Whisper3 whisper, WhisperDecodingOptions options) {
+        if (whisper == null) {
+            throw new IllegalStateException("Cannot execute WhisperTask without an instance of Whisper.");
+        }
+
+        List<WhisperToken> startTokens = startTokens(whisper);
+        if (this.features != null) {
+            return whisper.process(this.features, startTokens, options);
+        }
+        Audio input = audio();
+        WhisperResultCache cache = whisper.getResultCache();
+        if (cache == null || options.getTokenListener() != null) {
+            return whisper.process(input, startTokens, options);
+        }
+
+        WhisperResultCache.Key key = cache.key(whisper, input, startTokens, options);
+        Optional<WhisperResult> cached = cache.get(key);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+        return processAndStore(whisper, input, startTokens, options, key);
+    }
+
+    /**
+     * Execute this configured task after a cache miss and store its result in the cache of the instance.
+     * The audio and start tokens are the ones the key was computed from, so the stored result matches its key.
+     * @param whisper the instance to execute this task with, with a {@link WhisperResultCache}.
+     * @param input the loaded input audio.
+     * @param startTokens the start tokens of this task.
+     * @param options the decoding options of this execution, see {@link #decodingOptions(WhisperCancellation)}.
+     * @param key the key of this task, already looked up in the cache without a hit.
+     * @return a {@link WhisperResult} containing the transcribed text.
+     */
+    private WhisperResult processAndStore(Whisper3 whisper, Audio input, List<WhisperToken> startTokens,
+                                          WhisperDecodingOptions options, WhisperResultCache.Key key) {
+        WhisperResult result = whisper.process(input, startTokens, options);
+        whisper.getResultCache().put(key, result);
+        return result;
+    }
+
+    /**
+     * Execute this task together with variants of it on the audio of this task, e.g. a translation next to
+     * the transcription, or a transcription with timestamps next to one without.
+     *
+     * <p>The audio is encoded only once and the variants are decoded on the shared encoder output,
+     * see {@link Whisper3#processVariants(Audio, List, WhisperDecodingOptions)}. The variants only contribute their
+     * start tokens (language, task, timestamps and prompt), their audio is ignored; create them with
+     * {@link Whisper3#task()} and {@link #transcribe(Audio)} or {@link #translate(Audio)} on the same audio.
+     * Deadline, timeout, cancellation, token budget and repetition policy of this task apply to all variants.
+     *
+     * @param variants the variants to execute next to this task.
+     * @return the result of this task, followed by the results of the variants in the given order.
+     */
+    public List<WhisperResult> executeVariants(WhisperTask... variants) {
         if (this.whisper == null) {
             throw new IllegalStateException("Cannot execute WhisperTask without an instance of Whisper.");
         }
+        Audio input = audio();
 
+        List<List<WhisperToken>> startTokens = new ArrayList<>(variants.length + 1);
+        startTokens.add(startTokens(this.whisper));
+        for (WhisperTask variant : variants) {
+            startTokens.add(variant.startTokens(this.whisper));
+        }
+        return this.whisper.processVariants(input, startTokens, decodingOptions(this.cancellation));
+    }
+
+    /**
+     * Execute the configuration of this task on several short clips, packed into as few encoder windows as possible,
+     * see {@link Whisper3#processPacked(List, List, WhisperDecodingOptions)}. The audio of this task is ignored;
+     * language, task and prompt apply to all clips, timestamps are always generated.
+     * Deadline, timeout, cancellation, token budget and repetition policy apply to each window.
+     *
+     * @param clips the short clips to process.
+     * @return a result per clip, in the order of the clips.
+     */
+    public List<WhisperResult> executePacked(List<Audio> clips) {
+        if (this.whisper == null) {
+            throw new IllegalStateException("Cannot execute WhisperTask without an instance of Whisper.");
+        }
+        return this.whisper.processPacked(clips, startTokens(this.whisper), decodingOptions(this.cancellation));
+    }
+
+    /**
+     * Get the input audio of this task, loading the audio file if the task was configured with a path.
+     * @return the input audio.
+     */
+    Audio audio() {
+        if (this.audio != null) {
+            return this.audio;
+        }
+        if (this.audioPath != null) {
+            return loadAudio(this.audioPath);
+        }
+        if (this.features != null) {
+            throw new IllegalStateException("WhisperTask with precomputed features has no audio.");
+        }
+        throw new IllegalStateException("Cannot execute WhisperTask without having an input to transcribe or translate.");
+    }
+
+    /**
+     * Get the precomputed mel features of this task.
+     * @return the mel features, {@code null} if the task has audio as input.
+     */
+    WhisperFeatures features() {
+        return this.features;
+    }
+
+    /**
+     * Get the duration of the input audio, if it is already loaded.
+     * @return the duration in seconds, {@link Double#NaN} if the audio is only loaded on execution.
+     */
+    double audioSeconds() {
+        if (this.features != null) {
+            return this.features.getAudioSeconds();
+        }
         if (this.audio == null) {
-            throw new IllegalStateException("Cannot execute WhisperTask without having an input to transcribe or translate.");
+            return Double.NaN;
         }
+        return (double) this.audio.getData().length / this.audio.getSampleRate();
+    }
 
-        List<WhisperToken> startTokens = new ArrayList<>(List.of(
+    /**
+     * Construct the start tokens necessary to guide the Whisper model.
+     * @param whisper the instance to encode a text prompt with.
+     * @return the start tokens of this task.
+     */
+    List<WhisperToken> startTokens(Whisper3 whisper) {
+        List<WhisperToken> startTokens = new ArrayList<>(promptTokens(whisper));
+        startTokens.addAll(List.of(
                 Whisper3SpecialToken.START_OF_TRANSCRIPT,
                 this.lang,
                 this.task
@@ -213,7 +714,32 @@ public class WhisperTask {
         if (this.noTimestamps) {
             startTokens.add(Whisper3SpecialToken.NO_TIMESTAMPS);
         }
+        return startTokens;
+    }
+
+    /**
+     * Create the prompt in front of the start-of-transcript token: the start-of-previous token followed by the
+     * most recent tokens of the previous text, limited to half of the text context (as in the original implementation),
+     * or to far fewer tokens if the decoder cannot prefill them in a single pass.
+     * @param whisper the instance to encode a text prompt with.
+     * @return the prompt tokens, empty if there is no prompt.
+     */
+    private List<WhisperToken> promptTokens(Whisper3 whisper) {
+        List<WhisperToken> previous = this.promptTokens;
+        if (previous == null && this.promptText != null && !this.promptText.isBlank()) {
+            // a leading space, as the previous text is usually followed by further words
+            previous = whisper.tokenize(" " + this.promptText.strip());
+        }
+        if (previous == null || previous.isEmpty()) {
+            return List.of();
+        }
 
-        return whisper.process(this.audio, startTokens);
+        int maxTokens = whisper.getModel().getConfig().isMultiTokenDecoder()
+                ? MAX_PROMPT_TOKENS
+                : MAX_SEQUENTIAL_PROMPT_TOKENS;
+        List<WhisperToken> prompt = new ArrayList<>(maxTokens + 1);
+        prompt.add(Whisper3SpecialToken.START_OF_PREVIOUS);
+        prompt.addAll(previous.subList(Math.max(0, previous.size() - maxTokens), previous.size()));
+        return prompt;
     }
 }
@@ -0,0 +1,14 @@
+package divisio.whisper;
+
+import divisio.whisper.token.WhisperToken;
+
+/**
+ * A token generated by the decoder loop, streamed while the task is still decoding,
+ * see {@link WhisperTask#onToken(WhisperTokenListener)} and {@link WhisperTask#publish()}.
+ * @param index Index of the token among the generated tokens of the task, starting at 0.
+ * @param token The generated token, a text or a timestamp token.
+ * @param text  Text completed by this token. Empty for timestamp tokens and for tokens ending in the middle of a
+ *              multibyte character, whose bytes are part of the text of the next token.
+ */
+public record WhisperTokenEvent(int index, WhisperToken token, String text) {
+}
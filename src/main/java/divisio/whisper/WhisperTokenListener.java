@@ -0,0 +1,24 @@
+package divisio.whisper;
+
+/**
+ * Listener for the tokens of a {@link WhisperTask} as soon as the decoder loop picks them,
+ * see {@link WhisperTask#onToken(WhisperTokenListener)}.
+ *
+ * <p>The listener is called on the thread running the decoder loop, before the next decoder pass. A slow listener
+ * therefore slows down decoding, and a blocking listener holds the native memory of the task; an exception
+ * thrown by the listener fails the task.
+ *
+ * <p>The streamed tokens are exactly the tokens of the final {@link WhisperResult}. With the
+ * {@link WhisperRepetitionPolicy} {@code TRUNCATE}, the last 64 text tokens are held back until decoding stops, as a
+ * detected repetition may still remove them; with {@code DISCARD}, all tokens are held back until decoding stops.
+ */
+@FunctionalInterface
+public interface WhisperTokenListener {
+
+    /**
+     * Called for each generated text or timestamp token, in order. Not called for the start tokens and the
+     * end-of-text token.
+     * @param event the generated token and the text it completes.
+     */
+    void onToken(WhisperTokenEvent event);
+}
@@ -0,0 +1,140 @@
+package divisio.whisper;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Subscription to the tokens of a single execution of a {@link WhisperTask}, see {@link WhisperTask#publish()}.
+ *
+ * <p>Acts as the token listener of the execution: the decoder loop waits in {@link #onToken(WhisperTokenEvent)}
+ * until the subscriber requested a further token, then delivers it on the decoding thread. All signals to the
+ * subscriber are therefore serial: tokens on the decoding thread, completion after the decoding run returned.
+ */
+final class WhisperTokenSubscription implements Flow.Subscription, WhisperTokenListener {
+
+    private final Flow.Subscriber<? super WhisperTokenEvent> subscriber;
+
+    /**
+     * Cancellation handle of the execution, cancelled with this subscription.
+     */
+    private final WhisperCancellation execution;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition demanded = lock.newCondition();
+
+    /**
+     * Number of requested tokens not delivered yet.
+     */
+    private long demand;
+
+    private boolean cancelled;
+
+    /**
+     * Error to signal on completion, e.g. a non-positive request.
+     */
+    private Throwable error;
+
+    /**
+     * Create the subscription of an execution.
+     * @param subscriber the subscriber.
+     * @param execution the cancellation handle of the execution.
+     */
+    WhisperTokenSubscription(Flow.Subscriber<? super WhisperTokenEvent> subscriber, WhisperCancellation execution) {
+        this.subscriber = subscriber;
+        this.execution = execution;
+    }
+
+    @Override
+    public void request(long n) {
+        lock.lock();
+        try {
+            if (n <= 0) {
+                // rule 3.9 of the reactive streams specification, signalled once the execution stopped
+                error = new IllegalArgumentException("Non-positive request " + n + ".");
+                cancelLocked();
+                return;
+            }
+            demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            demanded.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void cancel() {
+        lock.lock();
+        try {
+            cancelLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void cancelLocked() {
+        cancelled = true;
+        execution.cancel();
+        demanded.signalAll();
+    }
+
+    @Override
+    public void onToken(WhisperTokenEvent event) {
+        lock.lock();
+        try {
+            while (demand == 0 && !cancelled) {
+                demanded.await();
+            }
+            if (cancelled) {
+                throw new CancellationException("Token subscription cancelled.");
+            }
+            demand--;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for token demand.");
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            subscriber.onNext(event);
+        } catch (RuntimeException e) {
+            // a failing subscriber is considered cancelled
+            cancel();
+            throw e;
+        }
+    }
+
+    /**
+     * Signal the end of the execution to the subscriber, unless it cancelled.
+     * @param result the result of the execution, or {@code null} if it failed.
+     * @param failure the failure of the execution, or {@code null} if it succeeded.
+     */
+    void complete(WhisperResult result, Throwable failure) {
+        Throwable signal;
+        lock.lock();
+        try {
+            if (error != null) {
+                signal = error;
+            } else if (cancelled) {
+                return;
+            } else {
+                signal = failure instanceof CompletionException && failure.getCause() != null
+                        ? failure.getCause() : failure;
+            }
+            // terminal, no further signals
+            cancelled = true;
+            error = null;
+        } finally {
+            lock.unlock();
+        }
+
+        if (signal == null) {
+            subscriber.onComplete();
+        } else {
+            subscriber.onError(signal);
+        }
+    }
+}
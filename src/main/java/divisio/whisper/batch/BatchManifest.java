@@ -0,0 +1,155 @@
+package divisio.whisper.batch;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The JSONL result file of a batch run together with its checkpoint manifest.
+ *
+ * <p>Every result line is flushed before its file is added to the manifest, so the manifest only lists files whose
+ * result was written completely. When a run is resumed, result lines of files missing in the manifest (e.g. written
+ * right before a crash) and duplicates are dropped, and the files of the manifest are skipped.
+ */
+class BatchManifest implements AutoCloseable {
+
+    private static final Gson GSON = new Gson();
+
+    private final Set<String> completed;
+    private final BufferedWriter results;
+    private final BufferedWriter manifest;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Open the result file and its manifest {@code <output>.manifest}, resuming a previous run if they exist.
+     * @param output the JSONL result file.
+     * @throws IOException if the files cannot be read or written.
+     */
+    BatchManifest(Path output) throws IOException {
+        Path manifestFile = output.resolveSibling(output.getFileName() + ".manifest");
+        this.completed = new HashSet<>();
+        if (Files.exists(manifestFile)) {
+            completed.addAll(Files.readAllLines(manifestFile, StandardCharsets.UTF_8));
+            completed.remove("");
+        }
+        if (Files.exists(output)) {
+            compact(output, completed);
+        }
+
+        this.results = Files.newBufferedWriter(output, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        this.manifest = Files.newBufferedWriter(manifestFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Check whether the result of the given file was already written by a previous run.
+     * @param file the audio file.
+     * @return true if the file can be skipped.
+     */
+    boolean isCompleted(Path file) {
+        return completed.contains(key(file));
+    }
+
+    /**
+     * Get the number of files completed by previous runs.
+     * @return the number of completed files.
+     */
+    int completedCount() {
+        return completed.size();
+    }
+
+    /**
+     * Append a result line, and mark the file as completed unless the result is a failure.
+     * Failed files are retried when the run is resumed.
+     * @param record the result of a file.
+     * @throws IOException if the result cannot be written.
+     */
+    void write(BatchRecord record) throws IOException {
+        lock.lock();
+        try {
+            results.write(GSON.toJson(record));
+            results.newLine();
+            results.flush();
+            if (record.error() == null) {
+                manifest.write(record.file());
+                manifest.newLine();
+                manifest.flush();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Key of a file in the manifest.
+     * @param file the audio file.
+     * @return the absolute, normalized path.
+     */
+    static String key(Path file) {
+        return file.toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * Rewrite the result file, keeping only the first successful line of each file in the manifest.
+     * @param output the JSONL result file.
+     * @param completed the files in the manifest.
+     * @throws IOException if the file cannot be rewritten.
+     */
+    private static void compact(Path output, Set<String> completed) throws IOException {
+        List<String> lines = Files.readAllLines(output, StandardCharsets.UTF_8);
+        Set<String> kept = new HashSet<>();
+        Path temp = output.resolveSibling(output.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (String line : lines) {
+                String file = successfulFile(line);
+                if (file != null && completed.contains(file) && kept.add(file)) {
+                    writer.write(line);
+                    writer.newLine();
+                }
+            }
+        }
+        Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Parse the file of a successful result line.
+     * @param line the result line.
+     * @return the file, or {@code null} if the line is incomplete or a failure.
+     */
+    private static String successfulFile(String line) {
+        try {
+            JsonObject json = GSON.fromJson(line, JsonObject.class);
+            if (json == null || !json.has("file") || json.has("error")) {
+                return null;
+            }
+            return json.get("file").getAsString();
+        } catch (JsonParseException e) {
+            // truncated last line of a crashed run
+            return null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            results.close();
+            manifest.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
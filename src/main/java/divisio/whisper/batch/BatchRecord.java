@@ -0,0 +1,15 @@
+package divisio.whisper.batch;
+
+/**
+ * A single line of the JSONL result file of a batch run.
+ * @param file         Absolute path of the audio file.
+ * @param text         Result text of all windows without special tokens, {@code null} on failure.
+ * @param rawText      Raw result text of all windows containing special tokens, {@code null} on failure.
+ * @param stopReason   Why decoding of the last window stopped, {@code null} on failure.
+ * @param audioSeconds Duration of the audio in seconds.
+ * @param processMs    Time spent in inference in milliseconds.
+ * @param error        The error message, {@code null} on success.
+ */
+record BatchRecord(String file, String text, String rawText, String stopReason,
+                   double audioSeconds, long processMs, String error) {
+}
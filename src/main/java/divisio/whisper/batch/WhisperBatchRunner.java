@@ -0,0 +1,352 @@
+package divisio.whisper.batch;
+
+import ai.djl.modality.audio.Audio;
+import divisio.whisper.Whisper3;
+import divisio.whisper.Whisper3Options;
+import divisio.whisper.Whisper3Quantization;
+import divisio.whisper.WhisperRejectionPolicy;
+import divisio.whisper.WhisperResult;
+import divisio.whisper.WhisperTask;
+import divisio.whisper.token.Whisper3Language;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Command line tool to transcribe an archive of audio files with a single, long-lived {@link Whisper3} instance.
+ *
+ * <p>Audio files are decoded by a pool of loader threads while inference runs on the async workers of the instance,
+ * see {@link WhisperTask#executeAsync()}. At most {@code --buffer} decoded files wait for inference, which bounds the
+ * memory of the loaders. Results are streamed to a JSONL file, one {@link BatchRecord} per line. A checkpoint manifest
+ * next to it lists all completed files, so an interrupted run continues where it stopped when started again with the
+ * same output file. Failed files are written with their error and retried on the next run. Files longer than the
+ * 30 second input of the encoder are decoded window by window, each window prompted with the result of the previous
+ * one.
+ *
+ * <p>Usage: {@code WhisperBatchRunner <audio directory | file list> <output.jsonl> [options]}, where a file list is a
+ * text file with one path per line and the options are:
+ * <ul>
+ *     <li>{@code --workers <n>}: files processed by inference at the same time, default 1</li>
+ *     <li>{@code --loaders <n>}: threads decoding audio files, default 2</li>
+ *     <li>{@code --buffer <n>}: decoded files waiting for inference, default 2 per worker</li>
+ *     <li>{@code --model <directory>}: model files, default the bundled resources</li>
+ *     <li>{@code --quantization <mode>}: a {@link Whisper3Quantization} name, default {@code NONE}</li>
+ *     <li>{@code --language <code>}: language of the audio, e.g. {@code de}, default automatic detection</li>
+ *     <li>{@code --translate}: translate to English instead of transcribing</li>
+ *     <li>{@code --timestamps}: generate timestamp tokens</li>
+ * </ul>
+ *
+ * <p>At the end, throughput in files per hour and the real-time factor (wall time per audio time) are printed.
+ */
+public class WhisperBatchRunner {
+
+    /**
+     * Length of a window in seconds, the input length of the encoder.
+     */
+    private static final int WINDOW_SECONDS = 30;
+
+    /**
+     * Configuration of a batch run.
+     * @param input         Audio directory or text file listing the audio files.
+     * @param output        JSONL result file.
+     * @param workers       Files processed by inference at the same time.
+     * @param loaders       Threads decoding audio files.
+     * @param buffer        Decoded files waiting for inference.
+     * @param modelPath     Model directory, {@code null} for the bundled resources.
+     * @param quantization  Weight format of the model.
+     * @param language      Language of the audio.
+     * @param translate     Whether to translate to English.
+     * @param timestamps    Whether to generate timestamp tokens.
+     */
+    record Settings(Path input, Path output, int workers, int loaders, int buffer, Path modelPath,
+                    Whisper3Quantization quantization, Whisper3Language language, boolean translate, boolean timestamps) {
+    }
+
+    /**
+     * Totals of a batch run.
+     * @param files        Files processed successfully in this run.
+     * @param failed       Files that failed in this run.
+     * @param skipped      Files skipped because a previous run completed them.
+     * @param audioSeconds Duration of the processed audio in seconds.
+     * @param wallMs       Wall time of this run in milliseconds, without loading the model.
+     */
+    record Summary(int files, int failed, int skipped, double audioSeconds, long wallMs) {
+
+        double realTimeFactor() {
+            return audioSeconds == 0 ? 0 : wallMs / 1000.0 / audioSeconds;
+        }
+
+        double filesPerHour() {
+            return wallMs == 0 ? 0 : files * 3_600_000.0 / wallMs;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Settings settings;
+        try {
+            settings = parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: WhisperBatchRunner <audio directory | file list> <output.jsonl> [--workers n] [--loaders n] "
+                    + "[--buffer n] [--model directory] [--quantization mode] [--language code] [--translate] [--timestamps]");
+            System.exit(1);
+            return;
+        }
+
+        Summary summary = run(settings);
+        System.out.printf(Locale.ROOT, "%d files transcribed, %d failed, %d skipped (completed before)%n",
+                summary.files(), summary.failed(), summary.skipped());
+        System.out.printf(Locale.ROOT, "%.1f s audio in %.1f s: RTF %.3f, %.1f files/hour%n",
+                summary.audioSeconds(), summary.wallMs() / 1000.0, summary.realTimeFactor(), summary.filesPerHour());
+    }
+
+    /**
+     * Parse the command line arguments.
+     * @param args the command line arguments.
+     * @return the settings of the run.
+     * @throws IllegalArgumentException if the arguments are invalid.
+     */
+    static Settings parse(String[] args) {
+        if (args.length < 2) {
+            throw new IllegalArgumentException("Missing input or output.");
+        }
+        int workers = 1;
+        int loaders = 2;
+        int buffer = -1;
+        Path modelPath = null;
+        Whisper3Quantization quantization = Whisper3Quantization.NONE;
+        Whisper3Language language = Whisper3Language.AUTO;
+        boolean translate = false;
+        boolean timestamps = false;
+
+        for (int i = 2; i < args.length; i++) {
+            switch (args[i]) {
+                case "--workers" -> workers = Integer.parseInt(value(args, ++i));
+                case "--loaders" -> loaders = Integer.parseInt(value(args, ++i));
+                case "--buffer" -> buffer = Integer.parseInt(value(args, ++i));
+                case "--model" -> modelPath = Path.of(value(args, ++i));
+                case "--quantization" -> quantization = Whisper3Quantization.valueOf(value(args, ++i));
+                case "--language" -> language = language(value(args, ++i));
+                case "--translate" -> translate = true;
+                case "--timestamps" -> timestamps = true;
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if (workers < 1 || loaders < 1) {
+            throw new IllegalArgumentException("Workers and loaders must be at least 1.");
+        }
+        return new Settings(Path.of(args[0]), Path.of(args[1]), workers, loaders,
+                buffer < 1 ? 2 * workers : buffer, modelPath, quantization, language, translate, timestamps);
+    }
+
+    /**
+     * Transcribe all files of the input not completed by a previous run.
+     * @param settings the settings of the run.
+     * @return the totals of the run.
+     * @throws Exception if the input cannot be listed or the results cannot be written.
+     */
+    static Summary run(Settings settings) throws Exception {
+        List<Path> files = listFiles(settings.input());
+        Whisper3Options options = Whisper3Options.options()
+                .modelPath(settings.modelPath())
+                .quantization(settings.quantization())
+                .asyncWorkers(settings.workers())
+                .asyncQueueCapacity(settings.buffer())
+                .rejectionPolicy(WhisperRejectionPolicy.BLOCK);
+
+        try (BatchManifest manifest = new BatchManifest(settings.output());
+             Whisper3 whisper = Whisper3.instance(options)) {
+            List<Path> pending = files.stream().filter(file -> !manifest.isCompleted(file)).toList();
+            int skipped = files.size() - pending.size();
+
+            ExecutorService loaders = Executors.newFixedThreadPool(settings.loaders(), runnable -> {
+                Thread thread = new Thread(runnable, "whisper-batch-loader");
+                thread.setDaemon(true);
+                return thread;
+            });
+            // decoded files waiting for or in inference
+            Semaphore buffered = new Semaphore(settings.buffer() + settings.workers());
+            AtomicInteger succeeded = new AtomicInteger();
+            AtomicInteger failed = new AtomicInteger();
+            AtomicLong audioMillis = new AtomicLong();
+
+            long start = System.nanoTime();
+            try {
+                List<CompletableFuture<Void>> futures = new ArrayList<>(pending.size());
+                for (Path file : pending) {
+                    buffered.acquire();
+                    CompletableFuture<Void> future = CompletableFuture
+                            .supplyAsync(() -> WhisperTask.loadAudio(file), loaders)
+                            .thenCompose(audio -> transcribe(whisper, settings, audio, file, manifest, audioMillis, loaders))
+                            .handle((record, error) -> {
+                                buffered.release();
+                                BatchRecord written = record != null ? record : failure(file, error);
+                                if (written.error() == null) {
+                                    succeeded.incrementAndGet();
+                                } else {
+                                    failed.incrementAndGet();
+                                    if (record == null) {
+                                        write(manifest, written);
+                                    }
+                                }
+                                return null;
+                            });
+                    futures.add(future);
+                }
+                CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+            } finally {
+                loaders.shutdownNow();
+            }
+            long wallMs = (System.nanoTime() - start) / 1_000_000;
+
+            return new Summary(succeeded.get(), failed.get(), skipped, audioMillis.get() / 1000.0, wallMs);
+        }
+    }
+
+    /**
+     * Transcribe a decoded file on the async workers of the instance and write its result.
+     * @param whisper the instance.
+     * @param settings the settings of the run.
+     * @param audio the decoded audio.
+     * @param file the audio file.
+     * @param manifest the result file and manifest to write to.
+     * @param audioMillis total duration of the transcribed audio, updated on success.
+     * @param submitter executor submitting the windows after the first, so a worker never waits for queue capacity.
+     * @return a future completed with the written record.
+     */
+    private static CompletableFuture<BatchRecord> transcribe(Whisper3 whisper, Settings settings, Audio audio, Path file,
+                                                             BatchManifest manifest, AtomicLong audioMillis,
+                                                             Executor submitter) {
+        double audioSeconds = (double) audio.getData().length / audio.getSampleRate();
+        int windowSamples = Math.round(WINDOW_SECONDS * audio.getSampleRate());
+
+        long start = System.nanoTime();
+        return transcribeWindows(whisper, settings, audio, windowSamples, 0, null, new ArrayList<>(), submitter)
+                .thenApply(results -> {
+                    long processMs = (System.nanoTime() - start) / 1_000_000;
+                    audioMillis.addAndGet(Math.round(audioSeconds * 1000));
+                    BatchRecord record = success(file, results, audioSeconds, processMs);
+                    write(manifest, record);
+                    return record;
+                });
+    }
+
+    /**
+     * Decode the windows of the audio one after another, starting at the given sample.
+     * @param whisper the instance.
+     * @param settings the settings of the run.
+     * @param audio the decoded audio.
+     * @param windowSamples samples of a window.
+     * @param position the first sample of the window to decode.
+     * @param previous the result of the previous window, or {@code null}.
+     * @param results the results of the decoded windows, the results of the following windows are added.
+     * @param submitter executor submitting the following windows.
+     * @return a future completed with the results of all windows.
+     */
+    private static CompletableFuture<List<WhisperResult>> transcribeWindows(Whisper3 whisper, Settings settings,
+                                                                            Audio audio, int windowSamples, int position,
+                                                                            WhisperResult previous,
+                                                                            List<WhisperResult> results,
+                                                                            Executor submitter) {
+        float[] samples = audio.getData();
+        int end = Math.min(samples.length, position + windowSamples);
+        Audio window = new Audio(Arrays.copyOfRange(samples, position, end), audio.getSampleRate(), audio.getChannels());
+        WhisperTask task = whisper.task().language(settings.language());
+        task = settings.translate() ? task.translate(window) : task.transcribe(window);
+        if (settings.timestamps()) {
+            task.withTimestamps();
+        }
+        if (previous != null) {
+            task.prompt(previous);
+        }
+
+        return task.executeAsync().thenComposeAsync(result -> {
+            results.add(result);
+            if (end == samples.length) {
+                return CompletableFuture.completedFuture(results);
+            }
+            return transcribeWindows(whisper, settings, audio, windowSamples, end, result, results, submitter);
+        }, submitter);
+    }
+
+    private static BatchRecord success(Path file, List<WhisperResult> results, double audioSeconds, long processMs) {
+        StringBuilder text = new StringBuilder();
+        StringBuilder rawText = new StringBuilder();
+        for (WhisperResult result : results) {
+            if (!result.text().isBlank()) {
+                text.append(text.isEmpty() ? "" : " ").append(result.text().strip());
+            }
+            rawText.append(result.rawText());
+        }
+        WhisperResult last = results.get(results.size() - 1);
+        return new BatchRecord(BatchManifest.key(file), text.toString(), rawText.toString(), last.stopReason().name(),
+                audioSeconds, processMs, null);
+    }
+
+    private static BatchRecord failure(Path file, Throwable error) {
+        Throwable cause = error;
+        while (cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        String message = cause.getMessage() != null ? cause.getMessage() : cause.getClass().getName();
+        return new BatchRecord(BatchManifest.key(file), null, null, null, 0, 0, message);
+    }
+
+    private static void write(BatchManifest manifest, BatchRecord record) {
+        try {
+            manifest.write(record);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not write the result of " + record.file(), e);
+        }
+    }
+
+    /**
+     * List the audio files of the input: all regular files of a directory, sorted, or the lines of a file list.
+     * @param input the audio directory or file list.
+     * @return the audio files.
+     * @throws IOException if the input cannot be read.
+     */
+    static List<Path> listFiles(Path input) throws IOException {
+        if (Files.isDirectory(input)) {
+            try (Stream<Path> files = Files.list(input)) {
+                return files.filter(Files::isRegularFile).sorted().toList();
+            }
+        }
+        try (Stream<String> lines = Files.lines(input, StandardCharsets.UTF_8)) {
+            return lines.map(String::strip)
+                    .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                    .map(Path::of)
+                    .toList();
+        }
+    }
+
+    private static Whisper3Language language(String code) {
+        for (Whisper3Language language : Whisper3Language.values()) {
+            if (language != Whisper3Language.AUTO && code.equalsIgnoreCase(language.getIsoCode())) {
+                return language;
+            }
+        }
+        throw new IllegalArgumentException("Unknown language " + code);
+    }
+
+    private static String value(String[] args, int index) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value of option " + args[index - 1]);
+        }
+        return args[index];
+    }
+}
@@ -0,0 +1,252 @@
+package divisio.whisper.bench;
+
+import ai.djl.modality.audio.Audio;
+import divisio.whisper.Whisper3;
+import divisio.whisper.Whisper3Engine;
+import divisio.whisper.Whisper3Options;
+import divisio.whisper.Whisper3Quantization;
+import divisio.whisper.WhisperResult;
+import divisio.whisper.WhisperTask;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+/**
+ * Command line tool to compare two {@link Whisper3} configurations on a set of reference clips,
+ * e.g. the FP16 model on GPU against the int8 quantized model on CPU, or the same model on two engines.
+ *
+ * <p>For each configuration it reports the model load time, the resident memory added by loading the model,
+ * the throughput and real-time factor. The accuracy of the candidate is reported as word error rate against
+ * the transcripts of the reference configuration, and against ground truth transcripts if a {@code .txt}
+ * file with the same name exists next to a clip.
+ *
+ * <p>Usage: {@code Whisper3Comparison <clip directory> [reference mode] [candidate mode] [model directory]},
+ * where the modes are {@link Whisper3Quantization} names, optionally followed by {@code @} and a {@link Whisper3Engine}
+ * name, e.g. {@code INT8_DYNAMIC@ONNX_RUNTIME}. Defaults are {@code NONE} and {@code INT8_DYNAMIC} on PyTorch,
+ * and the bundled model resources if no model directory is given.
+ *
+ * <p>To check the parity of two engines, compare {@code FP32 FP32@ONNX_RUNTIME}; the word error rate between them
+ * should be zero. Both engines quantize int8 with different schemes, so {@code INT8_DYNAMIC} on both also measures
+ * the drift between these schemes. {@code Whisper3EngineParityTest} compares the encoder output and the logits.
+ */
+public class Whisper3Comparison {
+
+    private static final int SAMPLE_RATE = 16000;
+
+    /**
+     * Result of running all clips with one configuration.
+     * @param name        Name of the configuration.
+     * @param loadMs      Time in milliseconds to create the {@link Whisper3} instance.
+     * @param memoryBytes Resident memory added by creating the instance, or -1 if unknown.
+     * @param audioMs     Total duration of the processed audio in milliseconds.
+     * @param processMs   Total processing time in milliseconds.
+     * @param texts       The transcripts, in the order of the clips.
+     */
+    record Run(String name, long loadMs, long memoryBytes, long audioMs, long processMs, List<String> texts) {
+
+        double realTimeFactor() {
+            return audioMs == 0 ? 0 : (double) processMs / audioMs;
+        }
+
+        double filesPerHour() {
+            return processMs == 0 ? 0 : texts.size() * 3_600_000.0 / processMs;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: Whisper3Comparison <clip directory> [reference mode] [candidate mode] [model directory]");
+            System.exit(1);
+        }
+
+        List<Path> clips = listClips(Path.of(args[0]));
+        String reference = args.length > 1 ? args[1] : Whisper3Quantization.NONE.name();
+        String candidate = args.length > 2 ? args[2] : Whisper3Quantization.INT8_DYNAMIC.name();
+        Path modelPath = args.length > 3 ? Path.of(args[3]) : null;
+
+        Run referenceRun = run(reference, options(reference).modelPath(modelPath), clips);
+        Run candidateRun = run(candidate, options(candidate).modelPath(modelPath), clips);
+
+        report(clips, referenceRun, candidateRun);
+    }
+
+    /**
+     * Create the options of a mode given as {@code QUANTIZATION[@ENGINE]}.
+     * @param mode the mode, e.g. {@code INT8_DYNAMIC@ONNX_RUNTIME}.
+     * @return the options of the mode.
+     */
+    static Whisper3Options options(String mode) {
+        String[] parts = mode.split("@", 2);
+        Whisper3Options options = Whisper3Options.options().quantization(Whisper3Quantization.valueOf(parts[0]));
+        if (parts.length > 1) {
+            options.engine(Whisper3Engine.valueOf(parts[1]));
+        }
+        return options;
+    }
+
+    /**
+     * List all audio clips in the given directory, ignoring transcript files.
+     * @param directory the clip directory.
+     * @return the sorted list of clips.
+     * @throws IOException if the directory cannot be read.
+     */
+    static List<Path> listClips(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(Files::isRegularFile)
+                    .filter(file -> !file.getFileName().toString().endsWith(".txt"))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    /**
+     * Create a {@link Whisper3} instance with the given options and transcribe all clips.
+     * @param name name of the configuration.
+     * @param options the options to create the instance with.
+     * @param clips the clips to transcribe.
+     * @return the measurements of this run.
+     * @throws Exception if the instance cannot be created or closed.
+     */
+    static Run run(String name, Whisper3Options options, List<Path> clips) throws Exception {
+        long rssBefore = residentMemoryBytes();
+        long loadStart = System.nanoTime();
+
+        try (Whisper3 whisper = Whisper3.instance(options)) {
+            long loadMs = (System.nanoTime() - loadStart) / 1_000_000;
+            long rssAfter = residentMemoryBytes();
+            long memoryBytes = rssBefore < 0 || rssAfter < 0 ? -1 : rssAfter - rssBefore;
+
+            // warm up, the first decoder passes are considerably slower
+            if (!clips.isEmpty()) {
+                whisper.task().transcribe(WhisperTask.loadAudio(clips.get(0))).execute();
+            }
+
+            long audioMs = 0;
+            long processMs = 0;
+            List<String> texts = new ArrayList<>();
+            for (Path clip : clips) {
+                Audio audio = WhisperTask.loadAudio(clip);
+                audioMs += audio.getData().length * 1000L / SAMPLE_RATE;
+
+                long start = System.nanoTime();
+                WhisperResult result = whisper.task().transcribe(audio).execute();
+                processMs += (System.nanoTime() - start) / 1_000_000;
+                texts.add(result.text());
+            }
+
+            return new Run(name, loadMs, memoryBytes, audioMs, processMs, texts);
+        }
+    }
+
+    /**
+     * Print the measurements and word error rates of both runs.
+     * @param clips the transcribed clips.
+     * @param reference the run of the reference configuration.
+     * @param candidate the run of the candidate configuration.
+     * @throws IOException if a ground truth transcript cannot be read.
+     */
+    static void report(List<Path> clips, Run reference, Run candidate) throws IOException {
+        System.out.printf(Locale.ROOT, "%-16s %10s %12s %10s %12s%n", "mode", "load [ms]", "memory [MB]", "RTF", "files/hour");
+        for (Run run : List.of(reference, candidate)) {
+            System.out.printf(Locale.ROOT, "%-16s %10d %12s %10.3f %12.1f%n",
+                    run.name(), run.loadMs(),
+                    run.memoryBytes() < 0 ? "n/a" : String.valueOf(run.memoryBytes() / (1024 * 1024)),
+                    run.realTimeFactor(), run.filesPerHour());
+        }
+
+        long referenceErrors = 0;
+        long referenceWords = 0;
+        long truthErrors = 0;
+        long truthWords = 0;
+        for (int i = 0; i < clips.size(); i++) {
+            String[] referenceText = words(reference.texts().get(i));
+            String[] candidateText = words(candidate.texts().get(i));
+            referenceErrors += editDistance(referenceText, candidateText);
+            referenceWords += referenceText.length;
+
+            Path truthFile = groundTruthFile(clips.get(i));
+            if (Files.exists(truthFile)) {
+                String[] truth = words(Files.readString(truthFile));
+                truthErrors += editDistance(truth, candidateText);
+                truthWords += truth.length;
+            }
+        }
+
+        System.out.printf(Locale.ROOT, "WER %s vs %s: %.2f%% over %d clips%n",
+                candidate.name(), reference.name(), percentage(referenceErrors, referenceWords), clips.size());
+        if (truthWords > 0) {
+            System.out.printf(Locale.ROOT, "WER %s vs ground truth: %.2f%%%n",
+                    candidate.name(), percentage(truthErrors, truthWords));
+        }
+    }
+
+    private static Path groundTruthFile(Path clip) {
+        String name = clip.getFileName().toString();
+        int extension = name.lastIndexOf('.');
+        return clip.resolveSibling((extension < 0 ? name : name.substring(0, extension)) + ".txt");
+    }
+
+    private static double percentage(long errors, long words) {
+        return words == 0 ? 0 : 100.0 * errors / words;
+    }
+
+    /**
+     * Normalize a transcript into lower case words without punctuation.
+     * @param text the transcript.
+     * @return the words of the transcript.
+     */
+    static String[] words(String text) {
+        String normalized = text.toLowerCase(Locale.ROOT).replaceAll("[^\\p{L}\\p{N}\\s']", " ").trim();
+        return normalized.isEmpty() ? new String[0] : normalized.split("\\s+");
+    }
+
+    /**
+     * Levenshtein distance between two word sequences.
+     * @param reference the reference words.
+     * @param hypothesis the hypothesis words.
+     * @return the number of substitutions, insertions and deletions.
+     */
+    static int editDistance(String[] reference, String[] hypothesis) {
+        int[] previous = new int[hypothesis.length + 1];
+        int[] current = new int[hypothesis.length + 1];
+        for (int j = 0; j <= hypothesis.length; j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= reference.length; i++) {
+            current[0] = i;
+            for (int j = 1; j <= hypothesis.length; j++) {
+                int substitution = previous[j - 1] + (reference[i - 1].equals(hypothesis[j - 1]) ? 0 : 1);
+                current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[hypothesis.length];
+    }
+
+    /**
+     * Read the resident set size of this process, only available on Linux.
+     * @return the resident memory in bytes, or -1 if unknown.
+     */
+    static long residentMemoryBytes() {
+        Path status = Path.of("/proc/self/status");
+        if (!Files.exists(status)) {
+            return -1;
+        }
+        try (Stream<String> lines = Files.lines(status)) {
+            return lines.filter(line -> line.startsWith("VmRSS:"))
+                    .map(line -> line.replaceAll("[^0-9]", ""))
+                    .mapToLong(kb -> Long.parseLong(kb) * 1024)
+                    .findFirst()
+                    .orElse(-1);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+}
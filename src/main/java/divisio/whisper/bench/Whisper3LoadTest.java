@@ -0,0 +1,246 @@
+package divisio.whisper.bench;
+
+import ai.djl.modality.audio.Audio;
+import divisio.whisper.Whisper3;
+import divisio.whisper.Whisper3Options;
+import divisio.whisper.Whisper3Quantization;
+import divisio.whisper.WhisperResult;
+import divisio.whisper.WhisperTask;
+import divisio.whisper.token.Whisper3Language;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Command line tool to load test a {@link Whisper3} instance with an open-loop arrival process.
+ *
+ * <p>Requests arrive at exponentially distributed intervals with the given mean rate, independent of how fast
+ * earlier requests complete, and are submitted via {@link WhisperTask#executeAsync()}. Latencies are measured from
+ * the scheduled arrival time, so a generator falling behind does not hide queueing delays. The report contains the
+ * throughput, the number of rejected and failed requests and the latency percentiles of the completed requests.
+ *
+ * <p>Together with the tiny stand-in models of {@code scripts/make_tiny_models.py}, this runs on a plain CPU box
+ * within seconds, e.g. to measure a scheduling, batching or memory change:
+ * {@code Whisper3LoadTest --model ./tiny --rate 50 --duration 30 --workers 4}.
+ * The stand-in models produce random tokens, so the decode length is set by {@code --max-tokens}.
+ *
+ * <p>Usage: {@code Whisper3LoadTest [--model directory] [--quantization mode] [--workers n] [--queue n] [--rate r]
+ * [--duration seconds] [--warm-up n] [--audio file | --seconds s] [--max-tokens n] [--seed n]}.
+ * Defaults are the bundled model, {@code INT8_DYNAMIC}, 1 worker, a queue of 64, 10 requests per second for
+ * 30 seconds, 4 warm-up requests, 10 seconds of noise and 32 tokens.
+ */
+public class Whisper3LoadTest {
+
+    private static final int SAMPLE_RATE = 16000;
+
+    /**
+     * Parameters of a load test.
+     * @param rate       Mean number of arrivals per second.
+     * @param durationMs Duration of the arrival process in milliseconds.
+     * @param warmUp     Number of requests executed one after another before the measurement.
+     * @param maxTokens  Token budget of each request.
+     * @param seed       Seed of the arrival process.
+     */
+    record Load(double rate, long durationMs, int warmUp, int maxTokens, long seed) {
+    }
+
+    /**
+     * Measurements of a load test.
+     * @param submitted   Number of submitted requests.
+     * @param rejected    Number of requests rejected by the executor, e.g. because its queue was full.
+     * @param failed      Number of requests that failed otherwise.
+     * @param latencies   Latencies of the completed requests in nanoseconds, sorted.
+     * @param elapsedNs   Time from the first arrival to the last completion in nanoseconds.
+     * @param maxLagNs    Largest delay of a submission behind its scheduled arrival time in nanoseconds.
+     */
+    record Report(int submitted, int rejected, int failed, long[] latencies, long elapsedNs, long maxLagNs) {
+
+        double throughput() {
+            return elapsedNs == 0 ? 0 : latencies.length * 1e9 / elapsedNs;
+        }
+
+        /**
+         * Latency percentile with the nearest-rank method.
+         * @param percentile the percentile, e.g. 99.
+         * @return the latency in milliseconds, 0 if no request completed.
+         */
+        double percentileMs(double percentile) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(percentile / 100 * latencies.length);
+            return latencies[Math.max(rank, 1) - 1] / 1e6;
+        }
+
+        double meanMs() {
+            return latencies.length == 0 ? 0 : Arrays.stream(latencies).average().orElse(0) / 1e6;
+        }
+    }
+
+    /**
+     * A submitted request.
+     * @param scheduledNs Scheduled arrival time in nanoseconds.
+     * @param completedNs Completed with the completion time in nanoseconds, or exceptionally with the failure.
+     */
+    private record Arrival(long scheduledNs, CompletableFuture<Long> completedNs) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Whisper3Options options = Whisper3Options.options().quantization(Whisper3Quantization.INT8_DYNAMIC);
+        double rate = 10;
+        long durationMs = 30_000;
+        int warmUp = 4;
+        int maxTokens = 32;
+        long seed = 0;
+        Path audioFile = null;
+        double seconds = 10;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--model" -> options.modelPath(Path.of(value(args, ++i)));
+                    case "--quantization" -> options.quantization(Whisper3Quantization.valueOf(value(args, ++i)));
+                    case "--workers" -> options.asyncWorkers(Integer.parseInt(value(args, ++i)));
+                    case "--queue" -> options.asyncQueueCapacity(Integer.parseInt(value(args, ++i)));
+                    case "--rate" -> rate = Double.parseDouble(value(args, ++i));
+                    case "--duration" -> durationMs = (long) (Double.parseDouble(value(args, ++i)) * 1000);
+                    case "--warm-up" -> warmUp = Integer.parseInt(value(args, ++i));
+                    case "--audio" -> audioFile = Path.of(value(args, ++i));
+                    case "--seconds" -> seconds = Double.parseDouble(value(args, ++i));
+                    case "--max-tokens" -> maxTokens = Integer.parseInt(value(args, ++i));
+                    case "--seed" -> seed = Long.parseLong(value(args, ++i));
+                    default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: Whisper3LoadTest [--model directory] [--quantization mode] [--workers n] "
+                    + "[--queue n] [--rate r] [--duration seconds] [--warm-up n] [--audio file | --seconds s] "
+                    + "[--max-tokens n] [--seed n]");
+            System.exit(1);
+            return;
+        }
+
+        Audio audio = audioFile != null ? WhisperTask.loadAudio(audioFile) : noise(seconds, seed);
+        Load load = new Load(rate, durationMs, warmUp, maxTokens, seed);
+        try (Whisper3 whisper = Whisper3.instance(options)) {
+            Report report = run(whisper, audio, load);
+            print(load, report);
+        }
+    }
+
+    private static String value(String[] args, int index) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value of option " + args[index - 1]);
+        }
+        return args[index];
+    }
+
+    /**
+     * Create quiet white noise, the content does not matter for the stand-in models.
+     * @param seconds the duration in seconds.
+     * @param seed the seed of the noise.
+     * @return the audio.
+     */
+    static Audio noise(double seconds, long seed) {
+        Random random = new Random(seed);
+        float[] samples = new float[(int) (seconds * SAMPLE_RATE)];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (float) (random.nextGaussian() * 0.01);
+        }
+        return new Audio(samples, SAMPLE_RATE, 1);
+    }
+
+    /**
+     * Warm up the instance and run the open-loop arrival process until all submitted requests are done.
+     * @param whisper the instance under test.
+     * @param audio the audio of every request.
+     * @param load the parameters of the load test.
+     * @return the measurements.
+     */
+    static Report run(Whisper3 whisper, Audio audio, Load load) {
+        // warm up, the first decoder passes are considerably slower
+        for (int i = 0; i < load.warmUp(); i++) {
+            task(whisper, audio, load).execute();
+        }
+
+        Random random = new Random(load.seed());
+        List<Arrival> arrivals = new ArrayList<>();
+        long start = System.nanoTime();
+        long end = start + TimeUnit.MILLISECONDS.toNanos(load.durationMs());
+        long scheduled = start;
+        long maxLag = 0;
+        while (true) {
+            // exponentially distributed interval, i.e. Poisson arrivals
+            scheduled += (long) (-Math.log(1 - random.nextDouble()) / load.rate() * 1e9);
+            if (scheduled >= end) {
+                break;
+            }
+            long now;
+            while ((now = System.nanoTime()) < scheduled) {
+                LockSupport.parkNanos(scheduled - now);
+            }
+            maxLag = Math.max(maxLag, now - scheduled);
+
+            CompletableFuture<WhisperResult> future = task(whisper, audio, load).executeAsync();
+            arrivals.add(new Arrival(scheduled, future.thenApply(result -> System.nanoTime())));
+        }
+
+        int rejected = 0;
+        int failed = 0;
+        long lastCompletion = start;
+        long[] latencies = new long[arrivals.size()];
+        int completed = 0;
+        for (Arrival arrival : arrivals) {
+            try {
+                long completedNs = arrival.completedNs().join();
+                latencies[completed++] = completedNs - arrival.scheduledNs();
+                lastCompletion = Math.max(lastCompletion, completedNs);
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RejectedExecutionException) {
+                    rejected++;
+                } else {
+                    failed++;
+                }
+            } catch (CancellationException e) {
+                failed++;
+            }
+        }
+        latencies = Arrays.copyOf(latencies, completed);
+        Arrays.sort(latencies);
+        return new Report(arrivals.size(), rejected, failed, latencies, lastCompletion - start, maxLag);
+    }
+
+    private static WhisperTask task(Whisper3 whisper, Audio audio, Load load) {
+        return whisper.task()
+                .language(Whisper3Language.ENGLISH)
+                .maxTokens(load.maxTokens())
+                .transcribe(audio);
+    }
+
+    /**
+     * Print the measurements of a load test.
+     * @param load the parameters of the load test.
+     * @param report the measurements.
+     */
+    static void print(Load load, Report report) {
+        System.out.printf(Locale.ROOT, "offered %.1f req/s for %.1f s: %d submitted, %d completed, %d rejected, %d failed%n",
+                load.rate(), load.durationMs() / 1000.0, report.submitted(), report.latencies().length,
+                report.rejected(), report.failed());
+        System.out.printf(Locale.ROOT, "throughput %.2f req/s, max generator lag %.1f ms%n",
+                report.throughput(), report.maxLagNs() / 1e6);
+        System.out.printf(Locale.ROOT, "%10s %10s %10s %10s %10s%n", "mean [ms]", "p50 [ms]", "p95 [ms]", "p99 [ms]", "max [ms]");
+        System.out.printf(Locale.ROOT, "%10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                report.meanMs(), report.percentileMs(50), report.percentileMs(95), report.percentileMs(99),
+                report.percentileMs(100));
+    }
+}
@@ -0,0 +1,187 @@
+package divisio.whisper.bench;
+
+import ai.djl.Device;
+import ai.djl.Model;
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDList;
+import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.types.DataType;
+import ai.djl.ndarray.types.Shape;
+import ai.djl.pytorch.jni.JniUtils;
+import ai.djl.training.ParameterStore;
+import divisio.whisper.Whisper3Engine;
+import divisio.whisper.Whisper3ModelConfig;
+import divisio.whisper.Whisper3Quantization;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Command line tool to measure the gains of the graph loading options per stage, i.e. an encoder pass and a single
+ * decoder step, see {@link divisio.whisper.Whisper3Options#optimizedGraphs(boolean)} and
+ * {@link divisio.whisper.Whisper3Options#graphExecutorOptimize(boolean)}.
+ *
+ * <p>The model files are loaded and run directly, without the decoding loop, for the traced and, if present, the
+ * optimized model files, each with and without runtime optimization of the graph executor. For each configuration
+ * it reports the first pass, which includes the profiling runs of the graph executor, and the median and mean of the
+ * following passes. The decoder step feeds a single token on top of a self-attention cache of the given length.
+ *
+ * <p>Usage: {@code Whisper3StageBenchmark <model directory> [quantization mode] [runs] [cache tokens]}.
+ * Defaults are {@code NONE}, 20 runs and 64 cached tokens.
+ */
+public class Whisper3StageBenchmark {
+
+    /**
+     * Timings of one stage.
+     * @param firstMs  Duration of the first pass in milliseconds.
+     * @param medianMs Median duration of the following passes in milliseconds.
+     * @param meanMs   Mean duration of the following passes in milliseconds.
+     */
+    record Timing(double firstMs, double medianMs, double meanMs) {
+
+        static Timing of(long[] nanos) {
+            long[] steady = Arrays.copyOfRange(nanos, 1, nanos.length);
+            Arrays.sort(steady);
+            double median = steady.length == 0 ? 0 : steady[steady.length / 2] / 1e6;
+            double mean = Arrays.stream(steady).average().orElse(0) / 1e6;
+            return new Timing(nanos[0] / 1e6, median, mean);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: Whisper3StageBenchmark <model directory> [quantization mode] [runs] [cache tokens]");
+            System.exit(1);
+        }
+        Path modelPath = Path.of(args[0]);
+        Whisper3Quantization quantization = args.length > 1
+                ? Whisper3Quantization.valueOf(args[1]) : Whisper3Quantization.NONE;
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int cacheTokens = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+
+        Whisper3ModelConfig config = Files.exists(modelPath.resolve(Whisper3ModelConfig.CONFIG_FILE))
+                ? Whisper3ModelConfig.load(modelPath.resolve(Whisper3ModelConfig.CONFIG_FILE))
+                : Whisper3ModelConfig.largeV3();
+        Device device = quantization == Whisper3Quantization.NONE ? Device.gpu() : Device.cpu();
+
+        System.out.printf(Locale.ROOT, "%s, %s on %s, %d runs, %d cached tokens%n",
+                config, quantization, device, runs, cacheTokens);
+        System.out.printf(Locale.ROOT, "%-10s %-8s %12s %12s %12s %12s %12s %12s%n", "graphs", "runtime",
+                "enc 1st", "enc p50", "enc mean", "dec 1st", "dec p50", "dec mean");
+
+        List<String> graphs = new ArrayList<>(List.of(""));
+        if (Files.exists(modelPath.resolve(file(config, quantization, "encoder.pt", "_opt")))) {
+            graphs.add("_opt");
+        } else {
+            System.out.println("No optimized model files, create them with scripts/optimize_whisper.py.");
+        }
+        for (String graph : graphs) {
+            for (boolean runtimeOptimize : new boolean[] {true, false}) {
+                Timing[] timings = run(modelPath, config, quantization, device, graph, runtimeOptimize, runs, cacheTokens);
+                System.out.printf(Locale.ROOT, "%-10s %-8s %12.1f %12.1f %12.1f %12.2f %12.2f %12.2f%n",
+                        graph.isEmpty() ? "traced" : "optimized", runtimeOptimize ? "on" : "off",
+                        timings[0].firstMs(), timings[0].medianMs(), timings[0].meanMs(),
+                        timings[1].firstMs(), timings[1].medianMs(), timings[1].meanMs());
+            }
+        }
+    }
+
+    /**
+     * Name of a model file.
+     * @param config the descriptor of the checkpoint.
+     * @param quantization the quantization mode.
+     * @param resource the model file without prefix, e.g. {@code encoder.pt}.
+     * @param graph the suffix of the graph format, {@code _opt} for the optimized model files.
+     * @return the file name.
+     */
+    static String file(Whisper3ModelConfig config, Whisper3Quantization quantization, String resource, String graph) {
+        String artifact = quantization.artifact(config.getFilePrefix() + resource);
+        int extension = artifact.lastIndexOf('.');
+        return artifact.substring(0, extension) + graph + artifact.substring(extension);
+    }
+
+    /**
+     * Load the model files of one configuration and time the encoder and a decoder step.
+     * @param modelPath the model directory.
+     * @param config the descriptor of the checkpoint.
+     * @param quantization the quantization mode.
+     * @param device the device to run on.
+     * @param graph the suffix of the graph format, {@code _opt} for the optimized model files.
+     * @param runtimeOptimize whether the graph executor optimizes the graphs at runtime.
+     * @param runs the number of passes after the first one.
+     * @param cacheTokens the length of the self-attention cache of the decoder step.
+     * @return the timings of the encoder and of the decoder step.
+     * @throws Exception if the model files cannot be loaded.
+     */
+    static Timing[] run(Path modelPath, Whisper3ModelConfig config, Whisper3Quantization quantization, Device device,
+                        String graph, boolean runtimeOptimize, int runs, int cacheTokens) throws Exception {
+        // thread local setting, all passes run on this thread
+        JniUtils.setGraphExecutorOptimize(runtimeOptimize);
+        DataType dataType = quantization.getDataType();
+
+        try (Model encoder = load(modelPath, device, file(config, quantization, "encoder.pt", graph));
+             Model initializer = load(modelPath, device,
+                     file(config, quantization, "decoder_cross_attention_initializer.pt", graph));
+             Model decoder = load(modelPath, device, file(config, quantization, "decoder.pt", graph));
+             NDManager manager = NDManager.newBaseManager(device, Whisper3Engine.PYTORCH.getEngineName())) {
+
+            NDArray features = manager.zeros(new Shape(1, config.getMelBins(), 3000), dataType);
+            long[] encoderNanos = new long[runs + 1];
+            NDArray encoderOutput = null;
+            for (int i = 0; i <= runs; i++) {
+                try (NDManager pass = manager.newSubManager()) {
+                    long start = System.nanoTime();
+                    NDArray output = forward(encoder, new NDList(features), pass).singletonOrThrow();
+                    // copy to the host, so the pass has finished on any device
+                    output.get("0,0,0").toType(DataType.FLOAT32, false).toFloatArray();
+                    encoderNanos[i] = System.nanoTime() - start;
+                    if (encoderOutput == null) {
+                        encoderOutput = output;
+                        encoderOutput.attach(manager);
+                    }
+                }
+            }
+
+            NDList crossCache = forward(initializer, new NDList(encoderOutput), manager);
+            NDList cache = new NDList();
+            Shape selfShape = new Shape(1, config.getAttentionHeads(), cacheTokens, config.getHeadDim());
+            for (int layer = 0; layer < config.getDecoderLayers(); layer++) {
+                cache.add(manager.zeros(selfShape, dataType));
+                cache.add(manager.zeros(selfShape, dataType));
+                cache.add(crossCache.get(layer * 2));
+                cache.add(crossCache.get(layer * 2 + 1));
+            }
+            NDArray token = manager.create(new long[][] {{440}});
+            long[] decoderNanos = new long[runs + 1];
+            for (int i = 0; i <= runs; i++) {
+                try (NDManager pass = manager.newSubManager()) {
+                    long start = System.nanoTime();
+                    NDArray logits = forward(decoder, new NDList(token, encoderOutput).addAll(cache), pass).get(0);
+                    logits.get("0,0,0").toType(DataType.FLOAT32, false).toFloatArray();
+                    decoderNanos[i] = System.nanoTime() - start;
+                }
+            }
+
+            return new Timing[] {Timing.of(encoderNanos), Timing.of(decoderNanos)};
+        } finally {
+            JniUtils.setGraphExecutorOptimize(true);
+        }
+    }
+
+    private static Model load(Path modelPath, Device device, String name) throws Exception {
+        Model model = Model.newInstance(name, device, Whisper3Engine.PYTORCH.getEngineName());
+        model.load(modelPath, null, Map.of("mapLocation", "true"));
+        return model;
+    }
+
+    private static NDList forward(Model model, NDList inputs, NDManager manager) {
+        NDList result = model.getBlock().forward(new ParameterStore(manager, false), inputs, false);
+        result.attach(manager);
+        return result;
+    }
+}
@@ -0,0 +1,663 @@
+package divisio.whisper.server;
+
+import ai.djl.modality.audio.Audio;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import divisio.whisper.Whisper3;
+import divisio.whisper.Whisper3Options;
+import divisio.whisper.Whisper3Quantization;
+import divisio.whisper.WhisperPriority;
+import divisio.whisper.WhisperResult;
+import divisio.whisper.WhisperSegment;
+import divisio.whisper.WhisperStopReason;
+import divisio.whisper.WhisperTask;
+import divisio.whisper.WhisperTokenListener;
+import divisio.whisper.token.Whisper3Language;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Embedded HTTP transcription server around a shared {@link Whisper3} instance, built on the JDK HTTP server
+ * with one virtual thread per exchange.
+ *
+ * <p>Endpoints:
+ * <ul>
+ *     <li>{@code POST /v1/transcribe}: transcribes the request body, either an audio file in any format FFmpeg can
+ *     decode, or with {@code format=pcm} raw 16 kHz mono 16-bit little-endian PCM, which may be sent chunked.
+ *     Query parameters: {@code language} (ISO code, default automatic), {@code task} ({@code transcribe} or
+ *     {@code translate}), {@code timestamps}, {@code priority} (a {@link WhisperPriority} name),
+ *     {@code timeoutMs} and {@code noSpeechThreshold}, which skips silent windows. Audio is decoded in 30 second windows, each prompted with the text of the previous one.
+ *     With {@code stream=true} or {@code Accept: text/event-stream}, the response is a stream of server-sent events:
+ *     a {@code token} event with the text of each token as soon as it is generated, a {@code window} event per
+ *     decoded window, as soon as it is decoded, and a final {@code done} event.
+ *     PCM bodies are decoded while they are still being uploaded. Once {@code timeoutMs} passed, no further window
+ *     is decoded and the response holds the windows decoded so far, with the stop reason
+ *     {@code DEADLINE_EXCEEDED}.</li>
+ *     <li>{@code GET /health}: liveness, always {@code 200} while the server runs.</li>
+ *     <li>{@code GET /ready}: readiness, {@code 200} after the warm-up, {@code 503} before.</li>
+ * </ul>
+ *
+ * <p>At most {@link WhisperServerOptions#maxConcurrentRequests(int)} requests are transcribed at the same time and
+ * at most {@link WhisperServerOptions#maxQueuedRequests(int)} wait for a slot; further requests are rejected with
+ * {@code 429} right away. Windows are scheduled by the executor of the instance, with its priorities, queue capacity
+ * and load shedding. A streaming request whose connection was closed stops after its current window.
+ *
+ * <p>Usage: {@code WhisperServer [--port n] [--workers n] [--concurrency n] [--queue n] [--model directory]
+ * [--quantization mode]}.
+ */
+public class WhisperServer implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(WhisperServer.class);
+
+    private static final Gson GSON = new Gson();
+
+    private static final int SAMPLE_RATE = 16000;
+
+    /**
+     * Samples of a 30 second window, the input length of the encoder.
+     */
+    private static final int WINDOW_SAMPLES = 30 * SAMPLE_RATE;
+
+    /**
+     * Readiness of the server.
+     */
+    private enum State { WARMING_UP, READY, FAILED }
+
+    private final Whisper3 whisper;
+    private final WhisperServerOptions options;
+    private final HttpServer server;
+    private final ExecutorService handlers;
+
+    /**
+     * Slots of requests being transcribed.
+     */
+    private final Semaphore slots;
+
+    /**
+     * Transcription requests being transcribed or waiting for a slot.
+     */
+    private final AtomicInteger admitted = new AtomicInteger();
+
+    private volatile State state = State.WARMING_UP;
+
+    /**
+     * Start a server with the given options.
+     * @param whisper the shared instance, not closed by the server.
+     * @param options the options of the server.
+     * @return the started server.
+     * @throws IOException if the server cannot bind to its address.
+     */
+    public static WhisperServer start(Whisper3 whisper, WhisperServerOptions options) throws IOException {
+        WhisperServer server = new WhisperServer(whisper, options);
+        server.server.start();
+        server.warmUp();
+        log.info("Whisper server listening on port {}.", server.getPort());
+        return server;
+    }
+
+    /**
+     * Private constructor. Use {@link #start(Whisper3, WhisperServerOptions)} to start a server.
+     * @param whisper the shared instance.
+     * @param options the options of the server.
+     * @throws IOException if the server cannot bind to its address.
+     */
+    private WhisperServer(Whisper3 whisper, WhisperServerOptions options) throws IOException {
+        this.whisper = whisper;
+        this.options = options;
+        this.slots = new Semaphore(options.getMaxConcurrentRequests(), true);
+        this.handlers = Executors.newVirtualThreadPerTaskExecutor();
+        this.server = HttpServer.create(new InetSocketAddress(options.getHost(), options.getPort()), 0);
+        this.server.setExecutor(handlers);
+        this.server.createContext("/health", exchange -> handle(exchange, this::health));
+        this.server.createContext("/ready", exchange -> handle(exchange, this::ready));
+        this.server.createContext("/v1/transcribe", exchange -> handle(exchange, this::transcribe));
+    }
+
+    public static void main(String[] args) throws Exception {
+        int workers = 1;
+        Whisper3Options whisperOptions = Whisper3Options.options();
+        WhisperServerOptions serverOptions = WhisperServerOptions.options();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--port" -> serverOptions.port(Integer.parseInt(value(args, ++i)));
+                    case "--workers" -> workers = Integer.parseInt(value(args, ++i));
+                    case "--concurrency" -> serverOptions.maxConcurrentRequests(Integer.parseInt(value(args, ++i)));
+                    case "--queue" -> serverOptions.maxQueuedRequests(Integer.parseInt(value(args, ++i)));
+                    case "--model" -> whisperOptions.modelPath(Path.of(value(args, ++i)));
+                    case "--quantization" -> whisperOptions.quantization(Whisper3Quantization.valueOf(value(args, ++i)));
+                    default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: WhisperServer [--port n] [--workers n] [--concurrency n] [--queue n] "
+                    + "[--model directory] [--quantization mode]");
+            System.exit(1);
+            return;
+        }
+
+        Whisper3 whisper = Whisper3.instance(whisperOptions.asyncWorkers(workers));
+        WhisperServer server = start(whisper, serverOptions);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            whisper.close();
+        }, "whisper-server-shutdown"));
+    }
+
+    /**
+     * Get the port the server listens on, e.g. if it was started on an ephemeral port.
+     * @return the port.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Check whether the server finished its warm-up and accepts transcription requests.
+     * @return true if ready.
+     */
+    public boolean isReady() {
+        return state == State.READY;
+    }
+
+    /**
+     * Get the number of transcription requests being transcribed or waiting for a slot.
+     * @return the number of admitted requests.
+     */
+    public int getAdmittedCount() {
+        return admitted.get();
+    }
+
+    /**
+     * Transcribe a second of silence in the background, then report readiness.
+     */
+    private void warmUp() {
+        if (!options.isWarmUp()) {
+            state = State.READY;
+            return;
+        }
+        Thread.ofVirtual().name("whisper-server-warm-up").start(() -> {
+            try {
+                long start = System.nanoTime();
+                whisper.task().language(Whisper3Language.ENGLISH)
+                        .transcribe(new Audio(new float[SAMPLE_RATE], SAMPLE_RATE, 1))
+                        .execute();
+                state = State.READY;
+                log.info("Whisper server warmed up in {} ms.", (System.nanoTime() - start) / 1_000_000);
+            } catch (RuntimeException e) {
+                state = State.FAILED;
+                log.error("Whisper server warm-up failed, the server will not report readiness.", e);
+            }
+        });
+    }
+
+    /**
+     * Handler of a single endpoint.
+     */
+    @FunctionalInterface
+    private interface Endpoint {
+        void handle(HttpExchange exchange) throws IOException;
+    }
+
+    private static void handle(HttpExchange exchange, Endpoint endpoint) {
+        try (exchange) {
+            endpoint.handle(exchange);
+        } catch (IOException e) {
+            log.debug("Connection closed while handling {}.", exchange.getRequestURI(), e);
+        } catch (RuntimeException e) {
+            log.error("Failed to handle {}.", exchange.getRequestURI(), e);
+        }
+    }
+
+    private void health(HttpExchange exchange) throws IOException {
+        JsonObject status = new JsonObject();
+        status.addProperty("status", "up");
+        sendJson(exchange, 200, status);
+    }
+
+    private void ready(HttpExchange exchange) throws IOException {
+        JsonObject status = new JsonObject();
+        status.addProperty("status", state.name().toLowerCase(Locale.ROOT));
+        status.addProperty("admitted", admitted.get());
+        sendJson(exchange, state == State.READY ? 200 : 503, status);
+    }
+
+    private void transcribe(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            sendError(exchange, 405, "Use POST.");
+            return;
+        }
+        if (state != State.READY) {
+            sendError(exchange, 503, "Not ready.");
+            return;
+        }
+        if (admitted.incrementAndGet() > options.getMaxConcurrentRequests() + options.getMaxQueuedRequests()) {
+            admitted.decrementAndGet();
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            sendError(exchange, 429, "Too many requests.");
+            return;
+        }
+
+        try {
+            Request request;
+            try {
+                request = Request.parse(exchange);
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, 400, e.getMessage());
+                return;
+            }
+
+            try {
+                slots.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                sendError(exchange, 503, "Interrupted.");
+                return;
+            }
+            try {
+                transcribe(exchange, request);
+            } finally {
+                slots.release();
+            }
+        } finally {
+            admitted.decrementAndGet();
+        }
+    }
+
+    /**
+     * Transcribe the body of an admitted request window by window.
+     * @param exchange the exchange.
+     * @param request the parsed request.
+     * @throws IOException if the connection failed.
+     */
+    private void transcribe(HttpExchange exchange, Request request) throws IOException {
+        Path upload = null;
+        try {
+            WindowSource source;
+            if (request.pcm()) {
+                source = new PcmWindows(exchange.getRequestBody());
+            } else {
+                upload = Files.createTempFile("whisper-upload-", ".audio");
+                copyLimited(exchange.getRequestBody(), upload, options.getMaxUploadBytes());
+                source = new AudioWindows(WhisperTask.loadAudio(upload).getData());
+            }
+
+            OutputStream events = null;
+            if (request.stream()) {
+                exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+                exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+                exchange.sendResponseHeaders(200, 0);
+                events = exchange.getResponseBody();
+            }
+
+            StringBuilder text = new StringBuilder();
+            JsonArray segments = new JsonArray();
+            WhisperResult previous = null;
+            String stopReason = null;
+            int index = 0;
+            try {
+                float[] window;
+                while ((window = source.next()) != null) {
+                    long offsetMs = (long) index * WINDOW_SAMPLES * 1000 / SAMPLE_RATE;
+                    WhisperResult result = decode(request, window, previous, tokenEvents(events, index));
+                    JsonObject event = windowJson(index, offsetMs, result);
+                    if (events != null) {
+                        sendEvent(events, "window", event);
+                    }
+                    if (!result.text().isBlank()) {
+                        text.append(text.isEmpty() ? "" : " ").append(result.text().strip());
+                    }
+                    segments.addAll(event.getAsJsonArray("segments"));
+                    stopReason = result.stopReason().name();
+                    previous = result;
+                    index++;
+                    if (result.stopReason() == WhisperStopReason.DEADLINE_EXCEEDED) {
+                        // the deadline applies to the whole request, no further window can be decoded in time
+                        break;
+                    }
+                }
+            } catch (RuntimeException e) {
+                if (events == null) {
+                    throw e;
+                }
+                JsonObject error = new JsonObject();
+                error.addProperty("error", message(e));
+                sendEvent(events, "error", error);
+                return;
+            }
+
+            JsonObject done = new JsonObject();
+            done.addProperty("text", text.toString());
+            done.addProperty("windows", index);
+            done.addProperty("stopReason", stopReason);
+            if (events != null) {
+                sendEvent(events, "done", done);
+            } else {
+                done.add("segments", segments);
+                sendJson(exchange, 200, done);
+            }
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, message(e));
+        } catch (RejectedExecutionException | CancellationException e) {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            sendError(exchange, 503, message(e));
+        } catch (RuntimeException e) {
+            log.error("Transcription of {} failed.", exchange.getRequestURI(), e);
+            sendError(exchange, 500, message(e));
+        } finally {
+            if (upload != null) {
+                Files.deleteIfExists(upload);
+            }
+        }
+    }
+
+    /**
+     * Decode a single window on the executor of the instance, prompted with the previous window.
+     * @param request the parsed request.
+     * @param window the samples of the window.
+     * @param previous the result of the previous window, or {@code null}.
+     * @param tokenListener listener for the tokens of the window, or {@code null}.
+     * @return the result of the window.
+     */
+    private WhisperResult decode(Request request, float[] window, WhisperResult previous,
+                                 WhisperTokenListener tokenListener) {
+        Audio audio = new Audio(window, SAMPLE_RATE, 1);
+        WhisperTask task = whisper.task().language(request.language()).priority(request.priority());
+        task = request.translate() ? task.translate(audio) : task.transcribe(audio);
+        if (request.timestamps()) {
+            task.withTimestamps();
+        }
+        if (request.deadline() != null) {
+            task.deadline(request.deadline());
+        }
+        task.noSpeechThreshold(request.noSpeechThreshold());
+        task.onToken(tokenListener);
+        if (previous != null) {
+            task.prompt(previous);
+        }
+
+        CompletableFuture<WhisperResult> future = task.executeAsync();
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            // the server is shutting down, cancel the window
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while transcribing.");
+        }
+    }
+
+    /**
+     * Listener sending a {@code token} event for each generated token with text, while the window is decoded.
+     * The handler thread waits for the window meanwhile, so the events do not interleave with other events.
+     * @param events the event stream, or {@code null} if the response is not streamed.
+     * @param index the index of the window.
+     * @return the listener, or {@code null} if the response is not streamed.
+     */
+    private static WhisperTokenListener tokenEvents(OutputStream events, int index) {
+        if (events == null) {
+            return null;
+        }
+        return event -> {
+            if (event.text().isEmpty()) {
+                return;
+            }
+            JsonObject json = new JsonObject();
+            json.addProperty("window", index);
+            json.addProperty("text", event.text());
+            try {
+                sendEvent(events, "token", json);
+            } catch (IOException e) {
+                // the client went away, stop decoding
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+
+    private static JsonObject windowJson(int index, long offsetMs, WhisperResult result) {
+        JsonObject json = new JsonObject();
+        json.addProperty("index", index);
+        json.addProperty("offsetMs", offsetMs);
+        json.addProperty("text", result.text().strip());
+        json.addProperty("stopReason", result.stopReason().name());
+        if (!Double.isNaN(result.noSpeechProbability())) {
+            json.addProperty("noSpeechProbability", result.noSpeechProbability());
+        }
+        JsonArray segments = new JsonArray();
+        for (WhisperSegment segment : result.segments()) {
+            JsonObject item = new JsonObject();
+            item.addProperty("startMs", offsetMs + segment.startMs());
+            item.addProperty("endMs", offsetMs + segment.endMs());
+            item.addProperty("text", segment.text());
+            segments.add(item);
+        }
+        json.add("segments", segments);
+        return json;
+    }
+
+    private static void sendEvent(OutputStream events, String name, JsonObject data) throws IOException {
+        events.write(("event: " + name + "\ndata: " + GSON.toJson(data) + "\n\n").getBytes(StandardCharsets.UTF_8));
+        events.flush();
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        JsonObject error = new JsonObject();
+        error.addProperty("error", message);
+        sendJson(exchange, status, error);
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, JsonObject json) throws IOException {
+        byte[] body = GSON.toJson(json).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    private static void copyLimited(InputStream in, Path target, long maxBytes) throws IOException {
+        long copied = 0;
+        byte[] buffer = new byte[64 * 1024];
+        try (OutputStream out = Files.newOutputStream(target)) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                copied += read;
+                if (copied > maxBytes) {
+                    throw new IllegalArgumentException("Upload exceeds " + maxBytes + " bytes.");
+                }
+                out.write(buffer, 0, read);
+            }
+        }
+        if (copied == 0) {
+            throw new IllegalArgumentException("Empty upload.");
+        }
+    }
+
+    private static String message(Throwable error) {
+        Throwable cause = error;
+        while (cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause.getMessage() != null ? cause.getMessage() : cause.getClass().getName();
+    }
+
+    private static String value(String[] args, int index) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value of option " + args[index - 1]);
+        }
+        return args[index];
+    }
+
+    @Override
+    public void close() {
+        state = State.FAILED;
+        server.stop(1);
+        handlers.shutdownNow();
+    }
+
+    /**
+     * Parameters of a transcription request.
+     * @param language  Language of the audio.
+     * @param translate Whether to translate to English.
+     * @param timestamps Whether to generate timestamp tokens.
+     * @param priority  Priority of the windows in the executor.
+     * @param deadline  Deadline of the whole request, or {@code null}.
+     * @param noSpeechThreshold No-speech probability above which a window is skipped, NaN to decode all windows.
+     * @param pcm       Whether the body is raw PCM instead of an audio file.
+     * @param stream    Whether to respond with server-sent events.
+     */
+    private record Request(Whisper3Language language, boolean translate, boolean timestamps, WhisperPriority priority,
+                           Instant deadline, double noSpeechThreshold, boolean pcm, boolean stream) {
+
+        static Request parse(HttpExchange exchange) {
+            Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+
+            Whisper3Language language = Whisper3Language.AUTO;
+            String code = query.get("language");
+            if (code != null && !code.equalsIgnoreCase("auto")) {
+                language = Whisper3Language.fromIsoCode(code);
+                if (language == null || language == Whisper3Language.AUTO) {
+                    throw new IllegalArgumentException("Unknown language " + code + ".");
+                }
+            }
+            String task = query.getOrDefault("task", "transcribe");
+            if (!task.equals("transcribe") && !task.equals("translate")) {
+                throw new IllegalArgumentException("Unknown task " + task + ".");
+            }
+            WhisperPriority priority;
+            try {
+                priority = WhisperPriority.valueOf(query.getOrDefault("priority", "NORMAL").toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown priority " + query.get("priority") + ".");
+            }
+            Instant deadline = null;
+            if (query.containsKey("timeoutMs")) {
+                try {
+                    deadline = Instant.now().plus(Duration.ofMillis(Long.parseLong(query.get("timeoutMs"))));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid timeoutMs " + query.get("timeoutMs") + ".");
+                }
+            }
+            double noSpeechThreshold = Double.NaN;
+            if (query.containsKey("noSpeechThreshold")) {
+                try {
+                    noSpeechThreshold = Double.parseDouble(query.get("noSpeechThreshold"));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid noSpeechThreshold " + query.get("noSpeechThreshold") + ".");
+                }
+            }
+            String accept = exchange.getRequestHeaders().getFirst("Accept");
+            boolean stream = Boolean.parseBoolean(query.get("stream"))
+                    || (accept != null && accept.contains("text/event-stream"));
+
+            return new Request(language, task.equals("translate"), Boolean.parseBoolean(query.get("timestamps")),
+                    priority, deadline, noSpeechThreshold, "pcm".equals(query.get("format")), stream);
+        }
+
+        private static Map<String, String> query(String rawQuery) {
+            Map<String, String> query = new HashMap<>();
+            if (rawQuery == null || rawQuery.isEmpty()) {
+                return query;
+            }
+            for (String parameter : rawQuery.split("&")) {
+                int separator = parameter.indexOf('=');
+                String name = separator < 0 ? parameter : parameter.substring(0, separator);
+                String value = separator < 0 ? "true" : parameter.substring(separator + 1);
+                query.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+            }
+            return query;
+        }
+    }
+
+    /**
+     * Source of the 30 second windows of a request body.
+     */
+    private interface WindowSource {
+        /**
+         * Get the next window.
+         * @return the samples of the next window, or {@code null} at the end of the audio.
+         * @throws IOException if the body cannot be read.
+         */
+        float[] next() throws IOException;
+    }
+
+    /**
+     * Windows of a decoded audio file.
+     */
+    private static final class AudioWindows implements WindowSource {
+        private final float[] samples;
+        private int position;
+
+        private AudioWindows(float[] samples) {
+            this.samples = samples;
+        }
+
+        @Override
+        public float[] next() {
+            if (position >= samples.length) {
+                return null;
+            }
+            int end = Math.min(samples.length, position + WINDOW_SAMPLES);
+            float[] window = Arrays.copyOfRange(samples, position, end);
+            position = end;
+            return window;
+        }
+    }
+
+    /**
+     * Windows of a raw 16-bit little-endian PCM body, read while it is uploaded.
+     */
+    private static final class PcmWindows implements WindowSource {
+        private final InputStream body;
+        private final byte[] buffer = new byte[WINDOW_SAMPLES * 2];
+
+        private PcmWindows(InputStream body) {
+            this.body = body;
+        }
+
+        @Override
+        public float[] next() throws IOException {
+            int bytes = body.readNBytes(buffer, 0, buffer.length) & ~1;
+            if (bytes == 0) {
+                return null;
+            }
+            float[] window = new float[bytes / 2];
+            for (int i = 0; i < window.length; i++) {
+                short sample = (short) ((buffer[2 * i] & 0xff) | (buffer[2 * i + 1] << 8));
+                window[i] = sample / 32768f;
+            }
+            return window;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package divisio.whisper.server;
+
+/**
+ * Options to configure a {@link WhisperServer}.
+ *
+ * <p>Pass an instance to {@link WhisperServer#start(divisio.whisper.Whisper3, WhisperServerOptions)}.
+ * All options are optional.
+ */
+public class WhisperServerOptions {
+
+    /**
+     * Address to bind to. Default is all interfaces.
+     */
+    private String host = "0.0.0.0";
+
+    /**
+     * Port to listen on. 0 for an ephemeral port.
+     */
+    private int port = 8080;
+
+    /**
+     * Number of transcription requests processed at the same time.
+     */
+    private int maxConcurrentRequests = 4;
+
+    /**
+     * Number of transcription requests waiting for a free slot before further requests are rejected.
+     */
+    private int maxQueuedRequests = 16;
+
+    /**
+     * Maximum size of an uploaded audio file in bytes. Streamed PCM bodies are not limited.
+     */
+    private long maxUploadBytes = 256L * 1024 * 1024;
+
+    /**
+     * Whether to transcribe a short silence on start, before reporting readiness.
+     */
+    private boolean warmUp = true;
+
+    /**
+     * Private constructor. Use {@link #options()} to create an instance.
+     */
+    private WhisperServerOptions() {
+    }
+
+    /**
+     * Create a set of default options.
+     * @return a {@code WhisperServerOptions} instance to configure.
+     */
+    public static WhisperServerOptions options() {
+        return new WhisperServerOptions();
+    }
+
+    /**
+     * Set the address to bind to.
+     * @param host the host name or address, e.g. {@code 127.0.0.1}.
+     * @return these options.
+     */
+    public WhisperServerOptions host(String host) {
+        this.host = host;
+        return this;
+    }
+
+    /**
+     * Set the port to listen on.
+     * @param port the port; 0 for an ephemeral port, see {@link WhisperServer#getPort()}.
+     * @return these options.
+     */
+    public WhisperServerOptions port(int port) {
+        this.port = port;
+        return this;
+    }
+
+    /**
+     * Set the number of transcription requests processed at the same time. Their windows are queued in the
+     * executor of the instance, see {@link divisio.whisper.WhisperTask#executeAsync()}, so this limit should be at
+     * least the number of async workers.
+     * @param maxConcurrentRequests the number of concurrent requests.
+     * @return these options.
+     */
+    public WhisperServerOptions maxConcurrentRequests(int maxConcurrentRequests) {
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        return this;
+    }
+
+    /**
+     * Set the number of transcription requests waiting for a free slot. Further requests are rejected
+     * with status 429 right away instead of piling up.
+     * @param maxQueuedRequests the number of waiting requests.
+     * @return these options.
+     */
+    public WhisperServerOptions maxQueuedRequests(int maxQueuedRequests) {
+        this.maxQueuedRequests = maxQueuedRequests;
+        return this;
+    }
+
+    /**
+     * Set the maximum size of an uploaded audio file.
+     * @param maxUploadBytes the maximum size in bytes.
+     * @return these options.
+     */
+    public WhisperServerOptions maxUploadBytes(long maxUploadBytes) {
+        this.maxUploadBytes = maxUploadBytes;
+        return this;
+    }
+
+    /**
+     * Set whether to transcribe a short silence on start. The server reports readiness only after the warm-up,
+     * so the first real request does not pay for lazy initialization of the engine.
+     * @param warmUp whether to warm up.
+     * @return these options.
+     */
+    public WhisperServerOptions warmUp(boolean warmUp) {
+        this.warmUp = warmUp;
+        return this;
+    }
+
+    /**
+     * Get the address to bind to.
+     * @return the host name or address.
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Get the port to listen on.
+     * @return the port.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Get the number of transcription requests processed at the same time.
+     * @return the number of concurrent requests.
+     */
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    /**
+     * Get the number of transcription requests waiting for a free slot.
+     * @return the number of waiting requests.
+     */
+    public int getMaxQueuedRequests() {
+        return maxQueuedRequests;
+    }
+
+    /**
+     * Get the maximum size of an uploaded audio file.
+     * @return the maximum size in bytes.
+     */
+    public long getMaxUploadBytes() {
+        return maxUploadBytes;
+    }
+
+    /**
+     * Get whether to transcribe a short silence on start.
+     * @return true if the server warms up before reporting readiness.
+     */
+    public boolean isWarmUp() {
+        return warmUp;
+    }
+}
@@ -0,0 +1,38 @@
+package divisio.whisper.spool;
+
+import java.nio.file.Path;
+import java.util.UUID;
+
+/**
+ * A job in a {@link WhisperSpool}, stored as {@code <id>.json}.
+ * @param id         Id of the job, letters, digits, {@code .}, {@code _} and {@code -} only.
+ * @param audio      Absolute path of the audio file; with a spool on a shared file system, it must be valid on all
+ *                   worker hosts.
+ * @param language   ISO code of the language of the audio, e.g. {@code de}, {@code null} for automatic detection.
+ * @param translate  Whether to translate to English instead of transcribing.
+ * @param timestamps Whether to generate timestamp tokens.
+ * @param maxTokens  Token budget of the job, 0 for the default.
+ * @param attempts   Number of times the job was leased, maintained by the spool.
+ */
+public record SpoolJob(String id, String audio, String language, boolean translate, boolean timestamps,
+                       int maxTokens, int attempts) {
+
+    /**
+     * Create a job to transcribe an audio file with automatic language detection and a random id.
+     * @param audio the audio file.
+     * @return the job.
+     */
+    public static SpoolJob of(Path audio) {
+        return new SpoolJob(UUID.randomUUID().toString(), audio.toAbsolutePath().normalize().toString(),
+                null, false, false, 0, 0);
+    }
+
+    /**
+     * Copy of this job with another number of leases.
+     * @param attempts the number of leases.
+     * @return the job.
+     */
+    SpoolJob withAttempts(int attempts) {
+        return new SpoolJob(id, audio, language, translate, timestamps, maxTokens, attempts);
+    }
+}
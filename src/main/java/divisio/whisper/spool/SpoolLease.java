@@ -0,0 +1,12 @@
+package divisio.whisper.spool;
+
+import java.nio.file.Path;
+
+/**
+ * A job leased by a worker, see {@link WhisperSpool#claim(String, int)}.
+ * @param job    The job, with its number of leases including this one.
+ * @param worker Id of the worker holding the lease.
+ * @param file   The lease file {@code leased/<id>@<worker>@<nonce>.json}; its modification time is the last heartbeat.
+ */
+record SpoolLease(SpoolJob job, String worker, Path file) {
+}
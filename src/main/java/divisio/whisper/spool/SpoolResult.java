@@ -0,0 +1,29 @@
+package divisio.whisper.spool;
+
+/**
+ * The result of a job in a {@link WhisperSpool}, stored as {@code results/<id>.json}.
+ * @param id           Id of the job.
+ * @param audio        Path of the audio file.
+ * @param text         Result text without special tokens, {@code null} on failure.
+ * @param rawText      Raw result text containing special tokens, {@code null} on failure.
+ * @param stopReason   Why decoding stopped, {@code null} on failure.
+ * @param audioSeconds Duration of the audio in seconds.
+ * @param processMs    Time spent in inference in milliseconds.
+ * @param worker       Id of the worker that processed the job.
+ * @param attempts     Number of times the job was leased.
+ * @param error        The error message, {@code null} on success.
+ */
+public record SpoolResult(String id, String audio, String text, String rawText, String stopReason,
+                          double audioSeconds, long processMs, String worker, int attempts, String error) {
+
+    /**
+     * Result of a failed job.
+     * @param job the job.
+     * @param worker the id of the worker.
+     * @param error the error message.
+     * @return the result.
+     */
+    static SpoolResult failure(SpoolJob job, String worker, String error) {
+        return new SpoolResult(job.id(), job.audio(), null, null, null, 0, 0, worker, job.attempts(), error);
+    }
+}
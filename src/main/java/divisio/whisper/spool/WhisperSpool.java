@@ -0,0 +1,376 @@
+package divisio.whisper.spool;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * A job queue in a directory, shared by all {@link WhisperSpoolWorker} processes using the same directory, on the
+ * same host or on several hosts mounting the same file system.
+ *
+ * <p>Layout:
+ * <ul>
+ *     <li>{@code incoming/<id>.json}: submitted jobs waiting for a worker, oldest first.</li>
+ *     <li>{@code leased/<id>@<worker>@<nonce>.json}: jobs leased by a worker. The nonce is new for each lease, so a
+ *     stale execution of a job never renews or completes a later lease of the same job by the same worker. The
+ *     modification time of the file is the last heartbeat of the worker.</li>
+ *     <li>{@code results/<id>.json}: results of the completed and failed jobs, see {@link SpoolResult}.</li>
+ * </ul>
+ *
+ * <p>All state changes are atomic renames or links within the spool directory, so no lock is held and a crashed process
+ * leaves no partial file under a final name: a job is submitted by renaming a temporary file into {@code incoming},
+ * leased by renaming it into {@code leased}, which only one worker can win, and completed by renaming its result into
+ * {@code results} before the lease is deleted. A lease whose heartbeat is older than the lease duration, e.g. because
+ * its worker crashed in native code, is linked back into {@code incoming} by any worker and then deleted; unlike a
+ * rename, the link never replaces a job submitted again meanwhile. A job leased more often than the maximum number of
+ * attempts fails instead, so a job crashing every worker does not take down the whole fleet.
+ *
+ * <p>Heartbeats compare file times written by one host with the clock of another, so the lease duration must be
+ * well above the clock skew between the hosts.
+ *
+ * <p>Usage: {@code WhisperSpool submit <spool directory> <audio file>... [--language code] [--translate]
+ * [--timestamps]} prints the id of each submitted job, {@code WhisperSpool status <spool directory>} prints the
+ * number of waiting, leased and completed jobs.
+ */
+public class WhisperSpool {
+
+    private static final Logger log = LoggerFactory.getLogger(WhisperSpool.class);
+
+    private static final Gson GSON = new Gson();
+
+    private static final String JSON_SUFFIX = ".json";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Separates the job id, the worker id and the nonce in the name of a lease file.
+     */
+    private static final char LEASE_SEPARATOR = '@';
+
+    /**
+     * Valid job and worker ids, safe as file names on all platforms.
+     */
+    private static final Pattern ID = Pattern.compile("[A-Za-z0-9._-]+");
+
+    private final Path incoming;
+    private final Path leased;
+    private final Path results;
+
+    /**
+     * Private constructor. Use {@link #open(Path)} to open a spool.
+     * @param directory the spool directory.
+     */
+    private WhisperSpool(Path directory) {
+        this.incoming = directory.resolve("incoming");
+        this.leased = directory.resolve("leased");
+        this.results = directory.resolve("results");
+    }
+
+    /**
+     * Open the spool in the given directory, creating it if necessary.
+     * @param directory the spool directory.
+     * @return the spool.
+     * @throws IOException if the directories cannot be created.
+     */
+    public static WhisperSpool open(Path directory) throws IOException {
+        WhisperSpool spool = new WhisperSpool(directory);
+        Files.createDirectories(spool.incoming);
+        Files.createDirectories(spool.leased);
+        Files.createDirectories(spool.results);
+        return spool;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2 || !(args[0].equals("submit") || args[0].equals("status"))) {
+            System.err.println("Usage: WhisperSpool submit <spool directory> <audio file>... [--language code] "
+                    + "[--translate] [--timestamps]");
+            System.err.println("       WhisperSpool status <spool directory>");
+            System.exit(1);
+            return;
+        }
+        WhisperSpool spool = open(Path.of(args[1]));
+        if (args[0].equals("status")) {
+            System.out.printf("%d waiting, %d leased, %d completed%n",
+                    spool.waitingCount(), count(spool.leased), count(spool.results));
+            return;
+        }
+
+        String language = null;
+        boolean translate = false;
+        boolean timestamps = false;
+        List<Path> files = new ArrayList<>();
+        for (int i = 2; i < args.length; i++) {
+            switch (args[i]) {
+                case "--language" -> language = value(args, ++i);
+                case "--translate" -> translate = true;
+                case "--timestamps" -> timestamps = true;
+                default -> files.add(Path.of(args[i]));
+            }
+        }
+        for (Path file : files) {
+            SpoolJob job = SpoolJob.of(file);
+            System.out.println(spool.submit(new SpoolJob(job.id(), job.audio(), language, translate, timestamps, 0, 0)));
+        }
+    }
+
+    private static String value(String[] args, int index) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value of option " + args[index - 1]);
+        }
+        return args[index];
+    }
+
+    /**
+     * Submit a job. A job with the id of a waiting job replaces it.
+     * @param job the job.
+     * @return the id of the job.
+     * @throws IllegalArgumentException if the id of the job is not a valid file name.
+     * @throws UncheckedIOException if the job cannot be written.
+     */
+    public String submit(SpoolJob job) {
+        checkId(job.id());
+        try {
+            write(incoming.resolve(job.id() + JSON_SUFFIX), GSON.toJson(job.withAttempts(0)));
+            return job.id();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not submit job " + job.id() + ".", e);
+        }
+    }
+
+    /**
+     * Get the result of a job.
+     * @param id the id of the job.
+     * @return the result, or empty if the job did not complete yet.
+     */
+    public Optional<SpoolResult> result(String id) {
+        checkId(id);
+        return Optional.ofNullable(read(results.resolve(id + JSON_SUFFIX), SpoolResult.class));
+    }
+
+    /**
+     * Get the number of jobs waiting for a worker.
+     * @return the number of waiting jobs.
+     * @throws IOException if the spool directory cannot be listed.
+     */
+    public int waitingCount() throws IOException {
+        return count(incoming);
+    }
+
+    /**
+     * Lease the oldest waiting job.
+     *
+     * <p>The job is renamed into {@code leased}, which fails if another worker leased it first, then its number of
+     * attempts is incremented. A job exceeding the maximum number of attempts, and a job whose result exists already,
+     * e.g. re-queued after its worker wrote the result but crashed before deleting its lease, is not returned.
+     * @param worker the id of the worker.
+     * @param maxAttempts the maximum number of leases of a job.
+     * @return the lease, or empty if no job is waiting.
+     * @throws IOException if the spool cannot be read or written.
+     */
+    Optional<SpoolLease> claim(String worker, int maxAttempts) throws IOException {
+        for (Path file : waiting()) {
+            String id = jobId(file);
+            Path lease = leased.resolve(id + LEASE_SEPARATOR + worker + LEASE_SEPARATOR + UUID.randomUUID() + JSON_SUFFIX);
+            try {
+                // renames keep the modification time, start the heartbeat before the lease becomes visible
+                Files.setLastModifiedTime(file, FileTime.from(Instant.now()));
+                Files.move(file, lease, StandardCopyOption.ATOMIC_MOVE);
+            } catch (NoSuchFileException e) {
+                // leased by another worker
+                continue;
+            }
+
+            SpoolJob job = read(lease, SpoolJob.class);
+            if (job == null) {
+                log.warn("Dropped unreadable job file {}.", file);
+                Files.deleteIfExists(lease);
+                continue;
+            }
+            if (Files.exists(results.resolve(id + JSON_SUFFIX))) {
+                Files.deleteIfExists(lease);
+                continue;
+            }
+            job = job.withAttempts(job.attempts() + 1);
+            if (job.attempts() > maxAttempts) {
+                log.warn("Job {} failed, leased {} times without completing.", id, maxAttempts);
+                SpoolLease abandoned = new SpoolLease(job, worker, lease);
+                complete(abandoned, SpoolResult.failure(job, worker,
+                        "Leased " + maxAttempts + " times without completing."));
+                continue;
+            }
+            write(lease, GSON.toJson(job));
+            return Optional.of(new SpoolLease(job, worker, lease));
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Renew a lease by updating the modification time of its file.
+     * @param lease the lease.
+     * @return false if the lease was lost, i.e. it expired and was re-queued.
+     */
+    boolean heartbeat(SpoolLease lease) {
+        try {
+            Files.setLastModifiedTime(lease.file(), FileTime.from(Instant.now()));
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Write the result of a leased job and delete the lease.
+     * @param lease the lease.
+     * @param result the result of the job.
+     * @throws IOException if the result cannot be written.
+     */
+    void complete(SpoolLease lease, SpoolResult result) throws IOException {
+        write(results.resolve(lease.job().id() + JSON_SUFFIX), GSON.toJson(result));
+        Files.deleteIfExists(lease.file());
+    }
+
+    /**
+     * Return a leased job to the waiting jobs without counting the lease as an attempt, e.g. on shutdown.
+     * @param lease the lease.
+     * @throws IOException if the job cannot be written.
+     */
+    void release(SpoolLease lease) throws IOException {
+        SpoolJob job = lease.job();
+        write(incoming.resolve(job.id() + JSON_SUFFIX), GSON.toJson(job.withAttempts(job.attempts() - 1)));
+        Files.deleteIfExists(lease.file());
+    }
+
+    /**
+     * Re-queue all leases whose last heartbeat is older than the lease duration, and delete temporary files
+     * left behind by crashed processes.
+     * @param leaseDuration the lease duration.
+     * @return the number of re-queued jobs.
+     * @throws IOException if the spool cannot be read or written.
+     */
+    int reap(Duration leaseDuration) throws IOException {
+        FileTime expired = FileTime.from(Instant.now().minus(leaseDuration));
+        int requeued = 0;
+        for (Path directory : List.of(incoming, leased, results)) {
+            for (Path file : list(directory, TEMP_SUFFIX)) {
+                if (isOlder(file, expired)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+        for (Path lease : list(leased, JSON_SUFFIX)) {
+            if (!isOlder(lease, expired)) {
+                continue;
+            }
+            String name = lease.getFileName().toString();
+            String id = name.substring(0, name.indexOf(LEASE_SEPARATOR));
+            try {
+                // a rename would replace a job submitted again meanwhile, a link fails instead
+                Files.createLink(incoming.resolve(id + JSON_SUFFIX), lease);
+                requeued++;
+                log.warn("Lease {} expired, job {} re-queued.", name, id);
+            } catch (FileAlreadyExistsException e) {
+                // submitted again meanwhile, or re-queued by another worker
+            } catch (NoSuchFileException e) {
+                // completed, or re-queued by another worker
+                continue;
+            }
+            Files.deleteIfExists(lease);
+        }
+        return requeued;
+    }
+
+    /**
+     * Check that an id is valid as part of a file name in the spool.
+     * @param id the job or worker id.
+     * @throws IllegalArgumentException if the id is invalid.
+     */
+    static void checkId(String id) {
+        if (id == null || !ID.matcher(id).matches() || id.equals(".") || id.equals("..")) {
+            throw new IllegalArgumentException("Invalid id '" + id + "', use letters, digits, '.', '_' and '-' only.");
+        }
+    }
+
+    /**
+     * List the waiting jobs, oldest first.
+     */
+    private List<Path> waiting() throws IOException {
+        record Waiting(Path file, FileTime submitted) {
+        }
+        List<Waiting> waiting = new ArrayList<>();
+        for (Path file : list(incoming, JSON_SUFFIX)) {
+            try {
+                waiting.add(new Waiting(file, Files.getLastModifiedTime(file)));
+            } catch (NoSuchFileException e) {
+                // leased meanwhile
+            }
+        }
+        waiting.sort(Comparator.comparing(Waiting::submitted));
+        return waiting.stream().map(Waiting::file).toList();
+    }
+
+    private static List<Path> list(Path directory, String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(suffix)).toList();
+        }
+    }
+
+    private static int count(Path directory) throws IOException {
+        return list(directory, JSON_SUFFIX).size();
+    }
+
+    private static String jobId(Path file) {
+        String name = file.getFileName().toString();
+        return name.substring(0, name.length() - JSON_SUFFIX.length());
+    }
+
+    private static boolean isOlder(Path file, FileTime time) throws IOException {
+        try {
+            return Files.getLastModifiedTime(file).compareTo(time) < 0;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Write a file atomically via a temporary file in the same directory.
+     * @param file the file.
+     * @param content the content.
+     * @throws IOException if the file cannot be written.
+     */
+    private static void write(Path file, String content) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + "." + UUID.randomUUID() + TEMP_SUFFIX);
+        try {
+            Files.writeString(temp, content, StandardCharsets.UTF_8);
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static <T> T read(Path file, Class<T> type) {
+        try {
+            return GSON.fromJson(Files.readString(file, StandardCharsets.UTF_8), type);
+        } catch (IOException | JsonParseException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package divisio.whisper.spool;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+
+/**
+ * Options to configure a {@link WhisperSpoolWorker}.
+ *
+ * <p>Pass an instance to {@link WhisperSpoolWorker#start(divisio.whisper.Whisper3, WhisperSpool, WhisperSpoolOptions)}.
+ * All options are optional.
+ */
+public class WhisperSpoolOptions {
+
+    /**
+     * Id of the worker in the names of its lease files. Default is the host name and the process id.
+     */
+    private String workerId = defaultWorkerId();
+
+    /**
+     * Number of jobs leased and processed at the same time.
+     */
+    private int concurrency = 2;
+
+    /**
+     * Time without heartbeat after which a lease is considered lost and its job re-queued.
+     */
+    private Duration leaseDuration = Duration.ofSeconds(60);
+
+    /**
+     * Interval of the heartbeats of the leased jobs.
+     */
+    private Duration heartbeatInterval = Duration.ofSeconds(10);
+
+    /**
+     * Interval to look for new jobs while the spool is empty.
+     */
+    private Duration pollInterval = Duration.ofSeconds(1);
+
+    /**
+     * Number of leases of a job before it fails.
+     */
+    private int maxAttempts = 3;
+
+    /**
+     * Time to wait for the leased jobs to complete on shutdown before they are re-queued.
+     */
+    private Duration shutdownTimeout = Duration.ofSeconds(30);
+
+    /**
+     * Private constructor. Use {@link #options()} to create an instance.
+     */
+    private WhisperSpoolOptions() {
+    }
+
+    /**
+     * Create a set of default options.
+     * @return a {@code WhisperSpoolOptions} instance to configure.
+     */
+    public static WhisperSpoolOptions options() {
+        return new WhisperSpoolOptions();
+    }
+
+    /**
+     * Set the id of the worker. Every process sharing a spool needs its own id.
+     * @param workerId the id; letters, digits, {@code .}, {@code _} and {@code -} only.
+     * @return these options.
+     */
+    public WhisperSpoolOptions workerId(String workerId) {
+        WhisperSpool.checkId(workerId);
+        this.workerId = workerId;
+        return this;
+    }
+
+    /**
+     * Set the number of jobs leased and processed at the same time. Jobs are executed on the async workers of the
+     * instance, so this should be at least their number, and at most their number plus the queue capacity.
+     * @param concurrency the number of concurrent jobs.
+     * @return these options.
+     */
+    public WhisperSpoolOptions concurrency(int concurrency) {
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    /**
+     * Set the time without heartbeat after which a lease is considered lost, i.e. its worker crashed or hangs, and
+     * any worker re-queues its job. Must be several heartbeat intervals, and well above the clock skew between the
+     * hosts sharing the spool.
+     * @param leaseDuration the lease duration.
+     * @return these options.
+     */
+    public WhisperSpoolOptions leaseDuration(Duration leaseDuration) {
+        this.leaseDuration = leaseDuration;
+        return this;
+    }
+
+    /**
+     * Set the interval of the heartbeats renewing the leases of the jobs being processed.
+     * @param heartbeatInterval the heartbeat interval.
+     * @return these options.
+     */
+    public WhisperSpoolOptions heartbeatInterval(Duration heartbeatInterval) {
+        this.heartbeatInterval = heartbeatInterval;
+        return this;
+    }
+
+    /**
+     * Set the interval to look for new jobs while the spool is empty.
+     * @param pollInterval the poll interval.
+     * @return these options.
+     */
+    public WhisperSpoolOptions pollInterval(Duration pollInterval) {
+        this.pollInterval = pollInterval;
+        return this;
+    }
+
+    /**
+     * Set the number of leases of a job before it fails with an error result. A job exceeding it lost its lease
+     * every time, e.g. because it crashes the worker process.
+     * @param maxAttempts the maximum number of leases.
+     * @return these options.
+     */
+    public WhisperSpoolOptions maxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    /**
+     * Set the time to wait for the leased jobs to complete on {@link WhisperSpoolWorker#close()}. Jobs still running
+     * afterward are cancelled and re-queued.
+     * @param shutdownTimeout the shutdown timeout.
+     * @return these options.
+     */
+    public WhisperSpoolOptions shutdownTimeout(Duration shutdownTimeout) {
+        this.shutdownTimeout = shutdownTimeout;
+        return this;
+    }
+
+    /**
+     * Get the id of the worker.
+     * @return the worker id.
+     */
+    public String getWorkerId() {
+        return workerId;
+    }
+
+    /**
+     * Get the number of jobs leased and processed at the same time.
+     * @return the number of concurrent jobs.
+     */
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Get the time without heartbeat after which a lease is considered lost.
+     * @return the lease duration.
+     */
+    public Duration getLeaseDuration() {
+        return leaseDuration;
+    }
+
+    /**
+     * Get the interval of the heartbeats.
+     * @return the heartbeat interval.
+     */
+    public Duration getHeartbeatInterval() {
+        return heartbeatInterval;
+    }
+
+    /**
+     * Get the interval to look for new jobs while the spool is empty.
+     * @return the poll interval.
+     */
+    public Duration getPollInterval() {
+        return pollInterval;
+    }
+
+    /**
+     * Get the number of leases of a job before it fails.
+     * @return the maximum number of leases.
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Get the time to wait for the leased jobs to complete on shutdown.
+     * @return the shutdown timeout.
+     */
+    public Duration getShutdownTimeout() {
+        return shutdownTimeout;
+    }
+
+    private static String defaultWorkerId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "localhost";
+        }
+        return host.replaceAll("[^A-Za-z0-9._-]", "_") + "-" + ProcessHandle.current().pid();
+    }
+}
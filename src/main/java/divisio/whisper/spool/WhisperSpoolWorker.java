@@ -0,0 +1,370 @@
+package divisio.whisper.spool;
+
+import ai.djl.modality.audio.Audio;
+import divisio.whisper.Whisper3;
+import divisio.whisper.Whisper3Options;
+import divisio.whisper.Whisper3Quantization;
+import divisio.whisper.WhisperCancellation;
+import divisio.whisper.WhisperRejectionPolicy;
+import divisio.whisper.WhisperTask;
+import divisio.whisper.token.Whisper3Language;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Worker process taking jobs from a {@link WhisperSpool} and transcribing them with its own {@link Whisper3}
+ * instance.
+ *
+ * <p>Any number of workers, each in its own JVM, may share a spool, so a native crash only takes down the jobs of one
+ * process, and throughput scales with the number of processes and hosts without a message broker. A worker leases up
+ * to {@link WhisperSpoolOptions#concurrency(int)} jobs, executes them on the async workers of its instance, and renews
+ * their leases every heartbeat interval. The jobs of a crashed worker are re-queued by the other workers once their
+ * leases expire. A worker that lost a lease, e.g. after a long pause, cancels the job and discards its result.
+ *
+ * <p>On {@link #close()}, the worker stops leasing jobs and waits for the leased ones up to the shutdown timeout;
+ * jobs still running are cancelled and returned to the spool without counting as an attempt.
+ *
+ * <p>Usage: {@code WhisperSpoolWorker <spool directory> [--model directory] [--quantization mode] [--workers n]
+ * [--concurrency n] [--lease seconds] [--heartbeat seconds] [--max-attempts n] [--worker-id id]}. The worker runs until
+ * the process is terminated.
+ */
+public class WhisperSpoolWorker implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(WhisperSpoolWorker.class);
+
+    /**
+     * A job being processed.
+     * @param lease        The lease of the job.
+     * @param cancellation Cancellation handle of its task.
+     * @param lost         Whether the lease was lost.
+     */
+    private record Active(SpoolLease lease, WhisperCancellation cancellation, AtomicBoolean lost) {
+    }
+
+    private final Whisper3 whisper;
+    private final WhisperSpool spool;
+    private final WhisperSpoolOptions options;
+
+    /**
+     * Jobs being processed by job id.
+     */
+    private final Map<String, Active> active = new ConcurrentHashMap<>();
+
+    /**
+     * Free slots for further jobs.
+     */
+    private final Semaphore slots;
+
+    private final Thread claimer;
+    private final ScheduledExecutorService heartbeats;
+    private final ExecutorService loaders;
+
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    private volatile boolean running = true;
+
+    /**
+     * Start a worker with the given options.
+     * @param whisper the instance to transcribe with, not closed by the worker.
+     * @param spool the spool to take jobs from.
+     * @param options the options of the worker.
+     * @return the started worker.
+     */
+    public static WhisperSpoolWorker start(Whisper3 whisper, WhisperSpool spool, WhisperSpoolOptions options) {
+        WhisperSpoolWorker worker = new WhisperSpoolWorker(whisper, spool, options);
+        long interval = options.getHeartbeatInterval().toMillis();
+        worker.heartbeats.scheduleAtFixedRate(worker::heartbeat, interval, interval, TimeUnit.MILLISECONDS);
+        worker.claimer.start();
+        log.info("Whisper spool worker {} started.", options.getWorkerId());
+        return worker;
+    }
+
+    /**
+     * Private constructor. Use {@link #start(Whisper3, WhisperSpool, WhisperSpoolOptions)} to start a worker.
+     * @param whisper the instance.
+     * @param spool the spool.
+     * @param options the options of the worker.
+     */
+    private WhisperSpoolWorker(Whisper3 whisper, WhisperSpool spool, WhisperSpoolOptions options) {
+        this.whisper = whisper;
+        this.spool = spool;
+        this.options = options;
+        this.slots = new Semaphore(options.getConcurrency());
+        // not a daemon, keeps a worker process alive until it is closed
+        this.claimer = new Thread(this::claimJobs, "whisper-spool-claimer");
+        this.heartbeats = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "whisper-spool-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.loaders = Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            usage("Missing spool directory.");
+            return;
+        }
+        int workers = 1;
+        Whisper3Options whisperOptions = Whisper3Options.options();
+        WhisperSpoolOptions spoolOptions = WhisperSpoolOptions.options();
+        try {
+            for (int i = 1; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--model" -> whisperOptions.modelPath(Path.of(value(args, ++i)));
+                    case "--quantization" -> whisperOptions.quantization(Whisper3Quantization.valueOf(value(args, ++i)));
+                    case "--workers" -> workers = Integer.parseInt(value(args, ++i));
+                    case "--concurrency" -> spoolOptions.concurrency(Integer.parseInt(value(args, ++i)));
+                    case "--lease" -> spoolOptions.leaseDuration(seconds(value(args, ++i)));
+                    case "--heartbeat" -> spoolOptions.heartbeatInterval(seconds(value(args, ++i)));
+                    case "--max-attempts" -> spoolOptions.maxAttempts(Integer.parseInt(value(args, ++i)));
+                    case "--worker-id" -> spoolOptions.workerId(value(args, ++i));
+                    default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            usage(e.getMessage());
+            return;
+        }
+
+        WhisperSpool spool = WhisperSpool.open(Path.of(args[0]));
+        Whisper3 whisper = Whisper3.instance(whisperOptions
+                .asyncWorkers(workers)
+                .rejectionPolicy(WhisperRejectionPolicy.BLOCK));
+        WhisperSpoolWorker worker = start(whisper, spool, spoolOptions);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            worker.close();
+            whisper.close();
+        }, "whisper-spool-shutdown"));
+    }
+
+    private static void usage(String message) {
+        System.err.println(message);
+        System.err.println("Usage: WhisperSpoolWorker <spool directory> [--model directory] [--quantization mode] "
+                + "[--workers n] [--concurrency n] [--lease seconds] [--heartbeat seconds] [--max-attempts n] "
+                + "[--worker-id id]");
+        System.exit(1);
+    }
+
+    /**
+     * Get the number of jobs completed successfully by this worker.
+     * @return the number of completed jobs.
+     */
+    public int getCompletedCount() {
+        return completed.get();
+    }
+
+    /**
+     * Get the number of jobs that failed on this worker.
+     * @return the number of failed jobs.
+     */
+    public int getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * Get the number of jobs being processed.
+     * @return the number of leased jobs.
+     */
+    public int getActiveCount() {
+        return active.size();
+    }
+
+    /**
+     * Lease jobs while slots are free, and re-queue expired leases of other workers every heartbeat interval.
+     */
+    private void claimJobs() {
+        long lastReap = 0;
+        while (running) {
+            try {
+                if (System.nanoTime() - lastReap >= options.getHeartbeatInterval().toNanos()) {
+                    spool.reap(options.getLeaseDuration());
+                    lastReap = System.nanoTime();
+                }
+                slots.acquire();
+                boolean started = false;
+                try {
+                    Optional<SpoolLease> lease = running
+                            ? spool.claim(options.getWorkerId(), options.getMaxAttempts()) : Optional.empty();
+                    if (lease.isPresent()) {
+                        process(lease.get());
+                        started = true;
+                    }
+                } finally {
+                    if (!started) {
+                        slots.release();
+                    }
+                }
+                if (!started) {
+                    Thread.sleep(options.getPollInterval().toMillis());
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException | UncheckedIOException e) {
+                log.warn("Could not read the spool, retrying.", e);
+                try {
+                    Thread.sleep(options.getPollInterval().toMillis());
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Load the audio of a leased job and transcribe it on the async workers of the instance.
+     * @param lease the lease of the job.
+     */
+    private void process(SpoolLease lease) {
+        Active job = new Active(lease, new WhisperCancellation(), new AtomicBoolean());
+        active.put(lease.job().id(), job);
+        CompletableFuture
+                .supplyAsync(() -> WhisperTask.loadAudio(Path.of(lease.job().audio())), loaders)
+                .thenCompose(audio -> transcribe(lease.job(), audio, job.cancellation()))
+                .whenComplete((result, error) -> finish(job, result, error));
+    }
+
+    private CompletableFuture<SpoolResult> transcribe(SpoolJob job, Audio audio, WhisperCancellation cancellation) {
+        double audioSeconds = (double) audio.getData().length / audio.getSampleRate();
+        WhisperTask task = whisper.task().language(language(job.language())).cancellation(cancellation);
+        task = job.translate() ? task.translate(audio) : task.transcribe(audio);
+        if (job.timestamps()) {
+            task.withTimestamps();
+        }
+        if (job.maxTokens() > 0) {
+            task.maxTokens(job.maxTokens());
+        }
+
+        long start = System.nanoTime();
+        return task.executeAsync().thenApply(result -> new SpoolResult(job.id(), job.audio(), result.text(),
+                result.rawText(), result.stopReason().name(), audioSeconds, (System.nanoTime() - start) / 1_000_000,
+                options.getWorkerId(), job.attempts(), null));
+    }
+
+    /**
+     * Write the result of a job, or return it to the spool if it was cancelled on shutdown.
+     * @param job the job.
+     * @param result the result, {@code null} on failure.
+     * @param error the failure, {@code null} on success.
+     */
+    private void finish(Active job, SpoolResult result, Throwable error) {
+        SpoolLease lease = job.lease();
+        String id = lease.job().id();
+        try {
+            Throwable cause = rootCause(error);
+            if (job.lost().get() || !spool.heartbeat(lease)) {
+                log.warn("Lease of job {} lost, result discarded.", id);
+            } else if (cause instanceof CancellationException && !running) {
+                spool.release(lease);
+            } else if (result != null) {
+                spool.complete(lease, result);
+                completed.incrementAndGet();
+            } else {
+                String message = cause.getMessage() != null ? cause.getMessage() : cause.getClass().getName();
+                spool.complete(lease, SpoolResult.failure(lease.job(), options.getWorkerId(), message));
+                failed.incrementAndGet();
+            }
+        } catch (IOException | RuntimeException e) {
+            // the lease expires and the job is re-queued
+            log.error("Could not write the result of job {}.", id, e);
+        } finally {
+            active.remove(id);
+            slots.release();
+        }
+    }
+
+    /**
+     * Renew the leases of all jobs being processed, and cancel the jobs whose lease was lost.
+     */
+    private void heartbeat() {
+        for (Active job : active.values()) {
+            if (!job.lost().get() && !spool.heartbeat(job.lease())) {
+                log.warn("Lease of job {} lost, cancelling it.", job.lease().job().id());
+                job.lost().set(true);
+                job.cancellation().cancel();
+            }
+        }
+    }
+
+    private static Throwable rootCause(Throwable error) {
+        Throwable cause = error;
+        while (cause != null && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    private static Whisper3Language language(String code) {
+        if (code == null) {
+            return Whisper3Language.AUTO;
+        }
+        for (Whisper3Language language : Whisper3Language.values()) {
+            if (language != Whisper3Language.AUTO && code.equalsIgnoreCase(language.getIsoCode())) {
+                return language;
+            }
+        }
+        throw new IllegalArgumentException("Unknown language " + code);
+    }
+
+    private static Duration seconds(String value) {
+        return Duration.ofMillis((long) (Double.parseDouble(value) * 1000));
+    }
+
+    private static String value(String[] args, int index) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value of option " + args[index - 1]);
+        }
+        return args[index];
+    }
+
+    /**
+     * Stop leasing jobs, wait for the leased jobs up to the shutdown timeout, then cancel the remaining ones and
+     * return them to the spool. Does not close the instance.
+     */
+    @Override
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        claimer.interrupt();
+        try {
+            claimer.join();
+            int concurrency = options.getConcurrency();
+            if (!slots.tryAcquire(concurrency, options.getShutdownTimeout().toMillis(), TimeUnit.MILLISECONDS)) {
+                for (Active job : active.values()) {
+                    job.cancellation().cancel();
+                }
+                // cancelled tasks stop after their current decoder pass
+                if (!slots.tryAcquire(concurrency, options.getLeaseDuration().toMillis(), TimeUnit.MILLISECONDS)) {
+                    log.warn("{} jobs did not stop, their leases expire.", active.size());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            heartbeats.shutdownNow();
+            loaders.shutdownNow();
+            log.info("Whisper spool worker {} stopped, {} jobs completed, {} failed.",
+                    options.getWorkerId(), completed.get(), failed.get());
+        }
+    }
+}
@@ -12,6 +12,8 @@ public enum Whisper3SpecialToken implements WhisperToken {
     END_OF_TEXT(50257, "<|endoftext|>"),
     TRANSLATE(50359, "<|translate|>"),
     TRANSCRIBE(50360, "<|transcribe|>"),
+    START_OF_PREVIOUS(50362, "<|startofprev|>"),
+    NO_SPEECH(50363, "<|nocaptions|>"),
     NO_TIMESTAMPS(50364, "<|notimestamps|>");
 
     private final long tokenId;
@@ -50,6 +50,15 @@ public class Whisper3Timestamp implements WhisperToken {
         this.tokenId = tokenId;
     }
 
+    /**
+     * Check whether the given token id is a Whisper v3 timestamp token.
+     * @param tokenId the token id.
+     * @return true if the token id is a timestamp token.
+     */
+    public static boolean isTimestamp(final long tokenId) {
+        return tokenId >= FIRST_TIMESTAMP_TOKEN_ID && tokenId <= LAST_TIMESTAMP_TOKEN_ID;
+    }
+
     /**
      * Create a {@link Whisper3Timestamp} from the given token id.
      *
@@ -0,0 +1,27 @@
+package divisio.whisper;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CpuAffinityTest {
+
+    @Test
+    void parsesRangesAndSingleCpus() {
+        assertArrayEquals(new int[] {0, 1, 2, 3, 8, 9, 10, 11}, CpuAffinity.parseCpuList("0-3,8-11"));
+        assertArrayEquals(new int[] {5}, CpuAffinity.parseCpuList("5"));
+        assertArrayEquals(new int[] {0, 2, 4, 5, 6}, CpuAffinity.parseCpuList("0,2, 4-6"));
+    }
+
+    @Test
+    void parsesEmptyList() {
+        assertArrayEquals(new int[0], CpuAffinity.parseCpuList(""));
+        assertArrayEquals(new int[0], CpuAffinity.parseCpuList(","));
+    }
+
+    @Test
+    void rejectsInvalidList() {
+        assertThrows(NumberFormatException.class, () -> CpuAffinity.parseCpuList("0-x"));
+    }
+}
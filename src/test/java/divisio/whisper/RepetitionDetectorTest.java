@@ -0,0 +1,70 @@
+package divisio.whisper;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RepetitionDetectorTest {
+
+    private static final long TIMESTAMP_BEGIN = 50365;
+
+    @Test
+    void detectsSingleTokenLoopAfterMinSpan() {
+        RepetitionDetector detector = new RepetitionDetector(TIMESTAMP_BEGIN, 448);
+        for (int i = 1; i < RepetitionDetector.MIN_SPAN; i++) {
+            assertFalse(detector.accept(42), "detected after " + i + " tokens");
+        }
+        assertTrue(detector.accept(42));
+        assertEquals(RepetitionDetector.MIN_SPAN - 1, detector.redundantTokens());
+    }
+
+    @Test
+    void detectsLongPeriodAfterMinRepeats() {
+        int period = RepetitionDetector.MAX_PERIOD;
+        int required = period * RepetitionDetector.MIN_REPEATS;
+        RepetitionDetector detector = new RepetitionDetector(TIMESTAMP_BEGIN, 448);
+        for (int i = 1; i < required; i++) {
+            assertFalse(detector.accept(100 + i % period), "detected after " + i + " tokens");
+        }
+        assertTrue(detector.accept(100 + required % period));
+        assertEquals(required - period, detector.redundantTokens());
+        assertTrue(detector.redundantTokens() <= RepetitionDetector.MAX_REDUNDANT_TOKENS);
+    }
+
+    @Test
+    void keepsSpokenRepetitions() {
+        RepetitionDetector detector = new RepetitionDetector(TIMESTAMP_BEGIN, 448);
+        // "no no no no, one two three four five six seven eight"
+        long[] tokens = {645, 645, 645, 645, 11, 472, 732, 1045, 1451, 1732, 2309, 3407, 3180};
+        for (long token : tokens) {
+            assertFalse(detector.accept(token));
+        }
+        assertEquals(0, detector.redundantTokens());
+    }
+
+    @Test
+    void skipsTimestamps() {
+        RepetitionDetector detector = new RepetitionDetector(TIMESTAMP_BEGIN, 448);
+        boolean detected = false;
+        for (int i = 0; i < RepetitionDetector.MIN_SPAN; i += 2) {
+            assertFalse(detector.accept(TIMESTAMP_BEGIN + i));
+            assertFalse(detector.accept(7));
+            detected = detector.accept(8);
+        }
+        assertTrue(detected);
+        assertEquals(RepetitionDetector.MIN_SPAN - 2, detector.redundantTokens());
+        assertTrue(detector.isTimestamp(TIMESTAMP_BEGIN));
+        assertFalse(detector.isTimestamp(TIMESTAMP_BEGIN - 1));
+    }
+
+    @Test
+    void ignoresTokensBeyondCapacity() {
+        RepetitionDetector detector = new RepetitionDetector(TIMESTAMP_BEGIN, RepetitionDetector.MIN_SPAN - 1);
+        for (int i = 0; i < 2 * RepetitionDetector.MIN_SPAN; i++) {
+            assertFalse(detector.accept(42));
+        }
+        assertEquals(0, detector.redundantTokens());
+    }
+}
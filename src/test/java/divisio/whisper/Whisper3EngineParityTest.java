@@ -0,0 +1,114 @@
+package divisio.whisper;
+
+import ai.djl.Device;
+import ai.djl.modality.audio.Audio;
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDList;
+import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.types.DataType;
+import divisio.whisper.token.Whisper3Language;
+import divisio.whisper.token.Whisper3SpecialToken;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Compares the FP32 model files on PyTorch and on ONNX Runtime: the encoder output and the logits of each decoder
+ * pass must agree within a tolerance. Runs on the model directory given by the system property
+ * {@value #MODELS_PROPERTY}, with the files of {@code scripts/export_whisper.py --quantize fp32} for both engines or
+ * the tiny models of {@code scripts/make_tiny_models.py --onnx}, and is skipped without it.
+ */
+class Whisper3EngineParityTest {
+
+    private static final String MODELS_PROPERTY = "whisper.parity.models";
+
+    private static final int SAMPLE_RATE = 16000;
+
+    /**
+     * Maximum difference relative to the largest absolute value, FP32 kernels of both engines differ in rounding only.
+     */
+    private static final double TOLERANCE = 1e-3;
+
+    @Test
+    void enginesComputeTheSameEncoderOutputAndLogits() {
+        Path path = modelPath();
+        try (Whisper3Model torch = Whisper3Model.load(options(path, Whisper3Engine.PYTORCH));
+             Whisper3Model onnx = Whisper3Model.load(options(path, Whisper3Engine.ONNX_RUNTIME));
+             NDManager torchManager = torch.newSubManager("parity");
+             NDManager onnxManager = onnx.newSubManager("parity")) {
+            Audio audio = audio();
+
+            NDArray torchEncoded = torch.encode(torch.processInput(torchManager, audio));
+            NDArray onnxEncoded = onnx.encode(onnx.processInput(onnxManager, audio));
+            assertClose("encoder output", torchEncoded, onnxEncoded);
+
+            NDList torchCache = torch.initKeyValueCache(torchManager, torchEncoded);
+            NDList onnxCache = onnx.initKeyValueCache(onnxManager, onnxEncoded);
+            long[] tokens = {
+                    Whisper3SpecialToken.START_OF_TRANSCRIPT.getTokenId(),
+                    Whisper3Language.ENGLISH.getTokenId(),
+                    Whisper3SpecialToken.TRANSCRIBE.getTokenId(),
+                    Whisper3SpecialToken.NO_TIMESTAMPS.getTokenId(),
+                    440, 1723, 11
+            };
+            for (int i = 0; i < tokens.length; i++) {
+                NDList torchOutput = torch.decode(new NDList(torchManager.create(new long[][] {{tokens[i]}}),
+                        torchEncoded).addAll(torchCache));
+                NDList onnxOutput = onnx.decode(new NDList(onnxManager.create(new long[][] {{tokens[i]}}),
+                        onnxEncoded).addAll(onnxCache));
+                assertClose("logits of decoder pass " + i, torchOutput.get(0), onnxOutput.get(0));
+                torchCache = torchOutput.subNDList(1);
+                onnxCache = onnxOutput.subNDList(1);
+            }
+        }
+    }
+
+    private static Path modelPath() {
+        String directory = System.getProperty(MODELS_PROPERTY);
+        assumeTrue(directory != null, "No model directory given with -D" + MODELS_PROPERTY);
+        Path path = Path.of(directory);
+        Whisper3ModelConfig config = Whisper3ModelConfig.resolve(path);
+        for (Whisper3Engine engine : Whisper3Engine.values()) {
+            String encoder = engine.artifact(Whisper3Quantization.FP32.artifact(config.file(Whisper3Model.RESOURCE_ENCODER)));
+            assumeTrue(Files.exists(path.resolve(encoder)), "No " + encoder + " in " + path);
+        }
+        return path;
+    }
+
+    private static Whisper3Options options(Path path, Whisper3Engine engine) {
+        return Whisper3Options.options()
+                .modelPath(path)
+                .device(Device.cpu())
+                .quantization(Whisper3Quantization.FP32)
+                .engine(engine);
+    }
+
+    private static Audio audio() {
+        Random random = new Random(42);
+        float[] samples = new float[5 * SAMPLE_RATE];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = 0.1f * (float) random.nextGaussian();
+        }
+        return new Audio(samples, SAMPLE_RATE, 1);
+    }
+
+    private static void assertClose(String name, NDArray expected, NDArray actual) {
+        assertEquals(expected.getShape(), actual.getShape(), name + " shape");
+        float[] expectedValues = expected.toType(DataType.FLOAT32, false).toFloatArray();
+        float[] actualValues = actual.toType(DataType.FLOAT32, false).toFloatArray();
+        double scale = 1;
+        double maxDifference = 0;
+        for (int i = 0; i < expectedValues.length; i++) {
+            scale = Math.max(scale, Math.abs(expectedValues[i]));
+            maxDifference = Math.max(maxDifference, Math.abs(expectedValues[i] - actualValues[i]));
+        }
+        assertTrue(maxDifference <= TOLERANCE * scale,
+                name + " differs by " + maxDifference + " at a scale of " + scale);
+    }
+}
@@ -0,0 +1,138 @@
+package divisio.whisper;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WhisperAudioFingerprintTest {
+
+    private static final int SAMPLE_RATE = 16000;
+
+    @Test
+    void identicalAudioHasNoBitErrors() {
+        WhisperAudioFingerprint fingerprint = WhisperAudioFingerprint.of(audio(1, 5), SAMPLE_RATE);
+        assertEquals(0, fingerprint.bitErrorRate(WhisperAudioFingerprint.of(audio(1, 5), SAMPLE_RATE), 0));
+        assertEquals(5000, fingerprint.durationMs());
+    }
+
+    @Test
+    void gainChangeKeepsBits() {
+        float[] audio = audio(2, 5);
+        float[] quieter = new float[audio.length];
+        for (int i = 0; i < audio.length; i++) {
+            quieter[i] = audio[i] * 0.25f;
+        }
+        double rate = WhisperAudioFingerprint.of(audio, SAMPLE_RATE)
+                .bitErrorRate(WhisperAudioFingerprint.of(quieter, SAMPLE_RATE), 0);
+        assertTrue(rate < 0.01, "bit error rate " + rate);
+    }
+
+    @Test
+    void delayIsCompensatedWithinMaxShift() {
+        float[] audio = audio(3, 5);
+        // a delay of three frame steps, as a codec adds at the start
+        float[] delayed = new float[audio.length];
+        System.arraycopy(audio, 0, delayed, 3 * 256, audio.length - 3 * 256);
+        WhisperAudioFingerprint original = WhisperAudioFingerprint.of(audio, SAMPLE_RATE);
+        WhisperAudioFingerprint shifted = WhisperAudioFingerprint.of(delayed, SAMPLE_RATE);
+
+        double aligned = original.bitErrorRate(shifted, 4);
+        assertTrue(aligned < 0.05, "bit error rate " + aligned);
+        double unaligned = original.bitErrorRate(shifted, 0);
+        assertTrue(unaligned > 0.2, "bit error rate " + unaligned);
+    }
+
+    @Test
+    void unrelatedAudioDiffersInAboutHalfTheBits() {
+        double rate = WhisperAudioFingerprint.of(audio(4, 5), SAMPLE_RATE)
+                .bitErrorRate(WhisperAudioFingerprint.of(audio(5, 5), SAMPLE_RATE), 4);
+        assertTrue(rate > 0.35 && rate < 0.65, "bit error rate " + rate);
+    }
+
+    @Test
+    void resamplesToSixteenKilohertz() {
+        float[] audio = audio(6, 5);
+        float[] doubled = new float[audio.length * 2];
+        for (int i = 0; i < doubled.length; i++) {
+            doubled[i] = i % 2 == 0 ? audio[i / 2] : (audio[i / 2] + audio[Math.min(i / 2 + 1, audio.length - 1)]) / 2;
+        }
+        WhisperAudioFingerprint resampled = WhisperAudioFingerprint.of(doubled, 2 * SAMPLE_RATE);
+        assertEquals(5000, resampled.durationMs());
+        assertEquals(0, WhisperAudioFingerprint.of(audio, SAMPLE_RATE).bitErrorRate(resampled, 0), 0.01);
+    }
+
+    @Test
+    void shortAudioNeverMatches() {
+        WhisperAudioFingerprint empty = WhisperAudioFingerprint.of(new float[1000], SAMPLE_RATE);
+        assertEquals(0, empty.frames().length);
+        assertEquals(1, empty.bitErrorRate(empty, 4));
+        assertEquals(1, WhisperAudioFingerprint.of(audio(7, 5), SAMPLE_RATE).bitErrorRate(empty, 4));
+    }
+
+    @Test
+    void silencePaddedUtterancesDoNotMatch() {
+        // 2 seconds of speech in 10 seconds, like a short voicemail
+        float[] first = padded(audio(9, 2), 10, 1e-5f);
+        float[] second = padded(audio(10, 2), 10, 0);
+        double rate = WhisperAudioFingerprint.of(first, SAMPLE_RATE)
+                .bitErrorRate(WhisperAudioFingerprint.of(second, SAMPLE_RATE), 8);
+        assertTrue(rate > 0.35, "bit error rate " + rate);
+
+        float[] again = padded(audio(9, 2), 10, 0);
+        assertEquals(0, WhisperAudioFingerprint.of(first, SAMPLE_RATE)
+                .bitErrorRate(WhisperAudioFingerprint.of(again, SAMPLE_RATE), 8), 0.01);
+    }
+
+    @Test
+    void silenceNeverMatches() {
+        WhisperAudioFingerprint silence = WhisperAudioFingerprint.of(new float[10 * SAMPLE_RATE], SAMPLE_RATE);
+        assertFalse(silence.isMatchable());
+        assertEquals(1, silence.bitErrorRate(silence, 8));
+        assertTrue(WhisperAudioFingerprint.of(audio(11, 2), SAMPLE_RATE).isMatchable());
+    }
+
+    @Test
+    void prefixMatchesOnItsFrames() {
+        float[] audio = audio(8, 5);
+        WhisperAudioFingerprint full = WhisperAudioFingerprint.of(audio, SAMPLE_RATE);
+        WhisperAudioFingerprint prefix = WhisperAudioFingerprint.of(Arrays.copyOf(audio, audio.length / 2), SAMPLE_RATE);
+        assertEquals(0, prefix.bitErrorRate(full, 0));
+        WhisperAudioFingerprint suffix = WhisperAudioFingerprint.of(
+                Arrays.copyOfRange(audio, audio.length / 2, audio.length), SAMPLE_RATE);
+        assertTrue(suffix.bitErrorRate(full, 4) > 0.35);
+    }
+
+    /**
+     * Place the audio one second into a recording of the given length, padded with noise of the given amplitude.
+     */
+    private static float[] padded(float[] audio, int seconds, float noise) {
+        Random random = new Random(seconds);
+        float[] samples = new float[seconds * SAMPLE_RATE];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = noise * (float) random.nextGaussian();
+        }
+        System.arraycopy(audio, 0, samples, SAMPLE_RATE, audio.length);
+        return samples;
+    }
+
+    /**
+     * Noise shaped by a random envelope per 50 ms, so the band energies change from frame to frame like speech.
+     */
+    private static float[] audio(long seed, int seconds) {
+        Random random = new Random(seed);
+        float[] samples = new float[seconds * SAMPLE_RATE];
+        float gain = 0;
+        for (int i = 0; i < samples.length; i++) {
+            if (i % 800 == 0) {
+                gain = 0.05f + 0.5f * random.nextFloat();
+            }
+            samples[i] = gain * (float) random.nextGaussian();
+        }
+        return samples;
+    }
+}
@@ -0,0 +1,90 @@
+package divisio.whisper;
+
+import ai.djl.modality.audio.Audio;
+import divisio.whisper.token.Whisper3Timestamp;
+import divisio.whisper.token.WhisperAnyToken;
+import divisio.whisper.token.WhisperToken;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WhisperClipPackerTest {
+
+    private static final float SAMPLE_RATE = 16000;
+
+    @Test
+    void packsClipsGreedilyInOrder() {
+        List<WhisperClipPacker.Window> windows = WhisperClipPacker.pack(List.of(clip(10), clip(12), clip(9), clip(40)));
+
+        assertEquals(3, windows.size());
+        WhisperClipPacker.Window first = windows.get(0);
+        assertArrayEquals(new int[] {0, 1}, first.clips());
+        assertArrayEquals(new long[] {0, 10500}, first.startMs());
+        assertArrayEquals(new long[] {10000, 22500}, first.endMs());
+        assertEquals((int) (22.5 * SAMPLE_RATE), first.audio().getData().length);
+        // the gap between the clips is silent
+        assertEquals(0, first.audio().getData()[(int) (10.25 * SAMPLE_RATE)]);
+
+        assertArrayEquals(new int[] {2}, windows.get(1).clips());
+        // a clip longer than a window gets a window of its own
+        assertArrayEquals(new int[] {3}, windows.get(2).clips());
+        assertArrayEquals(new long[] {40000}, windows.get(2).endMs());
+    }
+
+    @Test
+    void rejectsMixedSampleRates() {
+        List<Audio> clips = List.of(clip(1), new Audio(new float[8000], 8000, 1));
+        assertThrows(IllegalArgumentException.class, () -> WhisperClipPacker.pack(clips));
+        assertTrue(WhisperClipPacker.pack(List.of()).isEmpty());
+    }
+
+    @Test
+    void splitsSegmentsByClipBoundaries() {
+        WhisperClipPacker.Window window = new WhisperClipPacker.Window(null, new int[] {3, 4},
+                new long[] {0, 5500}, new long[] {5000, 8500});
+        WhisperResult result = new WhisperResult("", "", List.of(
+                timestamp(0), text("Hello"), timestamp(4000),
+                // ends in the gap, belongs to the first clip and is clamped to its end
+                timestamp(4000), text("there"), timestamp(5400),
+                timestamp(5600), text("World"), timestamp(8000)));
+
+        List<List<WhisperSegment>> clips = WhisperClipPacker.split(window, result);
+
+        assertEquals(2, clips.size());
+        assertEquals(List.of(new WhisperSegment(0, 4000, "Hello", List.of(result.tokens().get(1))),
+                new WhisperSegment(4000, 5000, "there", List.of(result.tokens().get(4)))), clips.get(0));
+        assertEquals(List.of(new WhisperSegment(100, 2500, "World", List.of(result.tokens().get(7)))), clips.get(1));
+    }
+
+    @Test
+    void rebuildsTokensRelativeToTheClip() {
+        WhisperToken hello = text("Hello");
+        List<WhisperToken> tokens = WhisperClipPacker.tokens(List.of(new WhisperSegment(100, 2500, "Hello",
+                List.of(hello))));
+
+        assertEquals(3, tokens.size());
+        assertEquals(Whisper3Timestamp.fromTimestampMs(100).getTokenId(), tokens.get(0).getTokenId());
+        assertEquals(hello, tokens.get(1));
+        assertEquals(Whisper3Timestamp.fromTimestampMs(2500).getTokenId(), tokens.get(2).getTokenId());
+    }
+
+    private static Audio clip(double seconds) {
+        float[] samples = new float[(int) (seconds * SAMPLE_RATE)];
+        Arrays.fill(samples, 0.5f);
+        return new Audio(samples, SAMPLE_RATE, 1);
+    }
+
+    private static WhisperToken timestamp(long ms) {
+        return Whisper3Timestamp.fromTimestampMs(ms);
+    }
+
+    private static WhisperToken text(String text) {
+        return new WhisperAnyToken(text.hashCode() & 0x3fff, text);
+    }
+}
@@ -0,0 +1,108 @@
+package divisio.whisper;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WhisperFeaturesTest {
+
+    private static final int MEL_BINS = 128;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void saveAndLoadRoundTrip() throws IOException {
+        float[] values = features(MEL_BINS);
+        Path file = directory.resolve("features.npy");
+        WhisperFeatures.of(values, MEL_BINS, 12.5).save(file);
+
+        byte[] bytes = Files.readAllBytes(file);
+        int headerLength = (bytes[8] & 0xff) | (bytes[9] & 0xff) << 8;
+        // numpy aligns the data to 64 bytes
+        assertEquals(0, (10 + headerLength) % 64);
+        assertEquals(10 + headerLength + values.length * Float.BYTES, bytes.length);
+        assertTrue(new String(bytes, 10, headerLength, StandardCharsets.ISO_8859_1)
+                .contains("'shape': (128, 3000)"));
+        assertFalse(Files.exists(file.resolveSibling("features.npy.tmp")));
+
+        WhisperFeatures loaded = WhisperFeatures.load(file, 12.5);
+        assertEquals(MEL_BINS, loaded.getMelBins());
+        assertEquals(12.5, loaded.getAudioSeconds());
+        assertArrayEquals(values, toArray(loaded.getData()));
+        assertTrue(Double.isNaN(WhisperFeatures.load(file).getAudioSeconds()));
+    }
+
+    @Test
+    void loadsBatchOfOne() throws IOException {
+        float[] values = features(80);
+        Path file = directory.resolve("batch.npy");
+        writeNpy(file, "<f4", "(1, 80, 3000)", values);
+
+        WhisperFeatures loaded = WhisperFeatures.load(file);
+        assertEquals(80, loaded.getMelBins());
+        assertArrayEquals(values, toArray(loaded.getData()));
+    }
+
+    @Test
+    void rejectsMismatchingSize() {
+        assertThrows(IllegalArgumentException.class, () -> WhisperFeatures.of(new float[MEL_BINS * 100], MEL_BINS, 1));
+        assertThrows(IllegalArgumentException.class, () -> WhisperFeatures.of(new float[0], 0, 1));
+    }
+
+    @Test
+    void rejectsOtherFiles() throws IOException {
+        Path text = directory.resolve("text.npy");
+        Files.writeString(text, "no numpy array");
+        assertThrows(IllegalArgumentException.class, () -> WhisperFeatures.load(text));
+
+        Path doubles = directory.resolve("doubles.npy");
+        writeNpy(doubles, "<f8", "(128, 3000)", features(MEL_BINS * 2));
+        assertThrows(IllegalArgumentException.class, () -> WhisperFeatures.load(doubles));
+
+        Path shape = directory.resolve("shape.npy");
+        writeNpy(shape, "<f4", "(3000, 128)", features(MEL_BINS));
+        assertThrows(IllegalArgumentException.class, () -> WhisperFeatures.load(shape));
+    }
+
+    private static float[] features(int melBins) {
+        float[] values = new float[melBins * WhisperFeatures.FRAMES];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (i % 997) / 997f - 0.5f;
+        }
+        return values;
+    }
+
+    private static float[] toArray(FloatBuffer buffer) {
+        float[] values = new float[buffer.remaining()];
+        buffer.get(values);
+        return values;
+    }
+
+    /**
+     * Write a version 1.0 {@code .npy} file of little-endian float32 values with the given header fields.
+     */
+    private static void writeNpy(Path file, String descr, String shape, float[] values) throws IOException {
+        String dictionary = "{'descr': '" + descr + "', 'fortran_order': False, 'shape': " + shape + ", }";
+        String header = dictionary + " ".repeat(63 - (10 + dictionary.length()) % 64) + "\n";
+        ByteBuffer buffer = ByteBuffer.allocate(10 + header.length() + values.length * Float.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(new byte[] {(byte) 0x93, 'N', 'U', 'M', 'P', 'Y', 1, 0}).putShort((short) header.length());
+        buffer.put(header.getBytes(StandardCharsets.ISO_8859_1));
+        buffer.asFloatBuffer().put(values);
+        Files.write(file, buffer.array());
+    }
+}
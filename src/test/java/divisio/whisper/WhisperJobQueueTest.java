@@ -0,0 +1,94 @@
+package divisio.whisper;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WhisperJobQueueTest {
+
+    /**
+     * A queued job with its priority, lower first, and its submission order.
+     */
+    private record Job(int priority, long sequence) {
+    }
+
+    private static final Comparator<Job> ORDER = Comparator.comparingInt(Job::priority)
+            .thenComparingLong(Job::sequence);
+
+    @Test
+    void dequeuesByPriorityThenSubmissionOrder() throws InterruptedException {
+        WhisperJobQueue<Job> queue = new WhisperJobQueue<>(8, ORDER);
+        queue.offer(new Job(2, 0));
+        queue.offer(new Job(0, 1));
+        queue.offer(new Job(2, 2));
+        queue.offer(new Job(1, 3));
+        queue.offer(new Job(0, 4));
+
+        assertEquals(new Job(0, 1), queue.peek());
+        assertEquals(new Job(0, 1), queue.take());
+        assertEquals(new Job(0, 4), queue.poll());
+        assertEquals(new Job(1, 3), queue.poll(0, TimeUnit.SECONDS));
+        List<Job> rest = new ArrayList<>();
+        assertEquals(2, queue.drainTo(rest));
+        assertEquals(List.of(new Job(2, 0), new Job(2, 2)), rest);
+        assertNull(queue.poll());
+    }
+
+    @Test
+    void enforcesCapacity() throws InterruptedException {
+        WhisperJobQueue<Job> queue = new WhisperJobQueue<>(2, ORDER);
+        assertTrue(queue.offer(new Job(1, 0)));
+        assertTrue(queue.offer(new Job(1, 1)));
+        assertFalse(queue.offer(new Job(0, 2)));
+        assertFalse(queue.offer(new Job(0, 2), 10, TimeUnit.MILLISECONDS));
+        assertEquals(0, queue.remainingCapacity());
+        assertEquals(2, queue.size());
+
+        queue.poll();
+        assertEquals(1, queue.remainingCapacity());
+        assertTrue(queue.offer(new Job(0, 2)));
+    }
+
+    @Test
+    void putWaitsForFreeCapacity() throws Exception {
+        WhisperJobQueue<Job> queue = new WhisperJobQueue<>(1, ORDER);
+        queue.put(new Job(1, 0));
+        CompletableFuture<Void> put = CompletableFuture.runAsync(() -> {
+            try {
+                queue.put(new Job(0, 1));
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Thread.sleep(50);
+        assertFalse(put.isDone());
+
+        assertEquals(new Job(1, 0), queue.take());
+        put.get(5, TimeUnit.SECONDS);
+        assertEquals(new Job(0, 1), queue.poll());
+    }
+
+    @Test
+    void removesFirstByAnotherOrder() {
+        WhisperJobQueue<Job> queue = new WhisperJobQueue<>(4, ORDER);
+        queue.offer(new Job(0, 2));
+        queue.offer(new Job(1, 0));
+        queue.offer(new Job(0, 1));
+
+        // the oldest job, regardless of its priority
+        assertEquals(new Job(1, 0), queue.removeFirst(Comparator.comparingLong(Job::sequence)));
+        assertEquals(2, queue.size());
+        assertEquals(new Job(0, 1), queue.poll());
+        assertTrue(queue.remove(new Job(0, 2)));
+        assertNull(queue.removeFirst(ORDER));
+    }
+}
@@ -0,0 +1,63 @@
+package divisio.whisper.spool;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WhisperSpoolTest {
+
+    private static final Duration LEASE_DURATION = Duration.ofMinutes(1);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void staleLeaseDoesNotRenewTheNextLeaseOfTheSameWorker() throws IOException {
+        WhisperSpool spool = WhisperSpool.open(directory);
+        spool.submit(job("a", "/audio/a.wav"));
+        SpoolLease stale = spool.claim("worker", 3).orElseThrow();
+
+        expire(stale);
+        assertEquals(1, spool.reap(LEASE_DURATION));
+        SpoolLease current = spool.claim("worker", 3).orElseThrow();
+
+        assertEquals(2, current.job().attempts());
+        assertNotEquals(stale.file(), current.file());
+        assertFalse(spool.heartbeat(stale));
+        assertTrue(spool.heartbeat(current));
+    }
+
+    @Test
+    void reapDoesNotReplaceAJobSubmittedAgain() throws IOException {
+        WhisperSpool spool = WhisperSpool.open(directory);
+        spool.submit(job("a", "/audio/first.wav"));
+        SpoolLease lease = spool.claim("worker", 3).orElseThrow();
+        spool.submit(job("a", "/audio/second.wav"));
+
+        expire(lease);
+        assertEquals(0, spool.reap(LEASE_DURATION));
+
+        assertFalse(Files.exists(lease.file()));
+        assertEquals(1, spool.waitingCount());
+        assertEquals("/audio/second.wav", spool.claim("worker", 3).orElseThrow().job().audio());
+    }
+
+    private static SpoolJob job(String id, String audio) {
+        return new SpoolJob(id, audio, null, false, false, 0, 0);
+    }
+
+    private static void expire(SpoolLease lease) throws IOException {
+        Files.setLastModifiedTime(lease.file(), FileTime.from(Instant.now().minus(LEASE_DURATION.multipliedBy(2))));
+    }
+}